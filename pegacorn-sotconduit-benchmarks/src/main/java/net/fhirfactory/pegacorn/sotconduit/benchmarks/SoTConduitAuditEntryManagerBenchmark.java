@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.fhirfactory.pegacorn.petasos.audit.model.PetasosParcelAuditTrailEntry;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitAuditEntryManager;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitAuditFidelityEnum;
+
+/**
+ * A complete audited interaction (beginTransaction + endTransaction) through
+ * SoTConduitAuditEntryManager, against a broker that returns immediately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SoTConduitAuditEntryManagerBenchmark {
+
+    @Param({"FULL", "DIGEST", "REQUEST_DIFF"})
+    public SoTConduitAuditFidelityEnum fidelity;
+
+    private SoTConduitAuditEntryManager auditEntryManager;
+    private Patient patient;
+    private Patient updatedPatient;
+    private String resourceKey;
+
+    @Setup
+    public void setup() {
+        auditEntryManager = SoTConduitBenchmarkFixtures.newAuditEntryManager();
+        for (SoTConduitActionEnum action : SoTConduitActionEnum.values()) {
+            auditEntryManager.getAuditFidelityPolicy().setDefaultFidelity(action, fidelity);
+        }
+        patient = SoTConduitBenchmarkFixtures.newPatient(1);
+        updatedPatient = patient.copy();
+        updatedPatient.getNameFirstRep().setFamily("Citizen-Smith");
+        resourceKey = new IdType(patient.getId()).asStringValue();
+    }
+
+    @Benchmark
+    public PetasosParcelAuditTrailEntry reviewTransaction() {
+        PetasosParcelAuditTrailEntry currentTransaction = auditEntryManager.beginTransaction(resourceKey, SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE, SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE, null, SoTConduitActionEnum.REVIEW, null, SoTConduitBenchmarkFixtures.RESOURCE_VERSION);
+        auditEntryManager.endTransaction(resourceKey, SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE, SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE, patient, SoTConduitActionEnum.REVIEW, true, currentTransaction, null, SoTConduitBenchmarkFixtures.RESOURCE_VERSION);
+        return (currentTransaction);
+    }
+
+    @Benchmark
+    public PetasosParcelAuditTrailEntry updateTransaction() {
+        PetasosParcelAuditTrailEntry currentTransaction = auditEntryManager.beginTransaction(resourceKey, SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE, SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE, patient, SoTConduitActionEnum.UPDATE, null, SoTConduitBenchmarkFixtures.RESOURCE_VERSION);
+        auditEntryManager.endTransaction(resourceKey, SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE, SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE, updatedPatient, SoTConduitActionEnum.UPDATE, true, currentTransaction, null, SoTConduitBenchmarkFixtures.RESOURCE_VERSION);
+        return (currentTransaction);
+    }
+
+    @Benchmark
+    public PetasosParcelAuditTrailEntry failedReviewTransaction() {
+        PetasosParcelAuditTrailEntry currentTransaction = auditEntryManager.beginTransaction(resourceKey, SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE, SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE, null, SoTConduitActionEnum.REVIEW, null, SoTConduitBenchmarkFixtures.RESOURCE_VERSION);
+        auditEntryManager.endTransaction(resourceKey, SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE, SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE, null, SoTConduitActionEnum.REVIEW, false, currentTransaction, null, SoTConduitBenchmarkFixtures.RESOURCE_VERSION);
+        return (currentTransaction);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.benchmarks;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Date;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.ContactPoint;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.HumanName;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Patient;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import net.fhirfactory.pegacorn.datasets.fhir.r4.internal.topics.FHIRElementTopicIDBuilder;
+import net.fhirfactory.pegacorn.petasos.audit.model.PetasosParcelAuditTrailEntry;
+import net.fhirfactory.pegacorn.petasos.core.sta.brokers.PetasosSTAServicesAuditOnlyBroker;
+import net.fhirfactory.pegacorn.petasos.model.topics.TopicToken;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitAuditEntryManager;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitResourceEncoder;
+import net.fhirfactory.pegacorn.sotconduit.metrics.SoTConduitMetrics;
+import net.fhirfactory.pegacorn.util.FHIRContextUtility;
+
+/**
+ * Builds the (CDI-less) object graphs and representative FHIR content used by
+ * the benchmarks. The Petasos broker and topic builder are replaced with stubs
+ * so that only the conduit's own work is measured.
+ */
+final class SoTConduitBenchmarkFixtures {
+    static final String PATIENT_RESOURCE_TYPE = "Patient";
+    static final String RESOURCE_VERSION = "4.0.1";
+
+    private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+
+    private SoTConduitBenchmarkFixtures() {
+    }
+
+    static IParser newJsonParser() {
+        return (FHIR_CONTEXT.newJsonParser());
+    }
+
+    static SoTConduitResourceEncoder newResourceEncoder() {
+        SoTConduitResourceEncoder resourceEncoder = new SoTConduitResourceEncoder();
+        inject(resourceEncoder, SoTConduitResourceEncoder.class, "fhirContextUtility", new BenchmarkContextUtility());
+        invoke(resourceEncoder, SoTConduitResourceEncoder.class, "initialise");
+        return (resourceEncoder);
+    }
+
+    static SoTConduitAuditEntryManager newAuditEntryManager() {
+        SoTConduitAuditEntryManager auditEntryManager = new SoTConduitAuditEntryManager();
+        BenchmarkContextUtility contextUtility = new BenchmarkContextUtility();
+        inject(auditEntryManager, SoTConduitAuditEntryManager.class, "FHIRContextUtility", contextUtility);
+        inject(auditEntryManager, SoTConduitAuditEntryManager.class, "fHIRContextUtility", contextUtility);
+        inject(auditEntryManager, SoTConduitAuditEntryManager.class, "topicIDBuilder", new BenchmarkTopicIDBuilder());
+        inject(auditEntryManager, SoTConduitAuditEntryManager.class, "servicesBroker", new BenchmarkAuditBroker());
+        inject(auditEntryManager, SoTConduitAuditEntryManager.class, "conduitMetrics", new SoTConduitMetrics());
+        inject(auditEntryManager, SoTConduitAuditEntryManager.class, "resourceEncoder", newResourceEncoder());
+        invoke(auditEntryManager, SoTConduitAuditEntryManager.class, "initialise");
+        return (auditEntryManager);
+    }
+
+    static Patient newPatient(int index) {
+        Patient patient = new Patient();
+        patient.setId(PATIENT_RESOURCE_TYPE + "/" + index);
+        patient.getMeta().setVersionId("1");
+        patient.getMeta().setLastUpdated(new Date());
+        patient.addIdentifier(new Identifier().setSystem("http://ns.electronichealth.net.au/id/hi/ihi/1.0").setValue(String.format("80036012%08d", index)));
+        patient.addIdentifier(new Identifier().setSystem("urn:oid:1.2.36.146.595.217.0.1").setValue("MRN-" + index));
+        patient.addName(new HumanName().setFamily("Citizen").addGiven("Jane").addGiven("Q").setUse(HumanName.NameUse.OFFICIAL));
+        patient.addTelecom(new ContactPoint().setSystem(ContactPoint.ContactPointSystem.PHONE).setValue("0400 000 " + index));
+        patient.setGender(Enumerations.AdministrativeGender.FEMALE);
+        patient.setBirthDate(new Date(0L));
+        patient.addAddress().addLine(index + " Northbourne Avenue").setCity("Canberra").setState("ACT").setPostalCode("2601");
+        return (patient);
+    }
+
+    static Bundle newSearchSetBundle(int resultSize) {
+        Bundle searchSet = new Bundle();
+        searchSet.setType(Bundle.BundleType.SEARCHSET);
+        searchSet.setTotal(resultSize);
+        for (int index = 0; index < resultSize; index++) {
+            Bundle.BundleEntryComponent entry = searchSet.addEntry();
+            entry.setResource(newPatient(index));
+            entry.getSearch().setMode(Bundle.SearchEntryMode.MATCH);
+        }
+        return (searchSet);
+    }
+
+    static void inject(Object target, Class<?> declaringClass, String fieldName, Object value) {
+        try {
+            Field field = declaringClass.getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException wiringException) {
+            throw new IllegalStateException("Unable to inject " + declaringClass.getSimpleName() + "." + fieldName, wiringException);
+        }
+    }
+
+    static Object invoke(Object target, Class<?> declaringClass, String methodName) {
+        return (invoke(target, findMethod(declaringClass, methodName)));
+    }
+
+    static Method findMethod(Class<?> declaringClass, String methodName, Class<?>... parameterTypes) {
+        try {
+            Method method = declaringClass.getDeclaredMethod(methodName, parameterTypes);
+            method.setAccessible(true);
+            return (method);
+        } catch (NoSuchMethodException wiringException) {
+            throw new IllegalStateException("Unable to find " + declaringClass.getSimpleName() + "." + methodName, wiringException);
+        }
+    }
+
+    static Object invoke(Object target, Method method, Object... arguments) {
+        try {
+            return (method.invoke(target, arguments));
+        } catch (IllegalAccessException wiringException) {
+            throw new IllegalStateException("Unable to invoke " + method.getName(), wiringException);
+        } catch (InvocationTargetException invocationException) {
+            throw new IllegalStateException(method.getName() + " failed", invocationException.getCause());
+        }
+    }
+
+    /**
+     * Returns the audit entry immediately, as the real broker does once the
+     * entry has been written to the audit trail.
+     */
+    static class BenchmarkAuditBroker extends PetasosSTAServicesAuditOnlyBroker {
+        @Override
+        public PetasosParcelAuditTrailEntry transactionAuditEntry(WUPIdentifier wupInstance, String action, UoW theUoW, PetasosParcelAuditTrailEntry startingEntry) {
+            PetasosParcelAuditTrailEntry auditEntry = startingEntry != null ? startingEntry : new PetasosParcelAuditTrailEntry();
+            auditEntry.setActualUoW(theUoW);
+            return (auditEntry);
+        }
+    }
+
+    static class BenchmarkTopicIDBuilder extends FHIRElementTopicIDBuilder {
+        private final TopicToken topicToken = new TopicToken();
+
+        @Override
+        public TopicToken createTopicToken(String resourceType, String version) {
+            return (topicToken);
+        }
+    }
+
+    static class BenchmarkContextUtility extends FHIRContextUtility {
+        @Override
+        public IParser getJsonParser() {
+            return (newJsonParser());
+        }
+    }
+}
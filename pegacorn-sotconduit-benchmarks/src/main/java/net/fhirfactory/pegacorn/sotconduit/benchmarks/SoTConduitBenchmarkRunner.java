@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the conduit benchmarks (with the GC profiler, so allocation per
+ * operation is reported alongside throughput) and compares them with the
+ * checked-in baseline.
+ * <p>
+ * With -Dsotconduit.benchmark.record=true the results are written as the new
+ * baseline instead. Otherwise any benchmark whose throughput has dropped, or
+ * whose allocation per operation has grown, by more than
+ * sotconduit.benchmark.tolerance (default 0.10) is reported and the runner
+ * exits non-zero. Standard JMH command line options are passed through.
+ */
+public class SoTConduitBenchmarkRunner {
+    private static final String BASELINE_PROPERTY = "sotconduit.benchmark.baseline";
+    private static final String RECORD_PROPERTY = "sotconduit.benchmark.record";
+    private static final String TOLERANCE_PROPERTY = "sotconduit.benchmark.tolerance";
+    private static final String DEFAULT_BASELINE_FILE = "baseline/sotconduit-benchmarks.properties";
+    private static final String DEFAULT_RESULT_FILE = "target/sotconduit-benchmarks.json";
+    private static final double DEFAULT_TOLERANCE = 0.10;
+    private static final String THROUGHPUT_SUFFIX = ".throughput";
+    private static final String ALLOCATION_SUFFIX = ".allocation";
+    private static final String ALLOCATION_RESULT_NAME = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        Options commandLineOptions = new CommandLineOptions(args);
+        Options options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .include(SoTConduitBenchmarkRunner.class.getPackage().getName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(DEFAULT_RESULT_FILE)
+                .build();
+        Collection<RunResult> runResults = new Runner(options).run();
+        Map<String, Double> currentScores = summarise(runResults);
+        Path baselineFile = Paths.get(System.getProperty(BASELINE_PROPERTY, DEFAULT_BASELINE_FILE));
+        if (Boolean.getBoolean(RECORD_PROPERTY)) {
+            writeBaseline(baselineFile, currentScores);
+            System.out.println("Recorded baseline --> " + baselineFile.toAbsolutePath());
+            return;
+        }
+        if (!Files.exists(baselineFile)) {
+            System.out.println("No baseline at " + baselineFile.toAbsolutePath() + ", run with -D" + RECORD_PROPERTY + "=true to record one");
+            return;
+        }
+        double tolerance = Double.parseDouble(System.getProperty(TOLERANCE_PROPERTY, Double.toString(DEFAULT_TOLERANCE)));
+        List<String> regressions = compare(readBaseline(baselineFile), currentScores, tolerance);
+        if (regressions.isEmpty()) {
+            System.out.println("No regressions against baseline --> " + baselineFile.toAbsolutePath());
+            return;
+        }
+        System.out.println("Regressions against baseline --> " + baselineFile.toAbsolutePath());
+        for (String regression : regressions) {
+            System.out.println("    " + regression);
+        }
+        System.exit(1);
+    }
+
+    static Map<String, Double> summarise(Collection<RunResult> runResults) {
+        Map<String, Double> scores = new TreeMap<>();
+        for (RunResult runResult : runResults) {
+            String benchmarkKey = toBenchmarkKey(runResult);
+            scores.put(benchmarkKey + THROUGHPUT_SUFFIX, runResult.getPrimaryResult().getScore());
+            for (Map.Entry<String, Result> secondaryResult : runResult.getSecondaryResults().entrySet()) {
+                if (secondaryResult.getKey().endsWith(ALLOCATION_RESULT_NAME)) {
+                    scores.put(benchmarkKey + ALLOCATION_SUFFIX, secondaryResult.getValue().getScore());
+                }
+            }
+        }
+        return (scores);
+    }
+
+    private static String toBenchmarkKey(RunResult runResult) {
+        String benchmarkName = runResult.getParams().getBenchmark();
+        StringBuilder benchmarkKey = new StringBuilder(benchmarkName.substring(benchmarkName.lastIndexOf('.', benchmarkName.lastIndexOf('.') - 1) + 1));
+        for (String parameterName : runResult.getParams().getParamsKeys()) {
+            benchmarkKey.append('[').append(parameterName).append('=').append(runResult.getParams().getParam(parameterName)).append(']');
+        }
+        return (benchmarkKey.toString());
+    }
+
+    static List<String> compare(Map<String, Double> baselineScores, Map<String, Double> currentScores, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        for (Map.Entry<String, Double> currentScore : currentScores.entrySet()) {
+            Double baselineScore = baselineScores.get(currentScore.getKey());
+            if (baselineScore == null || baselineScore <= 0.0) {
+                continue;
+            }
+            double change = (currentScore.getValue() - baselineScore) / baselineScore;
+            boolean regressed = currentScore.getKey().endsWith(THROUGHPUT_SUFFIX) ? change < -tolerance : change > tolerance;
+            if (regressed) {
+                regressions.add(String.format("%s: baseline=%.3f, current=%.3f (%+.1f%%)", currentScore.getKey(), baselineScore, currentScore.getValue(), change * 100.0));
+            }
+        }
+        return (regressions);
+    }
+
+    private static Map<String, Double> readBaseline(Path baselineFile) throws IOException {
+        Properties baseline = new Properties();
+        try (Reader reader = Files.newBufferedReader(baselineFile, StandardCharsets.UTF_8)) {
+            baseline.load(reader);
+        }
+        Map<String, Double> baselineScores = new TreeMap<>();
+        for (String benchmarkKey : baseline.stringPropertyNames()) {
+            baselineScores.put(benchmarkKey, Double.valueOf(baseline.getProperty(benchmarkKey)));
+        }
+        return (baselineScores);
+    }
+
+    private static void writeBaseline(Path baselineFile, Map<String, Double> scores) throws IOException {
+        if (baselineFile.getParent() != null) {
+            Files.createDirectories(baselineFile.getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(baselineFile, StandardCharsets.UTF_8)) {
+            writer.write("# SoT Conduit benchmark baseline: throughput in ops/ms, allocation in B/op\n");
+            writer.write("# java.version=" + System.getProperty("java.version") + ", os.arch=" + System.getProperty("os.arch") + ", availableProcessors=" + Runtime.getRuntime().availableProcessors() + "\n");
+            for (Map.Entry<String, Double> score : scores.entrySet()) {
+                writer.write(score.getKey().replace("=", "\\=").replace(":", "\\:") + "=" + score.getValue() + "\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.parser.IParser;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitEncodedResource;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitEncodingBuffer;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitEncodingModeEnum;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitResourceEncoder;
+
+/**
+ * JSON encoding of a representative Patient and of a search-set Bundle of
+ * bundleSize Patients, directly via an IParser, via the pooled buffers of
+ * SoTConduitResourceEncoder and via SoTConduitEncodedResource (which the audit
+ * and response paths share).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SoTConduitEncodingBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int bundleSize;
+
+    private IParser parser;
+    private SoTConduitResourceEncoder resourceEncoder;
+    private Patient patient;
+    private Bundle bundle;
+
+    @Setup
+    public void setup() {
+        parser = SoTConduitBenchmarkFixtures.newJsonParser();
+        resourceEncoder = SoTConduitBenchmarkFixtures.newResourceEncoder();
+        patient = SoTConduitBenchmarkFixtures.newPatient(1);
+        bundle = SoTConduitBenchmarkFixtures.newSearchSetBundle(bundleSize);
+    }
+
+    @Benchmark
+    public String encodePatient() {
+        return (parser.encodeResourceToString(patient));
+    }
+
+    @Benchmark
+    public String encodeBundle() {
+        return (parser.encodeResourceToString(bundle));
+    }
+
+    @Benchmark
+    public int encodePatientToPooledBuffer() {
+        try (SoTConduitEncodingBuffer buffer = resourceEncoder.encodeToBuffer(patient, SoTConduitEncodingModeEnum.COMPACT)) {
+            return (buffer.size());
+        }
+    }
+
+    @Benchmark
+    public int encodeBundleToPooledBuffer() {
+        try (SoTConduitEncodingBuffer buffer = resourceEncoder.encodeToBuffer(bundle, SoTConduitEncodingModeEnum.COMPACT)) {
+            return (buffer.size());
+        }
+    }
+
+    @Benchmark
+    public String encodePatientViaEncodedResource() {
+        return (encodeVia(new SoTConduitEncodedResource(patient, resourceEncoder)));
+    }
+
+    @Benchmark
+    public String encodeBundleViaEncodedResource() {
+        return (encodeVia(new SoTConduitEncodedResource(bundle, resourceEncoder)));
+    }
+
+    @Benchmark
+    public String digestPatient() {
+        SoTConduitEncodedResource encodedResource = new SoTConduitEncodedResource(patient, resourceEncoder);
+        try {
+            return (encodedResource.getContentDigest());
+        } finally {
+            encodedResource.release();
+        }
+    }
+
+    private String encodeVia(SoTConduitEncodedResource encodedResource) {
+        try {
+            return (encodedResource.getEncodedString());
+        } finally {
+            encodedResource.release();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.benchmarks;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Property;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.StringType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.petasos.audit.model.PetasosParcelAuditTrailEntry;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitSearchResultSummary;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.SoTConduitGatekeeperBase;
+import net.fhirfactory.pegacorn.sotconduit.metrics.SoTConduitMetrics;
+
+/**
+ * The search audit path of SoTConduitGatekeeperBase: summarising the search
+ * criteria (beginSearchTransaction), summarising the result set
+ * (summariseSearchResult), the two together, and wrapIntoBundle. The
+ * resultSize is both the number of entries in the result Bundle and the
+ * number of search criteria.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SoTConduitGatekeeperBenchmark {
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int resultSize;
+
+    private BenchmarkGatekeeper gatekeeper;
+    private Map<Property, Serializable> searchCriteria;
+    private Bundle searchResult;
+    private Patient patient;
+
+    @Setup
+    public void setup() {
+        gatekeeper = new BenchmarkGatekeeper();
+        SoTConduitBenchmarkFixtures.inject(gatekeeper, SoTConduitGatekeeperBase.class, "auditEntryManager", SoTConduitBenchmarkFixtures.newAuditEntryManager());
+        SoTConduitBenchmarkFixtures.inject(gatekeeper, SoTConduitGatekeeperBase.class, "accessorMetrics", new SoTConduitMetrics().getAccessorMetrics(SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE));
+        SoTConduitBenchmarkFixtures.inject(gatekeeper, SoTConduitGatekeeperBase.class, "resourceEncoder", SoTConduitBenchmarkFixtures.newResourceEncoder());
+        SoTConduitBenchmarkFixtures.inject(gatekeeper, SoTConduitGatekeeperBase.class, "accessorIdentifier", new WUPIdentifier(new NodeElementIdentifier("Accessor-Benchmark")));
+        searchCriteria = new LinkedHashMap<>();
+        for (int index = 0; index < resultSize; index++) {
+            String propertyName = "criterion" + index;
+            searchCriteria.put(new Property(propertyName, "string", "benchmark search criterion", 0, 1, new StringType(propertyName)), "value-" + index);
+        }
+        searchResult = SoTConduitBenchmarkFixtures.newSearchSetBundle(resultSize);
+        patient = SoTConduitBenchmarkFixtures.newPatient(1);
+    }
+
+    @Benchmark
+    public SoTConduitSearchResultSummary summariseSearchResult() {
+        return (gatekeeper.summarise(searchResult));
+    }
+
+    @Benchmark
+    public PetasosParcelAuditTrailEntry beginSearchTransaction() {
+        return (gatekeeper.beginSearch(searchCriteria));
+    }
+
+    @Benchmark
+    public PetasosParcelAuditTrailEntry searchTransaction() {
+        PetasosParcelAuditTrailEntry currentTransaction = gatekeeper.beginSearch(searchCriteria);
+        gatekeeper.endSearch(searchResult, currentTransaction);
+        return (currentTransaction);
+    }
+
+    @Benchmark
+    public Bundle wrapIntoBundle() {
+        return (gatekeeper.wrap(patient));
+    }
+
+    static class BenchmarkGatekeeper extends SoTConduitGatekeeperBase {
+        private static final Logger LOG = LoggerFactory.getLogger(BenchmarkGatekeeper.class);
+
+        @Override
+        protected String specifyAccessorResourceTypeName() {
+            return (SoTConduitBenchmarkFixtures.PATIENT_RESOURCE_TYPE);
+        }
+
+        @Override
+        protected String specifyAccessorResourceTypeVersion() {
+            return (SoTConduitBenchmarkFixtures.RESOURCE_VERSION);
+        }
+
+        @Override
+        protected Logger getLogger() {
+            return (LOG);
+        }
+
+        @Override
+        protected List<Identifier> resolveIdentifierList(Resource resource) {
+            return (Collections.emptyList());
+        }
+
+        @Override
+        protected void addResourceSecurityLabels(Resource resource) {
+        }
+
+        @Override
+        public Bundle findResourceViaIdentifier(Identifier identifier) {
+            return (null);
+        }
+
+        PetasosParcelAuditTrailEntry beginSearch(Map<Property, Serializable> parameterSet) {
+            return (beginSearchTransaction(parameterSet, SoTConduitActionEnum.SEARCH));
+        }
+
+        void endSearch(Bundle resultSet, PetasosParcelAuditTrailEntry startingTransaction) {
+            endSearchTransaction(resultSet, resultSet.getEntry().size(), SoTConduitActionEnum.SEARCH, true, startingTransaction);
+        }
+
+        SoTConduitSearchResultSummary summarise(Bundle resultSet) {
+            return (summariseSearchResult(resultSet));
+        }
+
+        Bundle wrap(Resource resource) {
+            return (wrapIntoBundle(resource));
+        }
+    }
+}
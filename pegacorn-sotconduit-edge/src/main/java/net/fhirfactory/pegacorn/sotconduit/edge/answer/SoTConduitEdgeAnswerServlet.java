@@ -2,17 +2,185 @@ package net.fhirfactory.pegacorn.sotconduit.edge.answer;
 
 import ca.uhn.fhir.rest.server.RestfulServer;
 import net.fhirfactory.pegacorn.deployment.properties.SystemWideProperties;
+import net.fhirfactory.pegacorn.sotconduit.context.SoTConduitRequestContext;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.admission.SoTConduitAdmissionController;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.admission.SoTConduitAdmissionPermit;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.admission.SoTConduitAdmissionRejectedException;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.admission.SoTConduitRejectionAuditor;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.admission.SoTConduitRequestClass;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.batch.SoTConduitBatchProvider;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.export.SoTConduitExportProvider;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.metrics.SoTConduitMetricsProvider;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.paging.SoTConduitPagingProvider;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.writebehind.SoTConduitWriteBehindResponseInterceptor;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.writebehind.SoTConduitWriteBehindStatusProvider;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitResourceEncoder;
+import net.fhirfactory.pegacorn.sotconduit.tracing.SoTConduitSpan;
+import net.fhirfactory.pegacorn.sotconduit.tracing.SoTConduitTracer;
+import org.hl7.fhir.r4.model.OperationOutcome;
 import org.slf4j.Logger;
 
+import javax.annotation.PostConstruct;
 import javax.inject.Inject;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 
 public abstract class SoTConduitEdgeAnswerServlet extends RestfulServer {
 
 
     private static final long serialVersionUID = 1L;
+    private static final String FHIR_JSON_CONTENT_TYPE = "application/fhir+json; charset=utf-8";
+    private static final String TRACERESPONSE_HEADER = "traceresponse";
 
     @Inject
     SystemWideProperties systemWideProperties;
 
+    @Inject
+    SoTConduitBatchProvider batchProvider;
+
+    @Inject
+    SoTConduitMetricsProvider metricsProvider;
+
+    @Inject
+    SoTConduitPagingProvider pagingProvider;
+
+    @Inject
+    SoTConduitExportProvider exportProvider;
+
+    @Inject
+    SoTConduitResourceEncoder resourceEncoder;
+
+    @Inject
+    SoTConduitWriteBehindStatusProvider writeBehindStatusProvider;
+
+    @Inject
+    SoTConduitAdmissionController admissionController;
+
+    @Inject
+    SoTConduitRejectionAuditor rejectionAuditor;
+
+    @Inject
+    SoTConduitTracer conduitTracer;
+
+    public SoTConduitEdgeAnswerServlet() {
+        super();
+    }
+
+    @PostConstruct
+    protected void initialiseConduitServices() {
+        registerInterceptor(new SoTConduitEncodedResponseInterceptor(resourceEncoder, conduitTracer));
+        registerInterceptor(new SoTConduitWriteBehindResponseInterceptor());
+        registerProvider(writeBehindStatusProvider);
+        if (specifyBatchSupport()) {
+            registerProvider(batchProvider);
+        }
+        if (specifyPagingSupport()) {
+            setPagingProvider(pagingProvider);
+        }
+        if (specifyExportSupport()) {
+            registerProvider(exportProvider);
+        }
+        if (specifyMetricsSupport()) {
+            registerProvider(metricsProvider);
+        }
+    }
+
+    /**
+     * Whether this servlet handles FHIR batch Bundles (via SoTConduitBatchProvider).
+     * Override to return false if the subclass registers its own @Transaction provider.
+     */
+    protected boolean specifyBatchSupport() {
+        return (true);
+    }
+
+    /**
+     * Whether searches honour _count and return next/previous links (via
+     * SoTConduitPagingProvider). Override to return false to always return a
+     * single page.
+     */
+    protected boolean specifyPagingSupport() {
+        return (true);
+    }
+
+    /**
+     * Whether the Bulk Data style $export (via SoTConduitExportProvider) is served.
+     */
+    protected boolean specifyExportSupport() {
+        return (true);
+    }
+
+    /**
+     * Whether the conduit's metrics are served (via SoTConduitMetricsProvider's
+     * $conduit-metrics, so behind the same interceptors as everything else).
+     * Override to return false if they are scraped some other way.
+     */
+    protected boolean specifyMetricsSupport() {
+        return (true);
+    }
+
+    /**
+     * Whether requests pass through the SoTConduitAdmissionController, which
+     * sheds load (429/503 with Retry-After) once the conduit is saturated.
+     */
+    protected boolean specifyAdmissionControl() {
+        return (true);
+    }
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        SoTConduitRequestContext.open();
+        SoTConduitSpan requestSpan = conduitTracer.startTrace("HTTP " + request.getMethod(), request.getHeader(SoTConduitTracer.TRACEPARENT_HEADER));
+        response.setHeader(TRACERESPONSE_HEADER, conduitTracer.toTraceparent(requestSpan));
+        SoTConduitAdmissionPermit permit = null;
+        try {
+            SoTConduitRequestClass requestClass = specifyAdmissionControl() ? admissionController.classify(request) : null;
+            if (requestSpan.isRecording()) {
+                requestSpan.setAttribute("http.method", request.getMethod());
+                requestSpan.setAttribute("http.target", request.getPathInfo() == null ? "/" : request.getPathInfo());
+                if (requestClass != null) {
+                    requestSpan.setAttribute("sotconduit.action", requestClass.getAction().name());
+                }
+            }
+            if (requestClass != null) {
+                SoTConduitSpan admissionSpan = conduitTracer.startSpan("admission.wait");
+                try {
+                    permit = admissionController.acquire(requestClass);
+                } catch (SoTConduitAdmissionRejectedException rejection) {
+                    admissionSpan.recordError(rejection.getMessage());
+                    rejectRequest(requestClass, rejection, response);
+                    return;
+                } finally {
+                    admissionSpan.end();
+                }
+            }
+            super.service(request, response);
+        } finally {
+            if (requestSpan.isRecording()) {
+                requestSpan.setAttribute("http.status_code", response.getStatus());
+                if (response.getStatus() >= 500) {
+                    requestSpan.recordError("HTTP " + response.getStatus());
+                }
+            }
+            requestSpan.end();
+            SoTConduitRequestContext.close();
+            if (permit != null) {
+                permit.release();
+            }
+        }
+    }
 
+    private void rejectRequest(SoTConduitRequestClass requestClass, SoTConduitAdmissionRejectedException rejection, HttpServletResponse response) throws IOException {
+        rejectionAuditor.recordRejection(requestClass, rejection);
+        OperationOutcome outcome = new OperationOutcome();
+        outcome.addIssue()
+                .setSeverity(OperationOutcome.IssueSeverity.ERROR)
+                .setCode(rejection.getHttpStatus() == 429 ? OperationOutcome.IssueType.THROTTLED : OperationOutcome.IssueType.TRANSIENT)
+                .setDiagnostics(rejection.getMessage());
+        response.setStatus(rejection.getHttpStatus());
+        response.setHeader("Retry-After", rejection.getRetryAfterSeconds());
+        response.setContentType(FHIR_JSON_CONTENT_TYPE);
+        getFhirContext().newJsonParser().encodeResourceToWriter(outcome, response.getWriter());
+    }
 }
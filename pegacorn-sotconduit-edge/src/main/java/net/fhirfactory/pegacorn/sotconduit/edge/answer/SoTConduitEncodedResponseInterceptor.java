@@ -0,0 +1,157 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer;
+
+import java.io.IOException;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.EncodingEnum;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.SummaryEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.ResponseDetails;
+import ca.uhn.fhir.rest.server.RestfulServerUtils;
+import net.fhirfactory.pegacorn.sotconduit.context.SoTConduitRequestContext;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitEncodedResource;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitEncodingModeEnum;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitResourceEncoder;
+import net.fhirfactory.pegacorn.sotconduit.tracing.SoTConduitSpan;
+import net.fhirfactory.pegacorn.sotconduit.tracing.SoTConduitTracer;
+
+/**
+ * Writes read (and vread) responses without HAPI serialising the resource
+ * (again): plain JSON is written straight from the encoding already taken for
+ * the audit trail, and pretty printed and/or _summary=true JSON is encoded
+ * directly onto the response stream by the SoTConduitResourceEncoder.
+ * <p>
+ * Anything asking for XML, _elements or another _summary mode falls through to
+ * the normal HAPI response path, as does plain JSON with no audit encoding to
+ * reuse.
+ * <p>
+ * Writing the response ends HAPI's SERVER_OUTGOING_RESPONSE processing, so the
+ * hook is ordered after every other (e.g. authorisation and consent checks),
+ * whenever it was registered. The audit encoding is only reused while the
+ * response is still the very resource that was encoded - an interceptor that
+ * masks content must do so on a replacement (setResponseResource()), which is
+ * then encoded afresh.
+ */
+@Interceptor
+public class SoTConduitEncodedResponseInterceptor {
+    public static final int RESPONSE_WRITE_ORDER = Integer.MAX_VALUE;
+
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitEncodedResponseInterceptor.class);
+
+    private final SoTConduitResourceEncoder resourceEncoder;
+    private final SoTConduitTracer conduitTracer;
+
+    public SoTConduitEncodedResponseInterceptor(SoTConduitResourceEncoder resourceEncoder, SoTConduitTracer conduitTracer) {
+        this.resourceEncoder = resourceEncoder;
+        this.conduitTracer = conduitTracer;
+    }
+
+    @Hook(value = Pointcut.SERVER_OUTGOING_RESPONSE, order = RESPONSE_WRITE_ORDER)
+    public boolean writeEncodedResponse(RequestDetails requestDetails, ResponseDetails responseDetails, HttpServletResponse servletResponse) throws IOException {
+        Resource resource = resolveReadResponseResource(requestDetails, responseDetails);
+        if (resource == null) {
+            return (true);
+        }
+        SoTConduitEncodingModeEnum encodingMode = resolveJsonEncodingMode(requestDetails);
+        if (encodingMode == null) {
+            return (true);
+        }
+        if (encodingMode == SoTConduitEncodingModeEnum.COMPACT) {
+            SoTConduitEncodedResource encodedResource = resolveReusableEncoding(resource);
+            if (encodedResource == null) {
+                return (true);
+            }
+            LOG.trace(".writeEncodedResponse(): Reusing encoded resource for response");
+            SoTConduitSpan writeSpan = conduitTracer.startSpan("response.write").setAttribute("sotconduit.encoding.reused", true);
+            try {
+                writeResponseHeaders(resource, responseDetails, servletResponse);
+                servletResponse.setContentLength(encodedResource.getEncodedLength());
+                encodedResource.writeTo(servletResponse.getOutputStream());
+            } finally {
+                writeSpan.end();
+            }
+            return (false);
+        }
+        LOG.trace(".writeEncodedResponse(): Streaming response, mode --> {}", encodingMode);
+        SoTConduitSpan encodeSpan = conduitTracer.startSpan("response.encode").setAttribute("sotconduit.encoding.mode", encodingMode.name());
+        try {
+            writeResponseHeaders(resource, responseDetails, servletResponse);
+            resourceEncoder.encodeTo(resource, encodingMode, servletResponse.getOutputStream());
+        } finally {
+            encodeSpan.end();
+        }
+        return (false);
+    }
+
+    private void writeResponseHeaders(Resource resource, ResponseDetails responseDetails, HttpServletResponse servletResponse) {
+        servletResponse.setStatus(responseDetails.getResponseCode());
+        servletResponse.setContentType(Constants.CT_FHIR_JSON_NEW);
+        servletResponse.setCharacterEncoding(Constants.CHARSET_NAME_UTF8);
+        if (resource.getMeta().hasVersionId()) {
+            servletResponse.setHeader(Constants.HEADER_ETAG, "W/\"" + resource.getMeta().getVersionId() + '"');
+        }
+        if (resource.getMeta().hasLastUpdated()) {
+            servletResponse.setDateHeader(Constants.HEADER_LAST_MODIFIED, resource.getMeta().getLastUpdated().getTime());
+        }
+    }
+
+    private Resource resolveReadResponseResource(RequestDetails requestDetails, ResponseDetails responseDetails) {
+        if (SoTConduitRequestContext.current() == null || responseDetails == null) {
+            return (null);
+        }
+        RestOperationTypeEnum operationType = requestDetails.getRestOperationType();
+        if (operationType != RestOperationTypeEnum.READ && operationType != RestOperationTypeEnum.VREAD) {
+            return (null);
+        }
+        IBaseResource responseResource = responseDetails.getResponseResource();
+        if (!(responseResource instanceof Resource)) {
+            return (null);
+        }
+        return ((Resource) responseResource);
+    }
+
+    private SoTConduitEncodedResource resolveReusableEncoding(Resource resource) {
+        SoTConduitEncodedResource encodedResource = SoTConduitRequestContext.current().getEncodedResource(resource);
+        if (encodedResource == null || !encodedResource.isEncoded()) {
+            return (null);
+        }
+        return (encodedResource);
+    }
+
+    /**
+     * The JSON encoding asked for, or null if the response is not one this
+     * interceptor writes.
+     */
+    private SoTConduitEncodingModeEnum resolveJsonEncodingMode(RequestDetails requestDetails) {
+        RestfulServerUtils.ResponseEncoding responseEncoding = RestfulServerUtils.determineResponseEncodingNoDefault(requestDetails, null);
+        EncodingEnum encoding = responseEncoding != null ? responseEncoding.getEncoding() : requestDetails.getServer().getDefaultResponseEncoding();
+        if (encoding != EncodingEnum.JSON) {
+            return (null);
+        }
+        if (requestDetails.getParameters().containsKey(Constants.PARAM_ELEMENTS)) {
+            return (null);
+        }
+        boolean summaryMode = false;
+        Set<SummaryEnum> summaryModes = RestfulServerUtils.determineSummaryMode(requestDetails);
+        if (summaryModes != null && !summaryModes.isEmpty() && !summaryModes.contains(SummaryEnum.FALSE)) {
+            if (summaryModes.size() != 1 || !summaryModes.contains(SummaryEnum.TRUE)) {
+                return (null);
+            }
+            summaryMode = true;
+        }
+        boolean prettyPrint = RestfulServerUtils.prettyPrintResponse(requestDetails.getServer(), requestDetails);
+        return (SoTConduitEncodingModeEnum.valueOf(prettyPrint, summaryMode));
+    }
+}
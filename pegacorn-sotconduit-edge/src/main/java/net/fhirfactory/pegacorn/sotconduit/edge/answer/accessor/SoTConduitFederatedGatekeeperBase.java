@@ -0,0 +1,455 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Meta;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Property;
+import org.hl7.fhir.r4.model.Resource;
+
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+import net.fhirfactory.pegacorn.petasos.audit.model.PetasosParcelAuditTrailEntry;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.federation.SoTFederatedBackend;
+
+/**
+ * A gatekeeper for a resource type held in more than one Source-of-Truth. It
+ * has no Source-of-Truth of its own: identifier and id-only searches are sent
+ * to every backing gatekeeper (see specifyBackends()) in parallel, and reads
+ * are routed to the backend that served the resource.
+ * <p>
+ * Resource ids are prefixed with the backend's key ("{key}-{id}") so they stay
+ * unique, and routable, across backends. Identifier search results are merged,
+ * with resources sharing an identifier (per resolveIdentifierList()) reported
+ * once - the copy from the earliest backend in specifyBackends() is kept - and
+ * Bundle.entry.search.score set from how exactly the resource carries the
+ * identifier searched for and how many backends returned it.
+ * <p>
+ * Each backend is waited for up to its own deadline, all of them at once, so a
+ * federated search takes as long as the slowest backend within its deadline.
+ * Backends that miss their deadline (or fail) are left out and named in an
+ * OperationOutcome entry of the (partial) result; only if none answers does
+ * the search fail.
+ */
+public abstract class SoTConduitFederatedGatekeeperBase extends SoTConduitGatekeeperBase {
+    private static final String FEDERATED_ID_SEPARATOR = "-";
+    private static final double EXACT_IDENTIFIER_MATCH = 1.0;
+    private static final double VALUE_ONLY_IDENTIFIER_MATCH = 0.5;
+    private static final double NO_IDENTIFIER_MATCH = 0.25;
+    private static final int HTTP_GATEWAY_TIMEOUT = 504;
+    private static final String FEDERATED_ACCESSOR_NAME_PREFIX = "Federated";
+
+    private volatile List<SoTFederatedBackend> backends;
+
+    /**
+     * The backing gatekeepers, in order of preference. Called once. Each must
+     * have its own accessor name (see specifyAccessorName()), as must this
+     * gatekeeper: a federated call holds a permit of this gatekeeper's bulkhead
+     * while it waits for the backends' calls, so sharing a bulkhead with them
+     * would let the waiting calls take every permit the backend calls need.
+     */
+    abstract protected List<SoTFederatedBackend> specifyBackends();
+
+    public List<SoTFederatedBackend> getBackends() {
+        List<SoTFederatedBackend> currentBackends = backends;
+        if (currentBackends == null) {
+            synchronized (this) {
+                if (backends == null) {
+                    List<SoTFederatedBackend> specifiedBackends = new ArrayList<>(specifyBackends());
+                    Set<String> backendKeys = new HashSet<>();
+                    Set<String> accessorNames = new HashSet<>();
+                    accessorNames.add(getAccessorName());
+                    for (SoTFederatedBackend backend : specifiedBackends) {
+                        if (!backendKeys.add(backend.getBackendKey())) {
+                            throw new IllegalStateException(getAccessorName() + " has more than one backend with key: " + backend.getBackendKey());
+                        }
+                        if (!accessorNames.add(backend.getGatekeeper().getAccessorName())) {
+                            throw new IllegalStateException(getAccessorName() + " backend " + backend.getBackendKey() + " does not have a distinct accessor name: " + backend.getGatekeeper().getAccessorName());
+                        }
+                    }
+                    getLogger().info(".getBackends(): Federating {} --> {}", getAccessorName(), specifiedBackends);
+                    backends = Collections.unmodifiableList(specifiedBackends);
+                }
+                currentBackends = backends;
+            }
+        }
+        return (currentBackends);
+    }
+
+    /**
+     * "Federated{resourceType}", so that the federated gatekeeper does not share
+     * a bulkhead, metrics or WUP node with a backend for the same resource type.
+     */
+    @Override
+    protected String specifyAccessorName() {
+        return (FEDERATED_ACCESSOR_NAME_PREFIX + specifyAccessorResourceTypeName());
+    }
+
+    /**
+     * The fan-out is not hedged as a whole; each backend hedges its own calls.
+     */
+    @Override
+    protected double specifyHedgeDelayPercentile() {
+        return (0.0);
+    }
+
+    //
+    // Identifier Search
+    //
+
+    @Override
+    public Bundle findResourceViaIdentifier(Identifier identifier) {
+        getLogger().debug(".findResourceViaIdentifier(): Entry, identifier --> {}", identifier);
+        PetasosParcelAuditTrailEntry currentTransaction = beginTransaction(identifier, null, SoTConduitActionEnum.SEARCH);
+        Bundle searchResult;
+        try {
+            List<BackendOutcome<Bundle>> outcomes = fanOut(backend -> () -> backend.getGatekeeper().getResourceViaIdentifier(identifier));
+            searchResult = mergeIdentifierSearch(identifier, outcomes);
+        } catch (RuntimeException searchFailure) {
+            getLogger().error(".findResourceViaIdentifier(): Federated search failed --> {}", searchFailure.toString());
+            endSearchTransaction(null, 0, SoTConduitActionEnum.SEARCH, false, currentTransaction);
+            throw searchFailure;
+        }
+        endSearchTransaction(searchResult, searchResult.getTotal(), SoTConduitActionEnum.SEARCH, true, currentTransaction);
+        getLogger().debug(".findResourceViaIdentifier(): Exit, matches --> {}", searchResult.getTotal());
+        return (searchResult);
+    }
+
+    private Bundle mergeIdentifierSearch(Identifier identifier, List<BackendOutcome<Bundle>> outcomes) {
+        List<MergedMatch> mergedMatches = new ArrayList<>();
+        Map<String, MergedMatch> matchesByIdentifier = new HashMap<>();
+        int respondedBackends = 0;
+        for (BackendOutcome<Bundle> outcome : outcomes) {
+            if (!outcome.answered) {
+                continue;
+            }
+            respondedBackends++;
+            if (outcome.result == null) {
+                continue;
+            }
+            for (Bundle.BundleEntryComponent entry : outcome.result.getEntry()) {
+                Resource backendResource = entry.getResource();
+                if (backendResource == null || !getResourceTypeName().equals(backendResource.fhirType())) {
+                    continue;
+                }
+                // the backend's result may be shared (e.g. with coalesced callers), so its id is rewritten on a copy
+                Resource resource = backendResource.copy();
+                if (resource.getIdElement().hasIdPart()) {
+                    resource.setId(new IdType(getResourceTypeName(), outcome.backend.toFederatedId(resource.getIdElement().getIdPart()), resource.getIdElement().getVersionIdPart()));
+                }
+                List<String> identifierKeys = resolveIdentifierKeys(resource);
+                MergedMatch existingMatch = null;
+                for (String identifierKey : identifierKeys) {
+                    existingMatch = matchesByIdentifier.get(identifierKey);
+                    if (existingMatch != null) {
+                        break;
+                    }
+                }
+                if (existingMatch == null) {
+                    existingMatch = new MergedMatch(resource, scoreIdentifierMatch(resource, identifier));
+                    mergedMatches.add(existingMatch);
+                } else if (existingMatch.lastBackend != outcome.backend) {
+                    existingMatch.corroborations++;
+                }
+                existingMatch.lastBackend = outcome.backend;
+                for (String identifierKey : identifierKeys) {
+                    matchesByIdentifier.putIfAbsent(identifierKey, existingMatch);
+                }
+            }
+        }
+        if (respondedBackends == 0) {
+            throw resolveFederatedFailure(outcomes);
+        }
+        Bundle searchResult = new Bundle();
+        searchResult.setType(Bundle.BundleType.SEARCHSET);
+        searchResult.setTimestamp(Date.from(Instant.now()));
+        for (MergedMatch match : mergedMatches) {
+            match.score = match.identifierMatch * (0.5 + 0.5 * match.corroborations / respondedBackends);
+        }
+        List<MergedMatch> rankedMatches = new ArrayList<>(mergedMatches);
+        rankedMatches.sort((first, second) -> Double.compare(second.score, first.score));
+        for (MergedMatch match : rankedMatches) {
+            Bundle.BundleEntryComponent entry = searchResult.addEntry().setResource(match.resource);
+            entry.getSearch()
+                    .setMode(Bundle.SearchEntryMode.MATCH)
+                    .setScore(BigDecimal.valueOf(match.score).setScale(2, RoundingMode.HALF_UP));
+        }
+        searchResult.setTotal(rankedMatches.size());
+        OperationOutcome partialOutcome = describeMissingBackends(outcomes);
+        if (partialOutcome != null) {
+            searchResult.addEntry().setResource(partialOutcome).getSearch().setMode(Bundle.SearchEntryMode.OUTCOME);
+        }
+        return (searchResult);
+    }
+
+    private List<String> resolveIdentifierKeys(Resource resource) {
+        List<Identifier> identifiers = resolveIdentifierList(resource);
+        if (identifiers == null || identifiers.isEmpty()) {
+            return (Collections.emptyList());
+        }
+        List<String> identifierKeys = new ArrayList<>(identifiers.size());
+        for (Identifier identifier : identifiers) {
+            if (identifier.hasValue()) {
+                identifierKeys.add((identifier.hasSystem() ? identifier.getSystem() : "") + "|" + identifier.getValue());
+            }
+        }
+        return (identifierKeys);
+    }
+
+    /**
+     * How exactly the resource matches the identifier searched for: 1.0 if it
+     * carries the same system and value, 0.5 if only the value, otherwise 0.25
+     * (the Source-of-Truth matched it on something it does not expose).
+     */
+    protected double scoreIdentifierMatch(Resource resource, Identifier searchedIdentifier) {
+        double bestMatch = NO_IDENTIFIER_MATCH;
+        List<Identifier> identifiers = resolveIdentifierList(resource);
+        if (identifiers == null) {
+            return (bestMatch);
+        }
+        for (Identifier identifier : identifiers) {
+            if (identifier.hasValue() && identifier.getValue().equals(searchedIdentifier.getValue())) {
+                if (identifier.hasSystem() && identifier.getSystem().equals(searchedIdentifier.getSystem())) {
+                    return (EXACT_IDENTIFIER_MATCH);
+                }
+                bestMatch = VALUE_ONLY_IDENTIFIER_MATCH;
+            }
+        }
+        return (bestMatch);
+    }
+
+    //
+    // Id-only Search and Retrieval
+    //
+
+    /**
+     * The ids found by every backend that answered in time, in backend order.
+     */
+    @Override
+    protected List<String> searchResourceIdsFromSoT(Map<Property, Serializable> parameterSet) {
+        List<BackendOutcome<List<String>>> outcomes = fanOut(backend -> () -> {
+            SoTConduitGatekeeperBase gatekeeper = backend.getGatekeeper();
+            if (!gatekeeper.specifyIdOnlySearchSupport()) {
+                return (null);
+            }
+            return (gatekeeper.callSoT(SoTConduitActionEnum.SEARCH, true, () -> gatekeeper.searchResourceIdsFromSoT(parameterSet)));
+        });
+        List<String> federatedIds = new ArrayList<>();
+        boolean anyResponded = false;
+        for (BackendOutcome<List<String>> outcome : outcomes) {
+            if (!outcome.answered) {
+                continue;
+            }
+            anyResponded = true;
+            if (outcome.result == null) {
+                continue;
+            }
+            for (String resourceId : outcome.result) {
+                federatedIds.add(outcome.backend.toFederatedId(resourceId));
+            }
+        }
+        if (!anyResponded) {
+            throw resolveFederatedFailure(outcomes);
+        }
+        return (federatedIds);
+    }
+
+    @Override
+    protected Resource retrieveResourceFromSoT(IdType id) {
+        SoTFederatedBackend backend = resolveBackend(id);
+        SoTConduitGatekeeperBase gatekeeper = backend.getGatekeeper();
+        IdType backendId = toBackendId(id);
+        Resource resource = gatekeeper.callSoT(SoTConduitActionEnum.REVIEW, true, () -> gatekeeper.retrieveResourceFromSoT(backendId));
+        if (resource != null) {
+            resource.setId(new IdType(getResourceTypeName(), id.getIdPart(), resource.getIdElement().getVersionIdPart()));
+        }
+        return (resource);
+    }
+
+    /**
+     * Probes are worthwhile if any backend supports them; for the others
+     * retrieveResourceMetaFromSoT() just returns null.
+     */
+    @Override
+    protected boolean specifyIdOnlySearchSupport() {
+        for (SoTFederatedBackend backend : getBackends()) {
+            if (backend.getGatekeeper().specifyIdOnlySearchSupport()) {
+                return (true);
+            }
+        }
+        return (false);
+    }
+
+    @Override
+    protected boolean specifyResourceMetaProbeSupport() {
+        for (SoTFederatedBackend backend : getBackends()) {
+            if (backend.getGatekeeper().specifyResourceMetaProbeSupport()) {
+                return (true);
+            }
+        }
+        return (false);
+    }
+
+    @Override
+    protected Meta retrieveResourceMetaFromSoT(IdType id) {
+        SoTFederatedBackend backend = resolveBackend(id);
+        SoTConduitGatekeeperBase gatekeeper = backend.getGatekeeper();
+        if (!gatekeeper.specifyResourceMetaProbeSupport()) {
+            return (null);
+        }
+        IdType backendId = toBackendId(id);
+        return (gatekeeper.callSoT(SoTConduitActionEnum.REVIEW, false, () -> gatekeeper.retrieveResourceMetaFromSoT(backendId)));
+    }
+
+    private SoTFederatedBackend resolveBackend(IdType id) {
+        String idPart = id.getIdPart();
+        int separator = idPart == null ? -1 : idPart.indexOf(FEDERATED_ID_SEPARATOR);
+        if (separator > 0) {
+            String backendKey = idPart.substring(0, separator);
+            for (SoTFederatedBackend backend : getBackends()) {
+                if (backend.getBackendKey().equals(backendKey)) {
+                    return (backend);
+                }
+            }
+        }
+        throw new ResourceNotFoundException(id);
+    }
+
+    private IdType toBackendId(IdType id) {
+        String idPart = id.getIdPart();
+        return (new IdType(getResourceTypeName(), idPart.substring(idPart.indexOf(FEDERATED_ID_SEPARATOR) + 1), id.getVersionIdPart()));
+    }
+
+    //
+    // Fan-out
+    //
+
+    /**
+     * Starts the call on every backend (each within its own bulkhead) and then
+     * waits for each until its deadline, measured from when they all started.
+     */
+    private <T> List<BackendOutcome<T>> fanOut(Function<SoTFederatedBackend, Supplier<T>> backendCall) {
+        List<SoTFederatedBackend> currentBackends = getBackends();
+        List<CompletableFuture<T>> pendingCalls = new ArrayList<>(currentBackends.size());
+        long fanOutStart = System.nanoTime();
+        for (SoTFederatedBackend backend : currentBackends) {
+            pendingCalls.add(backend.getGatekeeper().submitSoTCall(backendCall.apply(backend)));
+        }
+        List<BackendOutcome<T>> outcomes = new ArrayList<>(currentBackends.size());
+        for (int index = 0; index < currentBackends.size(); index++) {
+            SoTFederatedBackend backend = currentBackends.get(index);
+            CompletableFuture<T> pendingCall = pendingCalls.get(index);
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(backend.getDeadlineMillis()) - (System.nanoTime() - fanOutStart);
+            try {
+                outcomes.add(BackendOutcome.answered(backend, pendingCall.get(Math.max(0L, remainingNanos), TimeUnit.NANOSECONDS)));
+            } catch (TimeoutException missedDeadline) {
+                getLogger().warn(".fanOut(): Backend missed its deadline, backend --> {}", backend);
+                pendingCall.cancel(false);
+                outcomes.add(BackendOutcome.missed(backend, null));
+            } catch (ExecutionException callFailure) {
+                Throwable cause = callFailure.getCause() != null ? callFailure.getCause() : callFailure;
+                getLogger().warn(".fanOut(): Backend failed, backend --> {}, error --> {}", backend, cause.toString());
+                outcomes.add(BackendOutcome.missed(backend, cause));
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                pendingCall.cancel(false);
+                outcomes.add(BackendOutcome.missed(backend, interrupted));
+            }
+        }
+        return (outcomes);
+    }
+
+    private <T> OperationOutcome describeMissingBackends(List<BackendOutcome<T>> outcomes) {
+        OperationOutcome partialOutcome = null;
+        for (BackendOutcome<T> outcome : outcomes) {
+            if (outcome.answered) {
+                continue;
+            }
+            if (partialOutcome == null) {
+                partialOutcome = new OperationOutcome();
+            }
+            partialOutcome.addIssue()
+                    .setSeverity(OperationOutcome.IssueSeverity.WARNING)
+                    .setCode(outcome.failure == null ? OperationOutcome.IssueType.TIMEOUT : OperationOutcome.IssueType.TRANSIENT)
+                    .setDiagnostics("Partial result, Source-of-Truth " + outcome.backend.getBackendKey()
+                            + (outcome.failure == null ? " did not respond in time" : " failed: " + outcome.failure.getMessage()));
+        }
+        return (partialOutcome);
+    }
+
+    private <T> RuntimeException resolveFederatedFailure(List<BackendOutcome<T>> outcomes) {
+        for (BackendOutcome<T> outcome : outcomes) {
+            if (outcome.failure instanceof BaseServerResponseException) {
+                return ((BaseServerResponseException) outcome.failure);
+            }
+        }
+        for (BackendOutcome<T> outcome : outcomes) {
+            if (outcome.failure != null) {
+                return (new InternalErrorException("No Source-of-Truth answered: " + outcome.failure.getMessage(), outcome.failure));
+            }
+        }
+        return (new UnclassifiedServerFailureException(HTTP_GATEWAY_TIMEOUT, "No Source-of-Truth responded in time: " + getAccessorName()));
+    }
+
+    private static class BackendOutcome<T> {
+        private final SoTFederatedBackend backend;
+        private final boolean answered;
+        private final T result;
+        private final Throwable failure;
+
+        private BackendOutcome(SoTFederatedBackend backend, boolean answered, T result, Throwable failure) {
+            this.backend = backend;
+            this.answered = answered;
+            this.result = result;
+            this.failure = failure;
+        }
+
+        static <T> BackendOutcome<T> answered(SoTFederatedBackend backend, T result) {
+            return (new BackendOutcome<>(backend, true, result, null));
+        }
+
+        /**
+         * A backend that did not answer: failure is null if it missed its deadline.
+         */
+        static <T> BackendOutcome<T> missed(SoTFederatedBackend backend, Throwable failure) {
+            return (new BackendOutcome<>(backend, false, null, failure));
+        }
+    }
+
+    private static class MergedMatch {
+        private final Resource resource;
+        private final double identifierMatch;
+        private int corroborations;
+        private SoTFederatedBackend lastBackend;
+        private double score;
+
+        MergedMatch(Resource resource, double identifierMatch) {
+            this.resource = resource;
+            this.identifierMatch = identifierMatch;
+            this.corroborations = 1;
+        }
+    }
+}
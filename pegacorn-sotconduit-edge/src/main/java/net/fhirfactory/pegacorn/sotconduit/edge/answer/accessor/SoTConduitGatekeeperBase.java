@@ -1,57 +1,137 @@
 package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.sql.Date;
+import java.io.Writer;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
 
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Meta;
 import org.hl7.fhir.r4.model.Property;
 import org.hl7.fhir.r4.model.Resource;
 import org.slf4j.Logger;
 
 import ca.uhn.fhir.parser.IParser;
-import net.fhirfactory.pegacorn.common.model.FDN;
-import net.fhirfactory.pegacorn.common.model.RDN;
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.NotImplementedOperationException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
 import net.fhirfactory.pegacorn.datasets.fhir.r4.base.entities.resource.SecurityLabelFactory;
 import net.fhirfactory.pegacorn.datasets.fhir.r4.internal.topics.FHIRElementTopicIDBuilder;
-import net.fhirfactory.pegacorn.deployment.topology.manager.DeploymentTopologyIM;
 import net.fhirfactory.pegacorn.ladon.model.virtualdb.businesskey.VirtualDBKeyManagement;
 import net.fhirfactory.pegacorn.petasos.audit.model.PetasosParcelAuditTrailEntry;
-import net.fhirfactory.pegacorn.petasos.model.processingplant.DefaultWorkshopSetEnum;
-import net.fhirfactory.pegacorn.petasos.model.processingplant.ProcessingPlantServicesInterface;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
 import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementFunctionToken;
-import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
-import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPJobCard;
 import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionStatusEnum;
 import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitAuditEntryManager;
-import net.fhirfactory.pegacorn.util.FHIRContextUtility;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitSearchResultSummary;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitSearchSummariser;
+import net.fhirfactory.pegacorn.sotconduit.context.SoTConduitRequestContext;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache.SoTLRUResourceCache;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache.SoTResourceCache;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache.SoTResourceCacheKey;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache.SoTSearchCacheKey;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache.SoTSearchResultCache;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.coalescing.SoTCoalescedCall;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.conditional.SoTConditionalRead;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.coalescing.SoTRequestCoalescer;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.execution.SoTConduitBulkheadFullException;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.execution.SoTConduitExecutionService;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.index.SoTIdentifierIndex;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.resilience.SoTCircuitBreaker;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.resilience.SoTCircuitBreakerOpenException;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.resilience.SoTCircuitBreakerStateEnum;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.security.SoTSecurityLabelEngine;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.security.SoTSecurityLabelRule;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.paging.SoTConduitPagedSearchResult;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitEncodingModeEnum;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitResourceEncoder;
+import net.fhirfactory.pegacorn.sotconduit.metrics.SoTConduitAccessorMetrics;
+import net.fhirfactory.pegacorn.sotconduit.metrics.SoTConduitLatencyHistogram;
+import net.fhirfactory.pegacorn.sotconduit.metrics.SoTConduitMetrics;
+import net.fhirfactory.pegacorn.sotconduit.metrics.SoTConduitMetricsPhaseEnum;
+import net.fhirfactory.pegacorn.sotconduit.processingplant.SoTConduitProcessingPlantBase;
+import net.fhirfactory.pegacorn.sotconduit.tracing.SoTConduitSpan;
+import net.fhirfactory.pegacorn.sotconduit.tracing.SoTConduitTracer;
 
 public abstract class SoTConduitGatekeeperBase {
+    private static final long DEFAULT_RESOURCE_CACHE_SIZE_IN_BYTES = 64L * 1024L * 1024L;
+    private static final long DEFAULT_RESOURCE_CACHE_TIME_TO_LIVE_MILLIS = 60000L;
+    private static final int DEFAULT_ENCODED_SIZE_ESTIMATE = 4096;
+    private static final int ENCODED_SIZE_ESTIMATE_SHIFT = 4;
+    private static final int DEFAULT_SEARCH_CACHE_SIZE = 1000;
+    private static final long DEFAULT_SEARCH_CACHE_TIME_TO_LIVE_MILLIS = 5000L;
+    private static final int DEFAULT_MAXIMUM_CONCURRENT_SOT_CALLS = 16;
+    private static final int DEFAULT_MAXIMUM_CONCURRENT_PAGE_RETRIEVALS = 4;
+    private static final int DEFAULT_MAXIMUM_WAITING_SOT_CALLS = 64;
+    private static final long DEFAULT_SOT_CALL_DEADLINE_MILLIS = 30000L;
+    private static final int DEFAULT_SECURITY_LABEL_CACHE_SIZE = 10000;
+    private static final int DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE = 50;
+    private static final int DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS = 20;
+    private static final double DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE = 0.5;
+    private static final double DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_RATE = 0.5;
+    private static final long DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_MILLIS = 5000L;
+    private static final long DEFAULT_CIRCUIT_BREAKER_OPEN_MILLIS = 30000L;
+    private static final int DEFAULT_CIRCUIT_BREAKER_PROBE_CALLS = 3;
+    private static final double DEFAULT_HEDGE_DELAY_PERCENTILE = 95.0;
+    private static final double DEFAULT_HEDGE_BUDGET = 0.1;
+    private static final long HEDGE_MINIMUM_SAMPLES = 100L;
 
-    private NodeElementFunctionToken accessorFunctionToken;
-    private WUPIdentifier accessorIdentifier;
+    private volatile NodeElementFunctionToken accessorFunctionToken;
+    private volatile WUPIdentifier accessorIdentifier;
     private String accessorName;
     private WUPJobCard accessorJobCard;
-    private NodeElement node;
+    private volatile NodeElement node;
     private String version;
     private boolean isInitialised;
 
-    private IParser parserR4;
+    private SoTResourceCache resourceCache;
+    private SoTSearchResultCache searchCache;
+    private SoTIdentifierIndex identifierIndex;
+    private SoTSecurityLabelEngine securityLabelEngine;
+    private SoTCircuitBreaker circuitBreaker;
+    private final AtomicLong sotCallCount = new AtomicLong();
+    private final AtomicLong hedgedCallCount = new AtomicLong();
+    private final AtomicLong encodedSizeEstimate = new AtomicLong();
+    private volatile boolean resourceRetrievalSupported;
+    private SoTConduitAccessorMetrics accessorMetrics;
+    private final SoTRequestCoalescer<SoTResourceCacheKey, RetrievedResource> resourceRetrievalCoalescer;
+    private final SoTRequestCoalescer<String, Bundle> identifierSearchCoalescer;
+    private final SoTConduitSearchSummariser searchSummariser;
+    private final Map<PetasosParcelAuditTrailEntry, SoTConduitSpan> transactionSpans;
 
     public SoTConduitGatekeeperBase() {
         isInitialised = false;
-        this.accessorName = specifyAccessorResourceTypeName();
+        this.resourceRetrievalSupported = true;
+        this.resourceRetrievalCoalescer = new SoTRequestCoalescer<>();
+        this.identifierSearchCoalescer = new SoTRequestCoalescer<>();
+        this.searchSummariser = new SoTConduitSearchSummariser(specifySearchSummaryIdLimit());
+        this.transactionSpans = Collections.synchronizedMap(new IdentityHashMap<>());
+        this.accessorName = specifyAccessorName();
         this.version = specifyAccessorResourceTypeVersion();
     }
 
@@ -59,20 +139,37 @@ public abstract class SoTConduitGatekeeperBase {
     abstract protected String specifyAccessorResourceTypeVersion();
     abstract protected Logger getLogger();
     abstract protected List<Identifier> resolveIdentifierList(Resource resource);
-    abstract protected void addResourceSecurityLabels(Resource resource);
     abstract public Bundle findResourceViaIdentifier(Identifier identifier);
 
     protected String getResourceTypeName(){return(specifyAccessorResourceTypeName());}
-    protected String getResourceTypeVersion(){return(specifyAccessorResourceTypeVersion());}
 
-    @Inject
-    private DeploymentTopologyIM topologyProxy;
+    /**
+     * The name this accessor's bulkhead, circuit breaker, metrics and WUP node
+     * ("Accessor-{name}") are registered under; it must be unique among the
+     * gatekeepers. Defaults to the resource type, so gatekeepers serving the same
+     * resource type (e.g. the backends of a SoTConduitFederatedGatekeeperBase)
+     * must override it. Called from the constructor.
+     */
+    protected String specifyAccessorName(){return(specifyAccessorResourceTypeName());}
+
+    /**
+     * The FHIR resource type served, which (unlike the accessor name) several
+     * gatekeepers may share.
+     */
+    public String getResourceType(){return(getResourceTypeName());}
+
+    /**
+     * The maximum number of entry ids listed in a search result audit entry; beyond
+     * this only the count and a hash of the ids are recorded.
+     */
+    protected int specifySearchSummaryIdLimit(){return(SoTConduitSearchSummariser.DEFAULT_MAXIMUM_LISTED_IDS);}
+    protected String getResourceTypeVersion(){return(specifyAccessorResourceTypeVersion());}
 
     @Inject
     private FHIRElementTopicIDBuilder topicIDBuilder;
 
     @Inject
-    private ProcessingPlantServicesInterface processingPlant;
+    private SoTConduitProcessingPlantBase processingPlant;
 
     @Inject
     private SoTConduitAuditEntryManager auditEntryManager;
@@ -81,151 +178,1289 @@ public abstract class SoTConduitGatekeeperBase {
     private VirtualDBKeyManagement virtualDBKeyManagement;
 
     @Inject
-    private FHIRContextUtility fhirContextUtility;
+    private SoTConduitResourceEncoder resourceEncoder;
 
     @Inject
     private SecurityLabelFactory securityLabelFactory;
 
+    @Inject
+    private SoTConduitExecutionService executionService;
+
+    @Inject
+    private SoTConduitTracer conduitTracer;
+
+    @Inject
+    private SoTConduitMetrics conduitMetrics;
+
     @PostConstruct
     protected void initialise() {
         getLogger().debug(".initialise(): Entry");
         if (!isInitialised) {
             getLogger().trace(".initialise(): AccessBase is NOT initialised");
-            this.parserR4 = fhirContextUtility.getJsonParser();
+            this.resourceCache = specifyResourceCache();
+            this.searchCache = specifySearchCache();
+            this.identifierIndex = specifyIdentifierIndex();
+            this.securityLabelEngine = new SoTSecurityLabelEngine(specifySecurityLabelRules(), specifySecurityLabelCacheSize());
+            this.circuitBreaker = specifyCircuitBreaker();
+            this.accessorMetrics = conduitMetrics.getAccessorMetrics(getAccessorName());
             this.isInitialised = true;
             processingPlant.initialisePlant();
-            this.node = specifyNode();
-            this.accessorFunctionToken = this.node.getNodeFunctionToken();
-            this.accessorIdentifier = new WUPIdentifier(this.node.getNodeInstanceID());
         }
     }
 
     public void initialiseServices() {
         initialise();
+        resolveAccessorIdentifier();
     }
 
+    //
+    // Topology (WUP) Node
+    //
 
-    protected PetasosParcelAuditTrailEntry beginSearchTransaction(Map<Property, Serializable> parameterSet, SoTConduitActionEnum action){
-        String searchSummary = "Search Criteria(";
-        Set<Property> propertySet = parameterSet.keySet();
-        if(propertySet.isEmpty()){
-            searchSummary = searchSummary + "empty)";
+    /**
+     * Builds this accessor's WUP node, for registration (normally as part of the
+     * startup batch, see SoTConduitGatekeeperRegistry.initialiseGatekeepers()).
+     */
+    public NodeElement prepareAccessorNode() {
+        return (processingPlant.buildAccessorNode(getAccessorName(), this.version));
+    }
+
+    /**
+     * Adopts an already registered WUP node as this accessor's node (ignored if the
+     * accessor already has one).
+     */
+    public synchronized void assignAccessorNode(NodeElement registeredNode) {
+        if (this.node == null) {
+            this.accessorFunctionToken = registeredNode.getNodeFunctionToken();
+            this.accessorIdentifier = new WUPIdentifier(registeredNode.getNodeInstanceID());
+            this.node = registeredNode;
+            getLogger().info(".assignAccessorNode(): accessorInstanceIdentifier (NodeElementIdentifier) --> {}", registeredNode.getNodeInstanceID());
+        }
+    }
+
+    public boolean hasAccessorNode() {
+        return (this.node != null);
+    }
+
+    /**
+     * The accessor's WUP identifier, registering its node on demand if it missed
+     * the startup batch.
+     */
+    private WUPIdentifier resolveAccessorIdentifier() {
+        WUPIdentifier currentIdentifier = this.accessorIdentifier;
+        if (currentIdentifier == null) {
+            synchronized (this) {
+                if (this.accessorIdentifier == null) {
+                    getLogger().debug(".resolveAccessorIdentifier(): Registering accessor node individually");
+                    NodeElement accessorNode = prepareAccessorNode();
+                    processingPlant.registerAccessorNode(accessorNode);
+                    assignAccessorNode(accessorNode);
+                }
+                currentIdentifier = this.accessorIdentifier;
+            }
+        }
+        return (currentIdentifier);
+    }
+
+    //
+    // Read-through Resource Cache
+    //
+
+    /**
+     * The cache used by getResource(). Override to plug in a different
+     * implementation (e.g. a SoTOffHeapResourceCache, for working sets too large
+     * to hold as parsed resources), or return null to always go to the
+     * Source-of-Truth.
+     */
+    protected SoTResourceCache specifyResourceCache() {
+        return (new SoTLRUResourceCache(DEFAULT_RESOURCE_CACHE_SIZE_IN_BYTES));
+    }
+
+    protected long specifyResourceCacheTimeToLiveMillis() {
+        return (DEFAULT_RESOURCE_CACHE_TIME_TO_LIVE_MILLIS);
+    }
+
+    /**
+     * Retrieves the resource directly from the Source-of-Truth. Subclasses that
+     * want to use the (cached, audited) getResource() read path must override this.
+     */
+    protected Resource retrieveResourceFromSoT(IdType id) {
+        throw new UnsupportedOperationException(getAccessorName() + " does not support retrieval of individual resources");
+    }
+
+    /**
+     * Retrieves only the current meta (versionId, lastUpdated) of a resource from
+     * the Source-of-Truth, for conditional reads. Only called if
+     * specifyResourceMetaProbeSupport() returns true.
+     */
+    protected Meta retrieveResourceMetaFromSoT(IdType id) {
+        return (null);
+    }
+
+    /**
+     * Whether this accessor overrides retrieveResourceMetaFromSoT() with a call
+     * that is cheaper than retrieving the whole resource.
+     */
+    protected boolean specifyResourceMetaProbeSupport() {
+        return (false);
+    }
+
+    /**
+     * Audited read-through retrieval of a resource: served from the resource cache
+     * if possible, otherwise from the Source-of-Truth (and then cached). Cache
+     * misses are recorded in the audit trail as REVIEW_RESOURCE_NOT_IN_CACHE.
+     */
+    public Resource getResource(IdType id) {
+        return (getResource(id, null));
+    }
+
+    /**
+     * As getResource(IdType), but if the client's copy (per the conditions) is
+     * still current a NotModifiedException (304) is thrown instead, before the
+     * resource is encoded. The version check uses the resource cache or
+     * retrieveResourceMetaFromSoT() ahead of a full retrieval where it can, and
+     * is recorded in the audit trail as REVIEW_NOT_MODIFIED.
+     */
+    public Resource getResource(IdType id, SoTConditionalRead conditions) {
+        getLogger().debug(".getResource(): Entry, id --> {}, conditions --> {}", id, conditions);
+        PetasosParcelAuditTrailEntry currentTransaction = beginTransaction(id, null, SoTConduitActionEnum.REVIEW);
+        Resource resource;
+        SoTConduitActionStatusEnum outcome = SoTConduitActionStatusEnum.REVIEW_FINISH;
+        Resource retrievedCopy = null;
+        long cacheGeneration = SoTResourceCache.ANY_GENERATION;
+        Meta notModifiedMeta = null;
+        try {
+            resource = getCachedResource(id);
+            if (resource == null && conditions != null && specifyResourceMetaProbeSupport()) {
+                Meta currentMeta = probeResourceMeta(id);
+                if (conditions.isNotModified(currentMeta)) {
+                    notModifiedMeta = currentMeta;
+                }
+            }
+            if (resource == null && notModifiedMeta == null) {
+                outcome = SoTConduitActionStatusEnum.REVIEW_RESOURCE_NOT_IN_CACHE;
+                try {
+                    RetrievedResource retrieved = retrieveResourceFromSoTCoalesced(id);
+                    resource = retrieved.resource;
+                    cacheGeneration = retrieved.cacheGeneration;
+                } catch (SoTCircuitBreakerOpenException circuitOpen) {
+                    outcome = SoTConduitActionStatusEnum.REJECTED_CIRCUIT_OPEN;
+                    resource = getStaleResource(id);
+                    if (resource == null) {
+                        throw circuitOpen;
+                    }
+                    outcome = SoTConduitActionStatusEnum.REVIEW_SERVED_STALE;
+                }
+                if (resource != null && resourceCache != null && outcome != SoTConduitActionStatusEnum.REVIEW_SERVED_STALE) {
+                    retrievedCopy = resource.copy();
+                }
+            }
+            if (resource != null && conditions != null && conditions.isNotModified(resource.getMeta())) {
+                notModifiedMeta = resource.getMeta();
+            }
+            if (resource != null && notModifiedMeta == null) {
+                addResourceSecurityLabels(resource);
+            }
+        } catch (RuntimeException retrievalException) {
+            getLogger().error(".getResource(): Failed to retrieve resource --> {}", retrievalException.toString());
+            SoTConduitActionStatusEnum failureStatus = outcome == SoTConduitActionStatusEnum.REJECTED_CIRCUIT_OPEN ? outcome : SoTConduitActionStatusEnum.REVIEW_FAILURE;
+            endTransaction(id, null, SoTConduitActionEnum.REVIEW, failureStatus, currentTransaction);
+            throw retrievalException;
+        }
+        if (notModifiedMeta != null) {
+            endTransaction(id, null, SoTConduitActionEnum.REVIEW, SoTConduitActionStatusEnum.REVIEW_NOT_MODIFIED, currentTransaction);
+            if (retrievedCopy != null) {
+                // nothing is sent back, so don't encode the resource just to size it
+                cacheResource(retrievedCopy, estimateEncodedSize(), cacheGeneration);
+            }
+            getLogger().debug(".getResource(): Exit, not modified, versionId --> {}", notModifiedMeta.getVersionId());
+            throw conditions.notModified(notModifiedMeta);
+        }
+        if (resource == null) {
+            endTransaction(id, null, SoTConduitActionEnum.REVIEW, SoTConduitActionStatusEnum.REVIEW_FAILURE, currentTransaction);
+            throw new ResourceNotFoundException(id);
+        }
+        endTransaction(id, resource, SoTConduitActionEnum.REVIEW, outcome, currentTransaction);
+        if (retrievedCopy != null) {
+            // the response encoding (shared with the response interceptor), not an extra one
+            int encodedSize = SoTConduitRequestContext.encodedResourceFor(resource, resourceEncoder).getEncodedLength();
+            recordEncodedSize(encodedSize);
+            cacheResource(retrievedCopy, encodedSize, cacheGeneration);
+        }
+        getLogger().debug(".getResource(): Exit, outcome --> {}", outcome);
+        return (resource);
+    }
+
+    /**
+     * The resource's current meta via retrieveResourceMetaFromSoT(), or null if
+     * that is not supported or fails (in which case the resource is retrieved in
+     * full as usual).
+     */
+    private Meta probeResourceMeta(IdType id) {
+        try {
+            return (callSoT(SoTConduitActionEnum.REVIEW, false, () -> retrieveResourceMetaFromSoT(id)));
+        } catch (RuntimeException probeFailure) {
+            getLogger().debug(".probeResourceMeta(): Version probe failed, id --> {}, error --> {}", id, probeFailure.toString());
+            return (null);
+        }
+    }
+
+    /**
+     * A cached copy of the resource whatever its age, for when the circuit breaker
+     * is open.
+     */
+    protected Resource getStaleResource(IdType id) {
+        if (resourceCache == null || !id.hasIdPart()) {
+            return (null);
+        }
+        return (resourceCache.getStale(new SoTResourceCacheKey(getResourceTypeName(), id.getIdPart(), id.getVersionIdPart())));
+    }
+
+    protected Resource getCachedResource(IdType id) {
+        if (resourceCache == null || !id.hasIdPart()) {
+            return (null);
+        }
+        return (resourceCache.get(new SoTResourceCacheKey(getResourceTypeName(), id.getIdPart(), id.getVersionIdPart())));
+    }
+
+    /**
+     * Folds the encoded size of a resource that had to be encoded anyway into this
+     * accessor's running estimate.
+     */
+    protected void recordEncodedSize(int encodedSize) {
+        long previousEstimate = encodedSizeEstimate.get();
+        long newEstimate = previousEstimate == 0 ? encodedSize : previousEstimate + ((encodedSize - previousEstimate) >> ENCODED_SIZE_ESTIMATE_SHIFT);
+        encodedSizeEstimate.compareAndSet(previousEstimate, newEstimate);
+    }
+
+    /**
+     * The typical encoded size of this accessor's resources, for sizing cache
+     * entries that have not been (and need not be) encoded.
+     */
+    protected int estimateEncodedSize() {
+        long estimate = encodedSizeEstimate.get();
+        return (estimate > 0 ? (int) estimate : DEFAULT_ENCODED_SIZE_ESTIMATE);
+    }
+
+    /**
+     * Caches the resource, unless it has been invalidated since cacheGeneration
+     * (see SoTResourceCache.getGeneration(), or SoTResourceCache.ANY_GENERATION).
+     */
+    protected void cacheResource(Resource resource, int encodedSize, long cacheGeneration) {
+        if (resourceCache == null || !resource.hasIdElement() || !resource.getIdElement().hasIdPart()) {
+            return;
+        }
+        String idPart = resource.getIdElement().getIdPart();
+        String versionId = resource.getMeta().hasVersionId() ? resource.getMeta().getVersionId() : resource.getIdElement().getVersionIdPart();
+        SoTResourceCacheKey currentKey = new SoTResourceCacheKey(getResourceTypeName(), idPart, null);
+        if (versionId == null) {
+            resourceCache.putAll(List.of(currentKey), resource, encodedSize, specifyResourceCacheTimeToLiveMillis(), cacheGeneration);
         } else {
-            int remainingElements = propertySet.size();
-            for(Property property: propertySet){
-                searchSummary = searchSummary + property.getName() + "-->" + parameterSet.get(property).toString();
-                if(remainingElements > 1){
-                    searchSummary = searchSummary + ",";
+            resourceCache.putAll(List.of(currentKey, new SoTResourceCacheKey(getResourceTypeName(), idPart, versionId)), resource, encodedSize, specifyResourceCacheTimeToLiveMillis(), cacheGeneration);
+        }
+    }
+
+    protected void invalidateCachedResource(String idPart) {
+        if (resourceCache != null && idPart != null) {
+            getLogger().trace(".invalidateCachedResource(): Invalidating cached resource, id --> {}", idPart);
+            resourceCache.invalidate(getResourceTypeName(), idPart);
+        }
+        if (idPart != null) {
+            securityLabelEngine.invalidate(getResourceTypeName(), idPart);
+        }
+    }
+
+    protected SoTResourceCache getResourceCache() {
+        return (resourceCache);
+    }
+
+    //
+    // Security Labels
+    //
+
+    /**
+     * The declarative security labelling rules for this accessor's resources,
+     * compiled once (in initialise()) into a SoTSecurityLabelEngine. The labels
+     * are typically built via getSecurityLabelFactory().
+     */
+    protected List<SoTSecurityLabelRule> specifySecurityLabelRules() {
+        return (Collections.emptyList());
+    }
+
+    /**
+     * The number of resource versions whose computed label set is cached.
+     */
+    protected int specifySecurityLabelCacheSize() {
+        return (DEFAULT_SECURITY_LABEL_CACHE_SIZE);
+    }
+
+    /**
+     * Labels a resource before it is returned. By default the labels come from
+     * the specifySecurityLabelRules() rules; subclasses with labelling logic that
+     * cannot be expressed as rules override this (calling super to keep the rules).
+     */
+    protected void addResourceSecurityLabels(Resource resource) {
+        SoTConduitSpan labelSpan = conduitTracer.startSpan("security.label");
+        try {
+            securityLabelEngine.apply(resource);
+        } finally {
+            labelSpan.end();
+        }
+    }
+
+    /**
+     * Labels every resource in a search result Bundle, each via
+     * addResourceSecurityLabels() so that subclass labelling applies to search
+     * results as it does to reads.
+     */
+    protected void addBundleSecurityLabels(Bundle searchResult) {
+        SoTConduitSpan labelSpan = conduitTracer.startSpan("security.label.bundle").setAttribute("sotconduit.entries", searchResult.getEntry().size());
+        try {
+            for (Bundle.BundleEntryComponent entry : searchResult.getEntry()) {
+                if (entry.hasResource()) {
+                    addResourceSecurityLabels(entry.getResource());
+                }
+            }
+        } finally {
+            labelSpan.end();
+        }
+    }
+
+    protected SoTSecurityLabelEngine getSecurityLabelEngine() {
+        return (securityLabelEngine);
+    }
+
+    //
+    // Resilience (Circuit Breaker & Hedged Reads)
+    //
+
+    /**
+     * The circuit breaker guarding this accessor's Source-of-Truth calls. Override
+     * to tune it, or return null to disable it.
+     */
+    protected SoTCircuitBreaker specifyCircuitBreaker() {
+        return (new SoTCircuitBreaker(getAccessorName(), DEFAULT_CIRCUIT_BREAKER_WINDOW_SIZE, DEFAULT_CIRCUIT_BREAKER_MINIMUM_CALLS,
+                DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE, DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_RATE, DEFAULT_CIRCUIT_BREAKER_SLOW_CALL_MILLIS,
+                DEFAULT_CIRCUIT_BREAKER_OPEN_MILLIS, DEFAULT_CIRCUIT_BREAKER_PROBE_CALLS, this::auditCircuitStateChange));
+    }
+
+    /**
+     * The percentile of this accessor's Source-of-Truth latency after which a
+     * REVIEW or SEARCH call is hedged (a second identical call is made). Zero or
+     * less disables hedging.
+     */
+    protected double specifyHedgeDelayPercentile() {
+        return (DEFAULT_HEDGE_DELAY_PERCENTILE);
+    }
+
+    /**
+     * The largest fraction of Source-of-Truth calls that may be hedged, so that
+     * hedging cannot multiply the load on a struggling Source-of-Truth.
+     */
+    protected double specifyHedgeBudget() {
+        return (DEFAULT_HEDGE_BUDGET);
+    }
+
+    /**
+     * Makes a Source-of-Truth call through the circuit breaker (failing fast with
+     * SoTCircuitBreakerOpenException while it is open) and within this accessor's
+     * bulkhead and deadline (see submitSoTCall()), hedging it if allowed. Client
+     * errors (4xx) returned by the Source-of-Truth do not count against it, and a
+     * call refused by a full bulkhead (503) or not supported by this accessor
+     * (UnsupportedOperationException) is not recorded at all.
+     */
+    protected <T> T callSoT(SoTConduitActionEnum action, boolean hedgeable, Supplier<T> call) {
+        if (circuitBreaker != null && !circuitBreaker.tryAcquirePermission()) {
+            throw new SoTCircuitBreakerOpenException(getAccessorName(), circuitBreaker.getRemainingOpenMillis());
+        }
+        // the latency of the call itself, from when it leaves the bulkhead queue
+        long[] callStart = {System.nanoTime()};
+        boolean sotFailure = true;
+        boolean reachedSoT = true;
+        SoTConduitSpan callSpan = conduitTracer.startSpan("sot.call");
+        try {
+            long hedgeDelayNanos = hedgeable ? resolveHedgeDelayNanos(action) : 0L;
+            if (callSpan.isRecording()) {
+                callSpan.setAttribute("sotconduit.accessor", getAccessorName());
+                callSpan.setAttribute("sotconduit.action", action.name());
+                callSpan.setAttribute("sotconduit.hedgeable", hedgeDelayNanos > 0);
+            }
+            T result = executeWithinBulkhead(() -> {
+                callStart[0] = System.nanoTime();
+                if (hedgeDelayNanos <= 0) {
+                    return (call.get());
+                }
+                return (executionService.executeHedged(getAccessorName(), specifyMaximumConcurrentSoTCalls(), specifyMaximumWaitingSoTCalls(), specifySoTCallDeadlineMillis(),
+                        call, hedgeDelayNanos, this::isHedgeAllowed));
+            });
+            sotFailure = false;
+            return (result);
+        } catch (SoTConduitBulkheadFullException bulkheadFull) {
+            reachedSoT = false;
+            callSpan.setAttribute("http.status_code", bulkheadFull.getStatusCode());
+            throw bulkheadFull;
+        } catch (UnsupportedOperationException notSupported) {
+            reachedSoT = false;
+            callSpan.setAttribute("sotconduit.supported", false);
+            throw notSupported;
+        } catch (BaseServerResponseException serverResponse) {
+            sotFailure = serverResponse.getStatusCode() >= 500;
+            callSpan.setAttribute("http.status_code", serverResponse.getStatusCode());
+            throw serverResponse;
+        } finally {
+            if (sotFailure && reachedSoT) {
+                callSpan.recordError("Source-of-Truth call failed");
+            }
+            callSpan.end();
+            if (!reachedSoT) {
+                if (circuitBreaker != null) {
+                    circuitBreaker.releasePermission();
+                }
+            } else {
+                sotCallCount.incrementAndGet();
+                long elapsedNanos = System.nanoTime() - callStart[0];
+                accessorMetrics.recordLatency(SoTConduitMetricsPhaseEnum.SOT_CALL, action, elapsedNanos);
+                if (circuitBreaker != null) {
+                    if (sotFailure) {
+                        circuitBreaker.recordFailure(elapsedNanos);
+                    } else {
+                        circuitBreaker.recordSuccess(elapsedNanos);
+                    }
+                }
+            }
+        }
+    }
+
+    private long resolveHedgeDelayNanos(SoTConduitActionEnum action) {
+        double hedgePercentile = specifyHedgeDelayPercentile();
+        if (hedgePercentile <= 0 || (action != SoTConduitActionEnum.REVIEW && action != SoTConduitActionEnum.SEARCH)) {
+            return (0L);
+        }
+        SoTConduitLatencyHistogram sotLatency = accessorMetrics.getLatencyHistogram(SoTConduitMetricsPhaseEnum.SOT_CALL, action);
+        if (sotLatency.getTotalCount() < HEDGE_MINIMUM_SAMPLES) {
+            return (0L);
+        }
+        return (Math.max(1L, sotLatency.getValueAtPercentile(hedgePercentile)));
+    }
+
+    private boolean isHedgeAllowed() {
+        if (circuitBreaker != null && circuitBreaker.getState() != SoTCircuitBreakerStateEnum.CLOSED) {
+            return (false);
+        }
+        if (hedgedCallCount.get() >= specifyHedgeBudget() * sotCallCount.get()) {
+            return (false);
+        }
+        hedgedCallCount.incrementAndGet();
+        return (true);
+    }
+
+    /**
+     * Records a circuit breaker state change in the audit trail, as a REVIEW of
+     * the Source-of-Truth whose outcome is the new state.
+     */
+    private void auditCircuitStateChange(SoTCircuitBreaker changedBreaker, SoTCircuitBreakerStateEnum previousState, SoTCircuitBreakerStateEnum newState) {
+        SoTConduitActionStatusEnum status;
+        switch (newState) {
+            case OPEN:
+                status = SoTConduitActionStatusEnum.CIRCUIT_OPENED;
+                break;
+            case HALF_OPEN:
+                status = SoTConduitActionStatusEnum.CIRCUIT_HALF_OPENED;
+                break;
+            case CLOSED:
+            default:
+                status = SoTConduitActionStatusEnum.CIRCUIT_CLOSED;
+                break;
+        }
+        String stateChange = "CircuitBreaker(accessor=" + changedBreaker.getAccessorName() + ", " + previousState + " --> " + newState
+                + ", failureRate=" + changedBreaker.getFailureRate() + ", slowCallRate=" + changedBreaker.getSlowCallRate() + ")";
+        PetasosParcelAuditTrailEntry stateChangeTransaction = beginSearchTransaction(stateChange, SoTConduitActionEnum.REVIEW);
+        endSearchTransaction(stateChange, SoTConduitActionEnum.REVIEW, status, stateChangeTransaction);
+    }
+
+    /**
+     * Records the requests for this resource type that the servlet refused before
+     * they reached the gatekeeper (see SoTConduitRejectionAuditor), as a single
+     * REJECTED_OVERLOADED outcome of the requested action.
+     */
+    public void auditRejectedRequests(SoTConduitActionEnum action, long rejectedCount, String latestRequest) {
+        String rejectionSummary = "Rejected " + rejectedCount + " request(s), latest --> " + latestRequest;
+        PetasosParcelAuditTrailEntry rejectionTransaction = beginSearchTransaction(rejectionSummary, action);
+        endSearchTransaction(rejectionSummary, action, SoTConduitActionStatusEnum.REJECTED_OVERLOADED, rejectionTransaction);
+    }
+
+    protected SoTCircuitBreaker getCircuitBreaker() {
+        return (circuitBreaker);
+    }
+
+    public long getHedgedCallCount() {
+        return (hedgedCallCount.get());
+    }
+
+    //
+    // Asynchronous (Bulkheaded) Execution
+    //
+
+    /**
+     * The maximum number of calls this gatekeeper will make to its Source-of-Truth
+     * at the same time (via submitSoTCall() or callSoT()).
+     */
+    protected int specifyMaximumConcurrentSoTCalls() {
+        return (DEFAULT_MAXIMUM_CONCURRENT_SOT_CALLS);
+    }
+
+    /**
+     * The maximum number of calls allowed to queue for this gatekeeper's bulkhead
+     * before further calls are refused.
+     */
+    protected int specifyMaximumWaitingSoTCalls() {
+        return (DEFAULT_MAXIMUM_WAITING_SOT_CALLS);
+    }
+
+    /**
+     * How long a call submitted via submitSoTCall() may take (queueing included)
+     * before it is abandoned. Zero or less means no deadline.
+     */
+    protected long specifySoTCallDeadlineMillis() {
+        return (DEFAULT_SOT_CALL_DEADLINE_MILLIS);
+    }
+
+    /**
+     * Runs the call on the conduit's executor, within this accessor's bulkhead and
+     * subject to its deadline.
+     */
+    public <T> CompletableFuture<T> submitSoTCall(Supplier<T> call) {
+        return (executionService.submit(getAccessorName(), specifyMaximumConcurrentSoTCalls(), specifyMaximumWaitingSoTCalls(), specifySoTCallDeadlineMillis(), call));
+    }
+
+    /**
+     * Runs the call within this accessor's bulkhead and deadline, blocking for its
+     * outcome; inline if the calling thread already holds one of its permits.
+     */
+    private <T> T executeWithinBulkhead(Supplier<T> call) {
+        return (executionService.execute(getAccessorName(), specifyMaximumConcurrentSoTCalls(), specifyMaximumWaitingSoTCalls(), specifySoTCallDeadlineMillis(), call));
+    }
+
+    //
+    // Paged (id-only) Search
+    //
+
+    /**
+     * The cache of id-only search results used by search(). Override to return null
+     * to always search the Source-of-Truth.
+     */
+    protected SoTSearchResultCache specifySearchCache() {
+        return (new SoTSearchResultCache(DEFAULT_SEARCH_CACHE_SIZE));
+    }
+
+    /**
+     * How long a search result is reused for. Any CREATE, UPDATE or DELETE of this
+     * resource type through the conduit discards all cached results.
+     */
+    protected long specifySearchCacheTimeToLiveMillis() {
+        return (DEFAULT_SEARCH_CACHE_TIME_TO_LIVE_MILLIS);
+    }
+
+    /**
+     * Searches the Source-of-Truth, returning only the ids (idPart) of the matching
+     * resources, in result order. Only called if specifyIdOnlySearchSupport()
+     * returns true.
+     */
+    protected List<String> searchResourceIdsFromSoT(Map<Property, Serializable> parameterSet) {
+        throw new UnsupportedOperationException(getAccessorName() + " does not support id-only searches");
+    }
+
+    /**
+     * Whether this accessor overrides searchResourceIdsFromSoT() (and
+     * retrieveResourceFromSoT()), and so supports the paged search() and the
+     * default exportResourcesFromSoT().
+     */
+    protected boolean specifyIdOnlySearchSupport() {
+        return (false);
+    }
+
+    /**
+     * How many of a page's resources (not already cached) are retrieved from the
+     * Source-of-Truth at the same time, within this accessor's bulkhead.
+     */
+    protected int specifyMaximumConcurrentPageRetrievals() {
+        return (DEFAULT_MAXIMUM_CONCURRENT_PAGE_RETRIEVALS);
+    }
+
+    /**
+     * Audited search that returns a SoTConduitPagedSearchResult: only the ids of
+     * the matches are held, and each page of resources is fetched (and audited)
+     * via getResourcePage() when the client asks for it. Repeats of a recent search
+     * are answered from the search cache (but still audited).
+     */
+    public IBundleProvider search(Map<Property, Serializable> parameterSet) {
+        getLogger().debug(".search(): Entry, parameterSet --> {}", parameterSet);
+        if (!specifyIdOnlySearchSupport()) {
+            throw new NotImplementedOperationException(getAccessorName() + " does not support searches");
+        }
+        PetasosParcelAuditTrailEntry currentTransaction = beginSearchTransaction(parameterSet, SoTConduitActionEnum.SEARCH);
+        SoTSearchCacheKey searchKey = searchCache != null ? new SoTSearchCacheKey(getResourceTypeName(), parameterSet) : null;
+        List<String> resourceIds = searchKey != null ? searchCache.get(searchKey) : null;
+        if (resourceIds != null) {
+            accessorMetrics.recordSearchCacheHit();
+            endSearchTransaction(searchSummariser.summariseResourceIds(resourceIds, resourceIds.size()), SoTConduitActionEnum.SEARCH, currentTransaction);
+            SoTConduitPagedSearchResult searchResult = new SoTConduitPagedSearchResult(this, resourceIds);
+            getLogger().debug(".search(): Exit, served from search cache, searchId --> {}, size --> {}", searchResult.getUuid(), resourceIds.size());
+            return (searchResult);
+        }
+        long searchCacheGeneration = 0;
+        if (searchKey != null) {
+            accessorMetrics.recordSearchCacheMiss();
+            searchCacheGeneration = searchCache.getGeneration();
+        }
+        try {
+            resourceIds = callSoT(SoTConduitActionEnum.SEARCH, true, () -> searchResourceIdsFromSoT(parameterSet));
+        } catch (SoTCircuitBreakerOpenException circuitOpen) {
+            getLogger().warn(".search(): Search refused, circuit breaker open");
+            endSearchTransaction(circuitOpen.getMessage(), SoTConduitActionEnum.SEARCH, SoTConduitActionStatusEnum.REJECTED_CIRCUIT_OPEN, currentTransaction);
+            throw circuitOpen;
+        } catch (RuntimeException searchException) {
+            getLogger().error(".search(): Search failed --> {}", searchException.toString());
+            endSearchTransaction(SoTConduitSearchResultSummary.failed(), SoTConduitActionEnum.SEARCH, currentTransaction);
+            throw searchException;
+        }
+        if (searchKey != null) {
+            searchCache.put(searchKey, resourceIds, specifySearchCacheTimeToLiveMillis(), searchCacheGeneration);
+        }
+        endSearchTransaction(searchSummariser.summariseResourceIds(resourceIds, resourceIds.size()), SoTConduitActionEnum.SEARCH, currentTransaction);
+        SoTConduitPagedSearchResult searchResult = new SoTConduitPagedSearchResult(this, resourceIds);
+        getLogger().debug(".search(): Exit, searchId --> {}, size --> {}", searchResult.getUuid(), resourceIds.size());
+        return (searchResult);
+    }
+
+    /**
+     * Fetches one page of a paged search, recorded in the audit trail as its own
+     * SEARCH transaction. Resources are served from the resource cache where
+     * possible, and the rest are retrieved in parallel (up to
+     * specifyMaximumConcurrentPageRetrievals() at a time) through this accessor's
+     * bulkhead; any that no longer exist in the Source-of-Truth are omitted.
+     */
+    public List<IBaseResource> getResourcePage(String searchId, int pageOffset, List<String> resourceIds) {
+        getLogger().debug(".getResourcePage(): Entry, searchId --> {}, pageOffset --> {}, pageSize --> {}", searchId, pageOffset, resourceIds.size());
+        PetasosParcelAuditTrailEntry currentTransaction = beginSearchTransaction(searchSummariser.describePage(searchId, pageOffset, resourceIds.size()), SoTConduitActionEnum.SEARCH);
+        List<IBaseResource> page = new ArrayList<>(resourceIds.size());
+        List<String> returnedIds = new ArrayList<>(resourceIds.size());
+        try {
+            Resource[] pageResources = retrievePageResources(resourceIds);
+            for (int index = 0; index < pageResources.length; index++) {
+                Resource resource = pageResources[index];
+                if (resource != null) {
+                    addResourceSecurityLabels(resource);
+                    page.add(resource);
+                    returnedIds.add(resourceIds.get(index));
                 }
             }
-            searchSummary = searchSummary + ")";
+        } catch (RuntimeException retrievalException) {
+            getLogger().error(".getResourcePage(): Failed to retrieve page --> {}", retrievalException.toString());
+            endSearchTransaction(SoTConduitSearchResultSummary.failed(), SoTConduitActionEnum.SEARCH, currentTransaction);
+            throw retrievalException;
+        }
+        endSearchTransaction(searchSummariser.summariseResourceIds(returnedIds, returnedIds.size()), SoTConduitActionEnum.SEARCH, currentTransaction);
+        getLogger().debug(".getResourcePage(): Exit, returned --> {}", page.size());
+        return (page);
+    }
+
+    /**
+     * The page's resources, in page order (null for any that no longer exist).
+     * A thread already running in this accessor's bulkhead retrieves them
+     * itself, one at a time, rather than block on calls queued behind it.
+     */
+    private Resource[] retrievePageResources(List<String> resourceIds) {
+        Resource[] pageResources = new Resource[resourceIds.size()];
+        boolean retrieveInline = executionService.isWithinBulkhead(getAccessorName());
+        int maximumInFlight = Math.max(1, specifyMaximumConcurrentPageRetrievals());
+        Deque<PendingPageResource> inFlight = new ArrayDeque<>(maximumInFlight);
+        try {
+            for (int index = 0; index < pageResources.length; index++) {
+                IdType id = new IdType(getResourceTypeName(), resourceIds.get(index));
+                pageResources[index] = getCachedResource(id);
+                if (pageResources[index] != null) {
+                    continue;
+                }
+                if (retrieveInline) {
+                    pageResources[index] = retrievePageResource(id);
+                    continue;
+                }
+                if (inFlight.size() >= maximumInFlight) {
+                    PendingPageResource oldest = inFlight.removeFirst();
+                    pageResources[oldest.index] = executionService.await(getAccessorName(), specifySoTCallDeadlineMillis(), oldest.retrieval);
+                }
+                inFlight.addLast(new PendingPageResource(index, submitSoTCall(() -> retrievePageResource(id))));
+            }
+            while (!inFlight.isEmpty()) {
+                PendingPageResource oldest = inFlight.removeFirst();
+                pageResources[oldest.index] = executionService.await(getAccessorName(), specifySoTCallDeadlineMillis(), oldest.retrieval);
+            }
+        } catch (RuntimeException retrievalException) {
+            for (PendingPageResource abandoned : inFlight) {
+                abandoned.retrieval.cancel(true);
+            }
+            throw retrievalException;
+        }
+        return (pageResources);
+    }
+
+    private static class PendingPageResource {
+        private final int index;
+        private final CompletableFuture<Resource> retrieval;
+
+        private PendingPageResource(int index, CompletableFuture<Resource> retrieval) {
+            this.index = index;
+            this.retrieval = retrieval;
+        }
+    }
+
+    private Resource retrievePageResource(IdType id) {
+        RetrievedResource retrieved;
+        try {
+            retrieved = retrieveResourceFromSoTCoalesced(id);
+        } catch (SoTCircuitBreakerOpenException circuitOpen) {
+            Resource staleResource = getStaleResource(id);
+            if (staleResource == null) {
+                throw circuitOpen;
+            }
+            return (staleResource);
+        }
+        Resource resource = retrieved.resource;
+        if (resource != null && resourceCache != null) {
+            // the page is encoded as a whole, so size the entry from the estimate rather than encode it on its own
+            cacheResource(resource.copy(), estimateEncodedSize(), retrieved.cacheGeneration);
+        }
+        return (resource);
+    }
+
+    //
+    // Writes (CREATE/UPDATE), optionally write-behind
+    //
+
+    /**
+     * Creates the resource in the Source-of-Truth. Only called if
+     * specifyCreateSupport() returns true.
+     */
+    protected MethodOutcome createResourceInSoT(Resource resource) {
+        throw new UnsupportedOperationException(getAccessorName() + " does not support creation of resources");
+    }
+
+    /**
+     * Updates the resource in the Source-of-Truth. Only called if
+     * specifyUpdateSupport() returns true.
+     */
+    protected MethodOutcome updateResourceInSoT(Resource resource) {
+        throw new UnsupportedOperationException(getAccessorName() + " does not support update of resources");
+    }
+
+    /**
+     * Whether this accessor overrides createResourceInSoT(), and so supports the
+     * (audited, optionally write-behind) writeResource() path for CREATE.
+     */
+    protected boolean specifyCreateSupport() {
+        return (false);
+    }
+
+    /**
+     * Whether this accessor overrides updateResourceInSoT(), and so supports the
+     * (audited, optionally write-behind) writeResource() path for UPDATE.
+     */
+    protected boolean specifyUpdateSupport() {
+        return (false);
+    }
+
+    public boolean isWriteSupported(SoTConduitActionEnum action) {
+        switch (action) {
+            case CREATE:
+                return (specifyCreateSupport());
+            case UPDATE:
+                return (specifyUpdateSupport());
+            default:
+                return (false);
+        }
+    }
+
+    /**
+     * Whether CREATE/UPDATE requests for this accessor are accepted (202) once
+     * they are in the conduit's durable write-behind queue, rather than when the
+     * Source-of-Truth confirms them (see SoTConduitWriteBehindService).
+     */
+    protected boolean specifyWriteBehind() {
+        return (false);
+    }
+
+    public boolean isWriteBehindEnabled() {
+        return (specifyWriteBehind());
+    }
+
+    /**
+     * Audited write of the resource to the Source-of-Truth, recorded as
+     * CREATION_FINISH / UPDATE_FINISH (or the matching failure status) once the
+     * Source-of-Truth has answered. Runs on the calling thread; for write-behind
+     * this is the write-behind worker.
+     */
+    public MethodOutcome writeResource(SoTConduitActionEnum action, Resource resource) {
+        getLogger().debug(".writeResource(): Entry, action --> {}, id --> {}", action, resource.getIdElement());
+        if (action != SoTConduitActionEnum.CREATE && action != SoTConduitActionEnum.UPDATE) {
+            throw new IllegalArgumentException("Unsupported write action: " + action);
+        }
+        if (!isWriteSupported(action)) {
+            throw new NotImplementedOperationException(getAccessorName() + " does not support " + action);
+        }
+        IdType auditId = new IdType(getResourceTypeName(), resource.getIdElement().hasIdPart() ? resource.getIdElement().getIdPart() : null);
+        PetasosParcelAuditTrailEntry currentTransaction = beginTransaction(auditId, resource, action);
+        MethodOutcome outcome;
+        try {
+            outcome = callSoT(action, false, () -> action == SoTConduitActionEnum.CREATE ? createResourceInSoT(resource) : updateResourceInSoT(resource));
+        } catch (SoTCircuitBreakerOpenException circuitOpen) {
+            endTransaction(auditId, resource, action, SoTConduitActionStatusEnum.REJECTED_CIRCUIT_OPEN, currentTransaction);
+            throw circuitOpen;
+        } catch (RuntimeException writeException) {
+            getLogger().error(".writeResource(): Write failed, action --> {}, error --> {}", action, writeException.toString());
+            endTransaction(auditId, resource, action, SoTConduitActionStatusEnum.defaultFailureStatus(action), currentTransaction);
+            throw writeException;
+        }
+        Resource writtenResource = outcome != null && outcome.getResource() instanceof Resource ? (Resource) outcome.getResource() : resource;
+        endTransaction(outcome != null && outcome.getId() != null ? new IdType(outcome.getId().getValue()) : auditId, writtenResource, action, SoTConduitActionStatusEnum.defaultFinishStatus(action), currentTransaction);
+        getLogger().debug(".writeResource(): Exit, id --> {}", outcome != null ? outcome.getId() : null);
+        return (outcome);
+    }
+
+    //
+    // Bulk Export
+    //
+
+    /**
+     * The resources to be exported, optionally only those updated since the given
+     * time (null for all). By default this is an id-only search with no criteria
+     * followed by a retrieveResourceFromSoT() per id, each made through callSoT()
+     * (as SEARCH, so within the bulkhead and circuit breaker, and measured); override
+     * where the Source-of-Truth can stream its resources directly, fetching each
+     * page or batch through callSoT() in the same way.
+     */
+    protected Iterator<Resource> exportResourcesFromSoT(Date since) {
+        if (!specifyIdOnlySearchSupport()) {
+            throw new UnsupportedOperationException(getAccessorName() + " does not support export");
+        }
+        Iterator<String> resourceIds = callSoT(SoTConduitActionEnum.SEARCH, false, () -> searchResourceIdsFromSoT(Collections.emptyMap())).iterator();
+        return (new Iterator<Resource>() {
+            private Resource nextResource = advance();
+
+            private Resource advance() {
+                while (resourceIds.hasNext()) {
+                    IdType candidateId = new IdType(getResourceTypeName(), resourceIds.next());
+                    Resource candidate = callSoT(SoTConduitActionEnum.SEARCH, false, () -> retrieveResourceFromSoT(candidateId));
+                    if (candidate != null && (since == null || !candidate.getMeta().hasLastUpdated() || !candidate.getMeta().getLastUpdated().before(since))) {
+                        return (candidate);
+                    }
+                }
+                return (null);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return (nextResource != null);
+            }
+
+            @Override
+            public Resource next() {
+                if (nextResource == null) {
+                    throw new NoSuchElementException();
+                }
+                Resource currentResource = nextResource;
+                nextResource = advance();
+                return (currentResource);
+            }
+        });
+    }
+
+    /**
+     * Streams this gatekeeper's resources to the writer as NDJSON, one resource at
+     * a time. Rather than one audit entry per resource, each chunk of chunkSize
+     * resources is recorded as a single SEARCH transaction summarising the ids in
+     * it. Stops early (returning the count so far) once cancelled returns true.
+     */
+    public long exportResources(String exportId, Date since, int chunkSize, Writer output, BooleanSupplier cancelled) throws IOException {
+        getLogger().debug(".exportResources(): Entry, exportId --> {}, since --> {}", exportId, since);
+        Iterator<Resource> resources = exportResourcesFromSoT(since);
+        long exportedCount = 0;
+        int chunkIndex = 0;
+        List<String> chunkIds = new ArrayList<>(chunkSize);
+        PetasosParcelAuditTrailEntry chunkTransaction = null;
+        try {
+            while (resources.hasNext() && !cancelled.getAsBoolean()) {
+                if (chunkTransaction == null) {
+                    chunkTransaction = beginSearchTransaction(searchSummariser.describeExportChunk(exportId, chunkIndex), SoTConduitActionEnum.SEARCH);
+                }
+                Resource resource = resources.next();
+                addResourceSecurityLabels(resource);
+                resourceEncoder.encodeTo(resource, SoTConduitEncodingModeEnum.COMPACT, output);
+                output.write('\n');
+                chunkIds.add(resource.getIdElement().getIdPart());
+                exportedCount += 1;
+                if (chunkIds.size() >= chunkSize) {
+                    output.flush();
+                    endSearchTransaction(searchSummariser.summariseResourceIds(chunkIds, chunkIds.size()), SoTConduitActionEnum.SEARCH, chunkTransaction);
+                    chunkTransaction = null;
+                    chunkIds.clear();
+                    chunkIndex += 1;
+                }
+            }
+            output.flush();
+        } catch (IOException | RuntimeException exportException) {
+            getLogger().error(".exportResources(): Export failed, exportId --> {}, error --> {}", exportId, exportException.toString());
+            if (chunkTransaction != null) {
+                endSearchTransaction(SoTConduitSearchResultSummary.failed(), SoTConduitActionEnum.SEARCH, chunkTransaction);
+            }
+            throw exportException;
+        }
+        if (chunkTransaction != null) {
+            endSearchTransaction(searchSummariser.summariseResourceIds(chunkIds, chunkIds.size()), SoTConduitActionEnum.SEARCH, chunkTransaction);
         }
-        PetasosParcelAuditTrailEntry parcelEntry = auditEntryManager.beginTransaction(searchSummary, getResourceTypeName(), null, action, this.accessorIdentifier, this.version );
+        getLogger().debug(".exportResources(): Exit, exportId --> {}, exported --> {}", exportId, exportedCount);
+        return (exportedCount);
+    }
+
+    //
+    // Identifier Index
+    //
+
+    /**
+     * The index used by getResourceViaIdentifier() to resolve identifiers to ids
+     * locally. Override to return null to always search the Source-of-Truth.
+     */
+    protected SoTIdentifierIndex specifyIdentifierIndex() {
+        return (new SoTIdentifierIndex());
+    }
+
+    protected SoTIdentifierIndex getIdentifierIndex() {
+        return (identifierIndex);
+    }
+
+    /**
+     * Finds the resource carrying the given identifier. If the identifier has
+     * been seen before it is resolved locally to an id and served via the
+     * (cached) getResource() read path, otherwise it is passed on to
+     * findResourceViaIdentifier().
+     */
+    public Bundle getResourceViaIdentifier(Identifier identifier) {
+        getLogger().debug(".getResourceViaIdentifier(): Entry, identifier --> {}", identifier);
+        String indexedId = identifierIndex != null ? identifierIndex.lookup(identifier) : null;
+        if (indexedId != null && resourceRetrievalSupported) {
+            getLogger().trace(".getResourceViaIdentifier(): Identifier resolved locally, id --> {}", indexedId);
+            try {
+                Resource resource = getResource(new IdType(getResourceTypeName(), indexedId));
+                if (identifierIndex.contains(indexedId, identifier)) {
+                    getLogger().debug(".getResourceViaIdentifier(): Exit, resolved via identifier index");
+                    return (wrapIntoBundle(resource));
+                }
+                getLogger().trace(".getResourceViaIdentifier(): Resource no longer carries the identifier");
+            } catch (ResourceNotFoundException notFound) {
+                getLogger().trace(".getResourceViaIdentifier(): Indexed resource no longer exists");
+                identifierIndex.remove(indexedId);
+            } catch (UnsupportedOperationException unsupported) {
+                getLogger().info(".getResourceViaIdentifier(): {} does not support retrieval by id, identifier index lookups disabled", getAccessorName());
+                resourceRetrievalSupported = false;
+            }
+        }
+        Bundle searchResult = findResourceViaIdentifierCoalesced(identifier);
+        indexResources(searchResult);
+        addBundleSecurityLabels(searchResult);
+        getLogger().debug(".getResourceViaIdentifier(): Exit");
+        return (searchResult);
+    }
+
+    //
+    // Request Coalescing
+    //
+
+    /**
+     * Concurrent reads of the same resource share a single Source-of-Truth call;
+     * every caller still records its own REVIEW audit entry in getResource().
+     * Only the leader's call goes through the bulkhead (inline, under its permit,
+     * if the leader already holds one), so followers never take a permit or a
+     * waiting slot just to wait for it.
+     * <p>
+     * The leader takes the resource's cache generation before calling the
+     * Source-of-Truth, and followers share it along with the resource, so a read
+     * in flight when the resource is invalidated is never cached.
+     */
+    private RetrievedResource retrieveResourceFromSoTCoalesced(IdType id) {
+        SoTResourceCacheKey retrievalKey = new SoTResourceCacheKey(getResourceTypeName(), id.getIdPart(), id.getVersionIdPart());
+        return (resourceRetrievalCoalescer.execute(retrievalKey, () -> {
+            long cacheGeneration = resourceCache == null ? SoTResourceCache.ANY_GENERATION : resourceCache.getGeneration(getResourceTypeName(), id.getIdPart());
+            return (new RetrievedResource(callSoT(SoTConduitActionEnum.REVIEW, true, () -> retrieveResourceFromSoT(id)), cacheGeneration));
+        }, RetrievedResource::copy));
+    }
+
+    private static class RetrievedResource {
+        private final Resource resource;
+        private final long cacheGeneration;
+
+        private RetrievedResource(Resource resource, long cacheGeneration) {
+            this.resource = resource;
+            this.cacheGeneration = cacheGeneration;
+        }
+
+        private RetrievedResource copy() {
+            return (new RetrievedResource(resource == null ? null : resource.copy(), cacheGeneration));
+        }
+    }
+
+    /**
+     * Concurrent identical identifier searches share a single call to
+     * findResourceViaIdentifier(). The leader's access is audited by the
+     * subclass as usual, so each follower records its own begin/end pair here.
+     * Followers copy a snapshot the leader publishes before it goes on to index
+     * and label its own Bundle. As for retrieveResourceFromSoTCoalesced(), only
+     * the leader's call goes through the bulkhead.
+     */
+    private Bundle findResourceViaIdentifierCoalesced(Identifier identifier) {
+        SoTCoalescedCall<String, Bundle> call = identifierSearchCoalescer.join(identifier.getSystem() + "|" + identifier.getValue());
+        if (call.isLeader()) {
+            try {
+                Bundle searchResult = callSoT(SoTConduitActionEnum.SEARCH, false, () -> findResourceViaIdentifier(identifier));
+                call.complete(searchResult == null ? null : searchResult.copy());
+                return (searchResult);
+            } catch (RuntimeException | Error searchFailure) {
+                call.fail(searchFailure);
+                throw searchFailure;
+            }
+        }
+        getLogger().trace(".findResourceViaIdentifierCoalesced(): Joining in-flight search, identifier --> {}", identifier);
+        PetasosParcelAuditTrailEntry currentTransaction = beginTransaction(identifier, null, SoTConduitActionEnum.SEARCH);
+        Bundle searchResult;
+        try {
+            Bundle sharedResult = call.await();
+            searchResult = sharedResult == null ? null : sharedResult.copy();
+        } catch (RuntimeException searchFailure) {
+            endSearchTransaction(null, 0, SoTConduitActionEnum.SEARCH, false, currentTransaction);
+            throw searchFailure;
+        }
+        endSearchTransaction(searchResult, searchResult == null ? 0 : searchResult.getEntry().size(), SoTConduitActionEnum.SEARCH, searchResult != null, currentTransaction);
+        return (searchResult);
+    }
+
+    /**
+     * The number of Source-of-Truth calls avoided by sharing an in-flight call.
+     */
+    public long getCoalescedRequestCount() {
+        return (resourceRetrievalCoalescer.getCoalescedCount() + identifierSearchCoalescer.getCoalescedCount());
+    }
+
+    /**
+     * The number of Source-of-Truth calls actually issued via the coalescing paths.
+     */
+    public long getUpstreamRequestCount() {
+        return (resourceRetrievalCoalescer.getLeaderCount() + identifierSearchCoalescer.getLeaderCount());
+    }
+
+    private void indexResources(Resource resource) {
+        if (identifierIndex == null || resource == null) {
+            return;
+        }
+        if (resource instanceof Bundle) {
+            for (Bundle.BundleEntryComponent entry : ((Bundle) resource).getEntry()) {
+                if (entry.hasResource() && !(entry.getResource() instanceof Bundle)) {
+                    indexResources(entry.getResource());
+                }
+            }
+            return;
+        }
+        if (resource.hasIdElement() && resource.getIdElement().hasIdPart() && getResourceTypeName().equals(resource.fhirType())) {
+            identifierIndex.index(resource.getIdElement().getIdPart(), resolveIdentifierList(resource));
+        }
+    }
+
+    /**
+     * Keeps the gatekeeper's local state (resource and search caches, and identifier
+     * index) consistent with the resources flowing through it.
+     */
+    private void onTransactionComplete(IdType id, Resource fhirResource, SoTConduitActionEnum action, boolean success) {
+        if (searchCache != null && (action == SoTConduitActionEnum.CREATE || action == SoTConduitActionEnum.UPDATE || action == SoTConduitActionEnum.DELETE)) {
+            searchCache.invalidateAll();
+        }
+        if (action == SoTConduitActionEnum.UPDATE || action == SoTConduitActionEnum.DELETE) {
+            if (id != null && id.hasIdPart()) {
+                invalidateCachedResource(id.getIdPart());
+            }
+            if (fhirResource != null && fhirResource.hasIdElement()) {
+                invalidateCachedResource(fhirResource.getIdElement().getIdPart());
+            }
+        }
+        if (identifierIndex == null || !success) {
+            return;
+        }
+        if (action == SoTConduitActionEnum.DELETE) {
+            if (id != null && id.hasIdPart()) {
+                identifierIndex.remove(id.getIdPart());
+            }
+            if (fhirResource != null && fhirResource.hasIdElement()) {
+                identifierIndex.remove(fhirResource.getIdElement().getIdPart());
+            }
+        } else {
+            indexResources(fhirResource);
+        }
+    }
+
+
+    protected PetasosParcelAuditTrailEntry beginSearchTransaction(Map<Property, Serializable> parameterSet, SoTConduitActionEnum action){
+        return(beginSearchTransaction(searchSummariser.describeCriteria(parameterSet), action));
+    }
+
+    protected PetasosParcelAuditTrailEntry beginSearchTransaction(String searchSummary, SoTConduitActionEnum action){
+        long auditStart = System.nanoTime();
+        PetasosParcelAuditTrailEntry parcelEntry = beginTracedTransaction(action, () -> auditEntryManager.beginTransaction(searchSummary, getResourceTypeName(), getAccessorName(), null, action, resolveAccessorIdentifier(), this.version ));
+        accessorMetrics.recordTransactionBegin(action, auditStart);
         return(parcelEntry);
     }
 
     protected PetasosParcelAuditTrailEntry beginTransaction(IdType id, Resource fhirResource, SoTConduitActionEnum action){
         String resourceKey = id.asStringValue();
-        PetasosParcelAuditTrailEntry parcelEntry = auditEntryManager.beginTransaction(resourceKey, getResourceTypeName(),  fhirResource, action, this.accessorIdentifier, this.version );
+        long auditStart = System.nanoTime();
+        PetasosParcelAuditTrailEntry parcelEntry = beginTracedTransaction(action, () -> auditEntryManager.beginTransaction(resourceKey, getResourceTypeName(), getAccessorName(), fhirResource, action, resolveAccessorIdentifier(), this.version ));
+        accessorMetrics.recordTransactionBegin(action, auditStart);
         return(parcelEntry);
     }
 
     protected PetasosParcelAuditTrailEntry beginTransaction(Identifier resourceIdentifier, Resource fhirResource, SoTConduitActionEnum action){
         String resourceKey = virtualDBKeyManagement.generatePrintableInformationFromIdentifier(resourceIdentifier);
-        PetasosParcelAuditTrailEntry parcelEntry = auditEntryManager.beginTransaction(resourceKey, getResourceTypeName(), fhirResource, action, this.accessorIdentifier, this.version );
+        long auditStart = System.nanoTime();
+        PetasosParcelAuditTrailEntry parcelEntry = beginTracedTransaction(action, () -> auditEntryManager.beginTransaction(resourceKey, getResourceTypeName(), getAccessorName(), fhirResource, action, resolveAccessorIdentifier(), this.version ));
+        accessorMetrics.recordTransactionBegin(action, auditStart);
         return(parcelEntry);
     }
 
     protected void endTransaction(Identifier resourceIdentifier, Resource fhirResource, SoTConduitActionEnum action, boolean success, PetasosParcelAuditTrailEntry startingTransaction){
         String resourceKey = resourceIdentifier.toString();
-        auditEntryManager.endTransaction(resourceKey, getResourceTypeName(),fhirResource,action,success,startingTransaction,this.accessorIdentifier, this.version);
+        SoTConduitActionStatusEnum status = success ? SoTConduitActionStatusEnum.defaultFinishStatus(action) : SoTConduitActionStatusEnum.defaultFailureStatus(action);
+        long auditStart = accessorMetrics.recordTransactionEnd(action, status);
+        try {
+            auditEntryManager.endTransaction(resourceKey, getResourceTypeName(), getAccessorName(), fhirResource,action,success,startingTransaction,resolveAccessorIdentifier(), this.version);
+        } finally {
+            finishTransactionSpan(startingTransaction, status);
+        }
+        accessorMetrics.recordAuditEnd(action, auditStart);
+        onTransactionComplete(null, fhirResource, action, success);
+    }
+
+    protected void endTransaction(Identifier resourceIdentifier, Resource fhirResource, SoTConduitActionEnum action, SoTConduitActionStatusEnum status, PetasosParcelAuditTrailEntry startingTransaction){
+        String resourceKey = resourceIdentifier.toString();
+        long auditStart = accessorMetrics.recordTransactionEnd(action, status);
+        try {
+            auditEntryManager.endTransaction(resourceKey, getResourceTypeName(), getAccessorName(), fhirResource,action,status,startingTransaction,resolveAccessorIdentifier(), this.version);
+        } finally {
+            finishTransactionSpan(startingTransaction, status);
+        }
+        accessorMetrics.recordAuditEnd(action, auditStart);
+        onTransactionComplete(null, fhirResource, action, !status.isFailure());
     }
 
     protected void endSearchTransaction(Bundle resultSet, int returnedResourceCount, SoTConduitActionEnum action, boolean success, PetasosParcelAuditTrailEntry startingTransaction){
-        String searchAnswerCount = buildSearchResultString(resultSet);
-        auditEntryManager.endTransaction(searchAnswerCount, getResourceTypeName(), null,action,success,startingTransaction,this.accessorIdentifier, this.version);
+        SoTConduitSearchResultSummary searchSummary = success ? summariseSearchResult(resultSet) : SoTConduitSearchResultSummary.failed();
+        endSearchTransaction(searchSummary, action, startingTransaction);
+        onTransactionComplete(null, resultSet, action, success);
+    }
+
+    protected void endSearchTransaction(SoTConduitSearchResultSummary searchSummary, SoTConduitActionEnum action, PetasosParcelAuditTrailEntry startingTransaction){
+        SoTConduitActionStatusEnum status = searchSummary.isSuccessful() ? SoTConduitActionStatusEnum.defaultFinishStatus(action) : SoTConduitActionStatusEnum.defaultFailureStatus(action);
+        long auditStart = accessorMetrics.recordTransactionEnd(action, status);
+        try {
+            auditEntryManager.endTransaction(searchSummary, getResourceTypeName(), getAccessorName(), action, startingTransaction, resolveAccessorIdentifier(), this.version);
+        } finally {
+            finishTransactionSpan(startingTransaction, status);
+        }
+        accessorMetrics.recordAuditEnd(action, auditStart);
+    }
+
+    protected void endSearchTransaction(String auditEntryString, SoTConduitActionEnum action, SoTConduitActionStatusEnum status, PetasosParcelAuditTrailEntry startingTransaction){
+        long auditStart = accessorMetrics.recordTransactionEnd(action, status);
+        try {
+            auditEntryManager.endTransaction(auditEntryString, getResourceTypeName(), getAccessorName(), null, action, status, startingTransaction, resolveAccessorIdentifier(), this.version);
+        } finally {
+            finishTransactionSpan(startingTransaction, status);
+        }
+        accessorMetrics.recordAuditEnd(action, auditStart);
     }
 
     protected void endTransaction(IdType id, Resource fhirResource, SoTConduitActionEnum action, boolean success, PetasosParcelAuditTrailEntry startingTransaction){
         String resourceKey = id.asStringValue();
-        auditEntryManager.endTransaction(resourceKey, getResourceTypeName(), fhirResource,action,success,startingTransaction,this.accessorIdentifier, this.version);
+        SoTConduitActionStatusEnum status = success ? SoTConduitActionStatusEnum.defaultFinishStatus(action) : SoTConduitActionStatusEnum.defaultFailureStatus(action);
+        long auditStart = accessorMetrics.recordTransactionEnd(action, status);
+        try {
+            auditEntryManager.endTransaction(resourceKey, getResourceTypeName(), getAccessorName(), fhirResource,action,success,startingTransaction,resolveAccessorIdentifier(), this.version);
+        } finally {
+            finishTransactionSpan(startingTransaction, status);
+        }
+        accessorMetrics.recordAuditEnd(action, auditStart);
+        onTransactionComplete(id, fhirResource, action, success);
+    }
+
+    protected void endTransaction(IdType id, Resource fhirResource, SoTConduitActionEnum action, SoTConduitActionStatusEnum status, PetasosParcelAuditTrailEntry startingTransaction){
+        String resourceKey = id.asStringValue();
+        long auditStart = accessorMetrics.recordTransactionEnd(action, status);
+        try {
+            auditEntryManager.endTransaction(resourceKey, getResourceTypeName(), getAccessorName(), fhirResource,action,status,startingTransaction,resolveAccessorIdentifier(), this.version);
+        } finally {
+            finishTransactionSpan(startingTransaction, status);
+        }
+        accessorMetrics.recordAuditEnd(action, auditStart);
+        onTransactionComplete(id, fhirResource, action, !status.isFailure());
     }
 
     /**
-     * This function builds the Deployment Topology node (a WUP) for the
-     * Accessor.
-     * <p>
-     * It uses the Name (specifyAccessorName()) defined in the subclass as part
-     * of the Identifier and then registers with the Topology Services.
-     *
-     * @return The NodeElement representing the WUP which this code-set is
-     * fulfilling.
-     */
-    private NodeElement specifyNode() {
-        getLogger().debug(".specifyNode(): Entry");
-        NodeElementIdentifier nodeInstance = processingPlant.getProcessingPlantNodeId();
-        getLogger().info(".specifyNode(): retrieved ProcessingPlant Identifier --> {}", nodeInstance);
-        if (nodeInstance == null) {
-            getLogger().error(".specifyNode(): Oh No!");
-        }
-        FDN workshopFDN = new FDN(nodeInstance);
-        workshopFDN.appendRDN(new RDN(NodeElementTypeEnum.WORKSHOP.getNodeElementType(),  DefaultWorkshopSetEnum.EDGE_WORKSHOP.getWorkshop()));
-        NodeElementIdentifier workshopId = new NodeElementIdentifier(workshopFDN.getToken());
-        getLogger().trace(".specifyNode(): Retrieving Workshop Node");
-        NodeElement workshopNode = topologyProxy.getNode(workshopId);
-        getLogger().trace(".specifyNode(): workshop node (NodeElement) --> {}", workshopNode);
-        FDN accessorInstanceFDN = new FDN(workshopFDN);
-        accessorInstanceFDN.appendRDN(new RDN(NodeElementTypeEnum.WUP.getNodeElementType(), "Accessor-" + specifyAccessorResourceTypeName()));
-        NodeElementIdentifier accessorInstanceIdentifier = new NodeElementIdentifier(accessorInstanceFDN.getToken());
-        getLogger().trace(".specifyNode(): Now construct the Work Unit Processing Node");
-        NodeElement accessor = new NodeElement();
-        getLogger().trace(".specifyNode(): Constructing WUP Node, Setting Version Number");
-        accessor.setVersion(this.version);
-        getLogger().trace(".specifyNode(): Constructing WUP Node, Setting Node Instance");
-        accessor.setNodeInstanceID(accessorInstanceIdentifier);
-        getLogger().trace(".specifyNode(): Constructing WUP Node, Setting Concurrency Mode");
-        accessor.setConcurrencyMode(workshopNode.getConcurrencyMode());
-        getLogger().trace(".specifyNode(): Constructing WUP Node, Setting Resillience Mode");
-        accessor.setResilienceMode(workshopNode.getResilienceMode());
-        getLogger().trace(".specifyNode(): Constructing WUP Node, Setting inPlace Status");
-        accessor.setInstanceInPlace(true);
-        getLogger().trace(".specifyNode(): Constructing WUP Node, Setting Containing Element Identifier");
-        accessor.setContainingElementID(workshopNode.getNodeInstanceID());
-        getLogger().trace(".specifyNode(): Now registering the Node");
-        topologyProxy.registerNode(accessor);
-        getLogger().info(".specifyNode(): Exit, accessorInstanceIdentifier (NodeElementIdentifier) --> {}", accessorInstanceIdentifier);
-        return (accessor);
-    }
-    private String buildSearchResultString(Bundle searchResult){
-        if(searchResult == null) {
-            return("Search Failed");
-        }
-        int resultCount = searchResult.getTotal();
-        if(resultCount == 0){
-            return("Search Succeeded: Result Count = 0");
-        }
-        String resultString = "Search Succeeded: Result Count = " + resultCount + ": Entries --> ";
-        for(Bundle.BundleEntryComponent currentBundleEntry: searchResult.getEntry()){
-            Resource currentResource = currentBundleEntry.getResource();
-            if(currentResource.hasId()){
-                resultString = resultString + currentResource.getId();
-            } else {
-                resultString = resultString + "[Resource Has No Id]";
-            }
-            if(resultCount > 1) {
-                resultString = resultString + ", ";
-            }
-            resultCount -= 1;
+     * Registers the start of a transaction inside a span that stays open (as the
+     * request's current span, so that the SoT calls made for the transaction are
+     * its children) until the transaction's end is registered.
+     */
+    private PetasosParcelAuditTrailEntry beginTracedTransaction(SoTConduitActionEnum action, Supplier<PetasosParcelAuditTrailEntry> beginTransaction){
+        SoTConduitSpan transactionSpan = conduitTracer.startSpan("gatekeeper.transaction");
+        if (!transactionSpan.isRecording()) {
+            return(beginTransaction.get());
+        }
+        transactionSpan.setAttribute("sotconduit.accessor", getAccessorName());
+        transactionSpan.setAttribute("sotconduit.action", action.name());
+        PetasosParcelAuditTrailEntry parcelEntry;
+        try {
+            parcelEntry = beginTransaction.get();
+        } catch (RuntimeException auditFailure) {
+            transactionSpan.recordError(auditFailure);
+            transactionSpan.end();
+            throw auditFailure;
         }
-        return(resultString);
+        if (parcelEntry == null) {
+            transactionSpan.recordError("No audit entry was registered");
+            transactionSpan.end();
+        } else {
+            transactionSpans.put(parcelEntry, transactionSpan);
+        }
+        return(parcelEntry);
+    }
+
+    private void finishTransactionSpan(PetasosParcelAuditTrailEntry startingTransaction, SoTConduitActionStatusEnum status){
+        SoTConduitSpan transactionSpan = startingTransaction == null ? null : transactionSpans.remove(startingTransaction);
+        if (transactionSpan == null) {
+            return;
+        }
+        transactionSpan.setAttribute("sotconduit.status", status.name());
+        if (status.isFailure()) {
+            transactionSpan.recordError(status.name());
+        }
+        transactionSpan.end();
+    }
+
+    protected SoTConduitSearchResultSummary summariseSearchResult(Bundle searchResult){
+        return(searchSummariser.summariseResult(searchResult));
     }
 
     public NodeElementFunctionToken getAccessorFunctionToken() {
+        resolveAccessorIdentifier();
         return accessorFunctionToken;
     }
 
     public WUPIdentifier getAccessorIdentifier() {
-        return accessorIdentifier;
+        return resolveAccessorIdentifier();
     }
 
     public String getAccessorName() {
@@ -237,6 +1472,7 @@ public abstract class SoTConduitGatekeeperBase {
     }
 
     public NodeElement getNode() {
+        resolveAccessorIdentifier();
         return node;
     }
 
@@ -248,8 +1484,15 @@ public abstract class SoTConduitGatekeeperBase {
         return isInitialised;
     }
 
+    /**
+     * The calling thread's (compact JSON) parser - see SoTConduitResourceEncoder.
+     */
     public IParser getParserR4() {
-        return parserR4;
+        return resourceEncoder.getParser(SoTConduitEncodingModeEnum.COMPACT);
+    }
+
+    protected SoTConduitResourceEncoder getResourceEncoder() {
+        return (resourceEncoder);
     }
 
     protected SecurityLabelFactory getSecurityLabelFactory(){
@@ -0,0 +1,101 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Any;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.sotconduit.processingplant.SoTConduitProcessingPlantBase;
+import net.fhirfactory.pegacorn.sotconduit.processingplant.SoTConduitStartupTimings;
+
+/**
+ * Resolves the gatekeeper responsible for a given resource type, for the
+ * servlet-level (cross resource type) operations, and registers all of the
+ * gatekeepers' WUP nodes as a single batch when the application starts.
+ */
+@ApplicationScoped
+public class SoTConduitGatekeeperRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitGatekeeperRegistry.class);
+
+    @Inject
+    @Any
+    private Instance<SoTConduitGatekeeperBase> gatekeeperInstances;
+
+    @Inject
+    private SoTConduitProcessingPlantBase processingPlant;
+
+    private volatile Map<String, SoTConduitGatekeeperBase> gatekeepersByResourceType;
+
+    public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        initialiseGatekeepers();
+    }
+
+    /**
+     * Initialises the plant (once), then builds the WUP node of every gatekeeper that
+     * does not yet have one and registers them together. Gatekeepers not covered here
+     * fall back to registering their own node on first use.
+     */
+    public void initialiseGatekeepers() {
+        LOG.debug(".initialiseGatekeepers(): Entry");
+        processingPlant.initialisePlant();
+        SoTConduitStartupTimings timings = processingPlant.getStartupTimings();
+        Collection<SoTConduitGatekeeperBase> gatekeepers = timings.time(SoTConduitProcessingPlantBase.ACCESSOR_DISCOVERY_PHASE, this::getGatekeepers);
+        List<SoTConduitGatekeeperBase> pendingGatekeepers = new ArrayList<>();
+        List<NodeElement> pendingNodes = new ArrayList<>();
+        for (SoTConduitGatekeeperBase gatekeeper : gatekeepers) {
+            if (!gatekeeper.hasAccessorNode()) {
+                pendingGatekeepers.add(gatekeeper);
+                pendingNodes.add(gatekeeper.prepareAccessorNode());
+            }
+        }
+        processingPlant.registerAccessorNodes(pendingNodes);
+        for (int index = 0; index < pendingGatekeepers.size(); index++) {
+            pendingGatekeepers.get(index).assignAccessorNode(pendingNodes.get(index));
+        }
+        LOG.info(".initialiseGatekeepers(): Registered {} accessor nodes, startup timings --> {}", pendingNodes.size(), timings);
+    }
+
+    public SoTConduitGatekeeperBase getGatekeeper(String resourceType) {
+        return (getGatekeeperMap().get(resourceType));
+    }
+
+    public Collection<SoTConduitGatekeeperBase> getGatekeepers() {
+        return (getGatekeeperMap().values());
+    }
+
+    private Map<String, SoTConduitGatekeeperBase> getGatekeeperMap() {
+        Map<String, SoTConduitGatekeeperBase> currentMap = gatekeepersByResourceType;
+        if (currentMap == null) {
+            synchronized (this) {
+                if (gatekeepersByResourceType == null) {
+                    Map<String, SoTConduitGatekeeperBase> newMap = new HashMap<>();
+                    for (SoTConduitGatekeeperBase gatekeeper : gatekeeperInstances) {
+                        LOG.debug(".getGatekeeperMap(): Registering gatekeeper for resource type --> {}", gatekeeper.getResourceTypeName());
+                        SoTConduitGatekeeperBase existingGatekeeper = newMap.get(gatekeeper.getResourceTypeName());
+                        // a federated gatekeeper stands in front of the gatekeepers it federates
+                        if (existingGatekeeper instanceof SoTConduitFederatedGatekeeperBase && !(gatekeeper instanceof SoTConduitFederatedGatekeeperBase)) {
+                            continue;
+                        }
+                        newMap.put(gatekeeper.getResourceTypeName(), gatekeeper);
+                    }
+                    gatekeepersByResourceType = Collections.unmodifiableMap(newMap);
+                }
+                currentMap = gatekeepersByResourceType;
+            }
+        }
+        return (currentMap);
+    }
+}
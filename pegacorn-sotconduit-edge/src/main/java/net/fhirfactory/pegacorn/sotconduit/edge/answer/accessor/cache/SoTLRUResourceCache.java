@@ -0,0 +1,176 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * A memory-bounded, least-recently-used SoTResourceCache.
+ * <p>
+ * The size of each entry is estimated from its encoded (JSON) length, scaled
+ * to allow for the overhead of the parsed HAPI object graph. Entries expire
+ * after their time-to-live regardless of use, but are kept (until evicted or
+ * replaced) so that getStale() can still serve them.
+ */
+public class SoTLRUResourceCache implements SoTResourceCache {
+    private static final int PARSED_RESOURCE_OVERHEAD_FACTOR = 10;
+
+    private final long maximumWeight;
+    private final LinkedHashMap<SoTResourceCacheKey, CacheEntry> entries;
+    private final Map<SoTResourceCacheKey, Set<SoTResourceCacheKey>> keysByResource;
+    private final LongAdder hitCount;
+    private final LongAdder missCount;
+    private final SoTResourceCacheGenerations generations;
+    private long currentWeight;
+
+    public SoTLRUResourceCache(long maximumWeightInBytes) {
+        this.maximumWeight = maximumWeightInBytes;
+        this.entries = new LinkedHashMap<>(256, 0.75f, true);
+        this.keysByResource = new HashMap<>();
+        this.hitCount = new LongAdder();
+        this.missCount = new LongAdder();
+        this.generations = new SoTResourceCacheGenerations();
+        this.currentWeight = 0;
+    }
+
+    @Override
+    public Resource get(SoTResourceCacheKey key) {
+        CacheEntry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+            missCount.increment();
+            return (null);
+        }
+        hitCount.increment();
+        return (entry.resource.copy());
+    }
+
+    @Override
+    public Resource getStale(SoTResourceCacheKey key) {
+        CacheEntry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        return (entry == null ? null : entry.resource.copy());
+    }
+
+    @Override
+    public void put(SoTResourceCacheKey key, Resource resource, int encodedSize, long timeToLiveMillis) {
+        putAll(Collections.singletonList(key), resource, encodedSize, timeToLiveMillis, ANY_GENERATION);
+    }
+
+    /**
+     * The keys share the one (cache owned) resource, each being weighed in full.
+     */
+    @Override
+    public void putAll(Collection<SoTResourceCacheKey> keys, Resource resource, int encodedSize, long timeToLiveMillis, long resourceGeneration) {
+        long entryWeight = (long) encodedSize * PARSED_RESOURCE_OVERHEAD_FACTOR;
+        if (entryWeight > maximumWeight || timeToLiveMillis <= 0) {
+            return;
+        }
+        CacheEntry newEntry = new CacheEntry(resource, entryWeight, System.currentTimeMillis() + timeToLiveMillis);
+        synchronized (this) {
+            for (SoTResourceCacheKey key : keys) {
+                if (!generations.isCurrent(key.getResourceType(), key.getIdPart(), resourceGeneration)) {
+                    return;
+                }
+            }
+            for (SoTResourceCacheKey key : keys) {
+                removeEntry(key);
+                entries.put(key, newEntry);
+                keysByResource.computeIfAbsent(key.toCurrentVersionKey(), unused -> new HashSet<>()).add(key);
+                currentWeight += entryWeight;
+            }
+            evictToWeight();
+        }
+    }
+
+    @Override
+    public long getGeneration(String resourceType, String idPart) {
+        return (generations.get(resourceType, idPart));
+    }
+
+    @Override
+    public synchronized void invalidate(String resourceType, String idPart) {
+        generations.advance(resourceType, idPart);
+        Set<SoTResourceCacheKey> resourceKeys = keysByResource.get(new SoTResourceCacheKey(resourceType, idPart, null));
+        if (resourceKeys == null) {
+            return;
+        }
+        for (SoTResourceCacheKey resourceKey : resourceKeys.toArray(new SoTResourceCacheKey[0])) {
+            removeEntry(resourceKey);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        entries.clear();
+        keysByResource.clear();
+        currentWeight = 0;
+    }
+
+    @Override
+    public long getHitCount() {
+        return (hitCount.sum());
+    }
+
+    @Override
+    public long getMissCount() {
+        return (missCount.sum());
+    }
+
+    private void evictToWeight() {
+        Iterator<Map.Entry<SoTResourceCacheKey, CacheEntry>> leastRecentlyUsed = entries.entrySet().iterator();
+        while (currentWeight > maximumWeight && leastRecentlyUsed.hasNext()) {
+            Map.Entry<SoTResourceCacheKey, CacheEntry> evictionCandidate = leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+            currentWeight -= evictionCandidate.getValue().weight;
+            forgetKey(evictionCandidate.getKey());
+        }
+    }
+
+    private void removeEntry(SoTResourceCacheKey key) {
+        CacheEntry removedEntry = entries.remove(key);
+        if (removedEntry != null) {
+            currentWeight -= removedEntry.weight;
+            forgetKey(key);
+        }
+    }
+
+    private void forgetKey(SoTResourceCacheKey key) {
+        SoTResourceCacheKey currentVersionKey = key.toCurrentVersionKey();
+        Set<SoTResourceCacheKey> resourceKeys = keysByResource.get(currentVersionKey);
+        if (resourceKeys != null) {
+            resourceKeys.remove(key);
+            if (resourceKeys.isEmpty()) {
+                keysByResource.remove(currentVersionKey);
+            }
+        }
+    }
+
+    private static class CacheEntry {
+        private final Resource resource;
+        private final long weight;
+        private final long expiryTime;
+
+        CacheEntry(Resource resource, long weight, long expiryTime) {
+            this.resource = resource;
+            this.weight = weight;
+            this.expiryTime = expiryTime;
+        }
+
+        boolean isExpired(long now) {
+            return (now >= expiryTime);
+        }
+    }
+}
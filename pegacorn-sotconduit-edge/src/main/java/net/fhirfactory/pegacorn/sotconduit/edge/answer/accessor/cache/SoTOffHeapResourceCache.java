@@ -0,0 +1,421 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hl7.fhir.r4.model.Resource;
+
+import ca.uhn.fhir.parser.DataFormatException;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitEncodingBuffer;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitEncodingModeEnum;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitResourceEncoder;
+
+/**
+ * A SoTResourceCache that holds resources as compact JSON outside the Java
+ * heap, so its size (and the GC's work) does not grow with the working set.
+ * <p>
+ * Encoded resources are appended to a ring of fixed-size slabs (direct
+ * buffers, or regions of a memory-mapped file); when the ring is full the
+ * oldest slab is evicted as a whole and reused. Entries are found through an
+ * open-addressing index, also off-heap, of 64-bit key hashes and slab
+ * locations - the key itself is stored with the entry and checked on lookup.
+ * A resource is only parsed on a hit. A put() encodes the resource once for
+ * all of its keys, and not at all if its encodedSize shows it cannot fit in a
+ * slab.
+ * <p>
+ * invalidate() drops the current version of a resource; versioned entries
+ * (which never change) are left to age out with their slab. It also advances
+ * the resource's generation, turning away puts of reads begun before it.
+ */
+public class SoTOffHeapResourceCache implements SoTResourceCache {
+    public static final int DEFAULT_SLAB_SIZE_IN_BYTES = 4 * 1024 * 1024;
+
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int INDEX_SLOT_SIZE = 16;
+    private static final int EXPECTED_MINIMUM_RECORD_SIZE = 256;
+    private static final double MAXIMUM_INDEX_LOAD = 0.75;
+    private static final int MAXIMUM_INDEX_SLOTS = 1 << 26;
+    private static final int MAXIMUM_RETAINED_SCRATCH_SIZE = 256 * 1024;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final SoTConduitResourceEncoder encoder;
+    private final ByteBuffer[] slabs;
+    private final int[] slabFill;
+    private final int slabSize;
+    private final ByteBuffer index;
+    private final int indexMask;
+    private final int maximumIndexedEntries;
+    private final ThreadLocal<byte[]> readScratch;
+    private final LongAdder hitCount;
+    private final LongAdder missCount;
+    private final SoTResourceCacheGenerations generations;
+    private int currentSlab;
+    private int indexedEntries;
+
+    /**
+     * A cache of slabCount direct buffers of slabSizeInBytes each.
+     */
+    public SoTOffHeapResourceCache(SoTConduitResourceEncoder encoder, int slabCount, int slabSizeInBytes) {
+        this(encoder, allocateSlabs(slabCount, slabSizeInBytes), slabSizeInBytes);
+    }
+
+    private SoTOffHeapResourceCache(SoTConduitResourceEncoder encoder, ByteBuffer[] slabs, int slabSizeInBytes) {
+        if (slabs.length < 2) {
+            throw new IllegalArgumentException("An off-heap cache needs at least two slabs");
+        }
+        this.encoder = encoder;
+        this.slabs = slabs;
+        this.slabFill = new int[slabs.length];
+        this.slabSize = slabSizeInBytes;
+        long expectedEntries = Math.max(1024L, (long) slabs.length * slabSizeInBytes / EXPECTED_MINIMUM_RECORD_SIZE);
+        int indexSlots = Integer.highestOneBit((int) Math.min(MAXIMUM_INDEX_SLOTS / 2, expectedEntries * 2 - 1)) << 1;
+        this.index = ByteBuffer.allocateDirect(indexSlots * INDEX_SLOT_SIZE);
+        this.indexMask = indexSlots - 1;
+        this.maximumIndexedEntries = (int) (indexSlots * MAXIMUM_INDEX_LOAD);
+        this.readScratch = ThreadLocal.withInitial(() -> new byte[EXPECTED_MINIMUM_RECORD_SIZE * 16]);
+        this.hitCount = new LongAdder();
+        this.missCount = new LongAdder();
+        this.generations = new SoTResourceCacheGenerations();
+        this.currentSlab = 0;
+        this.indexedEntries = 0;
+    }
+
+    /**
+     * A cache whose slabs are regions of the given file, mapped into memory, so the
+     * operating system rather than the JVM decides how much of it is resident.
+     */
+    public static SoTOffHeapResourceCache mapped(SoTConduitResourceEncoder encoder, Path cacheFile, int slabCount, int slabSizeInBytes) throws IOException {
+        ByteBuffer[] slabs = new ByteBuffer[slabCount];
+        try (FileChannel cacheChannel = FileChannel.open(cacheFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            for (int slab = 0; slab < slabCount; slab++) {
+                MappedByteBuffer mappedSlab = cacheChannel.map(FileChannel.MapMode.READ_WRITE, (long) slab * slabSizeInBytes, slabSizeInBytes);
+                slabs[slab] = mappedSlab;
+            }
+        }
+        return (new SoTOffHeapResourceCache(encoder, slabs, slabSizeInBytes));
+    }
+
+    private static ByteBuffer[] allocateSlabs(int slabCount, int slabSizeInBytes) {
+        ByteBuffer[] slabs = new ByteBuffer[slabCount];
+        for (int slab = 0; slab < slabCount; slab++) {
+            slabs[slab] = ByteBuffer.allocateDirect(slabSizeInBytes);
+        }
+        return (slabs);
+    }
+
+    @Override
+    public Resource get(SoTResourceCacheKey key) {
+        Resource resource = read(key, false);
+        if (resource == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return (resource);
+    }
+
+    @Override
+    public Resource getStale(SoTResourceCacheKey key) {
+        return (read(key, true));
+    }
+
+    @Override
+    public void put(SoTResourceCacheKey key, Resource resource, int encodedSize, long timeToLiveMillis) {
+        putAll(Collections.singletonList(key), resource, encodedSize, timeToLiveMillis);
+    }
+
+    /**
+     * Each key gets its own record, all holding the one encoding of the resource.
+     * The (caller's) encodedSize is only used to skip resources too large for a
+     * slab without encoding them.
+     */
+    @Override
+    public void putAll(Collection<SoTResourceCacheKey> keys, Resource resource, int encodedSize, long timeToLiveMillis) {
+        putAll(keys, resource, encodedSize, timeToLiveMillis, ANY_GENERATION);
+    }
+
+    /**
+     * The generation is checked as each record is appended, so an invalidation
+     * while the resource is being encoded still turns it away.
+     */
+    @Override
+    public void putAll(Collection<SoTResourceCacheKey> keys, Resource resource, int encodedSize, long timeToLiveMillis, long resourceGeneration) {
+        if (timeToLiveMillis <= 0 || keys.isEmpty() || RECORD_HEADER_SIZE + (long) encodedSize > slabSize) {
+            return;
+        }
+        try (SoTConduitEncodingBuffer encodedResource = encoder.encodeToBuffer(resource, SoTConduitEncodingModeEnum.COMPACT)) {
+            ByteBuffer encodedBytes = encodedResource.asByteBuffer();
+            long expiresAt = System.currentTimeMillis() + timeToLiveMillis;
+            for (SoTResourceCacheKey key : keys) {
+                byte[] keyBytes = key.toString().getBytes(StandardCharsets.UTF_8);
+                if (RECORD_HEADER_SIZE + keyBytes.length + encodedBytes.remaining() <= slabSize && !append(key, keyBytes, encodedBytes.duplicate(), expiresAt, resourceGeneration)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the record, returning false (having appended nothing) if the
+     * resource was invalidated since resourceGeneration.
+     */
+    private synchronized boolean append(SoTResourceCacheKey key, byte[] keyBytes, ByteBuffer encodedBytes, long expiresAt, long resourceGeneration) {
+        if (!generations.isCurrent(key.getResourceType(), key.getIdPart(), resourceGeneration)) {
+            return (false);
+        }
+        int recordSize = RECORD_HEADER_SIZE + keyBytes.length + encodedBytes.remaining();
+        long keyHash = hash(keyBytes);
+        removeIndexed(keyHash, keyBytes);
+        while (indexedEntries >= maximumIndexedEntries) {
+            evictSlab(nextSlab(currentSlab));
+            currentSlab = nextSlab(currentSlab);
+        }
+        if (slabFill[currentSlab] + recordSize > slabSize) {
+            currentSlab = nextSlab(currentSlab);
+            evictSlab(currentSlab);
+        }
+        ByteBuffer slab = slabs[currentSlab];
+        int offset = slabFill[currentSlab];
+        slab.putInt(offset, keyBytes.length);
+        slab.putInt(offset + 4, encodedBytes.remaining());
+        slab.putLong(offset + 8, expiresAt);
+        ByteBuffer record = slab.duplicate();
+        record.position(offset + RECORD_HEADER_SIZE);
+        record.put(keyBytes);
+        record.put(encodedBytes);
+        slabFill[currentSlab] = offset + recordSize;
+        insertIndexed(keyHash, toLocator(currentSlab, offset));
+        return (true);
+    }
+
+    @Override
+    public long getGeneration(String resourceType, String idPart) {
+        return (generations.get(resourceType, idPart));
+    }
+
+    @Override
+    public void invalidate(String resourceType, String idPart) {
+        byte[] keyBytes = new SoTResourceCacheKey(resourceType, idPart, null).toString().getBytes(StandardCharsets.UTF_8);
+        long keyHash = hash(keyBytes);
+        synchronized (this) {
+            generations.advance(resourceType, idPart);
+            removeIndexed(keyHash, keyBytes);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (int slot = 0; slot <= indexMask; slot++) {
+            index.putLong(slot * INDEX_SLOT_SIZE + 8, 0L);
+        }
+        for (int slab = 0; slab < slabs.length; slab++) {
+            slabFill[slab] = 0;
+        }
+        currentSlab = 0;
+        indexedEntries = 0;
+    }
+
+    @Override
+    public long getHitCount() {
+        return (hitCount.sum());
+    }
+
+    @Override
+    public long getMissCount() {
+        return (missCount.sum());
+    }
+
+    public synchronized int size() {
+        return (indexedEntries);
+    }
+
+    //
+    // Reading (bytes are copied out under the lock, parsed outside it)
+    //
+
+    private Resource read(SoTResourceCacheKey key, boolean allowExpired) {
+        byte[] keyBytes = key.toString().getBytes(StandardCharsets.UTF_8);
+        long keyHash = hash(keyBytes);
+        byte[] scratch;
+        int valueLength;
+        synchronized (this) {
+            int slot = findSlot(keyHash, keyBytes);
+            if (slot < 0) {
+                return (null);
+            }
+            long locator = index.getLong(slot * INDEX_SLOT_SIZE + 8);
+            ByteBuffer slab = slabs[locatorSlab(locator)];
+            int offset = locatorOffset(locator);
+            if (!allowExpired && System.currentTimeMillis() >= slab.getLong(offset + 8)) {
+                return (null);
+            }
+            valueLength = slab.getInt(offset + 4);
+            scratch = acquireScratch(valueLength);
+            ByteBuffer value = slab.duplicate();
+            value.position(offset + RECORD_HEADER_SIZE + slab.getInt(offset));
+            value.get(scratch, 0, valueLength);
+        }
+        try {
+            return ((Resource) encoder.getParser(SoTConduitEncodingModeEnum.COMPACT).parseResource(new ByteArrayInputStream(scratch, 0, valueLength)));
+        } catch (DataFormatException unparseable) {
+            invalidateKey(keyHash, keyBytes);
+            return (null);
+        }
+    }
+
+    private byte[] acquireScratch(int requiredLength) {
+        byte[] scratch = readScratch.get();
+        if (scratch.length < requiredLength) {
+            scratch = new byte[Integer.highestOneBit(requiredLength - 1) << 1];
+            if (scratch.length <= MAXIMUM_RETAINED_SCRATCH_SIZE) {
+                readScratch.set(scratch);
+            }
+        }
+        return (scratch);
+    }
+
+    private synchronized void invalidateKey(long keyHash, byte[] keyBytes) {
+        removeIndexed(keyHash, keyBytes);
+    }
+
+    //
+    // Slabs
+    //
+
+    private int nextSlab(int slab) {
+        return (slab + 1 == slabs.length ? 0 : slab + 1);
+    }
+
+    /**
+     * Drops every still-indexed entry held in the slab and empties it.
+     */
+    private void evictSlab(int slab) {
+        ByteBuffer slabBuffer = slabs[slab];
+        int offset = 0;
+        while (offset < slabFill[slab]) {
+            int keyLength = slabBuffer.getInt(offset);
+            int valueLength = slabBuffer.getInt(offset + 4);
+            long locator = toLocator(slab, offset);
+            long keyHash = hash(slabBuffer, offset + RECORD_HEADER_SIZE, keyLength);
+            int slot = (int) keyHash & indexMask;
+            while (index.getLong(slot * INDEX_SLOT_SIZE + 8) != 0L) {
+                if (index.getLong(slot * INDEX_SLOT_SIZE + 8) == locator) {
+                    deleteSlot(slot);
+                    break;
+                }
+                slot = (slot + 1) & indexMask;
+            }
+            offset += RECORD_HEADER_SIZE + keyLength + valueLength;
+        }
+        slabFill[slab] = 0;
+    }
+
+    private static long toLocator(int slab, int offset) {
+        return (((long) (slab + 1) << 32) | (offset & 0xffffffffL));
+    }
+
+    private static int locatorSlab(long locator) {
+        return ((int) (locator >>> 32) - 1);
+    }
+
+    private static int locatorOffset(long locator) {
+        return ((int) locator);
+    }
+
+    //
+    // Index (linear probing, backward-shift deletion; a zero locator is an empty slot)
+    //
+
+    private int findSlot(long keyHash, byte[] keyBytes) {
+        int slot = (int) keyHash & indexMask;
+        while (true) {
+            long locator = index.getLong(slot * INDEX_SLOT_SIZE + 8);
+            if (locator == 0L) {
+                return (-1);
+            }
+            if (index.getLong(slot * INDEX_SLOT_SIZE) == keyHash && keyMatches(locator, keyBytes)) {
+                return (slot);
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    private boolean keyMatches(long locator, byte[] keyBytes) {
+        ByteBuffer slab = slabs[locatorSlab(locator)];
+        int offset = locatorOffset(locator);
+        if (slab.getInt(offset) != keyBytes.length) {
+            return (false);
+        }
+        for (int position = 0; position < keyBytes.length; position++) {
+            if (slab.get(offset + RECORD_HEADER_SIZE + position) != keyBytes[position]) {
+                return (false);
+            }
+        }
+        return (true);
+    }
+
+    private void insertIndexed(long keyHash, long locator) {
+        int slot = (int) keyHash & indexMask;
+        while (index.getLong(slot * INDEX_SLOT_SIZE + 8) != 0L) {
+            slot = (slot + 1) & indexMask;
+        }
+        index.putLong(slot * INDEX_SLOT_SIZE, keyHash);
+        index.putLong(slot * INDEX_SLOT_SIZE + 8, locator);
+        indexedEntries++;
+    }
+
+    private void removeIndexed(long keyHash, byte[] keyBytes) {
+        int slot = findSlot(keyHash, keyBytes);
+        if (slot >= 0) {
+            deleteSlot(slot);
+        }
+    }
+
+    private void deleteSlot(int slot) {
+        int emptySlot = slot;
+        int candidate = (slot + 1) & indexMask;
+        while (index.getLong(candidate * INDEX_SLOT_SIZE + 8) != 0L) {
+            int homeSlot = (int) index.getLong(candidate * INDEX_SLOT_SIZE) & indexMask;
+            // move the candidate back unless its home lies (cyclically) after the gap
+            boolean movable = emptySlot <= candidate ? (homeSlot <= emptySlot || homeSlot > candidate) : (homeSlot <= emptySlot && homeSlot > candidate);
+            if (movable) {
+                index.putLong(emptySlot * INDEX_SLOT_SIZE, index.getLong(candidate * INDEX_SLOT_SIZE));
+                index.putLong(emptySlot * INDEX_SLOT_SIZE + 8, index.getLong(candidate * INDEX_SLOT_SIZE + 8));
+                emptySlot = candidate;
+            }
+            candidate = (candidate + 1) & indexMask;
+        }
+        index.putLong(emptySlot * INDEX_SLOT_SIZE + 8, 0L);
+        indexedEntries--;
+    }
+
+    private static long hash(byte[] bytes) {
+        long keyHash = FNV_OFFSET_BASIS;
+        for (byte keyByte : bytes) {
+            keyHash = (keyHash ^ (keyByte & 0xff)) * FNV_PRIME;
+        }
+        return (mix(keyHash));
+    }
+
+    private static long hash(ByteBuffer buffer, int offset, int length) {
+        long keyHash = FNV_OFFSET_BASIS;
+        for (int position = offset; position < offset + length; position++) {
+            keyHash = (keyHash ^ (buffer.get(position) & 0xff)) * FNV_PRIME;
+        }
+        return (mix(keyHash));
+    }
+
+    private static long mix(long keyHash) {
+        return (keyHash ^ (keyHash >>> 32));
+    }
+}
@@ -0,0 +1,57 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache;
+
+import java.util.Collection;
+
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * A read-through cache of resources retrieved from a Source-of-Truth.
+ * <p>
+ * Implementations must be thread-safe. Resources handed to put() are owned by
+ * the cache; callers get their own copy from get() so that per-request changes
+ * (e.g. security labels) never leak into the cached state.
+ */
+public interface SoTResourceCache {
+    /**
+     * The resourceGeneration for a put that is made whatever has been invalidated.
+     */
+    public static final long ANY_GENERATION = -1L;
+
+    public Resource get(SoTResourceCacheKey key);
+
+    /**
+     * A copy of the cached resource even if its time-to-live has passed (for use
+     * when the Source-of-Truth is unavailable), or null if it is no longer held.
+     * Implementations that do not retain expired entries need not override this.
+     */
+    public default Resource getStale(SoTResourceCacheKey key) {
+        return (null);
+    }
+    public void put(SoTResourceCacheKey key, Resource resource, int encodedSize, long timeToLiveMillis);
+
+    /**
+     * Caches the same resource under each of the keys (e.g. its current and its
+     * versioned key), so that implementations holding an encoded form need only
+     * encode it once.
+     */
+    public default void putAll(Collection<SoTResourceCacheKey> keys, Resource resource, int encodedSize, long timeToLiveMillis) {
+        putAll(keys, resource, encodedSize, timeToLiveMillis, ANY_GENERATION);
+    }
+
+    /**
+     * As putAll(), unless the resource has been invalidated since resourceGeneration
+     * (taken from getGeneration() before the resource was read from the
+     * Source-of-Truth), so that a read already in flight when the resource was
+     * updated or deleted does not cache what it read.
+     */
+    public void putAll(Collection<SoTResourceCacheKey> keys, Resource resource, int encodedSize, long timeToLiveMillis, long resourceGeneration);
+
+    /**
+     * The resource's current invalidation generation, see putAll().
+     */
+    public long getGeneration(String resourceType, String idPart);
+    public void invalidate(String resourceType, String idPart);
+    public void clear();
+    public long getHitCount();
+    public long getMissCount();
+}
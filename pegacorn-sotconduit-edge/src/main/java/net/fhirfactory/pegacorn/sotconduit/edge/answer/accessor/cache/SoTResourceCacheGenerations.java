@@ -0,0 +1,45 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-resource invalidation generations for a SoTResourceCache, in a fixed
+ * number of stripes so that they take no more memory however many resources
+ * pass through the cache. Resources sharing a stripe share a generation, so an
+ * invalidation may also turn away a (then merely uncached) put of another
+ * resource, but never lets a stale one through.
+ * <p>
+ * The owning cache advances the generation and checks it under the same lock
+ * as it invalidates and puts.
+ */
+public class SoTResourceCacheGenerations {
+    private static final int STRIPE_COUNT = 1024;
+
+    private final AtomicLongArray generations;
+
+    public SoTResourceCacheGenerations() {
+        this.generations = new AtomicLongArray(STRIPE_COUNT);
+    }
+
+    public long get(String resourceType, String idPart) {
+        return (generations.get(stripeOf(resourceType, idPart)));
+    }
+
+    public void advance(String resourceType, String idPart) {
+        generations.incrementAndGet(stripeOf(resourceType, idPart));
+    }
+
+    /**
+     * Whether the resource is unchanged since resourceGeneration (or the put is
+     * unconditional, i.e. SoTResourceCache.ANY_GENERATION).
+     */
+    public boolean isCurrent(String resourceType, String idPart, long resourceGeneration) {
+        return (resourceGeneration == SoTResourceCache.ANY_GENERATION || resourceGeneration == get(resourceType, idPart));
+    }
+
+    private static int stripeOf(String resourceType, String idPart) {
+        int hash = Objects.hash(resourceType, idPart);
+        return ((hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1));
+    }
+}
@@ -0,0 +1,72 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache;
+
+import java.util.Objects;
+
+/**
+ * Identifies a cached resource by type, logical id and (optionally) version.
+ * A key without a versionId refers to the current version of the resource.
+ */
+public class SoTResourceCacheKey {
+    private final String resourceType;
+    private final String idPart;
+    private final String versionId;
+    private final int hashCode;
+
+    public SoTResourceCacheKey(String resourceType, String idPart, String versionId) {
+        this.resourceType = resourceType;
+        this.idPart = idPart;
+        this.versionId = versionId;
+        this.hashCode = Objects.hash(resourceType, idPart, versionId);
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    public String getIdPart() {
+        return idPart;
+    }
+
+    public String getVersionId() {
+        return versionId;
+    }
+
+    public boolean isVersioned() {
+        return (versionId != null);
+    }
+
+    public SoTResourceCacheKey toCurrentVersionKey() {
+        if (!isVersioned()) {
+            return (this);
+        }
+        return (new SoTResourceCacheKey(resourceType, idPart, null));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return (true);
+        }
+        if (!(other instanceof SoTResourceCacheKey)) {
+            return (false);
+        }
+        SoTResourceCacheKey otherKey = (SoTResourceCacheKey) other;
+        return (hashCode == otherKey.hashCode
+                && Objects.equals(resourceType, otherKey.resourceType)
+                && Objects.equals(idPart, otherKey.idPart)
+                && Objects.equals(versionId, otherKey.versionId));
+    }
+
+    @Override
+    public int hashCode() {
+        return (hashCode);
+    }
+
+    @Override
+    public String toString() {
+        if (isVersioned()) {
+            return (resourceType + "/" + idPart + "/_history/" + versionId);
+        }
+        return (resourceType + "/" + idPart);
+    }
+}
@@ -0,0 +1,104 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.PrimitiveType;
+import org.hl7.fhir.r4.model.Property;
+
+/**
+ * Identifies a cached search by resource type and a canonical encoding of its
+ * parameter set: parameters are ordered by name (then type), multi-valued
+ * parameters have their values ordered, and every part is length-prefixed, so
+ * the same criteria always give the same key whatever order they were built in.
+ */
+public class SoTSearchCacheKey {
+    private final String resourceType;
+    private final String canonicalCriteria;
+    private final int hashCode;
+
+    public SoTSearchCacheKey(String resourceType, Map<Property, Serializable> parameterSet) {
+        this.resourceType = resourceType;
+        this.canonicalCriteria = canonicalise(parameterSet);
+        this.hashCode = 31 * resourceType.hashCode() + canonicalCriteria.hashCode();
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    public String getCanonicalCriteria() {
+        return canonicalCriteria;
+    }
+
+    private static String canonicalise(Map<Property, Serializable> parameterSet) {
+        if (parameterSet == null || parameterSet.isEmpty()) {
+            return ("");
+        }
+        List<String> parameters = new ArrayList<>(parameterSet.size());
+        for (Map.Entry<Property, Serializable> parameter : parameterSet.entrySet()) {
+            StringBuilder encodedParameter = new StringBuilder();
+            appendPart(encodedParameter, parameter.getKey().getName());
+            appendPart(encodedParameter, parameter.getKey().getTypeCode());
+            appendPart(encodedParameter, canonicaliseValue(parameter.getValue()));
+            parameters.add(encodedParameter.toString());
+        }
+        Collections.sort(parameters);
+        return (String.join("", parameters));
+    }
+
+    private static String canonicaliseValue(Object value) {
+        if (value == null) {
+            return ("");
+        }
+        if (value instanceof PrimitiveType) {
+            return (((PrimitiveType<?>) value).getValueAsString());
+        }
+        if (value instanceof Collection) {
+            List<String> values = new ArrayList<>();
+            for (Object element : (Collection<?>) value) {
+                values.add(canonicaliseValue(element));
+            }
+            Collections.sort(values);
+            StringBuilder encodedValues = new StringBuilder();
+            for (String element : values) {
+                appendPart(encodedValues, element);
+            }
+            return (encodedValues.toString());
+        }
+        return (value.toString());
+    }
+
+    private static void appendPart(StringBuilder builder, String part) {
+        String safePart = part == null ? "" : part;
+        builder.append(safePart.length()).append(':').append(safePart);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return (true);
+        }
+        if (!(other instanceof SoTSearchCacheKey)) {
+            return (false);
+        }
+        SoTSearchCacheKey otherKey = (SoTSearchCacheKey) other;
+        return (hashCode == otherKey.hashCode
+                && resourceType.equals(otherKey.resourceType)
+                && canonicalCriteria.equals(otherKey.canonicalCriteria));
+    }
+
+    @Override
+    public int hashCode() {
+        return (hashCode);
+    }
+
+    @Override
+    public String toString() {
+        return (resourceType + "?" + canonicalCriteria);
+    }
+}
@@ -0,0 +1,84 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of search results, holding only the ids
+ * (idPart) of the matches - the resources themselves are resolved through the
+ * normal read path (and so the SoTResourceCache) when a page is served.
+ * <p>
+ * Every invalidation moves the cache to a new generation; a result computed
+ * under an older generation (i.e. a search that was already running when a
+ * write came through) is not cached.
+ */
+public class SoTSearchResultCache {
+    private final int maximumEntries;
+    private final LinkedHashMap<SoTSearchCacheKey, CacheEntry> entries;
+    private long generation;
+
+    public SoTSearchResultCache(int maximumEntries) {
+        this.maximumEntries = maximumEntries;
+        this.entries = new LinkedHashMap<SoTSearchCacheKey, CacheEntry>(64, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SoTSearchCacheKey, CacheEntry> eldest) {
+                return (size() > SoTSearchResultCache.this.maximumEntries);
+            }
+        };
+        this.generation = 0;
+    }
+
+    /**
+     * The cached result ids (unmodifiable), or null if there are none still live.
+     */
+    public synchronized List<String> get(SoTSearchCacheKey key) {
+        CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            return (null);
+        }
+        if (System.currentTimeMillis() >= entry.expiryTime) {
+            entries.remove(key);
+            return (null);
+        }
+        return (entry.resourceIds);
+    }
+
+    public synchronized long getGeneration() {
+        return (generation);
+    }
+
+    /**
+     * Caches the result ids, unless the cache has been invalidated since
+     * resultGeneration (taken from getGeneration() before the search started).
+     */
+    public synchronized void put(SoTSearchCacheKey key, List<String> resourceIds, long timeToLiveMillis, long resultGeneration) {
+        if (timeToLiveMillis <= 0 || resultGeneration != generation) {
+            return;
+        }
+        entries.put(key, new CacheEntry(Collections.unmodifiableList(new ArrayList<>(resourceIds)), System.currentTimeMillis() + timeToLiveMillis));
+    }
+
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return (entries.size());
+    }
+
+    private static class CacheEntry {
+        private final List<String> resourceIds;
+        private final long expiryTime;
+
+        CacheEntry(List<String> resourceIds, long expiryTime) {
+            this.resourceIds = resourceIds;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.coalescing;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A caller's handle on a (possibly shared) upstream call. Exactly one caller
+ * per key is the leader and must complete() or fail() the call; every other
+ * concurrent caller is a follower and await()s the leader's outcome.
+ */
+public class SoTCoalescedCall<K, V> {
+    private final K key;
+    private final CompletableFuture<V> outcome;
+    private final boolean leader;
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlightCalls;
+
+    SoTCoalescedCall(K key, CompletableFuture<V> outcome, boolean leader, ConcurrentMap<K, CompletableFuture<V>> inFlightCalls) {
+        this.key = key;
+        this.outcome = outcome;
+        this.leader = leader;
+        this.inFlightCalls = inFlightCalls;
+    }
+
+    public boolean isLeader() {
+        return leader;
+    }
+
+    public K getKey() {
+        return key;
+    }
+
+    public void complete(V result) {
+        inFlightCalls.remove(key, outcome);
+        outcome.complete(result);
+    }
+
+    public void fail(Throwable failure) {
+        inFlightCalls.remove(key, outcome);
+        outcome.completeExceptionally(failure);
+    }
+
+    /**
+     * Waits for the leader's outcome. A failure of the upstream call is rethrown
+     * to each follower as-is (if unchecked).
+     */
+    public V await() {
+        try {
+            return (outcome.join());
+        } catch (CompletionException completionException) {
+            Throwable cause = completionException.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw completionException;
+        }
+    }
+}
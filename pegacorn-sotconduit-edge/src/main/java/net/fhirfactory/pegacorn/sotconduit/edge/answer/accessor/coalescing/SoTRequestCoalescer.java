@@ -0,0 +1,75 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.coalescing;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Single-flight coalescing of identical upstream (Source-of-Truth) calls: while
+ * a call for a given key is in flight, further callers for the same key wait
+ * for and share its outcome rather than issuing their own.
+ */
+public class SoTRequestCoalescer<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlightCalls;
+    private final LongAdder leaderCount;
+    private final LongAdder coalescedCount;
+
+    public SoTRequestCoalescer() {
+        this.inFlightCalls = new ConcurrentHashMap<>();
+        this.leaderCount = new LongAdder();
+        this.coalescedCount = new LongAdder();
+    }
+
+    public SoTCoalescedCall<K, V> join(K key) {
+        CompletableFuture<V> newOutcome = new CompletableFuture<>();
+        CompletableFuture<V> inFlightOutcome = inFlightCalls.putIfAbsent(key, newOutcome);
+        if (inFlightOutcome != null) {
+            coalescedCount.increment();
+            return (new SoTCoalescedCall<>(key, inFlightOutcome, false, inFlightCalls));
+        }
+        leaderCount.increment();
+        return (new SoTCoalescedCall<>(key, newOutcome, true, inFlightCalls));
+    }
+
+    /**
+     * Executes the upstream call, or shares the one already in flight for the key.
+     * The outcome is published as a snapshot (snapshotOf, e.g. a deep copy) that
+     * is only ever read, and each follower receives its own snapshotOf() of that;
+     * the leader keeps the original, so every caller may mutate what it is given.
+     */
+    public V execute(K key, Supplier<V> upstreamCall, UnaryOperator<V> snapshotOf) {
+        SoTCoalescedCall<K, V> call = join(key);
+        if (!call.isLeader()) {
+            V sharedResult = call.await();
+            return (sharedResult == null ? null : snapshotOf.apply(sharedResult));
+        }
+        V result;
+        try {
+            result = upstreamCall.get();
+        } catch (RuntimeException | Error upstreamFailure) {
+            call.fail(upstreamFailure);
+            throw upstreamFailure;
+        }
+        try {
+            call.complete(result == null ? null : snapshotOf.apply(result));
+        } catch (RuntimeException | Error snapshotFailure) {
+            call.fail(snapshotFailure);
+            throw snapshotFailure;
+        }
+        return (result);
+    }
+
+    public long getLeaderCount() {
+        return (leaderCount.sum());
+    }
+
+    public long getCoalescedCount() {
+        return (coalescedCount.sum());
+    }
+
+    public int getInFlightCount() {
+        return (inFlightCalls.size());
+    }
+}
@@ -0,0 +1,124 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.conditional;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.hl7.fhir.r4.model.Meta;
+
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.param.ParameterUtil;
+import ca.uhn.fhir.rest.server.exceptions.NotModifiedException;
+
+/**
+ * The If-None-Match / If-Modified-Since preconditions of a read, checked against
+ * a resource's meta.versionId and meta.lastUpdated. As per RFC 7232, when
+ * If-None-Match is given If-Modified-Since is ignored.
+ */
+public class SoTConditionalRead {
+    private static final String ANY_VERSION = "*";
+    private static final DateTimeFormatter HTTP_DATE_FORMAT = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private final Set<String> ifNoneMatchVersions;
+    private final Instant ifModifiedSince;
+
+    public SoTConditionalRead(Set<String> ifNoneMatchVersions, Instant ifModifiedSince) {
+        this.ifNoneMatchVersions = ifNoneMatchVersions != null ? ifNoneMatchVersions : Collections.emptySet();
+        this.ifModifiedSince = ifModifiedSince;
+    }
+
+    /**
+     * The preconditions of the request, or null if it has none (or they cannot be parsed).
+     */
+    public static SoTConditionalRead fromRequest(RequestDetails requestDetails) {
+        if (requestDetails == null) {
+            return (null);
+        }
+        Set<String> ifNoneMatchVersions = new HashSet<>();
+        String ifNoneMatch = requestDetails.getHeader(Constants.HEADER_IF_NONE_MATCH);
+        if (isNotBlank(ifNoneMatch)) {
+            for (String entityTag : ifNoneMatch.split(",")) {
+                String version = ParameterUtil.parseETagValue(entityTag.trim());
+                if (isNotBlank(version)) {
+                    ifNoneMatchVersions.add(version);
+                }
+            }
+        }
+        Instant ifModifiedSince = null;
+        String ifModifiedSinceHeader = requestDetails.getHeader(Constants.HEADER_IF_MODIFIED_SINCE);
+        if (isNotBlank(ifModifiedSinceHeader)) {
+            try {
+                ifModifiedSince = ZonedDateTime.parse(ifModifiedSinceHeader.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            } catch (DateTimeParseException unparseableDate) {
+                ifModifiedSince = null;
+            }
+        }
+        if (ifNoneMatchVersions.isEmpty() && ifModifiedSince == null) {
+            return (null);
+        }
+        return (new SoTConditionalRead(ifNoneMatchVersions, ifModifiedSince));
+    }
+
+    /**
+     * Whether the client's copy (as described by the preconditions) is still
+     * current, given the resource's meta (or a version probe's).
+     */
+    public boolean isNotModified(Meta currentMeta) {
+        if (currentMeta == null) {
+            return (false);
+        }
+        if (!ifNoneMatchVersions.isEmpty()) {
+            return (ifNoneMatchVersions.contains(ANY_VERSION) || (currentMeta.hasVersionId() && ifNoneMatchVersions.contains(currentMeta.getVersionId())));
+        }
+        if (ifModifiedSince != null && currentMeta.hasLastUpdated()) {
+            // HTTP dates only have second precision
+            long lastUpdatedSeconds = currentMeta.getLastUpdated().getTime() / 1000L;
+            return (lastUpdatedSeconds <= ifModifiedSince.getEpochSecond());
+        }
+        return (false);
+    }
+
+    /**
+     * The 304 response for a resource whose current meta satisfied the preconditions,
+     * carrying its ETag and Last-Modified headers.
+     */
+    public NotModifiedException notModified(Meta currentMeta) {
+        NotModifiedException notModified = new NotModifiedException("Not Modified");
+        if (currentMeta.hasVersionId()) {
+            notModified.addResponseHeader(Constants.HEADER_ETAG, "W/\"" + currentMeta.getVersionId() + '"');
+        }
+        if (currentMeta.hasLastUpdated()) {
+            notModified.addResponseHeader(Constants.HEADER_LAST_MODIFIED, formatHttpDate(currentMeta.getLastUpdated()));
+        }
+        return (notModified);
+    }
+
+    public Set<String> getIfNoneMatchVersions() {
+        return (ifNoneMatchVersions);
+    }
+
+    public Instant getIfModifiedSince() {
+        return (ifModifiedSince);
+    }
+
+    private static boolean isNotBlank(String value) {
+        return (value != null && !value.trim().isEmpty());
+    }
+
+    private static String formatHttpDate(Date date) {
+        return (HTTP_DATE_FORMAT.format(date.toInstant()));
+    }
+
+    @Override
+    public String toString() {
+        return ("SoTConditionalRead(ifNoneMatch=" + ifNoneMatchVersions + ", ifModifiedSince=" + ifModifiedSince + ")");
+    }
+}
@@ -0,0 +1,96 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.execution;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of concurrent calls to a single Source-of-Truth. Work
+ * beyond the limit waits in a queue (rather than on a thread) and is started
+ * as soon as an earlier call to the same SoT finishes. Once the waiting queue
+ * is also full, further calls are refused immediately.
+ */
+public class SoTConduitBulkhead {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitBulkhead.class);
+
+    private final String accessorName;
+    private final int maximumConcurrentCalls;
+    private final int maximumWaitingCalls;
+    private final AtomicInteger waitingCallCount;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<Runnable> waitingCalls;
+    private final Executor executor;
+
+    public SoTConduitBulkhead(String accessorName, int maximumConcurrentCalls, Executor executor) {
+        this(accessorName, maximumConcurrentCalls, Integer.MAX_VALUE, executor);
+    }
+
+    public SoTConduitBulkhead(String accessorName, int maximumConcurrentCalls, int maximumWaitingCalls, Executor executor) {
+        this.accessorName = accessorName;
+        this.maximumConcurrentCalls = maximumConcurrentCalls;
+        this.maximumWaitingCalls = maximumWaitingCalls;
+        this.waitingCallCount = new AtomicInteger(0);
+        this.permits = new Semaphore(maximumConcurrentCalls);
+        this.waitingCalls = new ConcurrentLinkedQueue<>();
+        this.executor = executor;
+    }
+
+    public void submit(Runnable call) {
+        if (waitingCallCount.incrementAndGet() > maximumWaitingCalls) {
+            waitingCallCount.decrementAndGet();
+            throw new SoTConduitBulkheadFullException("Too many concurrent calls to " + accessorName);
+        }
+        waitingCalls.add(call);
+        dispatchWaitingCalls();
+    }
+
+    private void dispatchWaitingCalls() {
+        while (!waitingCalls.isEmpty() && permits.tryAcquire()) {
+            Runnable nextCall = waitingCalls.poll();
+            if (nextCall == null) {
+                permits.release();
+                continue;
+            }
+            waitingCallCount.decrementAndGet();
+            try {
+                executor.execute(() -> {
+                    try {
+                        nextCall.run();
+                    } finally {
+                        permits.release();
+                        dispatchWaitingCalls();
+                    }
+                });
+            } catch (RejectedExecutionException rejected) {
+                LOG.warn(".dispatchWaitingCalls(): Executor rejected call for accessor --> {}", accessorName);
+                permits.release();
+                throw rejected;
+            }
+        }
+    }
+
+    public String getAccessorName() {
+        return accessorName;
+    }
+
+    public int getMaximumConcurrentCalls() {
+        return maximumConcurrentCalls;
+    }
+
+    public int getActiveCallCount() {
+        return (maximumConcurrentCalls - permits.availablePermits());
+    }
+
+    public int getMaximumWaitingCalls() {
+        return maximumWaitingCalls;
+    }
+
+    public int getWaitingCallCount() {
+        return (waitingCallCount.get());
+    }
+}
@@ -0,0 +1,17 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.execution;
+
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+
+/**
+ * Thrown (as a 503) when a Source-of-Truth call is refused because the
+ * accessor's bulkhead already has its maximum number of calls running and
+ * waiting.
+ */
+public class SoTConduitBulkheadFullException extends UnclassifiedServerFailureException {
+    private static final long serialVersionUID = 1L;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    public SoTConduitBulkheadFullException(String message) {
+        super(HTTP_SERVICE_UNAVAILABLE, message);
+    }
+}
@@ -0,0 +1,16 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.execution;
+
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+
+/**
+ * Thrown (as a 504) when a synchronous Source-of-Truth call has not finished,
+ * queueing included, within the accessor's deadline.
+ */
+public class SoTConduitDeadlineExceededException extends UnclassifiedServerFailureException {
+    private static final long serialVersionUID = 1L;
+    private static final int HTTP_GATEWAY_TIMEOUT = 504;
+
+    public SoTConduitDeadlineExceededException(String accessorName, long deadlineMillis) {
+        super(HTTP_GATEWAY_TIMEOUT, "Source-of-Truth did not respond within " + deadlineMillis + "ms: " + accessorName);
+    }
+}
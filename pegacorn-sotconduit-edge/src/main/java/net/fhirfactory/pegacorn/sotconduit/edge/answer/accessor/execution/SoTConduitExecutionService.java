@@ -0,0 +1,350 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.execution;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.sotconduit.context.SoTConduitRequestContext;
+import net.fhirfactory.pegacorn.sotconduit.tracing.SoTConduitSpan;
+import net.fhirfactory.pegacorn.sotconduit.tracing.SoTConduitTracer;
+
+/**
+ * Runs Source-of-Truth calls off the calling thread, with a separate bulkhead
+ * (concurrency limit) per accessor so that one slow SoT cannot consume the
+ * capacity needed by the others, and an optional deadline per call.
+ * <p>
+ * The SoTConduitRequestContext of the submitting thread is carried over to the
+ * thread running the call, as a forkWorker() of it so that each call runs in its
+ * own child span of the submitter's current span.
+ * <p>
+ * A call that misses its deadline is abandoned: its caller is failed straight
+ * away and the thread running it is interrupted. The call keeps its bulkhead
+ * permit until it actually returns, so a Source-of-Truth client that ignores
+ * interrupts should have its own (shorter) timeouts.
+ */
+@ApplicationScoped
+public class SoTConduitExecutionService {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitExecutionService.class);
+
+    private static final String THREAD_NAME_PREFIX = "SoTConduitExecutor-";
+    private static final String HEDGE_TIMER_THREAD_NAME = "SoTConduitHedgeTimer";
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000L;
+    private static final String CALL_SPAN_NAME = "bulkhead.call";
+    private static final String HEDGED_CALL_SPAN_NAME = "bulkhead.call.hedge";
+
+    private static final ThreadLocal<SoTConduitBulkhead> CURRENT_BULKHEAD = new ThreadLocal<>();
+
+    private ExecutorService executor;
+    private ScheduledExecutorService hedgeScheduler;
+    private ConcurrentHashMap<String, SoTConduitBulkhead> bulkheads;
+
+    @Inject
+    private SoTConduitTracer conduitTracer;
+
+    @PostConstruct
+    protected void initialise() {
+        LOG.debug(".initialise(): Entry");
+        AtomicInteger threadCount = new AtomicInteger(0);
+        ThreadFactory threadFactory = runnable -> {
+            Thread newThread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+            newThread.setDaemon(true);
+            return (newThread);
+        };
+        this.executor = Executors.newCachedThreadPool(threadFactory);
+        this.hedgeScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread timerThread = new Thread(runnable, HEDGE_TIMER_THREAD_NAME);
+            timerThread.setDaemon(true);
+            return (timerThread);
+        });
+        this.bulkheads = new ConcurrentHashMap<>();
+        LOG.debug(".initialise(): Exit");
+    }
+
+    @PreDestroy
+    protected void shutdown() {
+        LOG.debug(".shutdown(): Entry");
+        hedgeScheduler.shutdownNow();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.debug(".shutdown(): Exit");
+    }
+
+    public SoTConduitBulkhead getBulkhead(String accessorName, int maximumConcurrentCalls, int maximumWaitingCalls) {
+        return (bulkheads.computeIfAbsent(accessorName, name -> new SoTConduitBulkhead(name, maximumConcurrentCalls, maximumWaitingCalls, executor)));
+    }
+
+    public SoTConduitBulkhead getBulkhead(String accessorName) {
+        return (bulkheads.get(accessorName));
+    }
+
+    /**
+     * Runs the call within the accessor's bulkhead, without a deadline.
+     */
+    public <T> CompletableFuture<T> submit(String accessorName, int maximumConcurrentCalls, Supplier<T> call) {
+        return (submit(accessorName, maximumConcurrentCalls, Integer.MAX_VALUE, 0L, call));
+    }
+
+    /**
+     * Runs the call within the accessor's bulkhead. If the bulkhead is full the
+     * returned future fails straight away with SoTConduitBulkheadFullException;
+     * if the call has not finished within deadlineMillis (when positive) it fails
+     * with a TimeoutException - a call that has not yet started by then is skipped.
+     */
+    public <T> CompletableFuture<T> submit(String accessorName, int maximumConcurrentCalls, int maximumWaitingCalls, long deadlineMillis, Supplier<T> call) {
+        return (submit(accessorName, maximumConcurrentCalls, maximumWaitingCalls, deadlineMillis, call, CALL_SPAN_NAME));
+    }
+
+    private <T> CompletableFuture<T> submit(String accessorName, int maximumConcurrentCalls, int maximumWaitingCalls, long deadlineMillis, Supplier<T> call, String spanName) {
+        CompletableFuture<T> outcome = new CompletableFuture<>();
+        SoTConduitRequestContext submitterContext = SoTConduitRequestContext.current();
+        SoTConduitRequestContext requestContext = submitterContext == null ? null : submitterContext.forkWorker();
+        SoTConduitBulkhead bulkhead = getBulkhead(accessorName, maximumConcurrentCalls, maximumWaitingCalls);
+        RunningCall runningCall = new RunningCall();
+        try {
+            bulkhead.submit(newCallTask(accessorName, bulkhead, requestContext, call, spanName, runningCall, outcome));
+        } catch (SoTConduitBulkheadFullException | RejectedExecutionException refused) {
+            outcome.completeExceptionally(refused);
+            return (outcome);
+        }
+        // a caller giving up (deadline or cancel()) interrupts the call, rather than leave it holding its permit
+        outcome.whenComplete((unused, failure) -> {
+            if (failure != null) {
+                runningCall.abandon();
+            }
+        });
+        if (deadlineMillis > 0) {
+            outcome.orTimeout(deadlineMillis, TimeUnit.MILLISECONDS);
+        }
+        return (outcome);
+    }
+
+    /**
+     * Runs the call (on whatever thread runs the task) as part of the bulkhead,
+     * with the submitter's request context, completing the outcome.
+     */
+    private <T> Runnable newCallTask(String accessorName, SoTConduitBulkhead bulkhead, SoTConduitRequestContext requestContext, Supplier<T> call, String spanName, RunningCall runningCall, CompletableFuture<T> outcome) {
+        return (() -> {
+            if (outcome.isDone() || !runningCall.start()) {
+                LOG.trace(".newCallTask(): Call abandoned before it started, accessor --> {}", accessorName);
+                return;
+            }
+            SoTConduitRequestContext previousContext = SoTConduitRequestContext.bind(requestContext);
+            SoTConduitBulkhead previousBulkhead = CURRENT_BULKHEAD.get();
+            CURRENT_BULKHEAD.set(bulkhead);
+            SoTConduitSpan callSpan = conduitTracer.startSpan(spanName).setAttribute("sotconduit.accessor", accessorName);
+            try {
+                T result = call.get();
+                runningCall.finish();
+                outcome.complete(result);
+            } catch (Throwable callFailure) {
+                runningCall.finish();
+                callSpan.recordError(callFailure);
+                outcome.completeExceptionally(callFailure);
+            } finally {
+                callSpan.end();
+                CURRENT_BULKHEAD.set(previousBulkhead);
+                SoTConduitRequestContext.restore(previousContext);
+            }
+        });
+    }
+
+    /**
+     * Runs the call within the accessor's bulkhead and deadline, blocking the
+     * calling thread for its outcome. A thread that is already running a call in
+     * the same bulkhead runs it inline, under that call's permit and deadline.
+     *
+     * @throws SoTConduitBulkheadFullException if the bulkhead is full
+     * @throws SoTConduitDeadlineExceededException if the deadline passed
+     */
+    public <T> T execute(String accessorName, int maximumConcurrentCalls, int maximumWaitingCalls, long deadlineMillis, Supplier<T> call) {
+        if (CURRENT_BULKHEAD.get() == getBulkhead(accessorName, maximumConcurrentCalls, maximumWaitingCalls)) {
+            return (call.get());
+        }
+        return (await(accessorName, deadlineMillis, submit(accessorName, maximumConcurrentCalls, maximumWaitingCalls, deadlineMillis, call)));
+    }
+
+    /**
+     * Blocks for the outcome of a call submitted via submit(), rethrowing its
+     * failure as execute() would.
+     */
+    public <T> T await(String accessorName, long deadlineMillis, CompletableFuture<T> outcome) {
+        try {
+            return (outcome.join());
+        } catch (CompletionException callFailure) {
+            Throwable cause = callFailure.getCause() != null ? callFailure.getCause() : callFailure;
+            if (cause instanceof TimeoutException) {
+                throw new SoTConduitDeadlineExceededException(accessorName, deadlineMillis);
+            }
+            throw unwrap(cause);
+        }
+    }
+
+    /**
+     * Whether the calling thread is running a call in the accessor's bulkhead,
+     * so must not block on further calls submitted to it.
+     */
+    public boolean isWithinBulkhead(String accessorName) {
+        SoTConduitBulkhead currentBulkhead = CURRENT_BULKHEAD.get();
+        return (currentBulkhead != null && currentBulkhead == bulkheads.get(accessorName));
+    }
+
+    /**
+     * Runs the call as the primary attempt, under the permit of the calling thread
+     * (which should hold one of the accessor's bulkhead, see execute()) but on an
+     * executor thread, and if it has not finished after hedgeDelayNanos (and
+     * hedgeAllowed agrees) submits a second, identical attempt to the accessor's
+     * bulkhead. The caller gets the first successful result, without waiting for
+     * the other attempt, which is interrupted - so a primary stuck in (interrupt
+     * ignoring) I/O holds an executor thread, not the caller. A failure is only
+     * reported once every attempt started has failed (the primary's failure, if
+     * it had one); the primary failing before the hedge delay is not retried.
+     * Either way the caller waits no longer than deadlineMillis (when positive).
+     * A primary still running when the caller returns no longer counts against
+     * the bulkhead, whose permit the caller then releases.
+     *
+     * @throws SoTConduitDeadlineExceededException if the deadline passed
+     */
+    public <T> T executeHedged(String accessorName, int maximumConcurrentCalls, int maximumWaitingCalls, long deadlineMillis, Supplier<T> call, long hedgeDelayNanos, BooleanSupplier hedgeAllowed) {
+        SoTConduitRequestContext callerContext = SoTConduitRequestContext.current();
+        // forked now, so the hedge's span is a child of the caller's current span rather than whatever it is by then
+        SoTConduitRequestContext requestContext = callerContext == null ? null : callerContext.forkWorker();
+        SoTConduitBulkhead bulkhead = getBulkhead(accessorName, maximumConcurrentCalls, maximumWaitingCalls);
+        HedgeState<T> hedgeState = new HedgeState<>();
+        CompletableFuture<T> primary = new CompletableFuture<>();
+        RunningCall primaryCall = new RunningCall();
+        primary.whenComplete((result, failure) -> onAttemptOutcome(hedgeState, true, result, failure));
+        try {
+            // straight onto the executor, as the caller's permit covers it
+            executor.execute(newCallTask(accessorName, bulkhead, callerContext == null ? null : callerContext.forkWorker(), call, CALL_SPAN_NAME, primaryCall, primary));
+        } catch (RejectedExecutionException refused) {
+            primary.completeExceptionally(refused);
+        }
+        ScheduledFuture<?> hedgeTimer = hedgeScheduler.schedule(() -> {
+            SoTConduitRequestContext previousContext = SoTConduitRequestContext.bind(requestContext);
+            try {
+                synchronized (hedgeState) {
+                    if (hedgeState.outcome.isDone() || !hedgeAllowed.getAsBoolean()) {
+                        return;
+                    }
+                    LOG.trace(".executeHedged(): Primary call still outstanding, starting hedged call, accessor --> {}", accessorName);
+                    hedgeState.hedge = submit(accessorName, maximumConcurrentCalls, maximumWaitingCalls, deadlineMillis, call, HEDGED_CALL_SPAN_NAME);
+                    hedgeState.attemptsStarted += 1;
+                }
+            } finally {
+                SoTConduitRequestContext.restore(previousContext);
+            }
+            hedgeState.hedge.whenComplete((result, failure) -> onAttemptOutcome(hedgeState, false, result, failure));
+        }, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        if (deadlineMillis > 0) {
+            hedgeState.outcome.orTimeout(deadlineMillis, TimeUnit.MILLISECONDS);
+        }
+        try {
+            return (await(accessorName, deadlineMillis, hedgeState.outcome));
+        } finally {
+            hedgeTimer.cancel(false);
+            // the loser (or, past the deadline, both) is interrupted but not waited for
+            primary.cancel(true);
+            primaryCall.abandon();
+            CompletableFuture<T> hedge;
+            synchronized (hedgeState) {
+                hedge = hedgeState.hedge;
+            }
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+        }
+    }
+
+    private <T> void onAttemptOutcome(HedgeState<T> hedgeState, boolean primaryAttempt, T result, Throwable failure) {
+        if (failure == null) {
+            hedgeState.outcome.complete(result);
+            return;
+        }
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        synchronized (hedgeState) {
+            hedgeState.attemptsFailed += 1;
+            if (primaryAttempt || hedgeState.failure == null) {
+                hedgeState.failure = cause;
+            }
+            if (hedgeState.attemptsFailed < hedgeState.attemptsStarted) {
+                return;
+            }
+            // under the lock, so the hedge timer cannot start another attempt once this is decided
+            LOG.trace(".onAttemptOutcome(): Every attempt failed --> {}", cause.toString());
+            hedgeState.outcome.completeExceptionally(hedgeState.failure);
+        }
+    }
+
+    private static final class HedgeState<T> {
+        private final CompletableFuture<T> outcome = new CompletableFuture<>();
+        private int attemptsStarted = 1;
+        private int attemptsFailed;
+        private Throwable failure;
+        private CompletableFuture<T> hedge;
+    }
+
+    /**
+     * The thread running a submitted call, so that it can be interrupted if the
+     * call is abandoned; the lock ensures an interrupt is only ever delivered
+     * while the call is running (and never leaks into the next call on the thread).
+     */
+    private static final class RunningCall {
+        private Thread runner;
+        private boolean abandoned;
+
+        synchronized boolean start() {
+            if (abandoned) {
+                return (false);
+            }
+            runner = Thread.currentThread();
+            return (true);
+        }
+
+        synchronized void finish() {
+            runner = null;
+            if (abandoned) {
+                Thread.interrupted();
+            }
+        }
+
+        synchronized void abandon() {
+            abandoned = true;
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+    }
+
+    private static RuntimeException unwrap(Throwable failure) {
+        if (failure instanceof RuntimeException) {
+            return ((RuntimeException) failure);
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return (new CompletionException(failure));
+    }
+}
@@ -0,0 +1,47 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.federation;
+
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.SoTConduitGatekeeperBase;
+
+/**
+ * One of the Source-of-Truth gatekeepers behind a federated gatekeeper: the
+ * key that prefixes the ids of the resources it serves ("{key}-{id}"), and how
+ * long the federated gatekeeper waits for it before answering without it.
+ */
+public class SoTFederatedBackend {
+    private final String backendKey;
+    private final SoTConduitGatekeeperBase gatekeeper;
+    private final long deadlineMillis;
+
+    public SoTFederatedBackend(String backendKey, SoTConduitGatekeeperBase gatekeeper, long deadlineMillis) {
+        if (backendKey == null || !backendKey.matches("[A-Za-z0-9.]{1,16}")) {
+            throw new IllegalArgumentException("Backend key must be 1-16 letters, digits or '.': " + backendKey);
+        }
+        if (deadlineMillis <= 0) {
+            throw new IllegalArgumentException("deadlineMillis must be positive");
+        }
+        this.backendKey = backendKey;
+        this.gatekeeper = gatekeeper;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    public String getBackendKey() {
+        return backendKey;
+    }
+
+    public SoTConduitGatekeeperBase getGatekeeper() {
+        return gatekeeper;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    public String toFederatedId(String idPart) {
+        return (backendKey + "-" + idPart);
+    }
+
+    @Override
+    public String toString() {
+        return ("SoTFederatedBackend(" + backendKey + ", " + gatekeeper.getAccessorName() + ", " + deadlineMillis + "ms)");
+    }
+}
@@ -0,0 +1,118 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.r4.model.Identifier;
+
+/**
+ * A concurrent, in-memory index from normalised Identifier (system|value) to
+ * the logical id of the resource carrying it.
+ * <p>
+ * The index is only ever a hint: an id resolved from it must still be read
+ * (and checked) via the normal read path, as the Source-of-Truth may have
+ * changed the resource without this conduit seeing it.
+ */
+public class SoTIdentifierIndex {
+    private static final String NO_SYSTEM = "";
+
+    private final ConcurrentHashMap<String, String> systemPool;
+    private final ConcurrentHashMap<SoTIdentifierKey, String> idByIdentifier;
+    private final ConcurrentHashMap<String, SoTIdentifierKey[]> identifiersById;
+
+    public SoTIdentifierIndex() {
+        this.systemPool = new ConcurrentHashMap<>();
+        this.idByIdentifier = new ConcurrentHashMap<>();
+        this.identifiersById = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Builds the normalised key for an identifier, or null if it has no value.
+     */
+    public SoTIdentifierKey toKey(String system, String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return (null);
+        }
+        String normalisedSystem = system == null ? NO_SYSTEM : system.trim();
+        String pooledSystem = systemPool.computeIfAbsent(normalisedSystem, newSystem -> newSystem);
+        return (new SoTIdentifierKey(pooledSystem, value.trim()));
+    }
+
+    public SoTIdentifierKey toKey(Identifier identifier) {
+        if (identifier == null) {
+            return (null);
+        }
+        return (toKey(identifier.getSystem(), identifier.getValue()));
+    }
+
+    public String lookup(Identifier identifier) {
+        SoTIdentifierKey key = toKey(identifier);
+        if (key == null) {
+            return (null);
+        }
+        return (idByIdentifier.get(key));
+    }
+
+    /**
+     * (Re)indexes the identifiers of a resource, replacing whatever was
+     * previously indexed for that id.
+     */
+    public void index(String idPart, List<Identifier> identifiers) {
+        if (idPart == null || identifiers == null) {
+            return;
+        }
+        List<SoTIdentifierKey> keys = new ArrayList<>(identifiers.size());
+        for (Identifier identifier : identifiers) {
+            SoTIdentifierKey key = toKey(identifier);
+            if (key != null) {
+                keys.add(key);
+            }
+        }
+        SoTIdentifierKey[] newKeys = keys.toArray(new SoTIdentifierKey[0]);
+        SoTIdentifierKey[] previousKeys = identifiersById.put(idPart, newKeys);
+        if (previousKeys != null) {
+            for (SoTIdentifierKey previousKey : previousKeys) {
+                idByIdentifier.remove(previousKey, idPart);
+            }
+        }
+        for (SoTIdentifierKey newKey : newKeys) {
+            idByIdentifier.put(newKey, idPart);
+        }
+    }
+
+    public void remove(String idPart) {
+        if (idPart == null) {
+            return;
+        }
+        SoTIdentifierKey[] previousKeys = identifiersById.remove(idPart);
+        if (previousKeys != null) {
+            for (SoTIdentifierKey previousKey : previousKeys) {
+                idByIdentifier.remove(previousKey, idPart);
+            }
+        }
+    }
+
+    public boolean contains(String idPart, Identifier identifier) {
+        SoTIdentifierKey key = toKey(identifier);
+        SoTIdentifierKey[] indexedKeys = identifiersById.get(idPart);
+        if (key == null || indexedKeys == null) {
+            return (false);
+        }
+        for (SoTIdentifierKey indexedKey : indexedKeys) {
+            if (indexedKey.equals(key)) {
+                return (true);
+            }
+        }
+        return (false);
+    }
+
+    public int size() {
+        return (idByIdentifier.size());
+    }
+
+    public void clear() {
+        idByIdentifier.clear();
+        identifiersById.clear();
+    }
+}
@@ -0,0 +1,49 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.index;
+
+/**
+ * A compact, normalised system|value key for an Identifier. The system is an
+ * interned (pooled) String, so each distinct system is only held once no
+ * matter how many identifiers use it, and the hash is computed up-front.
+ */
+public final class SoTIdentifierKey {
+    private final String system;
+    private final String value;
+    private final int hash;
+
+    SoTIdentifierKey(String system, String value) {
+        this.system = system;
+        this.value = value;
+        this.hash = 31 * System.identityHashCode(system) + value.hashCode();
+    }
+
+    public String getSystem() {
+        return system;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return (true);
+        }
+        if (!(other instanceof SoTIdentifierKey)) {
+            return (false);
+        }
+        SoTIdentifierKey otherKey = (SoTIdentifierKey) other;
+        // systems are interned, so reference equality is sufficient
+        return (hash == otherKey.hash && system == otherKey.system && value.equals(otherKey.value));
+    }
+
+    @Override
+    public int hashCode() {
+        return (hash);
+    }
+
+    @Override
+    public String toString() {
+        return (system + "|" + value);
+    }
+}
@@ -0,0 +1,207 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.resilience;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A circuit breaker for one Source-of-Truth, driven by both the error rate and
+ * the slow-call rate over the last windowSize calls.
+ * <p>
+ * Once either rate reaches its threshold (and at least minimumCalls have been
+ * seen) the breaker OPENs and refuses calls for openDurationMillis. It then goes
+ * HALF_OPEN and lets halfOpenProbeCalls calls through: if they all succeed
+ * promptly it CLOSEs again, otherwise it re-OPENs.
+ */
+public class SoTCircuitBreaker {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTCircuitBreaker.class);
+
+    private final String accessorName;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallThresholdNanos;
+    private final long openDurationMillis;
+    private final int halfOpenProbeCalls;
+    private final SoTCircuitBreakerListener listener;
+
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int nextIndex;
+    private int recordedCalls;
+    private int failedCallCount;
+    private int slowCallCount;
+
+    private SoTCircuitBreakerStateEnum state;
+    private long openedAt;
+    private int probesPermitted;
+    private int probesSucceeded;
+
+    public SoTCircuitBreaker(String accessorName, int windowSize, int minimumCalls, double failureRateThreshold, double slowCallRateThreshold, long slowCallThresholdMillis, long openDurationMillis, int halfOpenProbeCalls, SoTCircuitBreakerListener listener) {
+        this.accessorName = accessorName;
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallThresholdNanos = slowCallThresholdMillis * 1000000L;
+        this.openDurationMillis = openDurationMillis;
+        this.halfOpenProbeCalls = Math.max(1, halfOpenProbeCalls);
+        this.listener = listener;
+        this.failedCalls = new boolean[windowSize];
+        this.slowCalls = new boolean[windowSize];
+        this.state = SoTCircuitBreakerStateEnum.CLOSED;
+    }
+
+    /**
+     * Whether a call may go ahead. Every permitted call must be followed by
+     * exactly one recordSuccess(), recordFailure() or releasePermission().
+     */
+    public boolean tryAcquirePermission() {
+        SoTCircuitBreakerStateEnum previousState;
+        synchronized (this) {
+            previousState = state;
+            switch (state) {
+                case CLOSED:
+                    return (true);
+                case OPEN:
+                    if (System.currentTimeMillis() - openedAt < openDurationMillis) {
+                        return (false);
+                    }
+                    changeState(SoTCircuitBreakerStateEnum.HALF_OPEN);
+                    probesPermitted = 1;
+                    break;
+                case HALF_OPEN:
+                default:
+                    if (probesPermitted >= halfOpenProbeCalls) {
+                        return (false);
+                    }
+                    probesPermitted += 1;
+                    return (true);
+            }
+        }
+        notifyListener(previousState, SoTCircuitBreakerStateEnum.HALF_OPEN);
+        return (true);
+    }
+
+    /**
+     * For a permitted call that never reached the Source-of-Truth (e.g. it was
+     * refused by the bulkhead, or is not supported), so tells us nothing about it.
+     */
+    public synchronized void releasePermission() {
+        if (state == SoTCircuitBreakerStateEnum.HALF_OPEN && probesPermitted > probesSucceeded) {
+            probesPermitted -= 1;
+        }
+    }
+
+    public void recordSuccess(long elapsedNanos) {
+        recordOutcome(false, elapsedNanos >= slowCallThresholdNanos);
+    }
+
+    public void recordFailure(long elapsedNanos) {
+        recordOutcome(true, elapsedNanos >= slowCallThresholdNanos);
+    }
+
+    private void recordOutcome(boolean failed, boolean slow) {
+        SoTCircuitBreakerStateEnum previousState;
+        SoTCircuitBreakerStateEnum newState;
+        synchronized (this) {
+            previousState = state;
+            switch (state) {
+                case HALF_OPEN:
+                    if (failed || slow) {
+                        open();
+                    } else {
+                        probesSucceeded += 1;
+                        if (probesSucceeded >= halfOpenProbeCalls) {
+                            resetWindow();
+                            changeState(SoTCircuitBreakerStateEnum.CLOSED);
+                        }
+                    }
+                    break;
+                case CLOSED:
+                    recordInWindow(failed, slow);
+                    if (recordedCalls >= minimumCalls && (getFailureRate() >= failureRateThreshold || getSlowCallRate() >= slowCallRateThreshold)) {
+                        open();
+                    }
+                    break;
+                case OPEN:
+                default:
+                    // a call permitted before the breaker opened
+                    break;
+            }
+            newState = state;
+        }
+        if (newState != previousState) {
+            notifyListener(previousState, newState);
+        }
+    }
+
+    private void recordInWindow(boolean failed, boolean slow) {
+        if (recordedCalls == failedCalls.length) {
+            failedCallCount -= failedCalls[nextIndex] ? 1 : 0;
+            slowCallCount -= slowCalls[nextIndex] ? 1 : 0;
+        } else {
+            recordedCalls += 1;
+        }
+        failedCalls[nextIndex] = failed;
+        slowCalls[nextIndex] = slow;
+        failedCallCount += failed ? 1 : 0;
+        slowCallCount += slow ? 1 : 0;
+        nextIndex = (nextIndex + 1) % failedCalls.length;
+    }
+
+    private void open() {
+        openedAt = System.currentTimeMillis();
+        changeState(SoTCircuitBreakerStateEnum.OPEN);
+    }
+
+    private void resetWindow() {
+        nextIndex = 0;
+        recordedCalls = 0;
+        failedCallCount = 0;
+        slowCallCount = 0;
+    }
+
+    private void changeState(SoTCircuitBreakerStateEnum newState) {
+        LOG.info(".changeState(): Circuit breaker state change, accessor --> {}, {} --> {}, failureRate --> {}, slowCallRate --> {}", accessorName, state, newState, getFailureRate(), getSlowCallRate());
+        state = newState;
+        probesPermitted = 0;
+        probesSucceeded = 0;
+    }
+
+    private void notifyListener(SoTCircuitBreakerStateEnum previousState, SoTCircuitBreakerStateEnum newState) {
+        if (listener == null) {
+            return;
+        }
+        try {
+            listener.onStateChange(this, previousState, newState);
+        } catch (RuntimeException listenerFailure) {
+            LOG.warn(".notifyListener(): Listener failed --> {}", listenerFailure.toString());
+        }
+    }
+
+    public synchronized SoTCircuitBreakerStateEnum getState() {
+        return (state);
+    }
+
+    /**
+     * How long until an OPEN breaker will let a probe call through (zero if it is
+     * not OPEN).
+     */
+    public synchronized long getRemainingOpenMillis() {
+        if (state != SoTCircuitBreakerStateEnum.OPEN) {
+            return (0L);
+        }
+        return (Math.max(0L, openDurationMillis - (System.currentTimeMillis() - openedAt)));
+    }
+
+    public synchronized double getFailureRate() {
+        return (recordedCalls == 0 ? 0.0 : (double) failedCallCount / recordedCalls);
+    }
+
+    public synchronized double getSlowCallRate() {
+        return (recordedCalls == 0 ? 0.0 : (double) slowCallCount / recordedCalls);
+    }
+
+    public String getAccessorName() {
+        return accessorName;
+    }
+}
@@ -0,0 +1,9 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.resilience;
+
+/**
+ * Told of every SoTCircuitBreaker state change. Called on the thread whose call
+ * caused the change, outside the breaker's lock.
+ */
+public interface SoTCircuitBreakerListener {
+    public void onStateChange(SoTCircuitBreaker circuitBreaker, SoTCircuitBreakerStateEnum previousState, SoTCircuitBreakerStateEnum newState);
+}
@@ -0,0 +1,17 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.resilience;
+
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+
+/**
+ * Thrown (as a 503, with a Retry-After) when a Source-of-Truth call is refused
+ * because the accessor's circuit breaker is open.
+ */
+public class SoTCircuitBreakerOpenException extends UnclassifiedServerFailureException {
+    private static final long serialVersionUID = 1L;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    public SoTCircuitBreakerOpenException(String accessorName, long retryAfterMillis) {
+        super(HTTP_SERVICE_UNAVAILABLE, "Source-of-Truth is unavailable (circuit open), please retry: " + accessorName);
+        addResponseHeader("Retry-After", Long.toString(Math.max(1L, (retryAfterMillis + 999L) / 1000L)));
+    }
+}
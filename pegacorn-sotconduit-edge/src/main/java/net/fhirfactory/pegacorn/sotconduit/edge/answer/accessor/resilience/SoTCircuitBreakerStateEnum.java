@@ -0,0 +1,7 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.resilience;
+
+public enum SoTCircuitBreakerStateEnum {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+}
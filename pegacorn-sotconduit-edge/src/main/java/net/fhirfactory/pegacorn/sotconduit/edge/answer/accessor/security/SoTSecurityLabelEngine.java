@@ -0,0 +1,232 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.security;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.Base;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Property;
+import org.hl7.fhir.r4.model.Resource;
+
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache.SoTResourceCacheKey;
+
+/**
+ * Applies a set of SoTSecurityLabelRules. The rules are compiled once (at
+ * construction) into a matcher per resource type: the labels that always apply
+ * plus a map from identifier system to the labels it adds, each already
+ * de-duplicated. Labelling a resource therefore costs one lookup per identifier
+ * it carries, however many rules there are.
+ * <p>
+ * The computed label set is cached per resource type, id and version (resources
+ * without a version are not cached, as their identifiers may change), up to
+ * maximumCachedResources.
+ */
+public class SoTSecurityLabelEngine {
+    private static final Coding[] NO_LABELS = new Coding[0];
+
+    private final Map<String, CompiledRules> rulesByResourceType;
+    private final CompiledRules anyResourceTypeRules;
+    private final int maximumCachedResources;
+    private final LinkedHashMap<SoTResourceCacheKey, Coding[]> labelCache;
+    private long cacheHits;
+    private long cacheMisses;
+
+    public SoTSecurityLabelEngine(Collection<SoTSecurityLabelRule> rules, int maximumCachedResources) {
+        List<SoTSecurityLabelRule> anyTypeRules = new ArrayList<>();
+        Map<String, List<SoTSecurityLabelRule>> typedRules = new HashMap<>();
+        for (SoTSecurityLabelRule rule : rules) {
+            if (rule.appliesToAnyResourceType()) {
+                anyTypeRules.add(rule);
+            } else {
+                typedRules.computeIfAbsent(rule.getResourceType(), resourceType -> new ArrayList<>()).add(rule);
+            }
+        }
+        this.anyResourceTypeRules = new CompiledRules(anyTypeRules);
+        this.rulesByResourceType = new HashMap<>();
+        for (Map.Entry<String, List<SoTSecurityLabelRule>> typedRuleSet : typedRules.entrySet()) {
+            List<SoTSecurityLabelRule> combinedRules = new ArrayList<>(anyTypeRules);
+            combinedRules.addAll(typedRuleSet.getValue());
+            rulesByResourceType.put(typedRuleSet.getKey(), new CompiledRules(combinedRules));
+        }
+        this.maximumCachedResources = maximumCachedResources;
+        this.labelCache = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    public boolean hasRules() {
+        return (!anyResourceTypeRules.isEmpty() || !rulesByResourceType.isEmpty());
+    }
+
+    /**
+     * Adds the matching labels (those not already present) to the resource's
+     * meta.security.
+     */
+    public void apply(Resource resource) {
+        if (resource == null || !hasRules()) {
+            return;
+        }
+        Coding[] labels = resolveLabels(resource);
+        if (labels.length == 0) {
+            return;
+        }
+        List<Coding> existingLabels = resource.getMeta().getSecurity();
+        for (Coding label : labels) {
+            if (!containsLabel(existingLabels, label)) {
+                resource.getMeta().addSecurity(label.copy());
+            }
+        }
+    }
+
+    /**
+     * Labels every resource in the Bundle in a single pass over its entries.
+     */
+    public void apply(Bundle bundle) {
+        if (bundle == null || !hasRules()) {
+            return;
+        }
+        for (Bundle.BundleEntryComponent entry : bundle.getEntry()) {
+            if (entry.hasResource()) {
+                apply(entry.getResource());
+            }
+        }
+    }
+
+    private Coding[] resolveLabels(Resource resource) {
+        String resourceType = resource.fhirType();
+        CompiledRules compiledRules = rulesByResourceType.getOrDefault(resourceType, anyResourceTypeRules);
+        if (compiledRules.isEmpty()) {
+            return (NO_LABELS);
+        }
+        SoTResourceCacheKey cacheKey = null;
+        if (maximumCachedResources > 0 && resource.getIdElement().hasIdPart() && resource.getMeta().hasVersionId()) {
+            cacheKey = new SoTResourceCacheKey(resourceType, resource.getIdElement().getIdPart(), resource.getMeta().getVersionId());
+            synchronized (labelCache) {
+                Coding[] cachedLabels = labelCache.get(cacheKey);
+                if (cachedLabels != null) {
+                    cacheHits += 1;
+                    return (cachedLabels);
+                }
+                cacheMisses += 1;
+            }
+        }
+        Coding[] labels = compiledRules.match(resource);
+        if (cacheKey != null) {
+            synchronized (labelCache) {
+                labelCache.put(cacheKey, labels);
+                if (labelCache.size() > maximumCachedResources) {
+                    labelCache.remove(labelCache.keySet().iterator().next());
+                }
+            }
+        }
+        return (labels);
+    }
+
+    public void invalidate(String resourceType, String idPart) {
+        synchronized (labelCache) {
+            labelCache.keySet().removeIf(cacheKey -> cacheKey.getResourceType().equals(resourceType) && cacheKey.getIdPart().equals(idPart));
+        }
+    }
+
+    public long getCacheHits() {
+        synchronized (labelCache) {
+            return (cacheHits);
+        }
+    }
+
+    public long getCacheMisses() {
+        synchronized (labelCache) {
+            return (cacheMisses);
+        }
+    }
+
+    private static boolean containsLabel(List<Coding> labels, Coding candidate) {
+        for (Coding label : labels) {
+            if (sameLabel(label, candidate)) {
+                return (true);
+            }
+        }
+        return (false);
+    }
+
+    private static boolean sameLabel(Coding label, Coding otherLabel) {
+        return (label.getSystem() != null ? label.getSystem().equals(otherLabel.getSystem()) : otherLabel.getSystem() == null)
+                && (label.getCode() != null ? label.getCode().equals(otherLabel.getCode()) : otherLabel.getCode() == null);
+    }
+
+    private static Coding[] merge(Coding[] labels, Coding[] additionalLabels) {
+        List<Coding> mergedLabels = new ArrayList<>(labels.length + additionalLabels.length);
+        for (Coding label : labels) {
+            mergedLabels.add(label);
+        }
+        for (Coding label : additionalLabels) {
+            if (!containsLabel(mergedLabels, label)) {
+                mergedLabels.add(label);
+            }
+        }
+        return (mergedLabels.toArray(NO_LABELS));
+    }
+
+    /**
+     * The rules for one resource type, compiled to the unconditional labels and a
+     * per identifier system lookup.
+     */
+    private static class CompiledRules {
+        private final Coding[] unconditionalLabels;
+        private final Map<String, Coding[]> labelsByIdentifierSystem;
+
+        CompiledRules(List<SoTSecurityLabelRule> rules) {
+            Coding[] alwaysApplied = NO_LABELS;
+            Map<String, Coding[]> bySystem = new HashMap<>();
+            for (SoTSecurityLabelRule rule : rules) {
+                Coding[] ruleLabels = rule.getLabels().toArray(NO_LABELS);
+                if (rule.getIdentifierSystem() == null) {
+                    alwaysApplied = merge(alwaysApplied, ruleLabels);
+                } else {
+                    bySystem.merge(rule.getIdentifierSystem(), merge(NO_LABELS, ruleLabels), SoTSecurityLabelEngine::merge);
+                }
+            }
+            this.unconditionalLabels = alwaysApplied;
+            this.labelsByIdentifierSystem = bySystem;
+        }
+
+        boolean isEmpty() {
+            return (unconditionalLabels.length == 0 && labelsByIdentifierSystem.isEmpty());
+        }
+
+        Coding[] match(Resource resource) {
+            Coding[] labels = unconditionalLabels;
+            if (labelsByIdentifierSystem.isEmpty()) {
+                return (labels);
+            }
+            for (Identifier identifier : identifiersOf(resource)) {
+                Coding[] systemLabels = identifier.hasSystem() ? labelsByIdentifierSystem.get(identifier.getSystem()) : null;
+                if (systemLabels != null) {
+                    labels = labels.length == 0 ? systemLabels : merge(labels, systemLabels);
+                }
+            }
+            return (labels);
+        }
+    }
+
+    /**
+     * The resource's identifier element(s), found via the generic FHIR element
+     * model so that any resource type is supported.
+     */
+    private static List<Identifier> identifiersOf(Resource resource) {
+        List<Identifier> identifiers = new ArrayList<>();
+        Property identifierProperty = resource.getNamedProperty("identifier");
+        if (identifierProperty != null) {
+            for (Base value : identifierProperty.getValues()) {
+                if (value instanceof Identifier) {
+                    identifiers.add((Identifier) value);
+                }
+            }
+        }
+        return (identifiers);
+    }
+}
@@ -0,0 +1,47 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.security;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.hl7.fhir.r4.model.Coding;
+
+/**
+ * A declarative security labelling rule: resources of resourceType (or of any
+ * type, for ANY_RESOURCE_TYPE) carrying an identifier from identifierSystem (or
+ * unconditionally, if identifierSystem is null) are given the labels.
+ */
+public class SoTSecurityLabelRule {
+    public static final String ANY_RESOURCE_TYPE = "*";
+
+    private final String resourceType;
+    private final String identifierSystem;
+    private final List<Coding> labels;
+
+    public SoTSecurityLabelRule(String resourceType, String identifierSystem, List<Coding> labels) {
+        this.resourceType = resourceType == null ? ANY_RESOURCE_TYPE : resourceType;
+        this.identifierSystem = identifierSystem;
+        this.labels = Collections.unmodifiableList(new ArrayList<>(labels));
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    public String getIdentifierSystem() {
+        return identifierSystem;
+    }
+
+    public List<Coding> getLabels() {
+        return labels;
+    }
+
+    public boolean appliesToAnyResourceType() {
+        return (ANY_RESOURCE_TYPE.equals(resourceType));
+    }
+
+    @Override
+    public String toString() {
+        return ("SoTSecurityLabelRule{resourceType=" + resourceType + ", identifierSystem=" + identifierSystem + ", labels=" + labels.size() + "}");
+    }
+}
@@ -0,0 +1,377 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.admission;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+
+/**
+ * Decides, before a request is handed to HAPI, whether the conduit has the
+ * capacity to serve it.
+ * <p>
+ * Requests are classified by the SoTConduitActionEnum they will perform, and
+ * each class has its own adaptive (SoTConduitGradientLimit) concurrency limit,
+ * so that e.g. a burst of searches cannot take the capacity that REVIEWs need.
+ * Requests beyond a class's limit wait in per-client FIFO queues, which are
+ * served in weighted round robin (see specifyClientWeight()) so that one busy
+ * client cannot starve the rest. A request is shed, rather than queued, when
+ * its client already holds more than its share of the class's queue (429) or
+ * the queue is full (503), and a queued request that is not admitted within
+ * the class's maximum wait is shed (503) too.
+ */
+@ApplicationScoped
+public class SoTConduitAdmissionController {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitAdmissionController.class);
+
+    private static final int DEFAULT_INITIAL_LIMIT = 20;
+    private static final int DEFAULT_MINIMUM_LIMIT = 2;
+    private static final int DEFAULT_MAXIMUM_LIMIT = 200;
+    private static final int DEFAULT_MAXIMUM_QUEUE_LENGTH = 100;
+    private static final double DEFAULT_MAXIMUM_CLIENT_QUEUE_SHARE = 0.5;
+    private static final long DEFAULT_REVIEW_QUEUE_WAIT_MILLIS = 250L;
+    private static final long DEFAULT_MAXIMUM_QUEUE_WAIT_MILLIS = 1000L;
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1000L;
+    private static final String FORWARDED_FOR_HEADER = "X-Forwarded-For";
+    private static final String TRUSTED_PROXIES_PROPERTY = "sotconduit.admission.trusted.proxies";
+    private static final String TRUSTED_PROXIES_ENVIRONMENT_VARIABLE = "SOTCONDUIT_ADMISSION_TRUSTED_PROXIES";
+    private static final String UNKNOWN_CLIENT = "unknown";
+
+    private Map<SoTConduitActionEnum, AdmissionLane> lanes;
+    private Set<String> trustedProxies;
+
+    @PostConstruct
+    protected void initialise() {
+        LOG.debug(".initialise(): Entry");
+        this.lanes = new EnumMap<>(SoTConduitActionEnum.class);
+        for (SoTConduitActionEnum action : SoTConduitActionEnum.values()) {
+            SoTConduitGradientLimit limit = new SoTConduitGradientLimit(specifyInitialLimit(action), specifyMinimumLimit(action), specifyMaximumLimit(action));
+            lanes.put(action, new AdmissionLane(action, limit));
+        }
+        this.trustedProxies = specifyTrustedProxies();
+        LOG.debug(".initialise(): Exit, trustedProxies --> {}", trustedProxies);
+    }
+
+    protected int specifyInitialLimit(SoTConduitActionEnum action) {
+        return (DEFAULT_INITIAL_LIMIT);
+    }
+
+    protected int specifyMinimumLimit(SoTConduitActionEnum action) {
+        return (DEFAULT_MINIMUM_LIMIT);
+    }
+
+    protected int specifyMaximumLimit(SoTConduitActionEnum action) {
+        return (DEFAULT_MAXIMUM_LIMIT);
+    }
+
+    /**
+     * How many requests of the class may wait for capacity before further
+     * requests are shed. Zero sheds as soon as the limit is reached.
+     */
+    protected int specifyMaximumQueueLength(SoTConduitActionEnum action) {
+        return (DEFAULT_MAXIMUM_QUEUE_LENGTH);
+    }
+
+    /**
+     * The fraction of the class's queue any one client may occupy.
+     */
+    protected double specifyMaximumClientQueueShare(SoTConduitActionEnum action) {
+        return (DEFAULT_MAXIMUM_CLIENT_QUEUE_SHARE);
+    }
+
+    /**
+     * How long a request of the class may wait for capacity. REVIEWs, which are
+     * expected to be fast, wait least: a REVIEW that has already queued for long
+     * is better shed (and retried) than served late.
+     */
+    protected long specifyMaximumQueueWaitMillis(SoTConduitActionEnum action) {
+        if (action == SoTConduitActionEnum.REVIEW) {
+            return (DEFAULT_REVIEW_QUEUE_WAIT_MILLIS);
+        }
+        return (DEFAULT_MAXIMUM_QUEUE_WAIT_MILLIS);
+    }
+
+    protected long specifyRetryAfterMillis(SoTConduitActionEnum action) {
+        return (DEFAULT_RETRY_AFTER_MILLIS);
+    }
+
+    /**
+     * How many queued requests of the client are admitted in its turn of the
+     * round robin, relative to other clients.
+     */
+    protected int specifyClientWeight(String clientKey) {
+        return (1);
+    }
+
+    /**
+     * The addresses of the reverse proxies whose X-Forwarded-For is believed
+     * (sotconduit.admission.trusted.proxies, or the
+     * SOTCONDUIT_ADMISSION_TRUSTED_PROXIES environment variable, comma
+     * separated). None by default, as any client can set the header.
+     */
+    protected Set<String> specifyTrustedProxies() {
+        String configuredProxies = System.getProperty(TRUSTED_PROXIES_PROPERTY, System.getenv(TRUSTED_PROXIES_ENVIRONMENT_VARIABLE));
+        if (configuredProxies == null || configuredProxies.isBlank()) {
+            return (Collections.emptySet());
+        }
+        Set<String> proxies = new HashSet<>();
+        for (String proxy : configuredProxies.split(",")) {
+            if (!proxy.isBlank()) {
+                proxies.add(proxy.trim());
+            }
+        }
+        return (Collections.unmodifiableSet(proxies));
+    }
+
+    /**
+     * Who the request is from, for fair queueing: the authenticated user if
+     * there is one, else the originating address. X-Forwarded-For is only used
+     * when the request came through a trusted proxy, and then only as far back
+     * as the first address that is not itself a trusted proxy.
+     */
+    protected String specifyClientKey(HttpServletRequest request) {
+        if (request.getRemoteUser() != null) {
+            return (request.getRemoteUser());
+        }
+        String clientAddress = request.getRemoteAddr() != null ? request.getRemoteAddr() : UNKNOWN_CLIENT;
+        String forwardedFor = request.getHeader(FORWARDED_FOR_HEADER);
+        if (forwardedFor == null || forwardedFor.isBlank() || !trustedProxies.contains(clientAddress)) {
+            return (clientAddress);
+        }
+        String[] forwardedAddresses = forwardedFor.split(",");
+        for (int index = forwardedAddresses.length - 1; index >= 0; index--) {
+            String forwardedAddress = forwardedAddresses[index].trim();
+            if (forwardedAddress.isEmpty()) {
+                continue;
+            }
+            clientAddress = forwardedAddress;
+            if (!trustedProxies.contains(forwardedAddress)) {
+                break;
+            }
+        }
+        return (clientAddress);
+    }
+
+    /**
+     * Classifies a FHIR REST request, or returns null for requests (e.g. the
+     * capability statement) that are not subject to admission control.
+     * Server-level operations ($export, $write-status, ...) and the conduit's
+     * own endpoints (/_conduit/...) are classed as SEARCHes.
+     */
+    public SoTConduitRequestClass classify(HttpServletRequest request) {
+        String method = request.getMethod();
+        String pathInfo = request.getPathInfo();
+        String[] segments = pathInfo == null ? new String[0] : pathInfo.replaceAll("^/+|/+$", "").split("/+");
+        if (segments.length == 1 && segments[0].isEmpty()) {
+            segments = new String[0];
+        }
+        SoTConduitActionEnum action = null;
+        String resourceType = null;
+        if (segments.length == 0) {
+            // a batch, whose entries the batch provider routes to the gatekeepers
+            if ("POST".equals(method)) {
+                action = SoTConduitActionEnum.SEARCH;
+            }
+        } else if (segments[0].startsWith("$") || segments[0].startsWith("_")) {
+            // a server-level operation or system-wide interaction
+            action = SoTConduitActionEnum.SEARCH;
+        } else if (!segments[0].isEmpty() && Character.isUpperCase(segments[0].charAt(0))) {
+            resourceType = segments[0];
+            action = classifyResourceRequest(method, segments);
+        }
+        if (action == null) {
+            return (null);
+        }
+        String requestSummary = method + " " + (pathInfo == null ? "/" : pathInfo);
+        return (new SoTConduitRequestClass(action, resourceType, specifyClientKey(request), requestSummary));
+    }
+
+    private SoTConduitActionEnum classifyResourceRequest(String method, String[] segments) {
+        boolean instanceLevel = segments.length > 1 && !segments[1].startsWith("_") && !segments[1].startsWith("$");
+        switch (method) {
+            case "GET":
+                return (instanceLevel && (segments.length == 2 || "_history".equals(segments[2])) ? SoTConduitActionEnum.REVIEW : SoTConduitActionEnum.SEARCH);
+            case "POST":
+                return (segments.length == 1 ? SoTConduitActionEnum.CREATE : SoTConduitActionEnum.SEARCH);
+            case "PUT":
+                return (SoTConduitActionEnum.UPDATE);
+            case "DELETE":
+                return (SoTConduitActionEnum.DELETE);
+            default:
+                return (null);
+        }
+    }
+
+    /**
+     * Admits the request (waiting, if need be, up to the class's maximum queue
+     * wait) or throws SoTConduitAdmissionRejectedException. The permit returned
+     * must be released once the response is complete.
+     */
+    public SoTConduitAdmissionPermit acquire(SoTConduitRequestClass requestClass) {
+        SoTConduitActionEnum action = requestClass.getAction();
+        AdmissionLane lane = lanes.get(action);
+        Waiter waiter;
+        synchronized (lane) {
+            if (lane.queuedCount == 0 && lane.inFlight < lane.limit.getLimit()) {
+                lane.inFlight++;
+                return (new SoTConduitAdmissionPermit(lane));
+            }
+            int maximumQueueLength = specifyMaximumQueueLength(action);
+            if (lane.queuedCount >= maximumQueueLength) {
+                throw (shed(requestClass, 503, "Too many concurrent " + action + " requests"));
+            }
+            int maximumClientQueueLength = Math.max(1, (int) (maximumQueueLength * specifyMaximumClientQueueShare(action)));
+            ArrayDeque<Waiter> clientQueue = lane.clientQueues.get(requestClass.getClientKey());
+            if (clientQueue != null && clientQueue.size() >= maximumClientQueueLength) {
+                throw (shed(requestClass, 429, "Too many concurrent " + action + " requests from client " + requestClass.getClientKey()));
+            }
+            waiter = lane.enqueue(requestClass.getClientKey());
+        }
+        boolean admitted;
+        try {
+            admitted = waiter.latch.await(specifyMaximumQueueWaitMillis(action), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        synchronized (lane) {
+            // admission may have raced the timeout
+            if (admitted || waiter.admitted) {
+                return (new SoTConduitAdmissionPermit(lane));
+            }
+            lane.dequeue(waiter);
+        }
+        throw (shed(requestClass, 503, "Timed out waiting for capacity for " + action + " request"));
+    }
+
+    private SoTConduitAdmissionRejectedException shed(SoTConduitRequestClass requestClass, int httpStatus, String reason) {
+        LOG.warn(".acquire(): Shedding {} ({}) --> {}", requestClass.getRequestSummary(), requestClass.getClientKey(), reason);
+        return (new SoTConduitAdmissionRejectedException(httpStatus, specifyRetryAfterMillis(requestClass.getAction()), reason));
+    }
+
+    public int getLimit(SoTConduitActionEnum action) {
+        return (lanes.get(action).limit.getLimit());
+    }
+
+    public int getInFlight(SoTConduitActionEnum action) {
+        AdmissionLane lane = lanes.get(action);
+        synchronized (lane) {
+            return (lane.inFlight);
+        }
+    }
+
+    public int getQueued(SoTConduitActionEnum action) {
+        AdmissionLane lane = lanes.get(action);
+        synchronized (lane) {
+            return (lane.queuedCount);
+        }
+    }
+
+    private static class Waiter {
+        private final String clientKey;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private boolean admitted;
+
+        private Waiter(String clientKey) {
+            this.clientKey = clientKey;
+        }
+    }
+
+    /**
+     * The state of one request class; all of it is guarded by the lane's monitor.
+     */
+    class AdmissionLane {
+        private final SoTConduitActionEnum action;
+        private final SoTConduitGradientLimit limit;
+        private final Map<String, ArrayDeque<Waiter>> clientQueues = new HashMap<>();
+        private final ArrayDeque<String> clientRotation = new ArrayDeque<>();
+        private int remainingClientCredit;
+        private int inFlight;
+        private int queuedCount;
+
+        private AdmissionLane(SoTConduitActionEnum action, SoTConduitGradientLimit limit) {
+            this.action = action;
+            this.limit = limit;
+        }
+
+        private Waiter enqueue(String clientKey) {
+            Waiter waiter = new Waiter(clientKey);
+            ArrayDeque<Waiter> clientQueue = clientQueues.get(clientKey);
+            if (clientQueue == null) {
+                clientQueue = new ArrayDeque<>();
+                clientQueues.put(clientKey, clientQueue);
+                clientRotation.addLast(clientKey);
+                if (clientRotation.size() == 1) {
+                    remainingClientCredit = Math.max(1, specifyClientWeight(clientKey));
+                }
+            }
+            clientQueue.addLast(waiter);
+            queuedCount++;
+            return (waiter);
+        }
+
+        private void dequeue(Waiter waiter) {
+            ArrayDeque<Waiter> clientQueue = clientQueues.get(waiter.clientKey);
+            if (clientQueue != null && clientQueue.remove(waiter)) {
+                queuedCount--;
+                if (clientQueue.isEmpty()) {
+                    removeClient(waiter.clientKey);
+                }
+            }
+        }
+
+        private void removeClient(String clientKey) {
+            clientQueues.remove(clientKey);
+            boolean wasCurrent = clientKey.equals(clientRotation.peekFirst());
+            clientRotation.remove(clientKey);
+            if (wasCurrent && !clientRotation.isEmpty()) {
+                remainingClientCredit = Math.max(1, specifyClientWeight(clientRotation.peekFirst()));
+            }
+        }
+
+        /**
+         * The next waiter in weighted round robin order: the client at the head
+         * of the rotation is served until its credit runs out, then moves to the
+         * back.
+         */
+        private Waiter next() {
+            String clientKey = clientRotation.peekFirst();
+            ArrayDeque<Waiter> clientQueue = clientQueues.get(clientKey);
+            Waiter waiter = clientQueue.pollFirst();
+            queuedCount--;
+            remainingClientCredit--;
+            if (clientQueue.isEmpty()) {
+                removeClient(clientKey);
+            } else if (remainingClientCredit <= 0) {
+                clientRotation.addLast(clientRotation.pollFirst());
+                remainingClientCredit = Math.max(1, specifyClientWeight(clientRotation.peekFirst()));
+            }
+            return (waiter);
+        }
+
+        synchronized void release(long rttNanos) {
+            limit.onSample(rttNanos, inFlight);
+            inFlight--;
+            while (queuedCount > 0 && inFlight < limit.getLimit()) {
+                Waiter waiter = next();
+                waiter.admitted = true;
+                inFlight++;
+                waiter.latch.countDown();
+            }
+            LOG.trace(".release(): {} limit --> {}, inFlight --> {}, queued --> {}", action, limit.getLimit(), inFlight, queuedCount);
+        }
+    }
+}
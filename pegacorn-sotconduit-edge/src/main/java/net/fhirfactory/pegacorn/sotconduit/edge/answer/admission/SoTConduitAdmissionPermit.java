@@ -0,0 +1,25 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.admission;
+
+/**
+ * Held by an admitted request while it is served; release() (exactly once,
+ * when the response is complete) frees the slot and feeds the request's
+ * latency back into its class's limit.
+ */
+public class SoTConduitAdmissionPermit {
+    private final SoTConduitAdmissionController.AdmissionLane lane;
+    private final long admittedNanos;
+    private boolean released;
+
+    SoTConduitAdmissionPermit(SoTConduitAdmissionController.AdmissionLane lane) {
+        this.lane = lane;
+        this.admittedNanos = System.nanoTime();
+    }
+
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        lane.release(System.nanoTime() - admittedNanos);
+    }
+}
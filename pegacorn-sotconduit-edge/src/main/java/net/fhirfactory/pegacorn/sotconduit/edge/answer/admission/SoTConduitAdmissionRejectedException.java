@@ -0,0 +1,31 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.admission;
+
+/**
+ * Thrown when the admission controller sheds a request: 429 when the client
+ * already has more than its share of the class's queue, 503 when the class
+ * as a whole is saturated.
+ */
+public class SoTConduitAdmissionRejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int httpStatus;
+    private final long retryAfterMillis;
+
+    public SoTConduitAdmissionRejectedException(int httpStatus, long retryAfterMillis, String message) {
+        super(message);
+        this.httpStatus = httpStatus;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getHttpStatus() {
+        return httpStatus;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    public String getRetryAfterSeconds() {
+        return (Long.toString(Math.max(1L, (retryAfterMillis + 999L) / 1000L)));
+    }
+}
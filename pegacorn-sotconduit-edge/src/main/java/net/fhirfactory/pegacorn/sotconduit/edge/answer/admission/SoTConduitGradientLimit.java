@@ -0,0 +1,69 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.admission;
+
+/**
+ * A concurrency limit that adapts to latency (after the "gradient" algorithm):
+ * while recent latency stays close to the long-term baseline the limit grows
+ * by roughly its square root, and as recent latency rises above the baseline
+ * (i.e. requests start to queue somewhere) it shrinks in proportion.
+ */
+public class SoTConduitGradientLimit {
+    private static final double RTT_TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double MINIMUM_GRADIENT = 0.5;
+    private static final double LONG_WINDOW = 600.0;
+    private static final double SHORT_WINDOW = 10.0;
+    private static final double BASELINE_DRIFT_RATIO = 2.0;
+    private static final double BASELINE_DRIFT_DECAY = 0.95;
+
+    private final int minimumLimit;
+    private final int maximumLimit;
+    private double estimatedLimit;
+    private double longRttNanos;
+    private double shortRttNanos;
+
+    public SoTConduitGradientLimit(int initialLimit, int minimumLimit, int maximumLimit) {
+        if (minimumLimit < 1 || maximumLimit < minimumLimit) {
+            throw new IllegalArgumentException("Invalid limit range: " + minimumLimit + " - " + maximumLimit);
+        }
+        this.minimumLimit = minimumLimit;
+        this.maximumLimit = maximumLimit;
+        this.estimatedLimit = Math.max(minimumLimit, Math.min(maximumLimit, initialLimit));
+    }
+
+    public synchronized int getLimit() {
+        return ((int) estimatedLimit);
+    }
+
+    public synchronized long getBaselineRttNanos() {
+        return ((long) longRttNanos);
+    }
+
+    /**
+     * Records the latency of a completed request, which ran while inFlight
+     * requests (itself included) were being served.
+     */
+    public synchronized void onSample(long rttNanos, int inFlight) {
+        if (rttNanos <= 0) {
+            return;
+        }
+        if (longRttNanos == 0) {
+            longRttNanos = rttNanos;
+            shortRttNanos = rttNanos;
+        } else {
+            longRttNanos += (rttNanos - longRttNanos) / LONG_WINDOW;
+            shortRttNanos += (rttNanos - shortRttNanos) / SHORT_WINDOW;
+        }
+        // let the baseline follow a lasting improvement (or a changed workload) down
+        if (longRttNanos / shortRttNanos > BASELINE_DRIFT_RATIO) {
+            longRttNanos *= BASELINE_DRIFT_DECAY;
+        }
+        // an under-used limit says nothing about whether it could be higher
+        if (inFlight < estimatedLimit / 2) {
+            return;
+        }
+        double gradient = Math.max(MINIMUM_GRADIENT, Math.min(1.0, RTT_TOLERANCE * longRttNanos / shortRttNanos));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        estimatedLimit = Math.max(minimumLimit, Math.min(maximumLimit, newLimit));
+    }
+}
@@ -0,0 +1,142 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.admission;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.SoTConduitGatekeeperBase;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.SoTConduitGatekeeperRegistry;
+
+/**
+ * Audits the requests shed by the SoTConduitAdmissionController without adding
+ * to the load that got them shed: the request thread only counts the
+ * rejection, and every summary interval one REJECTED_OVERLOADED entry per
+ * resource type and action (with the count, and the latest of the requests)
+ * is written from a background thread via the gatekeeper.
+ */
+@ApplicationScoped
+public class SoTConduitRejectionAuditor {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitRejectionAuditor.class);
+
+    private static final long DEFAULT_SUMMARY_INTERVAL_MILLIS = 10000L;
+    private static final String SUMMARY_INTERVAL_PROPERTY = "sotconduit.admission.rejection.summary.interval.millis";
+    private static final String SUMMARY_INTERVAL_ENVIRONMENT_VARIABLE = "SOTCONDUIT_ADMISSION_REJECTION_SUMMARY_INTERVAL_MILLIS";
+    private static final String SUMMARY_THREAD_NAME = "SoTConduitRejectionAuditor";
+
+    private ConcurrentHashMap<RejectionKey, RejectionTally> rejections;
+    private ScheduledExecutorService summaryScheduler;
+
+    @Inject
+    private SoTConduitGatekeeperRegistry gatekeeperRegistry;
+
+    @PostConstruct
+    protected void initialise() {
+        LOG.debug(".initialise(): Entry");
+        this.rejections = new ConcurrentHashMap<>();
+        this.summaryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread summaryThread = new Thread(runnable, SUMMARY_THREAD_NAME);
+            summaryThread.setDaemon(true);
+            return (summaryThread);
+        });
+        long summaryIntervalMillis = specifySummaryIntervalMillis();
+        summaryScheduler.scheduleWithFixedDelay(this::auditRejections, summaryIntervalMillis, summaryIntervalMillis, TimeUnit.MILLISECONDS);
+        LOG.debug(".initialise(): Exit, summaryIntervalMillis --> {}", summaryIntervalMillis);
+    }
+
+    @PreDestroy
+    protected void shutdown() {
+        summaryScheduler.shutdownNow();
+        auditRejections();
+    }
+
+    /**
+     * How often the rejections are audited
+     * (sotconduit.admission.rejection.summary.interval.millis, or the
+     * SOTCONDUIT_ADMISSION_REJECTION_SUMMARY_INTERVAL_MILLIS environment variable).
+     */
+    protected long specifySummaryIntervalMillis() {
+        String configuredInterval = System.getProperty(SUMMARY_INTERVAL_PROPERTY, System.getenv(SUMMARY_INTERVAL_ENVIRONMENT_VARIABLE));
+        if (configuredInterval == null || configuredInterval.isBlank()) {
+            return (DEFAULT_SUMMARY_INTERVAL_MILLIS);
+        }
+        try {
+            return (Math.max(1L, Long.parseLong(configuredInterval.trim())));
+        } catch (NumberFormatException badInterval) {
+            LOG.warn(".specifySummaryIntervalMillis(): Ignoring invalid interval --> {}", configuredInterval);
+            return (DEFAULT_SUMMARY_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * Counts the rejection towards the next summary. Requests with no resource
+     * type (batches, server-level operations) have no gatekeeper to audit them.
+     */
+    public void recordRejection(SoTConduitRequestClass requestClass, SoTConduitAdmissionRejectedException rejection) {
+        if (requestClass.getResourceType() == null) {
+            return;
+        }
+        RejectionTally tally = rejections.computeIfAbsent(new RejectionKey(requestClass.getResourceType(), requestClass.getAction()), unused -> new RejectionTally());
+        tally.latestRequest = requestClass.getRequestSummary() + " (client " + requestClass.getClientKey() + "): " + rejection.getMessage();
+        tally.count.increment();
+    }
+
+    protected void auditRejections() {
+        for (Map.Entry<RejectionKey, RejectionTally> rejection : rejections.entrySet()) {
+            long rejectedCount = rejection.getValue().count.sumThenReset();
+            if (rejectedCount == 0) {
+                continue;
+            }
+            RejectionKey key = rejection.getKey();
+            SoTConduitGatekeeperBase gatekeeper = gatekeeperRegistry.getGatekeeper(key.resourceType);
+            if (gatekeeper == null) {
+                continue;
+            }
+            try {
+                gatekeeper.auditRejectedRequests(key.action, rejectedCount, rejection.getValue().latestRequest);
+            } catch (RuntimeException auditFailure) {
+                LOG.error(".auditRejections(): Failed to audit rejections, resourceType --> {}, action --> {}, count --> {}, error --> {}", key.resourceType, key.action, rejectedCount, auditFailure.toString());
+            }
+        }
+    }
+
+    private static final class RejectionTally {
+        private final LongAdder count = new LongAdder();
+        private volatile String latestRequest;
+    }
+
+    private static final class RejectionKey {
+        private final String resourceType;
+        private final SoTConduitActionEnum action;
+
+        private RejectionKey(String resourceType, SoTConduitActionEnum action) {
+            this.resourceType = resourceType;
+            this.action = action;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof RejectionKey)) {
+                return (false);
+            }
+            RejectionKey otherKey = (RejectionKey) other;
+            return (resourceType.equals(otherKey.resourceType) && action == otherKey.action);
+        }
+
+        @Override
+        public int hashCode() {
+            return (resourceType.hashCode() * 31 + action.hashCode());
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.admission;
+
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+
+/**
+ * What the admission controller knows of a request before it is served: the
+ * action it will perform, the resource type it is for (null for server-level
+ * requests such as batches) and the client it came from.
+ */
+public class SoTConduitRequestClass {
+    private final SoTConduitActionEnum action;
+    private final String resourceType;
+    private final String clientKey;
+    private final String requestSummary;
+
+    public SoTConduitRequestClass(SoTConduitActionEnum action, String resourceType, String clientKey, String requestSummary) {
+        this.action = action;
+        this.resourceType = resourceType;
+        this.clientKey = clientKey;
+        this.requestSummary = requestSummary;
+    }
+
+    public SoTConduitActionEnum getAction() {
+        return action;
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    public String getClientKey() {
+        return clientKey;
+    }
+
+    public String getRequestSummary() {
+        return requestSummary;
+    }
+
+    @Override
+    public String toString() {
+        return ("SoTConduitRequestClass(" + action + ", " + resourceType + ", client=" + clientKey + ")");
+    }
+}
@@ -0,0 +1,197 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.batch;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.rest.annotation.Transaction;
+import ca.uhn.fhir.rest.annotation.TransactionParam;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.SoTConduitGatekeeperBase;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.SoTConduitGatekeeperRegistry;
+
+/**
+ * Handles FHIR "batch" Bundles of read (GET) requests. The entries are run in
+ * parallel, each within the bulkhead of the gatekeeper for its resource type,
+ * and the responses are assembled in request order. At most
+ * specifyMaximumConcurrentEntries() entries of a batch are in flight at once,
+ * further entries being fed in as earlier ones finish, so that a large batch
+ * cannot overflow a bulkhead's waiting queue by itself. Each entry goes through the
+ * normal (audited) gatekeeper read path, so still gets its own begin/end record.
+ * <p>
+ * Supported entry request urls are [type]/[id], [type]/[id]/_history/[vid] and
+ * [type]?identifier=[system]|[value].
+ */
+@ApplicationScoped
+public class SoTConduitBatchProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitBatchProvider.class);
+
+    private static final String IDENTIFIER_SEARCH_PREFIX = "identifier=";
+    private static final int DEFAULT_MAXIMUM_CONCURRENT_ENTRIES = 8;
+    private static final int HTTP_GATEWAY_TIMEOUT = 504;
+
+    @Inject
+    private SoTConduitGatekeeperRegistry gatekeeperRegistry;
+
+    /**
+     * How many entries of one batch may be running (or waiting in a bulkhead) at
+     * the same time. Keep this below the gatekeepers' maximum waiting calls.
+     */
+    protected int specifyMaximumConcurrentEntries() {
+        return (DEFAULT_MAXIMUM_CONCURRENT_ENTRIES);
+    }
+
+    @Transaction
+    public Bundle processBatch(@TransactionParam Bundle requestBundle) {
+        LOG.debug(".processBatch(): Entry, entry count --> {}", requestBundle.getEntry().size());
+        if (requestBundle.getType() != Bundle.BundleType.BATCH) {
+            throw new InvalidRequestException("Only Bundles of type 'batch' are supported");
+        }
+        List<CompletableFuture<Bundle.BundleEntryComponent>> pendingResponses = new ArrayList<>(requestBundle.getEntry().size());
+        Semaphore entryWindow = new Semaphore(Math.max(1, specifyMaximumConcurrentEntries()));
+        for (Bundle.BundleEntryComponent requestEntry : requestBundle.getEntry()) {
+            entryWindow.acquireUninterruptibly();
+            CompletableFuture<Bundle.BundleEntryComponent> pendingResponse = submitEntry(requestEntry);
+            pendingResponse.whenComplete((unused, failure) -> entryWindow.release());
+            pendingResponses.add(pendingResponse);
+        }
+        Bundle responseBundle = new Bundle();
+        responseBundle.setType(Bundle.BundleType.BATCHRESPONSE);
+        for (CompletableFuture<Bundle.BundleEntryComponent> pendingResponse : pendingResponses) {
+            responseBundle.addEntry(awaitEntry(pendingResponse));
+        }
+        LOG.debug(".processBatch(): Exit");
+        return (responseBundle);
+    }
+
+    private CompletableFuture<Bundle.BundleEntryComponent> submitEntry(Bundle.BundleEntryComponent requestEntry) {
+        Bundle.BundleEntryRequestComponent request = requestEntry.getRequest();
+        if (request == null || request.getMethod() != Bundle.HTTPVerb.GET || !request.hasUrl()) {
+            return (CompletableFuture.completedFuture(errorEntry("400 Bad Request", OperationOutcome.IssueType.NOTSUPPORTED, "Only GET entries are supported in a batch")));
+        }
+        String url = request.getUrl();
+        int queryStart = url.indexOf('?');
+        String path = queryStart >= 0 ? url.substring(0, queryStart) : url;
+        IdType id = new IdType(path);
+        SoTConduitGatekeeperBase gatekeeper = gatekeeperRegistry.getGatekeeper(id.getResourceType() != null ? id.getResourceType() : path);
+        if (gatekeeper == null) {
+            return (CompletableFuture.completedFuture(errorEntry("404 Not Found", OperationOutcome.IssueType.NOTSUPPORTED, "No gatekeeper for request --> " + url)));
+        }
+        if (queryStart >= 0) {
+            Identifier identifier = parseIdentifierSearch(url.substring(queryStart + 1));
+            if (identifier == null) {
+                return (CompletableFuture.completedFuture(errorEntry("400 Bad Request", OperationOutcome.IssueType.NOTSUPPORTED, "Only identifier searches are supported in a batch")));
+            }
+            return (gatekeeper.submitSoTCall(() -> resourceEntry(gatekeeper.getResourceViaIdentifier(identifier))));
+        }
+        if (!id.hasIdPart()) {
+            return (CompletableFuture.completedFuture(errorEntry("400 Bad Request", OperationOutcome.IssueType.INVALID, "Malformed request url --> " + url)));
+        }
+        return (gatekeeper.submitSoTCall(() -> resourceEntry(gatekeeper.getResource(id))));
+    }
+
+    private Bundle.BundleEntryComponent awaitEntry(CompletableFuture<Bundle.BundleEntryComponent> pendingResponse) {
+        try {
+            return (pendingResponse.join());
+        } catch (CompletionException failure) {
+            Throwable cause = failure.getCause() != null ? failure.getCause() : failure;
+            if (cause instanceof BaseServerResponseException) {
+                BaseServerResponseException serverException = (BaseServerResponseException) cause;
+                return (errorEntry(Integer.toString(serverException.getStatusCode()), OperationOutcome.IssueType.PROCESSING, serverException.getMessage()));
+            }
+            if (cause instanceof TimeoutException) {
+                return (errorEntry(HTTP_GATEWAY_TIMEOUT + " Gateway Timeout", OperationOutcome.IssueType.TIMEOUT, "Source-of-Truth did not respond in time"));
+            }
+            LOG.warn(".awaitEntry(): Batch entry failed --> {}", cause.toString());
+            return (errorEntry("500 Internal Server Error", OperationOutcome.IssueType.EXCEPTION, cause.getMessage()));
+        }
+    }
+
+    /**
+     * The identifier of an identifier=[system]|[value] search, or null if the
+     * query is anything else. The parameter is URL-decoded first, then split at
+     * the first unescaped '|', and FHIR's token escapes (a backslash before '|',
+     * ',', '$' or another backslash) are removed from the system and value.
+     */
+    static Identifier parseIdentifierSearch(String query) {
+        if (!query.startsWith(IDENTIFIER_SEARCH_PREFIX) || query.indexOf('&') >= 0) {
+            return (null);
+        }
+        String token;
+        try {
+            token = URLDecoder.decode(query.substring(IDENTIFIER_SEARCH_PREFIX.length()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException malformedEncoding) {
+            return (null);
+        }
+        int separator = -1;
+        for (int index = 0; index < token.length(); index++) {
+            char next = token.charAt(index);
+            if (next == '\\') {
+                index++;
+            } else if (next == '|') {
+                separator = index;
+                break;
+            }
+        }
+        Identifier identifier = new Identifier();
+        if (separator >= 0) {
+            identifier.setSystem(unescapeToken(token.substring(0, separator)));
+            identifier.setValue(unescapeToken(token.substring(separator + 1)));
+        } else {
+            identifier.setValue(unescapeToken(token));
+        }
+        return (identifier);
+    }
+
+    private static String unescapeToken(String escaped) {
+        if (escaped.indexOf('\\') < 0) {
+            return (escaped);
+        }
+        StringBuilder unescaped = new StringBuilder(escaped.length());
+        for (int index = 0; index < escaped.length(); index++) {
+            char next = escaped.charAt(index);
+            if (next == '\\' && index + 1 < escaped.length()) {
+                index++;
+                next = escaped.charAt(index);
+            }
+            unescaped.append(next);
+        }
+        return (unescaped.toString());
+    }
+
+    private Bundle.BundleEntryComponent resourceEntry(Resource resource) {
+        Bundle.BundleEntryComponent responseEntry = new Bundle.BundleEntryComponent();
+        responseEntry.setResource(resource);
+        responseEntry.getResponse().setStatus("200 OK");
+        if (resource.getMeta().hasVersionId()) {
+            responseEntry.getResponse().setEtag("W/\"" + resource.getMeta().getVersionId() + "\"");
+        }
+        return (responseEntry);
+    }
+
+    private Bundle.BundleEntryComponent errorEntry(String status, OperationOutcome.IssueType issueType, String diagnostics) {
+        OperationOutcome outcome = new OperationOutcome();
+        outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR).setCode(issueType).setDiagnostics(diagnostics);
+        Bundle.BundleEntryComponent responseEntry = new Bundle.BundleEntryComponent();
+        responseEntry.getResponse().setStatus(status);
+        responseEntry.getResponse().setOutcome(outcome);
+        return (responseEntry);
+    }
+}
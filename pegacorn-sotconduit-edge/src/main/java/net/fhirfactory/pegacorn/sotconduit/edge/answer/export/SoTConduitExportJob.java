@@ -0,0 +1,147 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.export;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state of one asynchronous $export: the resource types requested, the
+ * NDJSON file (and resource count) produced for each, and its overall status.
+ * The requester (the authenticated user that started it, or null) is the only
+ * one the export's status and output are served to.
+ */
+public class SoTConduitExportJob {
+    private final String exportId;
+    private final String requestUrl;
+    private final String requester;
+    private final List<String> resourceTypes;
+    private final Date since;
+    private final Date transactionTime;
+    private final Path outputDirectory;
+    private final Map<String, ExportOutput> outputs;
+    private volatile SoTConduitExportStatusEnum status;
+    private volatile String failureReason;
+    private volatile long completedTime;
+
+    public SoTConduitExportJob(String exportId, String requestUrl, String requester, List<String> resourceTypes, Date since, Path outputDirectory) {
+        this.exportId = exportId;
+        this.requestUrl = requestUrl;
+        this.requester = requester;
+        this.resourceTypes = Collections.unmodifiableList(resourceTypes);
+        this.since = since;
+        this.transactionTime = new Date();
+        this.outputDirectory = outputDirectory;
+        this.outputs = new LinkedHashMap<>();
+        this.status = SoTConduitExportStatusEnum.IN_PROGRESS;
+    }
+
+    public String getExportId() {
+        return exportId;
+    }
+
+    public String getRequestUrl() {
+        return requestUrl;
+    }
+
+    public String getRequester() {
+        return requester;
+    }
+
+    public List<String> getResourceTypes() {
+        return resourceTypes;
+    }
+
+    public Date getSince() {
+        return since;
+    }
+
+    public Date getTransactionTime() {
+        return transactionTime;
+    }
+
+    public Path getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public SoTConduitExportStatusEnum getStatus() {
+        return status;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    public boolean isCancelled() {
+        return (status == SoTConduitExportStatusEnum.CANCELLED);
+    }
+
+    public boolean isFinished() {
+        return (status != SoTConduitExportStatusEnum.IN_PROGRESS);
+    }
+
+    /**
+     * When the export finished (or 0 if it has not).
+     */
+    public long getCompletedTime() {
+        return completedTime;
+    }
+
+    public synchronized void recordOutput(String resourceType, Path outputFile, long resourceCount) {
+        outputs.put(resourceType, new ExportOutput(resourceType, outputFile, resourceCount));
+    }
+
+    public synchronized Map<String, ExportOutput> getOutputs() {
+        return (new LinkedHashMap<>(outputs));
+    }
+
+    public synchronized int getCompletedTypeCount() {
+        return (outputs.size());
+    }
+
+    synchronized void complete() {
+        if (status == SoTConduitExportStatusEnum.IN_PROGRESS) {
+            status = SoTConduitExportStatusEnum.COMPLETE;
+            completedTime = System.currentTimeMillis();
+        }
+    }
+
+    synchronized void fail(String reason) {
+        if (status == SoTConduitExportStatusEnum.IN_PROGRESS) {
+            status = SoTConduitExportStatusEnum.FAILED;
+            failureReason = reason;
+            completedTime = System.currentTimeMillis();
+        }
+    }
+
+    synchronized void cancel() {
+        status = SoTConduitExportStatusEnum.CANCELLED;
+        completedTime = System.currentTimeMillis();
+    }
+
+    public static class ExportOutput {
+        private final String resourceType;
+        private final Path outputFile;
+        private final long resourceCount;
+
+        ExportOutput(String resourceType, Path outputFile, long resourceCount) {
+            this.resourceType = resourceType;
+            this.outputFile = outputFile;
+            this.resourceCount = resourceCount;
+        }
+
+        public String getResourceType() {
+            return resourceType;
+        }
+
+        public Path getOutputFile() {
+            return outputFile;
+        }
+
+        public long getResourceCount() {
+            return resourceCount;
+        }
+    }
+}
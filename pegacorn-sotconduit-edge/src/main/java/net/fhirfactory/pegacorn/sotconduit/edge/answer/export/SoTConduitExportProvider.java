@@ -0,0 +1,238 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.export;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.StringType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.NotImplementedOperationException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+
+/**
+ * The HTTP side of the Bulk Data style export, as server-level operations so
+ * that the servlet's interceptors (authorisation included), admission control
+ * and tracing apply to every part of it:
+ * <ul>
+ * <li>kick-off: GET [base]/$export</li>
+ * <li>status polling: GET [base]/$export-poll-status?_jobId={id}</li>
+ * <li>cancellation: POST [base]/$export-cancel?_jobId={id}</li>
+ * <li>collection of the NDJSON output: GET [base]/$export-output?_jobId={id}&amp;_type={type}</li>
+ * </ul>
+ * A kick-off with "Prefer: respond-async" is accepted (202) with a
+ * Content-Location to poll; one without it, for a single _type, is streamed
+ * straight back as NDJSON. An export's status and output are only served to
+ * the user (HttpServletRequest.getRemoteUser()) that started it.
+ */
+@ApplicationScoped
+public class SoTConduitExportProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitExportProvider.class);
+
+    private static final String EXPORT_POLL_STATUS_OPERATION = "$export-poll-status";
+    private static final String EXPORT_OUTPUT_OPERATION = "$export-output";
+    private static final String NDJSON_CONTENT_TYPE = "application/fhir+ndjson";
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    private static final List<String> SUPPORTED_OUTPUT_FORMATS = Arrays.asList(NDJSON_CONTENT_TYPE, "application/ndjson", "ndjson");
+    private static final String RESPOND_ASYNC = "respond-async";
+    private static final String STATUS_RETRY_AFTER_SECONDS = "5";
+
+    @Inject
+    private SoTConduitExportService exportService;
+
+    @Operation(name = "$export", idempotent = true, manualResponse = true)
+    public void kickOff(
+            @OperationParam(name = "_outputFormat") StringType outputFormat,
+            @OperationParam(name = "_type") StringType typeParameter,
+            @OperationParam(name = "_since") InstantType since,
+            ServletRequestDetails requestDetails,
+            HttpServletResponse response) throws IOException {
+        if (outputFormat != null && !SUPPORTED_OUTPUT_FORMATS.contains(outputFormat.getValue())) {
+            throw new InvalidRequestException("Unsupported _outputFormat: " + outputFormat.getValue());
+        }
+        List<String> resourceTypes = new ArrayList<>();
+        if (typeParameter != null && typeParameter.getValue() != null) {
+            for (String resourceType : typeParameter.getValue().split(",")) {
+                if (!resourceType.trim().isEmpty()) {
+                    resourceTypes.add(resourceType.trim());
+                }
+            }
+        }
+        String prefer = requestDetails.getHeader("Prefer");
+        boolean respondAsync = prefer != null && prefer.contains(RESPOND_ASYNC);
+        try {
+            if (respondAsync) {
+                String requestUrl = requestDetails.getCompleteUrl();
+                SoTConduitExportJob exportJob = exportService.startExport(resourceTypes, since == null ? null : since.getValue(), requestUrl, resolveRequester(requestDetails));
+                response.setStatus(HttpServletResponse.SC_ACCEPTED);
+                response.setHeader("Content-Location", requestDetails.getFhirServerBase() + "/" + EXPORT_POLL_STATUS_OPERATION + "?_jobId=" + encode(exportJob.getExportId()));
+                return;
+            }
+            if (resourceTypes.size() != 1) {
+                throw new InvalidRequestException("$export of more than one _type requires \"Prefer: respond-async\"");
+            }
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentType(NDJSON_CONTENT_TYPE);
+            response.setCharacterEncoding("UTF-8");
+            long exportedCount = exportService.streamExport(resourceTypes.get(0), since == null ? null : since.getValue(), response.getOutputStream());
+            LOG.debug(".kickOff(): Streamed export, resourceType --> {}, count --> {}", resourceTypes.get(0), exportedCount);
+        } catch (IllegalArgumentException unknownType) {
+            throw new InvalidRequestException(unknownType.getMessage());
+        } catch (IllegalStateException notConfigured) {
+            throw new NotImplementedOperationException(notConfigured.getMessage());
+        }
+    }
+
+    @Operation(name = EXPORT_POLL_STATUS_OPERATION, idempotent = true, manualResponse = true)
+    public void pollStatus(
+            @OperationParam(name = "_jobId", min = 1) StringType jobId,
+            ServletRequestDetails requestDetails,
+            HttpServletResponse response) throws IOException {
+        SoTConduitExportJob exportJob = resolveExport(jobId, requestDetails);
+        switch (exportJob.getStatus()) {
+            case IN_PROGRESS:
+                response.setStatus(HttpServletResponse.SC_ACCEPTED);
+                response.setHeader("X-Progress", exportJob.getCompletedTypeCount() + " of " + exportJob.getResourceTypes().size() + " resource types exported");
+                response.setHeader("Retry-After", STATUS_RETRY_AFTER_SECONDS);
+                return;
+            case COMPLETE:
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.setContentType(JSON_CONTENT_TYPE);
+                response.setCharacterEncoding("UTF-8");
+                response.getWriter().write(buildManifest(exportJob, requestDetails.getFhirServerBase()));
+                return;
+            case FAILED:
+                throw new InternalErrorException("Export failed: " + exportJob.getFailureReason());
+            case CANCELLED:
+            default:
+                throw new ResourceNotFoundException("Export was cancelled: " + exportJob.getExportId());
+        }
+    }
+
+    /**
+     * Cancels the export and deletes its output. (The Bulk Data specification
+     * uses DELETE on the status url, which HAPI does not route to operations.)
+     */
+    @Operation(name = "$export-cancel", manualResponse = true)
+    public void cancel(
+            @OperationParam(name = "_jobId", min = 1) StringType jobId,
+            ServletRequestDetails requestDetails,
+            HttpServletResponse response) {
+        SoTConduitExportJob exportJob = resolveExport(jobId, requestDetails);
+        exportService.cancelExport(exportJob.getExportId());
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
+
+    @Operation(name = EXPORT_OUTPUT_OPERATION, idempotent = true, manualResponse = true)
+    public void sendOutput(
+            @OperationParam(name = "_jobId", min = 1) StringType jobId,
+            @OperationParam(name = "_type", min = 1) StringType resourceType,
+            ServletRequestDetails requestDetails,
+            HttpServletResponse response) throws IOException {
+        SoTConduitExportJob exportJob = resolveExport(jobId, requestDetails);
+        SoTConduitExportJob.ExportOutput exportOutput = resourceType == null ? null : exportJob.getOutputs().get(resourceType.getValue());
+        if (exportJob.getStatus() != SoTConduitExportStatusEnum.COMPLETE || exportOutput == null) {
+            throw new ResourceNotFoundException("No export output for " + exportJob.getExportId() + "/" + (resourceType == null ? null : resourceType.getValue()));
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(NDJSON_CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+        exportService.transferOutput(exportOutput, Channels.newChannel(response.getOutputStream()));
+    }
+
+    /**
+     * The export, if it exists and was started by the same user; an export of
+     * another user is reported as not found.
+     */
+    private SoTConduitExportJob resolveExport(StringType jobId, ServletRequestDetails requestDetails) {
+        String exportId = jobId == null ? null : jobId.getValue();
+        SoTConduitExportJob exportJob = exportId == null ? null : exportService.getExport(exportId);
+        if (exportJob == null || !Objects.equals(exportJob.getRequester(), resolveRequester(requestDetails))) {
+            throw new ResourceNotFoundException("Unknown or expired export: " + exportId);
+        }
+        return (exportJob);
+    }
+
+    private String resolveRequester(ServletRequestDetails requestDetails) {
+        return (requestDetails.getServletRequest().getRemoteUser());
+    }
+
+    /**
+     * The completion manifest. The output urls are operations on this server, so
+     * are subject to the same authorisation as the kick-off.
+     */
+    private String buildManifest(SoTConduitExportJob exportJob, String serverBase) {
+        StringBuilder manifest = new StringBuilder(256);
+        manifest.append("{\"transactionTime\":");
+        appendJsonString(manifest, new InstantType(exportJob.getTransactionTime()).getValueAsString());
+        manifest.append(",\"request\":");
+        appendJsonString(manifest, exportJob.getRequestUrl());
+        manifest.append(",\"requiresAccessToken\":true,\"output\":[");
+        boolean first = true;
+        for (Map.Entry<String, SoTConduitExportJob.ExportOutput> output : exportJob.getOutputs().entrySet()) {
+            if (!first) {
+                manifest.append(',');
+            }
+            manifest.append("{\"type\":");
+            appendJsonString(manifest, output.getKey());
+            manifest.append(",\"url\":");
+            appendJsonString(manifest, serverBase + "/" + EXPORT_OUTPUT_OPERATION + "?_jobId=" + encode(exportJob.getExportId()) + "&_type=" + encode(output.getKey()));
+            manifest.append(",\"count\":").append(output.getValue().getResourceCount()).append('}');
+            first = false;
+        }
+        manifest.append("],\"error\":[]}");
+        return (manifest.toString());
+    }
+
+    private String encode(String value) {
+        return (URLEncoder.encode(value, StandardCharsets.UTF_8));
+    }
+
+    private void appendJsonString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int index = 0; index < value.length(); index++) {
+            char character = value.charAt(index);
+            switch (character) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (character < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) character));
+                    } else {
+                        builder.append(character);
+                    }
+            }
+        }
+        builder.append('"');
+    }
+}
@@ -0,0 +1,288 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.sotconduit.context.SoTConduitRequestContext;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.SoTConduitGatekeeperBase;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.SoTConduitGatekeeperRegistry;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.execution.SoTConduitExecutionService;
+
+/**
+ * Runs FHIR Bulk Data style exports. An asynchronous export writes one NDJSON
+ * file per resource type (in parallel, within the "export" bulkhead) via NIO
+ * FileChannels; a synchronous export streams a single resource type straight
+ * to the caller. Either way resources are encoded one at a time and no Bundle
+ * is ever assembled.
+ * <p>
+ * Asynchronous exports need an export directory to be configured (system
+ * property "sotconduit.export.directory", or the SOTCONDUIT_EXPORT_DIRECTORY
+ * environment variable); it and everything written to it are made accessible
+ * to the owning user only.
+ */
+@ApplicationScoped
+public class SoTConduitExportService {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitExportService.class);
+
+    private static final String EXPORT_BULKHEAD_NAME = "export";
+    private static final String NDJSON_FILE_SUFFIX = ".ndjson";
+    private static final int DEFAULT_MAXIMUM_CONCURRENT_TYPES = 4;
+    private static final int DEFAULT_EXPORT_CHUNK_SIZE = 1000;
+    private static final long DEFAULT_EXPORT_RETENTION_MILLIS = 3600000L;
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+    private static final String EXPORT_DIRECTORY_PROPERTY = "sotconduit.export.directory";
+    private static final String EXPORT_DIRECTORY_ENVIRONMENT_VARIABLE = "SOTCONDUIT_EXPORT_DIRECTORY";
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwx------");
+    private static final Set<PosixFilePermission> OWNER_ONLY_FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-------");
+
+    private final Map<String, SoTConduitExportJob> exportJobs = new ConcurrentHashMap<>();
+
+    @Inject
+    private SoTConduitGatekeeperRegistry gatekeeperRegistry;
+
+    @Inject
+    private SoTConduitExecutionService executionService;
+
+    /**
+     * Where asynchronous exports write their output, or null if none is configured
+     * (in which case only synchronous, single type exports are available).
+     */
+    protected Path specifyExportDirectory() {
+        String exportDirectory = System.getProperty(EXPORT_DIRECTORY_PROPERTY, System.getenv(EXPORT_DIRECTORY_ENVIRONMENT_VARIABLE));
+        if (exportDirectory == null || exportDirectory.trim().isEmpty()) {
+            return (null);
+        }
+        return (Paths.get(exportDirectory.trim()));
+    }
+
+    /**
+     * How many resource types of a single export (and across exports) are written
+     * at the same time.
+     */
+    protected int specifyMaximumConcurrentTypes() {
+        return (DEFAULT_MAXIMUM_CONCURRENT_TYPES);
+    }
+
+    /**
+     * The number of resources covered by each (aggregated) audit entry.
+     */
+    protected int specifyExportChunkSize() {
+        return (DEFAULT_EXPORT_CHUNK_SIZE);
+    }
+
+    /**
+     * How long the output of a finished export is kept for the client to collect.
+     */
+    protected long specifyExportRetentionMillis() {
+        return (DEFAULT_EXPORT_RETENTION_MILLIS);
+    }
+
+    public Collection<String> getExportableResourceTypes() {
+        List<String> resourceTypes = new ArrayList<>();
+        for (SoTConduitGatekeeperBase gatekeeper : gatekeeperRegistry.getGatekeepers()) {
+            resourceTypes.add(gatekeeper.getResourceType());
+        }
+        return (resourceTypes);
+    }
+
+    /**
+     * Kicks off an asynchronous export of the given resource types (all of them if
+     * resourceTypes is empty) on behalf of the requester, returning the job to poll.
+     *
+     * @throws IllegalStateException if no export directory is configured
+     */
+    public SoTConduitExportJob startExport(List<String> resourceTypes, Date since, String requestUrl, String requester) throws IOException {
+        LOG.debug(".startExport(): Entry, resourceTypes --> {}, since --> {}", resourceTypes, since);
+        Path exportDirectory = specifyExportDirectory();
+        if (exportDirectory == null) {
+            throw new IllegalStateException("Asynchronous export requires an export directory (" + EXPORT_DIRECTORY_PROPERTY + ")");
+        }
+        purgeExpiredExports();
+        List<SoTConduitGatekeeperBase> gatekeepers = resolveGatekeepers(resourceTypes);
+        List<String> exportedTypes = new ArrayList<>(gatekeepers.size());
+        for (SoTConduitGatekeeperBase gatekeeper : gatekeepers) {
+            exportedTypes.add(gatekeeper.getResourceType());
+        }
+        String exportId = UUID.randomUUID().toString();
+        Path outputDirectory = createPrivateDirectory(createPrivateDirectory(exportDirectory).resolve(exportId));
+        SoTConduitExportJob exportJob = new SoTConduitExportJob(exportId, requestUrl, requester, exportedTypes, since, outputDirectory);
+        exportJobs.put(exportId, exportJob);
+        List<CompletableFuture<Long>> typeExports = new ArrayList<>(gatekeepers.size());
+        for (SoTConduitGatekeeperBase gatekeeper : gatekeepers) {
+            typeExports.add(executionService.submit(EXPORT_BULKHEAD_NAME, specifyMaximumConcurrentTypes(), () -> exportToFile(exportJob, gatekeeper)));
+        }
+        CompletableFuture.allOf(typeExports.toArray(new CompletableFuture[0])).whenComplete((unused, exportFailure) -> {
+            if (exportFailure != null) {
+                Throwable cause = exportFailure.getCause() != null ? exportFailure.getCause() : exportFailure;
+                LOG.error(".startExport(): Export failed, exportId --> {}, error --> {}", exportId, cause.toString());
+                exportJob.fail(cause.getMessage());
+            } else {
+                exportJob.complete();
+            }
+            LOG.info(".startExport(): Export finished, exportId --> {}, status --> {}", exportId, exportJob.getStatus());
+        });
+        LOG.debug(".startExport(): Exit, exportId --> {}", exportId);
+        return (exportJob);
+    }
+
+    private long exportToFile(SoTConduitExportJob exportJob, SoTConduitGatekeeperBase gatekeeper) {
+        String resourceType = gatekeeper.getResourceType();
+        Path outputFile = exportJob.getOutputDirectory().resolve(resourceType + NDJSON_FILE_SUFFIX);
+        // an export outlives the kick-off request, so must not accumulate into its context
+        SoTConduitRequestContext previousContext = SoTConduitRequestContext.bind(null);
+        try (FileChannel outputChannel = openPrivateFile(outputFile);
+             Writer output = newNDJSONWriter(Channels.newOutputStream(outputChannel))) {
+            long exportedCount = gatekeeper.exportResources(exportJob.getExportId(), exportJob.getSince(), specifyExportChunkSize(), output, exportJob::isCancelled);
+            exportJob.recordOutput(resourceType, outputFile, exportedCount);
+            return (exportedCount);
+        } catch (IOException ioException) {
+            throw new UncheckedIOException(ioException);
+        } finally {
+            SoTConduitRequestContext.restore(previousContext);
+        }
+    }
+
+    /**
+     * Synchronously streams a single resource type as NDJSON to the output.
+     */
+    public long streamExport(String resourceType, Date since, OutputStream outputStream) throws IOException {
+        SoTConduitGatekeeperBase gatekeeper = gatekeeperRegistry.getGatekeeper(resourceType);
+        if (gatekeeper == null) {
+            throw new IllegalArgumentException("Resource type is not exportable: " + resourceType);
+        }
+        String exportId = UUID.randomUUID().toString();
+        Writer output = newNDJSONWriter(outputStream);
+        long exportedCount = gatekeeper.exportResources(exportId, since, specifyExportChunkSize(), output, () -> false);
+        output.flush();
+        return (exportedCount);
+    }
+
+    public SoTConduitExportJob getExport(String exportId) {
+        purgeExpiredExports();
+        return (exportJobs.get(exportId));
+    }
+
+    /**
+     * Cancels the export (if still running) and deletes its output.
+     */
+    public boolean cancelExport(String exportId) {
+        SoTConduitExportJob exportJob = exportJobs.remove(exportId);
+        if (exportJob == null) {
+            return (false);
+        }
+        exportJob.cancel();
+        deleteOutput(exportJob);
+        return (true);
+    }
+
+    /**
+     * Copies an exported NDJSON file to the target channel (using
+     * FileChannel.transferTo(), so the container can avoid copying through the heap).
+     */
+    public void transferOutput(SoTConduitExportJob.ExportOutput exportOutput, WritableByteChannel target) throws IOException {
+        try (FileChannel outputChannel = FileChannel.open(exportOutput.getOutputFile(), StandardOpenOption.READ)) {
+            long position = 0;
+            long size = outputChannel.size();
+            while (position < size) {
+                position += outputChannel.transferTo(position, size - position, target);
+            }
+        }
+    }
+
+    private boolean isPosixFileSystem(Path path) {
+        return (path.getFileSystem().supportedFileAttributeViews().contains("posix"));
+    }
+
+    private Path createPrivateDirectory(Path directory) throws IOException {
+        if (!isPosixFileSystem(directory)) {
+            return (Files.createDirectories(directory));
+        }
+        if (!Files.isDirectory(directory)) {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY_PERMISSIONS));
+        }
+        // createDirectories() is subject to the umask, and the directory may pre-exist
+        Files.setPosixFilePermissions(directory, OWNER_ONLY_DIRECTORY_PERMISSIONS);
+        return (directory);
+    }
+
+    private FileChannel openPrivateFile(Path outputFile) throws IOException {
+        Set<StandardOpenOption> openOptions = EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (!isPosixFileSystem(outputFile)) {
+            return (FileChannel.open(outputFile, openOptions));
+        }
+        return (FileChannel.open(outputFile, openOptions, PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE_PERMISSIONS)));
+    }
+
+    private List<SoTConduitGatekeeperBase> resolveGatekeepers(List<String> resourceTypes) {
+        List<SoTConduitGatekeeperBase> gatekeepers = new ArrayList<>();
+        if (resourceTypes == null || resourceTypes.isEmpty()) {
+            gatekeepers.addAll(gatekeeperRegistry.getGatekeepers());
+            return (gatekeepers);
+        }
+        for (String resourceType : resourceTypes) {
+            SoTConduitGatekeeperBase gatekeeper = gatekeeperRegistry.getGatekeeper(resourceType);
+            if (gatekeeper == null) {
+                throw new IllegalArgumentException("Resource type is not exportable: " + resourceType);
+            }
+            gatekeepers.add(gatekeeper);
+        }
+        return (gatekeepers);
+    }
+
+    private Writer newNDJSONWriter(OutputStream outputStream) {
+        return (new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE));
+    }
+
+    private void purgeExpiredExports() {
+        long expiryThreshold = System.currentTimeMillis() - specifyExportRetentionMillis();
+        for (SoTConduitExportJob exportJob : exportJobs.values()) {
+            if (exportJob.isFinished() && exportJob.getCompletedTime() < expiryThreshold) {
+                LOG.debug(".purgeExpiredExports(): Removing expired export --> {}", exportJob.getExportId());
+                exportJobs.remove(exportJob.getExportId());
+                deleteOutput(exportJob);
+            }
+        }
+    }
+
+    private void deleteOutput(SoTConduitExportJob exportJob) {
+        try (DirectoryStream<Path> outputFiles = Files.newDirectoryStream(exportJob.getOutputDirectory())) {
+            for (Path outputFile : outputFiles) {
+                Files.deleteIfExists(outputFile);
+            }
+            Files.deleteIfExists(exportJob.getOutputDirectory());
+        } catch (IOException ioException) {
+            LOG.warn(".deleteOutput(): Unable to delete export output, exportId --> {}, error --> {}", exportJob.getExportId(), ioException.toString());
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.export;
+
+public enum SoTConduitExportStatusEnum {
+    IN_PROGRESS,
+    COMPLETE,
+    FAILED,
+    CANCELLED
+}
@@ -0,0 +1,33 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.metrics;
+
+import java.io.IOException;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
+
+import ca.uhn.fhir.rest.annotation.Operation;
+import net.fhirfactory.pegacorn.sotconduit.metrics.SoTConduitMetrics;
+
+/**
+ * The conduit's metrics in the Prometheus text format (GET [base]/$conduit-metrics),
+ * as a server-level operation so that the servlet's interceptors (authorisation
+ * included) apply to it just as they do to the resources it describes.
+ */
+@ApplicationScoped
+public class SoTConduitMetricsProvider {
+    public static final String METRICS_OPERATION = "$conduit-metrics";
+
+    private static final String PROMETHEUS_TEXT_CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    @Inject
+    private SoTConduitMetrics conduitMetrics;
+
+    @Operation(name = METRICS_OPERATION, idempotent = true, manualResponse = true)
+    public void reportMetrics(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(PROMETHEUS_TEXT_CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+        conduitMetrics.writePrometheusText(response.getWriter());
+    }
+}
@@ -0,0 +1,64 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.paging;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IPrimitiveType;
+import org.hl7.fhir.r4.model.InstantType;
+
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.SoTConduitGatekeeperBase;
+
+/**
+ * A search result set that holds only the ids of the matching resources. The
+ * resources themselves are fetched (via the gatekeeper's cache, else from the
+ * Source-of-Truth) a page at a time as the client walks the result set.
+ */
+public class SoTConduitPagedSearchResult implements IBundleProvider {
+    private final String searchId;
+    private final InstantType published;
+    private final String[] resourceIds;
+    private final SoTConduitGatekeeperBase gatekeeper;
+
+    public SoTConduitPagedSearchResult(SoTConduitGatekeeperBase gatekeeper, List<String> resourceIds) {
+        this.searchId = UUID.randomUUID().toString();
+        this.published = new InstantType(new Date());
+        this.resourceIds = resourceIds.toArray(new String[0]);
+        this.gatekeeper = gatekeeper;
+    }
+
+    @Override
+    public IPrimitiveType<Date> getPublished() {
+        return (published);
+    }
+
+    @Override
+    public List<IBaseResource> getResources(int fromIndex, int toIndex) {
+        int pageStart = Math.max(0, fromIndex);
+        int pageEnd = Math.min(resourceIds.length, toIndex);
+        if (pageStart >= pageEnd) {
+            return (Collections.emptyList());
+        }
+        List<String> pageIds = Collections.unmodifiableList(Arrays.asList(resourceIds).subList(pageStart, pageEnd));
+        return (gatekeeper.getResourcePage(searchId, pageStart, pageIds));
+    }
+
+    @Override
+    public String getUuid() {
+        return (searchId);
+    }
+
+    @Override
+    public Integer preferredPageSize() {
+        return (null);
+    }
+
+    @Override
+    public Integer size() {
+        return (resourceIds.length);
+    }
+}
@@ -0,0 +1,86 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.paging;
+
+import java.util.UUID;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.server.BasePagingProvider;
+
+/**
+ * The conduit's IPagingProvider: supports _count and the next/previous page
+ * links of searchset Bundles by holding multi-page result sets in a bounded,
+ * expiring SoTConduitSearchResultStore. Searches that return a
+ * SoTConduitPagedSearchResult keep only resource ids in the store, so the
+ * memory held per search is proportional to the page size rather than the
+ * number of matches.
+ */
+@ApplicationScoped
+public class SoTConduitPagingProvider extends BasePagingProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitPagingProvider.class);
+
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int DEFAULT_MAXIMUM_PAGE_SIZE = 500;
+    private static final int DEFAULT_MAXIMUM_STORED_SEARCHES = 1000;
+    private static final long DEFAULT_SEARCH_TIME_TO_LIVE_MILLIS = 600000L;
+
+    private SoTConduitSearchResultStore resultStore;
+
+    @PostConstruct
+    protected void initialise() {
+        setDefaultPageSize(specifyDefaultPageSize());
+        setMaximumPageSize(specifyMaximumPageSize());
+        this.resultStore = new SoTConduitSearchResultStore(specifyMaximumStoredSearches(), specifySearchTimeToLiveMillis());
+    }
+
+    protected int specifyDefaultPageSize() {
+        return (DEFAULT_PAGE_SIZE);
+    }
+
+    protected int specifyMaximumPageSize() {
+        return (DEFAULT_MAXIMUM_PAGE_SIZE);
+    }
+
+    protected int specifyMaximumStoredSearches() {
+        return (DEFAULT_MAXIMUM_STORED_SEARCHES);
+    }
+
+    /**
+     * How long a result set is kept after the client last fetched a page of it.
+     */
+    protected long specifySearchTimeToLiveMillis() {
+        return (DEFAULT_SEARCH_TIME_TO_LIVE_MILLIS);
+    }
+
+    @Override
+    public String storeResultList(RequestDetails requestDetails, IBundleProvider resultSet) {
+        String searchId = resultSet.getUuid();
+        if (searchId == null) {
+            searchId = UUID.randomUUID().toString();
+        }
+        if (!(resultSet instanceof SoTConduitPagedSearchResult)) {
+            LOG.debug(".storeResultList(): Storing a result set that is not id-only, type --> {}", resultSet.getClass().getSimpleName());
+        }
+        resultStore.put(searchId, resultSet);
+        LOG.trace(".storeResultList(): Stored result set, searchId --> {}, size --> {}", searchId, resultSet.size());
+        return (searchId);
+    }
+
+    @Override
+    public IBundleProvider retrieveResultList(RequestDetails requestDetails, String searchId) {
+        IBundleProvider resultSet = resultStore.get(searchId);
+        if (resultSet == null) {
+            LOG.debug(".retrieveResultList(): Unknown or expired searchId --> {}", searchId);
+        }
+        return (resultSet);
+    }
+
+    public SoTConduitSearchResultStore getResultStore() {
+        return (resultStore);
+    }
+}
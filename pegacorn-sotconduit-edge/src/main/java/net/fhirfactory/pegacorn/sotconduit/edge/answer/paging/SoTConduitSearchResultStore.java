@@ -0,0 +1,79 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.paging;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+
+/**
+ * A bounded, expiring store of search result sets, keyed by search id. A result
+ * set expires once it has not been paged for its time-to-live, and the least
+ * recently paged result set is evicted when the store is full.
+ */
+public class SoTConduitSearchResultStore {
+    private final int maximumSearches;
+    private final long timeToLiveMillis;
+    private final LinkedHashMap<String, StoredSearch> searches;
+
+    public SoTConduitSearchResultStore(int maximumSearches, long timeToLiveMillis) {
+        this.maximumSearches = maximumSearches;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.searches = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    public synchronized void put(String searchId, IBundleProvider resultSet) {
+        long now = System.currentTimeMillis();
+        purgeExpired(now);
+        searches.put(searchId, new StoredSearch(resultSet, now));
+        while (searches.size() > maximumSearches) {
+            Iterator<String> eldest = searches.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    public synchronized IBundleProvider get(String searchId) {
+        StoredSearch storedSearch = searches.get(searchId);
+        if (storedSearch == null) {
+            return (null);
+        }
+        long now = System.currentTimeMillis();
+        if (now - storedSearch.lastAccessed > timeToLiveMillis) {
+            searches.remove(searchId);
+            return (null);
+        }
+        storedSearch.lastAccessed = now;
+        return (storedSearch.resultSet);
+    }
+
+    public synchronized void remove(String searchId) {
+        searches.remove(searchId);
+    }
+
+    public synchronized int size() {
+        purgeExpired(System.currentTimeMillis());
+        return (searches.size());
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<Map.Entry<String, StoredSearch>> searchIterator = searches.entrySet().iterator();
+        while (searchIterator.hasNext()) {
+            // access ordered, so the first unexpired entry ends the scan
+            if (now - searchIterator.next().getValue().lastAccessed <= timeToLiveMillis) {
+                return;
+            }
+            searchIterator.remove();
+        }
+    }
+
+    private static class StoredSearch {
+        private final IBundleProvider resultSet;
+        private long lastAccessed;
+
+        StoredSearch(IBundleProvider resultSet, long lastAccessed) {
+            this.resultSet = resultSet;
+            this.lastAccessed = lastAccessed;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.proxies;
+
+import ca.uhn.fhir.rest.annotation.IdParam;
+import ca.uhn.fhir.rest.annotation.Read;
+import ca.uhn.fhir.rest.annotation.RequiredParam;
+import ca.uhn.fhir.rest.annotation.Search;
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.param.TokenParam;
+import ca.uhn.fhir.rest.server.exceptions.NotImplementedOperationException;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.SoTConduitGatekeeperBase;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.conditional.SoTConditionalRead;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.writebehind.SoTConduitPendingWrite;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.writebehind.SoTConduitWriteBehindResponseInterceptor;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.writebehind.SoTConduitWriteBehindService;
+import org.hl7.fhir.r4.model.*;
+
+import javax.inject.Inject;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * A ResourceSoTProxyBase whose requests go through the gatekeeper, whose
+ * Source-of-Truth calls are run via its bulkhead (see
+ * SoTConduitGatekeeperBase.callSoT()).
+ * <p>
+ * Only the SoT call itself is bulkheaded: cache hits, stale copies served while
+ * the circuit breaker is open, auditing and security labelling stay on the
+ * container's worker thread, so they keep working when the SoT is saturated. A
+ * call to a saturated SoT is refused straight away (503) and one that exceeds
+ * the gatekeeper's deadline is abandoned (504), so a slow SoT can only ever
+ * hold a container thread for a bounded time, and cannot starve the resource
+ * types served by healthy SoTs.
+ */
+public abstract class ResourceSoTAsyncProxyBase extends ResourceSoTProxyBase {
+    @Inject
+    private SoTConduitWriteBehindService writeBehindService;
+
+    abstract protected SoTConduitGatekeeperBase specifyGatekeeper();
+
+    @Override
+    public Resource getResource(IdType id){
+        return(getResource(id, null));
+    }
+
+    /**
+     * Reads honour If-None-Match / If-Modified-Since: when the client's copy is
+     * still current the gatekeeper answers 304 without the resource being encoded
+     * (see SoTConduitGatekeeperBase.getResource(IdType, SoTConditionalRead)).
+     */
+    @Read
+    public Resource getResource(@IdParam IdType id, RequestDetails requestDetails){
+        getLogger().debug(".getResource(): Entry, id --> {}", id);
+        SoTConduitGatekeeperBase gatekeeper = specifyGatekeeper();
+        SoTConditionalRead conditions = SoTConditionalRead.fromRequest(requestDetails);
+        Resource resource = gatekeeper.getResource(id, conditions);
+        getLogger().debug(".getResource(): Exit");
+        return(resource);
+    }
+
+    @Search
+    @Override
+    public Bundle getResourceViaIdentifier(@RequiredParam(name = Patient.SP_IDENTIFIER) TokenParam identifierParam){
+        getLogger().debug(".getResourceViaIdentifier(): Entry, identifierParam --> {}", identifierParam);
+        SoTConduitGatekeeperBase gatekeeper = specifyGatekeeper();
+        Identifier identifier = tokenParamToIdentifier(identifierParam);
+        Bundle searchResult = gatekeeper.getResourceViaIdentifier(identifier);
+        getLogger().debug(".getResourceViaIdentifier(): Exit");
+        return(searchResult);
+    }
+
+    /**
+     * For subclasses' @Search methods: runs the (id-only) search and returns a result set that HAPI pages (honouring _count) through the servlet's
+     * SoTConduitPagingProvider.
+     */
+    protected IBundleProvider searchViaGatekeeper(Map<Property, Serializable> parameterSet){
+        getLogger().debug(".searchViaGatekeeper(): Entry, parameterSet --> {}", parameterSet);
+        SoTConduitGatekeeperBase gatekeeper = specifyGatekeeper();
+        IBundleProvider searchResult = gatekeeper.search(parameterSet);
+        getLogger().debug(".searchViaGatekeeper(): Exit");
+        return(searchResult);
+    }
+
+    /**
+     * For subclasses' @Create methods: writes the resource via the gatekeeper, or -
+     * if the gatekeeper is write-behind - queues it and answers 202 (see
+     * SoTConduitWriteBehindResponseInterceptor).
+     */
+    protected MethodOutcome createViaGatekeeper(Resource resource, RequestDetails requestDetails){
+        getLogger().debug(".createViaGatekeeper(): Entry");
+        MethodOutcome outcome = writeViaGatekeeper(SoTConduitActionEnum.CREATE, resource, requestDetails);
+        getLogger().debug(".createViaGatekeeper(): Exit");
+        return(outcome);
+    }
+
+    /**
+     * For subclasses' @Update methods: as createViaGatekeeper(), writes to the same
+     * resource id being applied in the order they were received.
+     */
+    protected MethodOutcome updateViaGatekeeper(IdType id, Resource resource, RequestDetails requestDetails){
+        getLogger().debug(".updateViaGatekeeper(): Entry, id --> {}", id);
+        resource.setId(id.toUnqualifiedVersionless());
+        MethodOutcome outcome = writeViaGatekeeper(SoTConduitActionEnum.UPDATE, resource, requestDetails);
+        getLogger().debug(".updateViaGatekeeper(): Exit");
+        return(outcome);
+    }
+
+    private MethodOutcome writeViaGatekeeper(SoTConduitActionEnum action, Resource resource, RequestDetails requestDetails){
+        SoTConduitGatekeeperBase gatekeeper = specifyGatekeeper();
+        if (!gatekeeper.isWriteSupported(action)) {
+            throw new NotImplementedOperationException(gatekeeper.getAccessorName() + " does not support " + action);
+        }
+        if (gatekeeper.isWriteBehindEnabled()) {
+            SoTConduitPendingWrite pendingWrite = writeBehindService.accept(gatekeeper, action, resource);
+            if (requestDetails != null) {
+                requestDetails.getUserData().put(SoTConduitWriteBehindResponseInterceptor.PENDING_WRITE_KEY, pendingWrite);
+            }
+            return(new MethodOutcome());
+        }
+        return(gatekeeper.writeResource(action, resource));
+    }
+}
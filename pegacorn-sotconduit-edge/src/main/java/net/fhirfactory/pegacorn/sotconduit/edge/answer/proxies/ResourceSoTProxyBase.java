@@ -46,6 +46,18 @@ public abstract class ResourceSoTProxyBase implements IResourceProvider {
         return(processingPlant);
     }
 
+    /**
+     * Converts an identifier search parameter into an Identifier, so it can be
+     * resolved via SoTConduitGatekeeperBase.getResourceViaIdentifier() (and its
+     * identifier index).
+     */
+    protected Identifier tokenParamToIdentifier(TokenParam identifierParam){
+        Identifier identifier = new Identifier();
+        identifier.setSystem(identifierParam.getSystem());
+        identifier.setValue(identifierParam.getValue());
+        return(identifier);
+    }
+
     //
     // Main Proxy Methods
     //
@@ -0,0 +1,118 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.writebehind;
+
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+
+/**
+ * A CREATE/UPDATE accepted into the write-behind queue: the encoded resource,
+ * the lane (resource id) it is ordered within, and how far it has got.
+ */
+public class SoTConduitPendingWrite {
+    private final String writeId;
+    private final long sequence;
+    private final String resourceType;
+    private final SoTConduitActionEnum action;
+    private final String laneKey;
+    private final String encodedResource;
+    private final long acceptedTime;
+    private final long acceptedNanos;
+    private volatile SoTConduitWriteBehindStatusEnum status;
+    private volatile int attempts;
+    private volatile String outcomeId;
+    private volatile String failureReason;
+    private volatile long completedTime;
+
+    public SoTConduitPendingWrite(String writeId, long sequence, String resourceType, SoTConduitActionEnum action, String laneKey, String encodedResource, long acceptedTime, long acceptedNanos) {
+        this.writeId = writeId;
+        this.sequence = sequence;
+        this.resourceType = resourceType;
+        this.action = action;
+        this.laneKey = laneKey;
+        this.encodedResource = encodedResource;
+        this.acceptedTime = acceptedTime;
+        this.acceptedNanos = acceptedNanos;
+        this.status = SoTConduitWriteBehindStatusEnum.QUEUED;
+    }
+
+    public String getWriteId() {
+        return writeId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    public SoTConduitActionEnum getAction() {
+        return action;
+    }
+
+    public String getLaneKey() {
+        return laneKey;
+    }
+
+    public String getEncodedResource() {
+        return encodedResource;
+    }
+
+    public long getAcceptedTime() {
+        return acceptedTime;
+    }
+
+    /**
+     * When (System.nanoTime()) this process accepted the write, or -1 for a write
+     * recovered from the journal after a restart.
+     */
+    public long getAcceptedNanos() {
+        return acceptedNanos;
+    }
+
+    public SoTConduitWriteBehindStatusEnum getStatus() {
+        return status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public String getOutcomeId() {
+        return outcomeId;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    public long getCompletedTime() {
+        return completedTime;
+    }
+
+    public boolean isFinished() {
+        return (status == SoTConduitWriteBehindStatusEnum.COMPLETED || status == SoTConduitWriteBehindStatusEnum.FAILED);
+    }
+
+    void startAttempt() {
+        this.attempts++;
+        this.status = SoTConduitWriteBehindStatusEnum.IN_PROGRESS;
+    }
+
+    void requeue(String failureReason) {
+        this.failureReason = failureReason;
+        this.status = SoTConduitWriteBehindStatusEnum.QUEUED;
+    }
+
+    void complete(String outcomeId) {
+        this.outcomeId = outcomeId;
+        this.failureReason = null;
+        this.completedTime = System.currentTimeMillis();
+        this.status = SoTConduitWriteBehindStatusEnum.COMPLETED;
+    }
+
+    void fail(String failureReason) {
+        this.failureReason = failureReason;
+        this.completedTime = System.currentTimeMillis();
+        this.status = SoTConduitWriteBehindStatusEnum.FAILED;
+    }
+}
@@ -0,0 +1,134 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.writebehind;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+
+/**
+ * The durable side of the write-behind queue: one file per pending write
+ * ("{sequence}-{writeId}.json", a tab separated header line followed by the
+ * resource JSON), written to a temporary file, forced to disk and then moved
+ * into place, so a write is only ever acknowledged once it would survive a
+ * restart. Completed writes are deleted; writes that exhausted their attempts
+ * are moved to the "failed" sub-directory for manual attention.
+ */
+public class SoTConduitWriteBehindJournal {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitWriteBehindJournal.class);
+
+    private static final String JOURNAL_FILE_SUFFIX = ".json";
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+    private static final String FAILED_DIRECTORY_NAME = "failed";
+    private static final String HEADER_SEPARATOR = "\t";
+
+    private final Path journalDirectory;
+    private final Path failedDirectory;
+
+    public SoTConduitWriteBehindJournal(Path journalDirectory) throws IOException {
+        this.journalDirectory = Files.createDirectories(journalDirectory);
+        this.failedDirectory = Files.createDirectories(journalDirectory.resolve(FAILED_DIRECTORY_NAME));
+    }
+
+    public Path getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public void persist(SoTConduitPendingWrite pendingWrite) throws IOException {
+        Path journalFile = resolveJournalFile(pendingWrite);
+        Path temporaryFile = journalDirectory.resolve(journalFile.getFileName() + TEMPORARY_FILE_SUFFIX);
+        String header = pendingWrite.getResourceType() + HEADER_SEPARATOR + pendingWrite.getAction().name() + HEADER_SEPARATOR
+                + pendingWrite.getLaneKey() + HEADER_SEPARATOR + pendingWrite.getAcceptedTime() + "\n";
+        try (FileChannel journalChannel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer content = StandardCharsets.UTF_8.encode(header + pendingWrite.getEncodedResource());
+            while (content.hasRemaining()) {
+                journalChannel.write(content);
+            }
+            journalChannel.force(true);
+        }
+        try {
+            Files.move(temporaryFile, journalFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException atomicMoveNotSupported) {
+            Files.move(temporaryFile, journalFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public void remove(SoTConduitPendingWrite pendingWrite) {
+        try {
+            Files.deleteIfExists(resolveJournalFile(pendingWrite));
+        } catch (IOException ioException) {
+            LOG.warn(".remove(): Could not delete journal entry, writeId --> {}, error --> {}", pendingWrite.getWriteId(), ioException.toString());
+        }
+    }
+
+    public void quarantine(SoTConduitPendingWrite pendingWrite) {
+        Path journalFile = resolveJournalFile(pendingWrite);
+        try {
+            Files.move(journalFile, failedDirectory.resolve(journalFile.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioException) {
+            LOG.warn(".quarantine(): Could not move journal entry, writeId --> {}, error --> {}", pendingWrite.getWriteId(), ioException.toString());
+        }
+    }
+
+    /**
+     * Reads back the writes left pending by a previous run, in the order they were
+     * accepted. Unreadable entries (and any half-written temporary files) are skipped.
+     */
+    public List<SoTConduitPendingWrite> recover() throws IOException {
+        List<SoTConduitPendingWrite> pendingWrites = new ArrayList<>();
+        try (DirectoryStream<Path> journalFiles = Files.newDirectoryStream(journalDirectory)) {
+            for (Path journalFile : journalFiles) {
+                String fileName = journalFile.getFileName().toString();
+                if (fileName.endsWith(TEMPORARY_FILE_SUFFIX)) {
+                    Files.deleteIfExists(journalFile);
+                } else if (fileName.endsWith(JOURNAL_FILE_SUFFIX)) {
+                    SoTConduitPendingWrite pendingWrite = readJournalFile(journalFile);
+                    if (pendingWrite != null) {
+                        pendingWrites.add(pendingWrite);
+                    }
+                }
+            }
+        }
+        pendingWrites.sort(Comparator.comparingLong(SoTConduitPendingWrite::getSequence));
+        return (pendingWrites);
+    }
+
+    private SoTConduitPendingWrite readJournalFile(Path journalFile) {
+        String fileName = journalFile.getFileName().toString();
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String[] header = reader.readLine().split(HEADER_SEPARATOR);
+            String baseName = fileName.substring(0, fileName.length() - JOURNAL_FILE_SUFFIX.length());
+            int separator = baseName.indexOf('-');
+            long sequence = Long.parseLong(baseName.substring(0, separator));
+            String writeId = baseName.substring(separator + 1);
+            StringBuilder encodedResource = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                encodedResource.append(buffer, 0, read);
+            }
+            return (new SoTConduitPendingWrite(writeId, sequence, header[0], SoTConduitActionEnum.valueOf(header[1]), header[2], encodedResource.toString(), Long.parseLong(header[3]), -1L));
+        } catch (IOException | RuntimeException unreadable) {
+            LOG.error(".readJournalFile(): Skipping unreadable journal entry, file --> {}, error --> {}", journalFile, unreadable.toString());
+            return (null);
+        }
+    }
+
+    private Path resolveJournalFile(SoTConduitPendingWrite pendingWrite) {
+        return (journalDirectory.resolve(String.format("%020d-%s%s", pendingWrite.getSequence(), pendingWrite.getWriteId(), JOURNAL_FILE_SUFFIX)));
+    }
+}
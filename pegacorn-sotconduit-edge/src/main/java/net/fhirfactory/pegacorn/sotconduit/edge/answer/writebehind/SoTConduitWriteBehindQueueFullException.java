@@ -0,0 +1,17 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.writebehind;
+
+import ca.uhn.fhir.rest.server.exceptions.UnclassifiedServerFailureException;
+
+/**
+ * Thrown (as a 503, with a Retry-After) when a write is refused because the
+ * write-behind queue already holds its maximum number of pending writes.
+ */
+public class SoTConduitWriteBehindQueueFullException extends UnclassifiedServerFailureException {
+    private static final long serialVersionUID = 1L;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    public SoTConduitWriteBehindQueueFullException(String resourceType, long retryAfterMillis) {
+        super(HTTP_SERVICE_UNAVAILABLE, "Write-behind queue is full, please retry: " + resourceType);
+        addResponseHeader("Retry-After", Long.toString(Math.max(1L, (retryAfterMillis + 999L) / 1000L)));
+    }
+}
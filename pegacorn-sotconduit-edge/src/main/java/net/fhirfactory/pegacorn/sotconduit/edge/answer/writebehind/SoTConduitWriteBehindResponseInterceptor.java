@@ -0,0 +1,39 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.writebehind;
+
+import org.hl7.fhir.r4.model.OperationOutcome;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.ResponseDetails;
+
+/**
+ * Turns the response to a CREATE/UPDATE that was accepted into the write-behind
+ * queue (see ResourceSoTAsyncProxyBase) into a 202, with a Content-Location at
+ * which its status can be polled (see SoTConduitWriteBehindStatusProvider).
+ */
+@Interceptor
+public class SoTConduitWriteBehindResponseInterceptor {
+    public static final String PENDING_WRITE_KEY = SoTConduitPendingWrite.class.getName();
+
+    private static final int HTTP_ACCEPTED = 202;
+
+    @Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
+    public boolean acceptPendingWrite(RequestDetails requestDetails, ResponseDetails responseDetails) {
+        Object pendingWrite = requestDetails.getUserData().get(PENDING_WRITE_KEY);
+        if (!(pendingWrite instanceof SoTConduitPendingWrite)) {
+            return (true);
+        }
+        String writeId = ((SoTConduitPendingWrite) pendingWrite).getWriteId();
+        OperationOutcome outcome = new OperationOutcome();
+        outcome.addIssue()
+                .setSeverity(OperationOutcome.IssueSeverity.INFORMATION)
+                .setCode(OperationOutcome.IssueType.INFORMATIONAL)
+                .setDiagnostics("Write accepted for processing: " + writeId);
+        responseDetails.setResponseCode(HTTP_ACCEPTED);
+        responseDetails.setResponseResource(outcome);
+        requestDetails.getResponse().addHeader("Content-Location", SoTConduitWriteBehindStatusProvider.getStatusUrl(requestDetails.getFhirServerBase(), writeId));
+        return (true);
+    }
+}
@@ -0,0 +1,402 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.writebehind;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.rest.api.MethodOutcome;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+import net.fhirfactory.pegacorn.sotconduit.context.SoTConduitRequestContext;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.SoTConduitGatekeeperBase;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.SoTConduitGatekeeperRegistry;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.execution.SoTConduitBulkheadFullException;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.execution.SoTConduitExecutionService;
+import net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.resilience.SoTCircuitBreakerOpenException;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitEncodingModeEnum;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitResourceEncoder;
+import net.fhirfactory.pegacorn.sotconduit.metrics.SoTConduitAccessorMetrics;
+import net.fhirfactory.pegacorn.sotconduit.metrics.SoTConduitMetrics;
+
+/**
+ * Accepts CREATE/UPDATE requests for write-behind gatekeepers (see
+ * SoTConduitGatekeeperBase.specifyWriteBehind()) once they are in a durable
+ * journal, and writes them to the Source-of-Truth afterwards.
+ * <p>
+ * Writes to the same resource (type and id) are kept in a lane and applied
+ * strictly in the order they were accepted; different lanes are written in
+ * parallel, within the "write-behind" bulkhead. An UPDATE that fails with a 5xx
+ * (or any non-HTTP error) is retried, with a growing delay, up to
+ * specifyMaximumAttempts() times - holding up the rest of its lane meanwhile; one
+ * refused with a 4xx fails straight away. A CREATE is not idempotent, so is only
+ * retried when it is known not to have reached the Source-of-Truth (bulkhead
+ * full, circuit open). Each attempt is audited by the gatekeeper, so the
+ * FINISH/FAILURE status records when the write really happened.
+ * <p>
+ * The journal must be on a persistent volume, so its directory has to be
+ * configured (sotconduit.writebehind.journal.directory, or the
+ * SOTCONDUIT_WRITE_BEHIND_JOURNAL_DIRECTORY environment variable); without one
+ * write-behind writes are refused. The number of writes not yet finished is
+ * bounded (specifyMaximumQueuedWrites()); beyond that writes are refused with a
+ * 503.
+ */
+@ApplicationScoped
+public class SoTConduitWriteBehindService {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitWriteBehindService.class);
+
+    private static final String WRITE_BEHIND_BULKHEAD_NAME = "write-behind";
+    private static final String JOURNAL_DIRECTORY_PROPERTY = "sotconduit.writebehind.journal.directory";
+    private static final String JOURNAL_DIRECTORY_ENVIRONMENT_VARIABLE = "SOTCONDUIT_WRITE_BEHIND_JOURNAL_DIRECTORY";
+    private static final int DEFAULT_MAXIMUM_QUEUED_WRITES = 10000;
+    private static final int DEFAULT_MAXIMUM_CONCURRENT_WRITES = 8;
+    private static final int DEFAULT_MAXIMUM_ATTEMPTS = 5;
+    private static final long DEFAULT_RETRY_DELAY_MILLIS = 1000L;
+    private static final long MAXIMUM_RETRY_DELAY_MILLIS = 60000L;
+    private static final long DEFAULT_STATUS_RETENTION_MILLIS = 3600000L;
+    private static final int HTTP_CLIENT_ERROR_MINIMUM = 400;
+    private static final int HTTP_SERVER_ERROR_MINIMUM = 500;
+
+    private final Map<String, ArrayDeque<SoTConduitPendingWrite>> lanes = new HashMap<>();
+    private final Map<String, SoTConduitPendingWrite> trackedWrites = new ConcurrentHashMap<>();
+    private final AtomicLong writeSequence = new AtomicLong();
+    private int queuedWrites;
+    private SoTConduitWriteBehindJournal journal;
+
+    @Inject
+    private SoTConduitGatekeeperRegistry gatekeeperRegistry;
+
+    @Inject
+    private SoTConduitExecutionService executionService;
+
+    @Inject
+    private SoTConduitResourceEncoder resourceEncoder;
+
+    @Inject
+    private SoTConduitMetrics conduitMetrics;
+
+    public void onStartup(@Observes @Initialized(ApplicationScoped.class) Object event) {
+        recoverPendingWrites();
+    }
+
+    /**
+     * The directory holding the journal of accepted writes, or null if none is
+     * configured (in which case write-behind writes are refused).
+     */
+    protected Path specifyJournalDirectory() {
+        String journalDirectory = System.getProperty(JOURNAL_DIRECTORY_PROPERTY, System.getenv(JOURNAL_DIRECTORY_ENVIRONMENT_VARIABLE));
+        if (journalDirectory == null || journalDirectory.trim().isEmpty()) {
+            return (null);
+        }
+        return (Paths.get(journalDirectory.trim()));
+    }
+
+    /**
+     * The maximum number of accepted writes (across all lanes) not yet written to
+     * their Source-of-Truth.
+     */
+    protected int specifyMaximumQueuedWrites() {
+        return (DEFAULT_MAXIMUM_QUEUED_WRITES);
+    }
+
+    /**
+     * How many lanes are written to their Source-of-Truth at the same time.
+     */
+    protected int specifyMaximumConcurrentWrites() {
+        return (DEFAULT_MAXIMUM_CONCURRENT_WRITES);
+    }
+
+    protected int specifyMaximumAttempts() {
+        return (DEFAULT_MAXIMUM_ATTEMPTS);
+    }
+
+    /**
+     * The delay before the first retry of a failed write; it doubles for each
+     * further retry (up to a minute).
+     */
+    protected long specifyRetryDelayMillis() {
+        return (DEFAULT_RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * How long the status of a finished write is kept for the client to poll.
+     */
+    protected long specifyStatusRetentionMillis() {
+        return (DEFAULT_STATUS_RETENTION_MILLIS);
+    }
+
+    /**
+     * Journals the write and queues it behind any earlier writes to the same
+     * resource, returning it (to poll) as soon as it is durable.
+     *
+     * @throws IllegalStateException if no journal directory is configured, or the
+     *         write could not be journalled
+     */
+    public SoTConduitPendingWrite accept(SoTConduitGatekeeperBase gatekeeper, SoTConduitActionEnum action, Resource resource) {
+        LOG.debug(".accept(): Entry, accessor --> {}, action --> {}, id --> {}", gatekeeper.getAccessorName(), action, resource.getIdElement());
+        if (action != SoTConduitActionEnum.CREATE && action != SoTConduitActionEnum.UPDATE) {
+            throw new IllegalArgumentException("Unsupported write-behind action: " + action);
+        }
+        SoTConduitWriteBehindJournal writeJournal = getJournal();
+        purgeExpiredWrites();
+        String resourceType = gatekeeper.getResourceType();
+        synchronized (lanes) {
+            if (queuedWrites >= specifyMaximumQueuedWrites()) {
+                conduitMetrics.getAccessorMetrics(gatekeeper.getAccessorName()).recordWriteRejected();
+                LOG.warn(".accept(): Write-behind queue full, accessor --> {}, queued --> {}", resourceType, queuedWrites);
+                throw new SoTConduitWriteBehindQueueFullException(resourceType, specifyRetryDelayMillis());
+            }
+            queuedWrites++;
+        }
+        String writeId = UUID.randomUUID().toString();
+        String laneKey = resource.getIdElement().hasIdPart() ? resourceType + "/" + resource.getIdElement().getIdPart() : writeId;
+        String encodedResource = resourceEncoder.encodeToString(resource, SoTConduitEncodingModeEnum.COMPACT);
+        SoTConduitPendingWrite pendingWrite = new SoTConduitPendingWrite(writeId, writeSequence.incrementAndGet(), resourceType, action, laneKey, encodedResource, System.currentTimeMillis(), System.nanoTime());
+        try {
+            writeJournal.persist(pendingWrite);
+        } catch (IOException | UncheckedIOException journalFailure) {
+            synchronized (lanes) {
+                queuedWrites--;
+            }
+            throw new IllegalStateException("Unable to journal write-behind request --> " + journalFailure.getMessage(), journalFailure);
+        }
+        enqueue(pendingWrite);
+        LOG.debug(".accept(): Exit, writeId --> {}, lane --> {}", writeId, laneKey);
+        return (pendingWrite);
+    }
+
+    public SoTConduitPendingWrite getWrite(String writeId) {
+        purgeExpiredWrites();
+        return (trackedWrites.get(writeId));
+    }
+
+    public int getQueuedWriteCount() {
+        synchronized (lanes) {
+            return (queuedWrites);
+        }
+    }
+
+    /**
+     * Re-queues the writes a previous run accepted but did not finish. Writes for a
+     * resource type with no gatekeeper are left in the journal.
+     */
+    public void recoverPendingWrites() {
+        LOG.debug(".recoverPendingWrites(): Entry");
+        if (specifyJournalDirectory() == null) {
+            for (SoTConduitGatekeeperBase gatekeeper : gatekeeperRegistry.getGatekeepers()) {
+                if (gatekeeper.isWriteBehindEnabled()) {
+                    LOG.error(".recoverPendingWrites(): No write-behind journal directory ({}) is configured, writes to {} will be refused", JOURNAL_DIRECTORY_PROPERTY, gatekeeper.getAccessorName());
+                }
+            }
+            return;
+        }
+        List<SoTConduitPendingWrite> recoveredWrites;
+        try {
+            recoveredWrites = getJournal().recover();
+        } catch (IOException | UncheckedIOException ioException) {
+            LOG.error(".recoverPendingWrites(): Unable to read the write-behind journal, error --> {}", ioException.toString());
+            return;
+        }
+        int recoveredCount = 0;
+        for (SoTConduitPendingWrite pendingWrite : recoveredWrites) {
+            writeSequence.accumulateAndGet(pendingWrite.getSequence(), Math::max);
+            if (trackedWrites.containsKey(pendingWrite.getWriteId())) {
+                continue;
+            }
+            if (gatekeeperRegistry.getGatekeeper(pendingWrite.getResourceType()) == null) {
+                LOG.error(".recoverPendingWrites(): No gatekeeper for recovered write, writeId --> {}, resourceType --> {}", pendingWrite.getWriteId(), pendingWrite.getResourceType());
+                continue;
+            }
+            synchronized (lanes) {
+                queuedWrites++;
+            }
+            enqueue(pendingWrite);
+            recoveredCount++;
+        }
+        LOG.info(".recoverPendingWrites(): Recovered {} pending writes", recoveredCount);
+    }
+
+    private void enqueue(SoTConduitPendingWrite pendingWrite) {
+        trackedWrites.put(pendingWrite.getWriteId(), pendingWrite);
+        resolveAccessorMetrics(pendingWrite).recordWriteQueued();
+        boolean startLane = false;
+        synchronized (lanes) {
+            ArrayDeque<SoTConduitPendingWrite> lane = lanes.get(pendingWrite.getLaneKey());
+            if (lane == null) {
+                lane = new ArrayDeque<>();
+                lanes.put(pendingWrite.getLaneKey(), lane);
+                startLane = true;
+            }
+            lane.addLast(pendingWrite);
+        }
+        if (startLane) {
+            scheduleLane(pendingWrite.getLaneKey(), 0L);
+        }
+    }
+
+    private void scheduleLane(String laneKey, long delayMillis) {
+        if (delayMillis > 0) {
+            CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS).execute(() -> scheduleLane(laneKey, 0L));
+            return;
+        }
+        executionService.submit(WRITE_BEHIND_BULKHEAD_NAME, specifyMaximumConcurrentWrites(), () -> drainLane(laneKey))
+                .whenComplete((unused, drainFailure) -> {
+                    if (drainFailure != null) {
+                        LOG.error(".scheduleLane(): Lane drain failed, lane --> {}, error --> {}", laneKey, drainFailure.toString());
+                        scheduleLane(laneKey, specifyRetryDelayMillis());
+                    }
+                });
+    }
+
+    /**
+     * Attempts the write at the head of the lane, then reschedules the lane (after a
+     * delay if the write is to be retried) so that lanes share the bulkhead fairly.
+     */
+    private Void drainLane(String laneKey) {
+        SoTConduitPendingWrite pendingWrite;
+        synchronized (lanes) {
+            ArrayDeque<SoTConduitPendingWrite> lane = lanes.get(laneKey);
+            pendingWrite = lane == null ? null : lane.peekFirst();
+        }
+        if (pendingWrite == null) {
+            return (null);
+        }
+        // the write outlives the request that queued it, so must not accumulate into its context
+        SoTConduitRequestContext previousContext = SoTConduitRequestContext.bind(null);
+        try {
+            if (!attemptWrite(pendingWrite)) {
+                scheduleLane(laneKey, resolveRetryDelay(pendingWrite.getAttempts()));
+                return (null);
+            }
+        } finally {
+            SoTConduitRequestContext.restore(previousContext);
+        }
+        boolean moreWrites;
+        synchronized (lanes) {
+            queuedWrites--;
+            ArrayDeque<SoTConduitPendingWrite> lane = lanes.get(laneKey);
+            lane.pollFirst();
+            moreWrites = !lane.isEmpty();
+            if (!moreWrites) {
+                lanes.remove(laneKey);
+            }
+        }
+        if (moreWrites) {
+            scheduleLane(laneKey, 0L);
+        }
+        return (null);
+    }
+
+    /**
+     * Makes one attempt at the write, returning true once it has finished (either
+     * way) and false if it is to be retried.
+     */
+    private boolean attemptWrite(SoTConduitPendingWrite pendingWrite) {
+        LOG.debug(".attemptWrite(): Entry, writeId --> {}, attempt --> {}", pendingWrite.getWriteId(), pendingWrite.getAttempts() + 1);
+        SoTConduitGatekeeperBase gatekeeper = gatekeeperRegistry.getGatekeeper(pendingWrite.getResourceType());
+        pendingWrite.startAttempt();
+        try {
+            if (gatekeeper == null) {
+                throw new IllegalStateException("No gatekeeper for resource type: " + pendingWrite.getResourceType());
+            }
+            Resource resource = (Resource) resourceEncoder.getParser(SoTConduitEncodingModeEnum.COMPACT).parseResource(pendingWrite.getEncodedResource());
+            MethodOutcome outcome = gatekeeper.writeResource(pendingWrite.getAction(), resource);
+            String outcomeId = outcome != null && outcome.getId() != null ? outcome.getId().toUnqualified().getValue()
+                    : resource.getIdElement().hasIdPart() ? pendingWrite.getResourceType() + "/" + resource.getIdElement().getIdPart() : null;
+            pendingWrite.complete(outcomeId);
+            getJournal().remove(pendingWrite);
+            recordFinished(pendingWrite);
+            LOG.debug(".attemptWrite(): Exit, write completed, writeId --> {}, outcomeId --> {}", pendingWrite.getWriteId(), outcomeId);
+            return (true);
+        } catch (RuntimeException writeFailure) {
+            String failureReason = writeFailure.getMessage() != null ? writeFailure.getMessage() : writeFailure.toString();
+            if (isRetryable(pendingWrite, writeFailure) && pendingWrite.getAttempts() < specifyMaximumAttempts()) {
+                LOG.warn(".attemptWrite(): Write failed, will retry, writeId --> {}, attempt --> {}, error --> {}", pendingWrite.getWriteId(), pendingWrite.getAttempts(), writeFailure.toString());
+                pendingWrite.requeue(failureReason);
+                return (false);
+            }
+            LOG.error(".attemptWrite(): Write failed, giving up, writeId --> {}, attempts --> {}, error --> {}", pendingWrite.getWriteId(), pendingWrite.getAttempts(), writeFailure.toString());
+            pendingWrite.fail(failureReason);
+            getJournal().quarantine(pendingWrite);
+            recordFinished(pendingWrite);
+            return (true);
+        }
+    }
+
+    private void recordFinished(SoTConduitPendingWrite pendingWrite) {
+        long queuedNanos = pendingWrite.getAcceptedNanos() < 0 ? -1L : System.nanoTime() - pendingWrite.getAcceptedNanos();
+        resolveAccessorMetrics(pendingWrite).recordWriteDequeued(pendingWrite.getAction(), queuedNanos);
+    }
+
+    private SoTConduitAccessorMetrics resolveAccessorMetrics(SoTConduitPendingWrite pendingWrite) {
+        SoTConduitGatekeeperBase gatekeeper = gatekeeperRegistry.getGatekeeper(pendingWrite.getResourceType());
+        return (conduitMetrics.getAccessorMetrics(gatekeeper != null ? gatekeeper.getAccessorName() : pendingWrite.getResourceType()));
+    }
+
+    private boolean isRetryable(SoTConduitPendingWrite pendingWrite, RuntimeException writeFailure) {
+        if (writeFailure instanceof SoTConduitBulkheadFullException || writeFailure instanceof SoTCircuitBreakerOpenException) {
+            return (true);
+        }
+        if (pendingWrite.getAction() == SoTConduitActionEnum.CREATE) {
+            // may have been applied, so a retry could create a duplicate
+            return (false);
+        }
+        if (writeFailure instanceof BaseServerResponseException) {
+            int statusCode = ((BaseServerResponseException) writeFailure).getStatusCode();
+            return (statusCode < HTTP_CLIENT_ERROR_MINIMUM || statusCode >= HTTP_SERVER_ERROR_MINIMUM);
+        }
+        return (!(writeFailure instanceof UnsupportedOperationException) && !(writeFailure instanceof IllegalArgumentException)
+                && !(writeFailure instanceof DataFormatException));
+    }
+
+    private long resolveRetryDelay(int attempts) {
+        long retryDelay = specifyRetryDelayMillis() << Math.min(Math.max(attempts - 1, 0), 16);
+        return (Math.min(retryDelay, MAXIMUM_RETRY_DELAY_MILLIS));
+    }
+
+    private synchronized SoTConduitWriteBehindJournal getJournal() {
+        if (journal == null) {
+            Path journalDirectory = specifyJournalDirectory();
+            if (journalDirectory == null) {
+                throw new IllegalStateException("Write-behind requires a journal directory (" + JOURNAL_DIRECTORY_PROPERTY + ")");
+            }
+            try {
+                journal = new SoTConduitWriteBehindJournal(journalDirectory);
+            } catch (IOException ioException) {
+                throw new UncheckedIOException(ioException);
+            }
+        }
+        return (journal);
+    }
+
+    private void purgeExpiredWrites() {
+        long expiryTime = System.currentTimeMillis() - specifyStatusRetentionMillis();
+        Iterator<SoTConduitPendingWrite> writes = trackedWrites.values().iterator();
+        while (writes.hasNext()) {
+            SoTConduitPendingWrite pendingWrite = writes.next();
+            if (pendingWrite.isFinished() && pendingWrite.getCompletedTime() < expiryTime) {
+                writes.remove();
+            }
+        }
+    }
+}
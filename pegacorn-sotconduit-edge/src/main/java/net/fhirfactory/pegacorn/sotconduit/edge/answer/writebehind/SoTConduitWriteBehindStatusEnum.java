@@ -0,0 +1,8 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.writebehind;
+
+public enum SoTConduitWriteBehindStatusEnum {
+    QUEUED,
+    IN_PROGRESS,
+    COMPLETED,
+    FAILED
+}
@@ -0,0 +1,84 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.writebehind;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.StringType;
+
+import ca.uhn.fhir.rest.annotation.Operation;
+import ca.uhn.fhir.rest.annotation.OperationParam;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+
+/**
+ * Status polling for write-behind writes (GET [base]/$write-status?_writeId={id}),
+ * as a server-level operation so that the servlet's interceptors (authorisation
+ * included), admission control and tracing apply to it: 202 (with a
+ * Retry-After) while the write is queued or being attempted, 200 (with the
+ * written resource's Location) once the Source-of-Truth has accepted it, and
+ * 500 if it was given up on.
+ */
+@ApplicationScoped
+public class SoTConduitWriteBehindStatusProvider {
+    public static final String WRITE_STATUS_OPERATION = "$write-status";
+
+    private static final String FHIR_JSON_CONTENT_TYPE = "application/fhir+json";
+    private static final String STATUS_RETRY_AFTER_SECONDS = "1";
+
+    @Inject
+    private SoTConduitWriteBehindService writeBehindService;
+
+    /**
+     * The url at which the status of the write can be polled.
+     */
+    public static String getStatusUrl(String serverBase, String writeId) {
+        return (serverBase + "/" + WRITE_STATUS_OPERATION + "?_writeId=" + URLEncoder.encode(writeId, StandardCharsets.UTF_8));
+    }
+
+    @Operation(name = WRITE_STATUS_OPERATION, idempotent = true, manualResponse = true)
+    public void reportStatus(
+            @OperationParam(name = "_writeId", min = 1) StringType writeId,
+            ServletRequestDetails requestDetails,
+            HttpServletResponse response) throws IOException {
+        SoTConduitPendingWrite pendingWrite = writeId == null || writeId.getValue() == null ? null : writeBehindService.getWrite(writeId.getValue());
+        if (pendingWrite == null) {
+            throw new ResourceNotFoundException("Unknown or expired write: " + (writeId == null ? null : writeId.getValue()));
+        }
+        switch (pendingWrite.getStatus()) {
+            case QUEUED:
+            case IN_PROGRESS:
+                response.setHeader("X-Progress", pendingWrite.getStatus() + ", " + pendingWrite.getAttempts() + " attempt(s)");
+                response.setHeader("Retry-After", STATUS_RETRY_AFTER_SECONDS);
+                sendOutcome(requestDetails, response, HttpServletResponse.SC_ACCEPTED, pendingWrite.getAction() + " " + pendingWrite.getStatus() + ": " + pendingWrite.getWriteId());
+                return;
+            case COMPLETED:
+                if (pendingWrite.getOutcomeId() != null) {
+                    response.setHeader("Location", requestDetails.getFhirServerBase() + "/" + pendingWrite.getOutcomeId());
+                }
+                sendOutcome(requestDetails, response, HttpServletResponse.SC_OK, pendingWrite.getAction() + " completed: " + (pendingWrite.getOutcomeId() != null ? pendingWrite.getOutcomeId() : pendingWrite.getWriteId()));
+                return;
+            case FAILED:
+            default:
+                throw new InternalErrorException(pendingWrite.getAction() + " failed after " + pendingWrite.getAttempts() + " attempt(s): " + pendingWrite.getFailureReason());
+        }
+    }
+
+    private void sendOutcome(ServletRequestDetails requestDetails, HttpServletResponse response, int httpStatus, String message) throws IOException {
+        OperationOutcome outcome = new OperationOutcome();
+        outcome.addIssue()
+                .setSeverity(OperationOutcome.IssueSeverity.INFORMATION)
+                .setCode(OperationOutcome.IssueType.INFORMATIONAL)
+                .setDiagnostics(message);
+        response.setStatus(httpStatus);
+        response.setContentType(FHIR_JSON_CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(requestDetails.getFhirContext().newJsonParser().encodeResourceToString(outcome));
+    }
+}
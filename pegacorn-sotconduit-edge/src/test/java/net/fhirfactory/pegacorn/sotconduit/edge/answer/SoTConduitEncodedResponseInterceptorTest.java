@@ -0,0 +1,200 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.HookParams;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.interceptor.executor.InterceptorService;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import ca.uhn.fhir.rest.api.server.ResponseDetails;
+import ca.uhn.fhir.rest.server.RestfulServer;
+import ca.uhn.fhir.rest.server.servlet.ServletRequestDetails;
+import net.fhirfactory.pegacorn.sotconduit.context.SoTConduitRequestContext;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitEncodingModeEnum;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitResourceEncoder;
+import net.fhirfactory.pegacorn.sotconduit.tracing.SoTConduitTracer;
+
+public class SoTConduitEncodedResponseInterceptorTest {
+    private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+    // the order AuthorizationInterceptor and friends run at
+    private static final int AUTHORISATION_ORDER = 100;
+
+    private InterceptorService interceptorService;
+    private ByteArrayOutputStream responseBody;
+    private HttpServletResponse servletResponse;
+
+    @BeforeEach
+    public void setUp() {
+        SoTConduitRequestContext.open();
+        interceptorService = new InterceptorService();
+        // registered first, as SoTConduitEdgeAnswerServlet does, ahead of any deployment interceptor
+        interceptorService.registerInterceptor(new SoTConduitEncodedResponseInterceptor(new TestEncoder(), new SoTConduitTracer()));
+        responseBody = new ByteArrayOutputStream();
+        servletResponse = newServletResponse(responseBody);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        SoTConduitRequestContext.close();
+    }
+
+    @Test
+    public void laterInterceptorsStillSeeAJsonRead() {
+        RecordingInterceptor authorisation = new RecordingInterceptor(null);
+        interceptorService.registerInterceptor(authorisation);
+        Patient patient = newPatient();
+        SoTConduitRequestContext.encodedResourceFor(patient, new TestEncoder()).getEncodedLength();
+
+        boolean continueProcessing = callOutgoingResponseHooks(patient);
+
+        assertTrue(authorisation.invoked);
+        assertFalse(continueProcessing);
+        assertTrue(responseBody.toString(StandardCharsets.UTF_8).contains("\"family\":\"Original\""));
+    }
+
+    @Test
+    public void aReplacedResponseIsNotAnsweredFromTheAuditEncoding() {
+        Patient masked = newPatient();
+        masked.getNameFirstRep().setFamily("Masked");
+        interceptorService.registerInterceptor(new RecordingInterceptor(masked));
+        Patient patient = newPatient();
+        SoTConduitRequestContext.encodedResourceFor(patient, new TestEncoder()).getEncodedLength();
+
+        callOutgoingResponseHooks(patient);
+
+        assertFalse(responseBody.toString(StandardCharsets.UTF_8).contains("Original"));
+    }
+
+    @Test
+    public void aRejectingInterceptorStopsTheResponseBeingWritten() {
+        interceptorService.registerInterceptor(new RejectingInterceptor());
+        Patient patient = newPatient();
+        SoTConduitRequestContext.encodedResourceFor(patient, new TestEncoder()).getEncodedLength();
+
+        boolean continueProcessing = callOutgoingResponseHooks(patient);
+
+        assertFalse(continueProcessing);
+        assertEquals(0, responseBody.size());
+    }
+
+    private boolean callOutgoingResponseHooks(Patient patient) {
+        ServletRequestDetails requestDetails = new ServletRequestDetails(interceptorService);
+        requestDetails.setServer(new RestfulServer(FHIR_CONTEXT));
+        requestDetails.setServletRequest(newServletRequest());
+        requestDetails.setServletResponse(servletResponse);
+        requestDetails.setParameters(new HashMap<>());
+        requestDetails.setRestOperationType(RestOperationTypeEnum.READ);
+        ResponseDetails responseDetails = new ResponseDetails(patient);
+        responseDetails.setResponseCode(200);
+        HookParams hookParams = new HookParams()
+                .add(RequestDetails.class, requestDetails)
+                .add(ServletRequestDetails.class, requestDetails)
+                .add(IBaseResource.class, patient)
+                .add(ResponseDetails.class, responseDetails)
+                .add(HttpServletRequest.class, requestDetails.getServletRequest())
+                .add(HttpServletResponse.class, servletResponse);
+        return (interceptorService.callHooks(Pointcut.SERVER_OUTGOING_RESPONSE, hookParams));
+    }
+
+    private static Patient newPatient() {
+        Patient patient = new Patient();
+        patient.setId("p1");
+        patient.addName().setFamily("Original");
+        return (patient);
+    }
+
+    private static HttpServletRequest newServletRequest() {
+        return ((HttpServletRequest) Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class}, (proxy, method, arguments) -> {
+            if ("getHeaders".equals(method.getName())) {
+                return (Collections.emptyEnumeration());
+            }
+            return (null);
+        }));
+    }
+
+    private static HttpServletResponse newServletResponse(ByteArrayOutputStream responseBody) {
+        ServletOutputStream outputStream = new ServletOutputStream() {
+            @Override
+            public void write(int value) {
+                responseBody.write(value);
+            }
+
+            @Override
+            public boolean isReady() {
+                return (true);
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        };
+        return ((HttpServletResponse) Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class}, (proxy, method, arguments) -> {
+            if ("getOutputStream".equals(method.getName())) {
+                return (outputStream);
+            }
+            return (null);
+        }));
+    }
+
+    @Interceptor(order = AUTHORISATION_ORDER)
+    public static class RecordingInterceptor {
+        private final Patient replacement;
+        private boolean invoked;
+
+        private RecordingInterceptor(Patient replacement) {
+            this.replacement = replacement;
+        }
+
+        @Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
+        public boolean outgoingResponse(ResponseDetails responseDetails) {
+            invoked = true;
+            if (replacement != null) {
+                responseDetails.setResponseResource(replacement);
+            }
+            return (true);
+        }
+    }
+
+    @Interceptor(order = AUTHORISATION_ORDER)
+    public static class RejectingInterceptor {
+        @Hook(Pointcut.SERVER_OUTGOING_RESPONSE)
+        public boolean outgoingResponse() {
+            return (false);
+        }
+    }
+
+    private static class TestEncoder extends SoTConduitResourceEncoder {
+        private TestEncoder() {
+            initialise();
+        }
+
+        @Override
+        public IParser getParser(SoTConduitEncodingModeEnum mode) {
+            return (FHIR_CONTEXT.newJsonParser().setPrettyPrint(mode.isPrettyPrint()));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Resource;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitEncodingModeEnum;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitResourceEncoder;
+
+public class SoTOffHeapResourceCacheTest {
+    private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+    private static final long TIME_TO_LIVE_MILLIS = 60000L;
+    // 256KB of slabs gives a 2048 slot index, so 1500 entries load it to ~73%
+    private static final int DENSE_SLAB_SIZE = 128 * 1024;
+    private static final int DENSE_ENTRY_COUNT = 1500;
+    private static final int SMALL_SLAB_SIZE = 4096;
+
+    @TempDir
+    Path cacheDirectory;
+
+    @Test
+    public void returnsACopyOfWhatWasPut() {
+        SoTOffHeapResourceCache cache = new SoTOffHeapResourceCache(new TestEncoder(), 2, SMALL_SLAB_SIZE);
+        Patient patient = newPatient("p1");
+        cache.put(currentKey("p1"), patient, 0, TIME_TO_LIVE_MILLIS);
+
+        Resource cached = cache.get(currentKey("p1"));
+
+        assertNotNull(cached);
+        assertTrue(cached != patient);
+        assertEquals("Family-p1", ((Patient) cached).getNameFirstRep().getFamily());
+        assertNull(cache.get(currentKey("p2")));
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+    }
+
+    @Test
+    public void findsEveryRemainingEntryAfterDeletesFromWithinProbeClusters() {
+        SoTOffHeapResourceCache cache = new SoTOffHeapResourceCache(new TestEncoder(), 2, DENSE_SLAB_SIZE);
+        List<String> idParts = new ArrayList<>();
+        for (int index = 0; index < DENSE_ENTRY_COUNT; index++) {
+            String idPart = "p" + index;
+            idParts.add(idPart);
+            cache.put(currentKey(idPart), newPatient(idPart), 0, TIME_TO_LIVE_MILLIS);
+        }
+        assertEquals(DENSE_ENTRY_COUNT, cache.size());
+
+        // deleting in random order shifts entries back across (and around the end of) the index
+        Collections.shuffle(idParts, new Random(42L));
+        List<String> deleted = idParts.subList(0, DENSE_ENTRY_COUNT / 2);
+        List<String> remaining = idParts.subList(DENSE_ENTRY_COUNT / 2, DENSE_ENTRY_COUNT);
+        for (String idPart : deleted) {
+            cache.invalidate("Patient", idPart);
+        }
+
+        assertEquals(remaining.size(), cache.size());
+        for (String idPart : remaining) {
+            assertNotNull(cache.get(currentKey(idPart)), idPart);
+        }
+        for (String idPart : deleted) {
+            assertNull(cache.get(currentKey(idPart)), idPart);
+        }
+
+        for (String idPart : deleted) {
+            cache.put(currentKey(idPart), newPatient(idPart), 0, TIME_TO_LIVE_MILLIS);
+        }
+        assertEquals(DENSE_ENTRY_COUNT, cache.size());
+        for (String idPart : idParts) {
+            assertNotNull(cache.get(currentKey(idPart)), idPart);
+        }
+    }
+
+    @Test
+    public void replacesAnEntryPutTwice() {
+        SoTOffHeapResourceCache cache = new SoTOffHeapResourceCache(new TestEncoder(), 2, SMALL_SLAB_SIZE);
+        cache.put(currentKey("p1"), newPatient("p1"), 0, TIME_TO_LIVE_MILLIS);
+        Patient updated = newPatient("p1");
+        updated.getNameFirstRep().setFamily("Updated");
+        cache.put(currentKey("p1"), updated, 0, TIME_TO_LIVE_MILLIS);
+
+        assertEquals(1, cache.size());
+        assertEquals("Updated", ((Patient) cache.get(currentKey("p1"))).getNameFirstRep().getFamily());
+    }
+
+    @Test
+    public void evictsTheOldestSlabOnceTheRingIsFull() {
+        SoTOffHeapResourceCache cache = new SoTOffHeapResourceCache(new TestEncoder(), 2, SMALL_SLAB_SIZE);
+        int entryCount = 200;
+        for (int index = 0; index < entryCount; index++) {
+            cache.put(currentKey("p" + index), newPatient("p" + index), 0, TIME_TO_LIVE_MILLIS);
+        }
+
+        assertNull(cache.get(currentKey("p0")));
+        assertNotNull(cache.get(currentKey("p" + (entryCount - 1))));
+        assertTrue(cache.size() < entryCount);
+        assertEquals(cache.size(), countHeld(cache, entryCount));
+    }
+
+    @Test
+    public void evictsSlabsOnceTheIndexIsFull() {
+        SoTOffHeapResourceCache cache = new SoTOffHeapResourceCache(new TestEncoder(), 2, DENSE_SLAB_SIZE);
+        int entryCount = 2000;
+        for (int index = 0; index < entryCount; index++) {
+            cache.put(currentKey("p" + index), newPatient("p" + index), 0, TIME_TO_LIVE_MILLIS);
+        }
+
+        assertTrue(cache.size() < entryCount);
+        assertNotNull(cache.get(currentKey("p" + (entryCount - 1))));
+        assertEquals(cache.size(), countHeld(cache, entryCount));
+    }
+
+    @Test
+    public void skipsResourcesWhoseEncodedSizeCannotFitASlab() {
+        SoTOffHeapResourceCache cache = new SoTOffHeapResourceCache(new TestEncoder(), 2, SMALL_SLAB_SIZE);
+        cache.put(currentKey("p1"), newPatient("p1"), SMALL_SLAB_SIZE, TIME_TO_LIVE_MILLIS);
+
+        assertNull(cache.get(currentKey("p1")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void invalidateLeavesVersionedEntries() {
+        SoTOffHeapResourceCache cache = new SoTOffHeapResourceCache(new TestEncoder(), 2, SMALL_SLAB_SIZE);
+        SoTResourceCacheKey versionedKey = new SoTResourceCacheKey("Patient", "p1", "3");
+        cache.putAll(List.of(currentKey("p1"), versionedKey), newPatient("p1"), 0, TIME_TO_LIVE_MILLIS);
+        assertEquals(2, cache.size());
+
+        cache.invalidate("Patient", "p1");
+
+        assertNull(cache.get(currentKey("p1")));
+        assertNotNull(cache.get(versionedKey));
+    }
+
+    @Test
+    public void turnsAwayAReadBegunBeforeAnInvalidation() {
+        SoTOffHeapResourceCache cache = new SoTOffHeapResourceCache(new TestEncoder(), 2, SMALL_SLAB_SIZE);
+        long readGeneration = cache.getGeneration("Patient", "p1");
+
+        cache.invalidate("Patient", "p1");
+        cache.putAll(List.of(currentKey("p1")), newPatient("p1"), 0, TIME_TO_LIVE_MILLIS, readGeneration);
+
+        assertNull(cache.get(currentKey("p1")));
+        cache.putAll(List.of(currentKey("p1")), newPatient("p1"), 0, TIME_TO_LIVE_MILLIS, cache.getGeneration("Patient", "p1"));
+        assertNotNull(cache.get(currentKey("p1")));
+    }
+
+    @Test
+    public void servesExpiredEntriesOnlyAsStale()throws InterruptedException {
+        SoTOffHeapResourceCache cache = new SoTOffHeapResourceCache(new TestEncoder(), 2, SMALL_SLAB_SIZE);
+        cache.put(currentKey("p1"), newPatient("p1"), 0, 1L);
+        Thread.sleep(5L);
+
+        assertNull(cache.get(currentKey("p1")));
+        assertNotNull(cache.getStale(currentKey("p1")));
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        SoTOffHeapResourceCache cache = new SoTOffHeapResourceCache(new TestEncoder(), 2, SMALL_SLAB_SIZE);
+        for (int index = 0; index < 10; index++) {
+            cache.put(currentKey("p" + index), newPatient("p" + index), 0, TIME_TO_LIVE_MILLIS);
+        }
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(0, countHeld(cache, 10));
+    }
+
+    @Test
+    public void mappedCacheHoldsEntriesInTheFile() throws IOException {
+        SoTOffHeapResourceCache cache = SoTOffHeapResourceCache.mapped(new TestEncoder(), cacheDirectory.resolve("resource.cache"), 2, SMALL_SLAB_SIZE);
+        cache.put(currentKey("p1"), newPatient("p1"), 0, TIME_TO_LIVE_MILLIS);
+
+        assertEquals("Family-p1", ((Patient) cache.get(currentKey("p1"))).getNameFirstRep().getFamily());
+    }
+
+    private static int countHeld(SoTOffHeapResourceCache cache, int entryCount) {
+        int held = 0;
+        for (int index = 0; index < entryCount; index++) {
+            if (cache.getStale(currentKey("p" + index)) != null) {
+                held++;
+            }
+        }
+        return (held);
+    }
+
+    private static SoTResourceCacheKey currentKey(String idPart) {
+        return (new SoTResourceCacheKey("Patient", idPart, null));
+    }
+
+    private static Patient newPatient(String idPart) {
+        Patient patient = new Patient();
+        patient.setId(idPart);
+        patient.addName().setFamily("Family-" + idPart);
+        return (patient);
+    }
+
+    private static class TestEncoder extends SoTConduitResourceEncoder {
+        private TestEncoder() {
+            initialise();
+        }
+
+        @Override
+        public IParser getParser(SoTConduitEncodingModeEnum mode) {
+            return (FHIR_CONTEXT.newJsonParser().setPrettyPrint(mode.isPrettyPrint()));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.coalescing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SoTRequestCoalescerTest {
+    private static final String KEY = "Patient/p1";
+    private static final int FOLLOWER_COUNT = 4;
+    private static final long TIMEOUT_MILLIS = 5000L;
+
+    private ExecutorService callers;
+
+    @BeforeEach
+    public void setUp() {
+        callers = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void followersShareOneCallAndGetTheirOwnCopy() throws InterruptedException {
+        SoTRequestCoalescer<String, StringBuilder> coalescer = new SoTRequestCoalescer<>();
+        CountDownLatch releaseLeader = new CountDownLatch(1);
+        AtomicInteger upstreamCalls = new AtomicInteger(0);
+        Supplier<StringBuilder> upstreamCall = () -> {
+            upstreamCalls.incrementAndGet();
+            awaitQuietly(releaseLeader);
+            return (new StringBuilder("result"));
+        };
+
+        CompletableFuture<StringBuilder> leader = CompletableFuture.supplyAsync(() -> coalescer.execute(KEY, upstreamCall, StringBuilder::new), callers);
+        awaitInFlight(coalescer);
+        List<CompletableFuture<StringBuilder>> followers = new ArrayList<>();
+        for (int index = 0; index < FOLLOWER_COUNT; index++) {
+            followers.add(CompletableFuture.supplyAsync(() -> coalescer.execute(KEY, upstreamCall, StringBuilder::new), callers));
+        }
+        awaitCoalesced(coalescer, FOLLOWER_COUNT);
+        releaseLeader.countDown();
+
+        StringBuilder leaderResult = leader.join();
+        List<StringBuilder> results = new ArrayList<>();
+        results.add(leaderResult);
+        for (CompletableFuture<StringBuilder> follower : followers) {
+            StringBuilder followerResult = follower.join();
+            assertEquals("result", followerResult.toString());
+            for (StringBuilder earlierResult : results) {
+                assertTrue(followerResult != earlierResult);
+            }
+            results.add(followerResult);
+        }
+        // a caller changing what it was given affects no one else
+        leaderResult.append("-changed");
+        assertEquals("result", results.get(1).toString());
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(1L, coalescer.getLeaderCount());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void aLeaderFailureReachesEveryFollower() throws InterruptedException {
+        SoTRequestCoalescer<String, StringBuilder> coalescer = new SoTRequestCoalescer<>();
+        CountDownLatch releaseLeader = new CountDownLatch(1);
+        IllegalStateException upstreamFailure = new IllegalStateException("Source-of-Truth unavailable");
+        Supplier<StringBuilder> upstreamCall = () -> {
+            awaitQuietly(releaseLeader);
+            throw upstreamFailure;
+        };
+
+        CompletableFuture<StringBuilder> leader = CompletableFuture.supplyAsync(() -> coalescer.execute(KEY, upstreamCall, StringBuilder::new), callers);
+        awaitInFlight(coalescer);
+        List<CompletableFuture<StringBuilder>> followers = new ArrayList<>();
+        for (int index = 0; index < FOLLOWER_COUNT; index++) {
+            followers.add(CompletableFuture.supplyAsync(() -> coalescer.execute(KEY, upstreamCall, StringBuilder::new), callers));
+        }
+        awaitCoalesced(coalescer, FOLLOWER_COUNT);
+        releaseLeader.countDown();
+
+        assertSame(upstreamFailure, failureOf(leader));
+        for (CompletableFuture<StringBuilder> follower : followers) {
+            assertSame(upstreamFailure, failureOf(follower));
+        }
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void aCallAfterAFailureStartsAfresh() {
+        SoTRequestCoalescer<String, StringBuilder> coalescer = new SoTRequestCoalescer<>();
+        try {
+            coalescer.execute(KEY, () -> {
+                throw new IllegalStateException("Source-of-Truth unavailable");
+            }, StringBuilder::new);
+        } catch (IllegalStateException expected) {
+            // the first call's own failure
+        }
+
+        assertEquals("result", coalescer.execute(KEY, () -> new StringBuilder("result"), StringBuilder::new).toString());
+        assertEquals(2L, coalescer.getLeaderCount());
+    }
+
+    private static Throwable failureOf(CompletableFuture<StringBuilder> caller) {
+        try {
+            caller.join();
+        } catch (CompletionException failure) {
+            return (failure.getCause());
+        }
+        throw new AssertionError("Expected the call to fail");
+    }
+
+    private static void awaitInFlight(SoTRequestCoalescer<String, StringBuilder> coalescer) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (coalescer.getInFlightCount() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "leader never started");
+            Thread.sleep(1L);
+        }
+    }
+
+    private static void awaitCoalesced(SoTRequestCoalescer<String, StringBuilder> coalescer, int expectedCount) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (coalescer.getCoalescedCount() < expectedCount) {
+            assertTrue(System.currentTimeMillis() < deadline, "followers never joined");
+            Thread.sleep(1L);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
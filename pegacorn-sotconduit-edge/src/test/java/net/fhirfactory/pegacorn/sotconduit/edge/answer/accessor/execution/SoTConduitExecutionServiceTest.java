@@ -0,0 +1,171 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.execution;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.fhirfactory.pegacorn.sotconduit.tracing.SoTConduitTracer;
+
+public class SoTConduitExecutionServiceTest {
+    private static final String ACCESSOR_NAME = "TestAccessor";
+    private static final long DEADLINE_MILLIS = 5000L;
+    private static final long HEDGE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(20L);
+    // well short of the deadline, so only a hedge that did not wait for the primary gets in under it
+    private static final long PROMPT_MILLIS = 2000L;
+
+    private SoTConduitExecutionService executionService;
+    private CountDownLatch neverReleased;
+
+    @BeforeEach
+    public void setUp() throws ReflectiveOperationException {
+        executionService = new SoTConduitExecutionService();
+        Field conduitTracer = SoTConduitExecutionService.class.getDeclaredField("conduitTracer");
+        conduitTracer.setAccessible(true);
+        conduitTracer.set(executionService, new SoTConduitTracer());
+        executionService.initialise();
+        neverReleased = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        neverReleased.countDown();
+        executionService.shutdown();
+    }
+
+    @Test
+    public void aHedgeAnswersForAPrimaryThatNeverReturns() {
+        AtomicInteger attempts = new AtomicInteger(0);
+        long started = System.nanoTime();
+
+        String result = executionService.executeHedged(ACCESSOR_NAME, 4, 4, DEADLINE_MILLIS, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                awaitIgnoringInterrupts(neverReleased);
+                return ("primary");
+            }
+            return ("hedge");
+        }, HEDGE_DELAY_NANOS, () -> true);
+
+        assertEquals("hedge", result);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < PROMPT_MILLIS);
+    }
+
+    @Test
+    public void aPrimaryThatNeverReturnsOnlyHoldsTheCallerUntilTheDeadline() {
+        long started = System.nanoTime();
+
+        assertThrows(SoTConduitDeadlineExceededException.class, () -> executionService.executeHedged(ACCESSOR_NAME, 4, 4, 100L, () -> {
+            awaitIgnoringInterrupts(neverReleased);
+            return ("primary");
+        }, HEDGE_DELAY_NANOS, () -> false));
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) < PROMPT_MILLIS);
+    }
+
+    @Test
+    public void theFasterPrimaryWinsWithoutAHedge() {
+        AtomicInteger attempts = new AtomicInteger(0);
+
+        String result = executionService.executeHedged(ACCESSOR_NAME, 4, 4, DEADLINE_MILLIS, () -> {
+            attempts.incrementAndGet();
+            return ("primary");
+        }, TimeUnit.SECONDS.toNanos(1L), () -> true);
+
+        assertEquals("primary", result);
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void aFailingHedgeLeavesThePrimaryToAnswer() {
+        AtomicInteger attempts = new AtomicInteger(0);
+        CountDownLatch hedgeFailed = new CountDownLatch(1);
+
+        String result = executionService.executeHedged(ACCESSOR_NAME, 4, 4, DEADLINE_MILLIS, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                awaitIgnoringInterrupts(hedgeFailed);
+                return ("primary");
+            }
+            hedgeFailed.countDown();
+            throw new IllegalStateException("hedge failed");
+        }, HEDGE_DELAY_NANOS, () -> true);
+
+        assertEquals("primary", result);
+    }
+
+    @Test
+    public void thePrimaryFailureIsReportedOnceEveryAttemptFailed() {
+        AtomicInteger attempts = new AtomicInteger(0);
+        CountDownLatch hedgeFailed = new CountDownLatch(1);
+
+        IllegalStateException failure = assertThrows(IllegalStateException.class, () -> executionService.executeHedged(ACCESSOR_NAME, 4, 4, DEADLINE_MILLIS, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                awaitIgnoringInterrupts(hedgeFailed);
+                throw new IllegalStateException("primary failed");
+            }
+            hedgeFailed.countDown();
+            throw new IllegalStateException("hedge failed");
+        }, HEDGE_DELAY_NANOS, () -> true));
+
+        assertEquals("primary failed", failure.getMessage());
+    }
+
+    @Test
+    public void refusesCallsOnceTheBulkheadAndItsQueueAreFull() {
+        CountDownLatch running = new CountDownLatch(1);
+        CompletableFuture<String> active = executionService.submit(ACCESSOR_NAME, 1, 1, 0L, () -> {
+            running.countDown();
+            awaitIgnoringInterrupts(neverReleased);
+            return ("active");
+        });
+        awaitIgnoringInterrupts(running);
+        CompletableFuture<String> waiting = executionService.submit(ACCESSOR_NAME, 1, 1, 0L, () -> "waiting");
+
+        CompletableFuture<String> refused = executionService.submit(ACCESSOR_NAME, 1, 1, 0L, () -> "refused");
+
+        assertTrue(refused.isCompletedExceptionally());
+        CompletionException refusal = assertThrows(CompletionException.class, refused::join);
+        assertTrue(refusal.getCause() instanceof SoTConduitBulkheadFullException);
+        assertThrows(SoTConduitBulkheadFullException.class, () -> executionService.execute(ACCESSOR_NAME, 1, 1, DEADLINE_MILLIS, () -> "refused"));
+        assertEquals(1, executionService.getBulkhead(ACCESSOR_NAME).getActiveCallCount());
+        assertEquals(1, executionService.getBulkhead(ACCESSOR_NAME).getWaitingCallCount());
+
+        neverReleased.countDown();
+        assertEquals("active", active.join());
+        assertEquals("waiting", waiting.join());
+    }
+
+    @Test
+    public void aCallWithinTheBulkheadRunsFurtherCallsInline() {
+        // with a single permit, a nested call that waited for one would never run
+        String result = executionService.execute(ACCESSOR_NAME, 1, 1, DEADLINE_MILLIS, () -> {
+            Thread outerThread = Thread.currentThread();
+            assertTrue(executionService.isWithinBulkhead(ACCESSOR_NAME));
+            return (executionService.execute(ACCESSOR_NAME, 1, 1, DEADLINE_MILLIS, () -> Thread.currentThread() == outerThread ? "inline" : "queued"));
+        });
+
+        assertEquals("inline", result);
+        assertFalse(executionService.isWithinBulkhead(ACCESSOR_NAME));
+    }
+
+    private static void awaitIgnoringInterrupts(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException interrupted) {
+                // as blocking socket I/O would
+            }
+        }
+    }
+}
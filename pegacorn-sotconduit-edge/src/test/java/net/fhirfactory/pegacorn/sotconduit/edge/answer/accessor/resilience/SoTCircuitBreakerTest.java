@@ -0,0 +1,124 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.accessor.resilience;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SoTCircuitBreakerTest {
+    private static final int WINDOW_SIZE = 4;
+    private static final long SLOW_CALL_THRESHOLD_MILLIS = 1000L;
+    private static final long OPEN_DURATION_MILLIS = 50L;
+    private static final int HALF_OPEN_PROBE_CALLS = 2;
+    private static final long PROMPT_NANOS = 1000L;
+    private static final long SLOW_NANOS = SLOW_CALL_THRESHOLD_MILLIS * 1000000L;
+
+    private final List<String> stateChanges = new ArrayList<>();
+
+    @Test
+    public void opensOnTheFailureRateThenClosesAfterEnoughProbesSucceed() throws InterruptedException {
+        SoTCircuitBreaker circuitBreaker = newCircuitBreaker();
+        recordCalls(circuitBreaker, false, false, true);
+        assertEquals(SoTCircuitBreakerStateEnum.CLOSED, circuitBreaker.getState());
+
+        recordCalls(circuitBreaker, true);
+        assertEquals(SoTCircuitBreakerStateEnum.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+
+        Thread.sleep(OPEN_DURATION_MILLIS + 10L);
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertEquals(SoTCircuitBreakerStateEnum.HALF_OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+
+        circuitBreaker.recordSuccess(PROMPT_NANOS);
+        assertEquals(SoTCircuitBreakerStateEnum.HALF_OPEN, circuitBreaker.getState());
+        circuitBreaker.recordSuccess(PROMPT_NANOS);
+        assertEquals(SoTCircuitBreakerStateEnum.CLOSED, circuitBreaker.getState());
+        assertEquals(0.0, circuitBreaker.getFailureRate(), 0.0);
+        assertEquals(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), stateChanges);
+    }
+
+    @Test
+    public void opensOnTheSlowCallRate() {
+        SoTCircuitBreaker circuitBreaker = newCircuitBreaker();
+        for (int index = 0; index < WINDOW_SIZE; index++) {
+            circuitBreaker.recordSuccess(SLOW_NANOS);
+        }
+
+        assertEquals(SoTCircuitBreakerStateEnum.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    public void reopensWhenAProbeFails() throws InterruptedException {
+        SoTCircuitBreaker circuitBreaker = openedCircuitBreaker();
+        Thread.sleep(OPEN_DURATION_MILLIS + 10L);
+        assertTrue(circuitBreaker.tryAcquirePermission());
+
+        circuitBreaker.recordFailure(PROMPT_NANOS);
+
+        assertEquals(SoTCircuitBreakerStateEnum.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+        assertTrue(circuitBreaker.getRemainingOpenMillis() > 0L);
+    }
+
+    @Test
+    public void aReleasedProbeFreesItsSlotWithoutCountingTowardsClosing() throws InterruptedException {
+        SoTCircuitBreaker circuitBreaker = openedCircuitBreaker();
+        Thread.sleep(OPEN_DURATION_MILLIS + 10L);
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+
+        // e.g. refused by the bulkhead, so never reached the Source-of-Truth
+        circuitBreaker.releasePermission();
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        assertFalse(circuitBreaker.tryAcquirePermission());
+
+        circuitBreaker.recordSuccess(PROMPT_NANOS);
+        circuitBreaker.releasePermission();
+        assertEquals(SoTCircuitBreakerStateEnum.HALF_OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.tryAcquirePermission());
+        circuitBreaker.recordSuccess(PROMPT_NANOS);
+        assertEquals(SoTCircuitBreakerStateEnum.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void releasingAPermissionWhileClosedChangesNothing() {
+        SoTCircuitBreaker circuitBreaker = newCircuitBreaker();
+        assertTrue(circuitBreaker.tryAcquirePermission());
+
+        circuitBreaker.releasePermission();
+
+        assertEquals(SoTCircuitBreakerStateEnum.CLOSED, circuitBreaker.getState());
+        assertEquals(0.0, circuitBreaker.getFailureRate(), 0.0);
+        assertTrue(stateChanges.isEmpty());
+    }
+
+    private SoTCircuitBreaker openedCircuitBreaker() {
+        SoTCircuitBreaker circuitBreaker = newCircuitBreaker();
+        recordCalls(circuitBreaker, true, true, true, true);
+        assertEquals(SoTCircuitBreakerStateEnum.OPEN, circuitBreaker.getState());
+        return (circuitBreaker);
+    }
+
+    private SoTCircuitBreaker newCircuitBreaker() {
+        return (new SoTCircuitBreaker("TestAccessor", WINDOW_SIZE, WINDOW_SIZE, 0.5, 1.0, SLOW_CALL_THRESHOLD_MILLIS, OPEN_DURATION_MILLIS, HALF_OPEN_PROBE_CALLS,
+                (circuitBreaker, previousState, newState) -> stateChanges.add(previousState + "->" + newState)));
+    }
+
+    private static void recordCalls(SoTCircuitBreaker circuitBreaker, boolean... failed) {
+        for (boolean callFailed : failed) {
+            assertTrue(circuitBreaker.tryAcquirePermission());
+            if (callFailed) {
+                circuitBreaker.recordFailure(PROMPT_NANOS);
+            } else {
+                circuitBreaker.recordSuccess(PROMPT_NANOS);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.admission;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+
+public class SoTConduitAdmissionControllerTest {
+    private static final SoTConduitActionEnum ACTION = SoTConduitActionEnum.SEARCH;
+    private static final long LONG_QUEUE_WAIT_MILLIS = 5000L;
+    private static final long SHORT_QUEUE_WAIT_MILLIS = 50L;
+
+    private ExecutorService clients;
+
+    @BeforeEach
+    public void setUp() {
+        clients = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        clients.shutdownNow();
+    }
+
+    @Test
+    public void admitsStraightAwayWithinTheLimit() {
+        TestAdmissionController admissionController = new TestAdmissionController(4, 0.5, LONG_QUEUE_WAIT_MILLIS);
+
+        SoTConduitAdmissionPermit permit = admissionController.acquire(requestFrom("a"));
+
+        assertEquals(1, admissionController.getInFlight(ACTION));
+        permit.release();
+        permit.release();
+        assertEquals(0, admissionController.getInFlight(ACTION));
+    }
+
+    @Test
+    public void shedsWith429AClientHoldingItsShareOfTheQueue() throws Exception {
+        TestAdmissionController admissionController = new TestAdmissionController(4, 0.5, LONG_QUEUE_WAIT_MILLIS);
+        SoTConduitAdmissionPermit permit = admissionController.acquire(requestFrom("a"));
+        List<Future<?>> queued = new ArrayList<>();
+        queued.add(queue(admissionController, "a", 1));
+        queued.add(queue(admissionController, "a", 2));
+
+        SoTConduitAdmissionRejectedException rejection = assertThrows(SoTConduitAdmissionRejectedException.class, () -> admissionController.acquire(requestFrom("a")));
+
+        assertEquals(429, rejection.getHttpStatus());
+        // another client still has room in the queue
+        queued.add(queue(admissionController, "b", 3));
+        permit.release();
+        for (Future<?> queuedRequest : queued) {
+            queuedRequest.get();
+        }
+        assertEquals(0, admissionController.getInFlight(ACTION));
+    }
+
+    @Test
+    public void shedsWith503OnceTheQueueIsFull() {
+        TestAdmissionController admissionController = new TestAdmissionController(0, 0.5, LONG_QUEUE_WAIT_MILLIS);
+        SoTConduitAdmissionPermit permit = admissionController.acquire(requestFrom("a"));
+
+        SoTConduitAdmissionRejectedException rejection = assertThrows(SoTConduitAdmissionRejectedException.class, () -> admissionController.acquire(requestFrom("b")));
+
+        assertEquals(503, rejection.getHttpStatus());
+        permit.release();
+    }
+
+    @Test
+    public void shedsWith503ARequestNotAdmittedWithinTheQueueWait() {
+        TestAdmissionController admissionController = new TestAdmissionController(4, 0.5, SHORT_QUEUE_WAIT_MILLIS);
+        SoTConduitAdmissionPermit permit = admissionController.acquire(requestFrom("a"));
+
+        SoTConduitAdmissionRejectedException rejection = assertThrows(SoTConduitAdmissionRejectedException.class, () -> admissionController.acquire(requestFrom("b")));
+
+        assertEquals(503, rejection.getHttpStatus());
+        assertEquals(0, admissionController.getQueued(ACTION));
+        permit.release();
+        assertEquals(0, admissionController.getInFlight(ACTION));
+    }
+
+    @Test
+    public void servesQueuedClientsInWeightedRoundRobin() throws Exception {
+        TestAdmissionController admissionController = new TestAdmissionController(10, 1.0, LONG_QUEUE_WAIT_MILLIS);
+        List<String> admissionOrder = Collections.synchronizedList(new ArrayList<>());
+        SoTConduitAdmissionPermit permit = admissionController.acquire(requestFrom("x"));
+        List<Future<?>> queued = new ArrayList<>();
+        String[] arrivals = {"heavy-1", "heavy-2", "heavy-3", "light-1", "light-2"};
+        for (int index = 0; index < arrivals.length; index++) {
+            String arrival = arrivals[index];
+            queued.add(clients.submit(() -> {
+                SoTConduitAdmissionPermit queuedPermit = admissionController.acquire(requestFrom(arrival.substring(0, arrival.indexOf('-'))));
+                admissionOrder.add(arrival);
+                queuedPermit.release();
+            }));
+            awaitQueued(admissionController, index + 1);
+        }
+
+        permit.release();
+        for (Future<?> queuedRequest : queued) {
+            queuedRequest.get();
+        }
+
+        // "heavy" has twice the weight of "light", so is served twice in each of its turns
+        assertEquals(List.of("heavy-1", "heavy-2", "light-1", "heavy-3", "light-2"), admissionOrder);
+    }
+
+    /**
+     * Queues a request that releases its permit as soon as it is admitted.
+     */
+    private Future<?> queue(TestAdmissionController admissionController, String clientKey, int expectedQueued) throws InterruptedException {
+        Future<?> queuedRequest = clients.submit(() -> admissionController.acquire(requestFrom(clientKey)).release());
+        awaitQueued(admissionController, expectedQueued);
+        return (queuedRequest);
+    }
+
+    private static void awaitQueued(TestAdmissionController admissionController, int expectedQueued) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + LONG_QUEUE_WAIT_MILLIS;
+        while (admissionController.getQueued(ACTION) < expectedQueued) {
+            assertTrue(System.currentTimeMillis() < deadline, "request never queued");
+            Thread.sleep(1L);
+        }
+    }
+
+    private static SoTConduitRequestClass requestFrom(String clientKey) {
+        return (new SoTConduitRequestClass(ACTION, "Patient", clientKey, "GET /Patient"));
+    }
+
+    /**
+     * Admits one request at a time, so that every further request queues.
+     */
+    private static class TestAdmissionController extends SoTConduitAdmissionController {
+        private final int maximumQueueLength;
+        private final double maximumClientQueueShare;
+        private final long maximumQueueWaitMillis;
+
+        private TestAdmissionController(int maximumQueueLength, double maximumClientQueueShare, long maximumQueueWaitMillis) {
+            this.maximumQueueLength = maximumQueueLength;
+            this.maximumClientQueueShare = maximumClientQueueShare;
+            this.maximumQueueWaitMillis = maximumQueueWaitMillis;
+            initialise();
+        }
+
+        @Override
+        protected int specifyInitialLimit(SoTConduitActionEnum action) {
+            return (1);
+        }
+
+        @Override
+        protected int specifyMinimumLimit(SoTConduitActionEnum action) {
+            return (1);
+        }
+
+        @Override
+        protected int specifyMaximumLimit(SoTConduitActionEnum action) {
+            return (1);
+        }
+
+        @Override
+        protected int specifyMaximumQueueLength(SoTConduitActionEnum action) {
+            return (maximumQueueLength);
+        }
+
+        @Override
+        protected double specifyMaximumClientQueueShare(SoTConduitActionEnum action) {
+            return (maximumClientQueueShare);
+        }
+
+        @Override
+        protected long specifyMaximumQueueWaitMillis(SoTConduitActionEnum action) {
+            return (maximumQueueWaitMillis);
+        }
+
+        @Override
+        protected int specifyClientWeight(String clientKey) {
+            return ("heavy".equals(clientKey) ? 2 : 1);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package net.fhirfactory.pegacorn.sotconduit.edge.answer.batch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.hl7.fhir.r4.model.Identifier;
+import org.junit.jupiter.api.Test;
+
+public class SoTConduitBatchProviderTest {
+
+    @Test
+    public void splitsSystemAndValue() {
+        Identifier identifier = SoTConduitBatchProvider.parseIdentifierSearch("identifier=http://example.org/mrn|12345");
+
+        assertEquals("http://example.org/mrn", identifier.getSystem());
+        assertEquals("12345", identifier.getValue());
+    }
+
+    @Test
+    public void decodesBeforeSplitting() {
+        Identifier identifier = SoTConduitBatchProvider.parseIdentifierSearch("identifier=http%3A%2F%2Fexample.org%2Fmrn%7C12%2045");
+
+        assertEquals("http://example.org/mrn", identifier.getSystem());
+        assertEquals("12 45", identifier.getValue());
+    }
+
+    @Test
+    public void splitsOnlyAtTheFirstUnescapedSeparator() {
+        Identifier identifier = SoTConduitBatchProvider.parseIdentifierSearch("identifier=urn:system%5C%7Cpart|value%7Cwith%5C%5Cpipe");
+
+        assertEquals("urn:system|part", identifier.getSystem());
+        assertEquals("value|with\\pipe", identifier.getValue());
+    }
+
+    @Test
+    public void valueOnlyHasNoSystem() {
+        Identifier identifier = SoTConduitBatchProvider.parseIdentifierSearch("identifier=12345");
+
+        assertFalse(identifier.hasSystem());
+        assertEquals("12345", identifier.getValue());
+    }
+
+    @Test
+    public void emptySystemMatchesIdentifiersWithoutOne() {
+        Identifier identifier = SoTConduitBatchProvider.parseIdentifierSearch("identifier=%7C12345");
+
+        assertFalse(identifier.hasSystem());
+        assertEquals("12345", identifier.getValue());
+    }
+
+    @Test
+    public void rejectsOtherSearches() {
+        assertNull(SoTConduitBatchProvider.parseIdentifierSearch("name=smith"));
+        assertNull(SoTConduitBatchProvider.parseIdentifierSearch("identifier=a|b&name=smith"));
+        assertNull(SoTConduitBatchProvider.parseIdentifierSearch("identifier=a%ZZ"));
+    }
+}
@@ -33,7 +33,62 @@ public enum SoTConduitActionStatusEnum {
         REVIEW_FINISH,
         REVIEW_RESOURCE_NOT_IN_CACHE,
         REVIEW_FAILURE,
+        REVIEW_SERVED_STALE,
+        REVIEW_NOT_MODIFIED,
         SEARCH_FINISHED,
         SEARCH_FAILURE,
-        INDETERMINANT
+        REJECTED_CIRCUIT_OPEN,
+        REJECTED_OVERLOADED,
+        CIRCUIT_OPENED,
+        CIRCUIT_HALF_OPENED,
+        CIRCUIT_CLOSED,
+        INDETERMINANT;
+
+        public boolean isFailure() {
+                switch (this) {
+                        case CREATION_FAILURE:
+                        case UPDATE_FAILURE:
+                        case DELETE_FAILURE:
+                        case REVIEW_FAILURE:
+                        case SEARCH_FAILURE:
+                        case REJECTED_CIRCUIT_OPEN:
+                        case REJECTED_OVERLOADED:
+                        case INDETERMINANT:
+                                return (true);
+                        default:
+                                return (false);
+                }
+        }
+
+        public static SoTConduitActionStatusEnum defaultFinishStatus(SoTConduitActionEnum action) {
+                switch (action) {
+                        case CREATE:
+                                return (CREATION_FINISH);
+                        case UPDATE:
+                                return (UPDATE_FINISH);
+                        case DELETE:
+                                return (DELETE_FINISH);
+                        case SEARCH:
+                                return (SEARCH_FINISHED);
+                        case REVIEW:
+                        default:
+                                return (REVIEW_FINISH);
+                }
+        }
+
+        public static SoTConduitActionStatusEnum defaultFailureStatus(SoTConduitActionEnum action) {
+                switch (action) {
+                        case CREATE:
+                                return (CREATION_FAILURE);
+                        case UPDATE:
+                                return (UPDATE_FAILURE);
+                        case DELETE:
+                                return (DELETE_FAILURE);
+                        case SEARCH:
+                                return (SEARCH_FAILURE);
+                        case REVIEW:
+                        default:
+                                return (REVIEW_FAILURE);
+                }
+        }
 }
@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.audit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.petasos.audit.model.PetasosParcelAuditTrailEntry;
+import net.fhirfactory.pegacorn.petasos.core.sta.brokers.PetasosSTAServicesAuditOnlyBroker;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoWPayload;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
+
+/**
+ * Moves audit registrations off the request thread: entries are placed on a
+ * bounded queue and handed to the PetasosSTAServicesAuditOnlyBroker in
+ * batches by a single dedicated worker.
+ * <p>
+ * beginTransaction() hands back a provisional PetasosParcelAuditTrailEntry
+ * (carrying the UoW) straight away. When the matching end is submitted, the
+ * provisional entry is swapped for the one the broker actually returned for
+ * the begin, so the broker always sees a correctly paired begin --> end.
+ * <p>
+ * In write-ahead (DURABLE) mode every entry goes through the spool first, and
+ * is only acknowledged to it once the sink has accepted it; while the sink is
+ * unavailable the worker retries with a capped backoff, and anything still
+ * unacknowledged at shutdown is left in the spool to be replayed.
+ * <p>
+ * A task's registeredEntry future is completed on every path that will not
+ * retry it: with the broker's entry on success, or exceptionally when it can no
+ * longer be registered (so an end is never registered against a missing begin).
+ */
+public class SoTConduitAuditDispatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitAuditDispatcher.class);
+
+    private static final String WORKER_THREAD_NAME = "SoTConduitAuditDispatcher";
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 100L;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000L;
+    private static final long CLAIM_POLL_INTERVAL_MILLIS = 100L;
+    private static final long MAX_CLAIM_WAIT_MILLIS = 30000L;
+
+    private final SoTConduitAuditSink auditSink;
+    private final BlockingQueue<SoTConduitAuditTask> auditQueue;
+    private final SoTConduitAuditSpool overflowSpool;
+    private final SoTConduitAuditBackpressurePolicyEnum backpressurePolicy;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final Map<PetasosParcelAuditTrailEntry, SoTConduitAuditTask> openTransactions;
+    private final boolean writeAhead;
+    private volatile boolean running;
+    private Thread worker;
+
+    public SoTConduitAuditDispatcher(PetasosSTAServicesAuditOnlyBroker servicesBroker, int queueCapacity, int batchSize, long flushIntervalMillis, SoTConduitAuditBackpressurePolicyEnum backpressurePolicy, SoTConduitAuditSpool overflowSpool) {
+        this(servicesBroker::transactionAuditEntry, queueCapacity, batchSize, flushIntervalMillis, backpressurePolicy, overflowSpool, false);
+    }
+
+    public SoTConduitAuditDispatcher(SoTConduitAuditSink auditSink, int queueCapacity, int batchSize, long flushIntervalMillis, SoTConduitAuditBackpressurePolicyEnum backpressurePolicy, SoTConduitAuditSpool overflowSpool) {
+        this(auditSink, queueCapacity, batchSize, flushIntervalMillis, backpressurePolicy, overflowSpool, false);
+    }
+
+    /**
+     * Creates a write-ahead dispatcher, where every entry is appended to the
+     * (durable) spool before the request thread moves on.
+     */
+    public SoTConduitAuditDispatcher(SoTConduitAuditSink auditSink, int batchSize, long flushIntervalMillis, SoTConduitAuditSpool writeAheadSpool) {
+        this(auditSink, 1, batchSize, flushIntervalMillis, SoTConduitAuditBackpressurePolicyEnum.SPOOL, writeAheadSpool, true);
+    }
+
+    private SoTConduitAuditDispatcher(SoTConduitAuditSink auditSink, int queueCapacity, int batchSize, long flushIntervalMillis, SoTConduitAuditBackpressurePolicyEnum backpressurePolicy, SoTConduitAuditSpool overflowSpool, boolean writeAhead) {
+        this.auditSink = auditSink;
+        this.auditQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = Math.max(1L, flushIntervalMillis);
+        this.backpressurePolicy = backpressurePolicy;
+        this.overflowSpool = overflowSpool;
+        this.openTransactions = Collections.synchronizedMap(new IdentityHashMap<>());
+        this.writeAhead = writeAhead;
+        this.running = false;
+    }
+
+    public synchronized void start() {
+        LOG.debug(".start(): Entry");
+        if (running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::drainLoop, WORKER_THREAD_NAME);
+        worker.setDaemon(true);
+        worker.start();
+        LOG.debug(".start(): Exit, batchSize --> {}, flushIntervalMillis --> {}, backpressurePolicy --> {}, writeAhead --> {}", batchSize, flushIntervalMillis, backpressurePolicy, writeAhead);
+    }
+
+    /**
+     * Stops the worker and waits (up to the given timeout) for
+     * everything already queued or spooled to reach the broker,
+     * then closes the spool. A worker still dispatching at the timeout
+     * is left to finish (it is a daemon), and the spool open under it.
+     */
+    public synchronized void shutdown(long timeoutMillis) {
+        LOG.debug(".shutdown(): Entry");
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            try {
+                worker.join(timeoutMillis);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            boolean workerStopped = !worker.isAlive();
+            worker = null;
+            if (!workerStopped) {
+                LOG.warn(".shutdown(): Worker still dispatching after {}ms, leaving the spool open, remaining queued entries --> {}, spool empty --> {}", timeoutMillis, auditQueue.size(), overflowSpool.isEmpty());
+                return;
+            }
+        }
+        overflowSpool.close();
+        LOG.debug(".shutdown(): Exit, remaining queued entries --> {}", auditQueue.size());
+    }
+
+    /**
+     * The begin is registered from a snapshot of the UoW, as the caller goes on
+     * to build the end from the UoW carried by the provisional entry.
+     */
+    public PetasosParcelAuditTrailEntry submitBegin(WUPIdentifier wupInstance, String action, UoW uow) {
+        SoTConduitAuditTask beginTask = SoTConduitAuditTask.beginTask(wupInstance, action, snapshotUoW(uow));
+        PetasosParcelAuditTrailEntry provisionalEntry = new PetasosParcelAuditTrailEntry();
+        provisionalEntry.setActualUoW(uow);
+        openTransactions.put(provisionalEntry, beginTask);
+        enqueue(beginTask);
+        return (provisionalEntry);
+    }
+
+    public void submitEnd(WUPIdentifier wupInstance, String action, UoW uow, PetasosParcelAuditTrailEntry startingTransaction) {
+        SoTConduitAuditTask beginTask = openTransactions.remove(startingTransaction);
+        SoTConduitAuditTask endTask;
+        if (beginTask != null) {
+            endTask = SoTConduitAuditTask.endTask(wupInstance, action, uow, beginTask);
+        } else {
+            // The begin was registered synchronously (e.g. before the dispatcher started)
+            endTask = SoTConduitAuditTask.endTask(wupInstance, action, uow, startingTransaction);
+        }
+        enqueue(endTask);
+    }
+
+    /**
+     * Copies the parts of the UoW that reach the audit trail (those written by
+     * SoTConduitAuditRecordCodec), so that a queued entry is unaffected by
+     * anything later added to the original. The payloads themselves are shared,
+     * being complete by the time they are added.
+     */
+    public static UoW snapshotUoW(UoW uow) {
+        if (uow == null) {
+            return (null);
+        }
+        UoW snapshot = new UoW(uow.getIngresContent());
+        snapshot.setInstanceID(uow.getInstanceID());
+        snapshot.setTypeID(uow.getTypeID());
+        snapshot.setProcessingOutcome(uow.getProcessingOutcome());
+        snapshot.setFailureDescription(uow.getFailureDescription());
+        if (uow.getEgressContent() != null) {
+            for (UoWPayload egressPayload : uow.getEgressContent().getPayloadElements()) {
+                snapshot.getEgressContent().addPayloadElement(egressPayload);
+            }
+        }
+        return (snapshot);
+    }
+
+    public int getQueueDepth() {
+        return (auditQueue.size());
+    }
+
+    private void enqueue(SoTConduitAuditTask task) {
+        if (writeAhead) {
+            try {
+                overflowSpool.append(task);
+            } catch (RuntimeException spoolFailure) {
+                LOG.error(".enqueue(): Could not write audit entry ahead, registering synchronously, error --> {}", spoolFailure.toString());
+                dispatch(task);
+            }
+            return;
+        }
+        if (!running) {
+            LOG.trace(".enqueue(): Dispatcher not running, registering synchronously");
+            dispatch(task);
+            return;
+        }
+        switch (backpressurePolicy) {
+            case BLOCK:
+                try {
+                    auditQueue.put(task);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    dispatch(task);
+                }
+                break;
+            case SPOOL:
+                if (!auditQueue.offer(task)) {
+                    LOG.trace(".enqueue(): Audit queue full, spooling entry");
+                    try {
+                        overflowSpool.append(task);
+                    } catch (RuntimeException spoolFailure) {
+                        LOG.warn(".enqueue(): Could not spool audit entry, registering synchronously, error --> {}", spoolFailure.toString());
+                        dispatch(task);
+                    }
+                }
+                break;
+            case SYNCHRONOUS_FALLBACK:
+            default:
+                if (!auditQueue.offer(task)) {
+                    LOG.trace(".enqueue(): Audit queue full, registering synchronously");
+                    dispatch(task);
+                }
+                break;
+        }
+    }
+
+    private void drainLoop() {
+        List<SoTConduitAuditTask> batch = new ArrayList<>(batchSize);
+        while (running || !auditQueue.isEmpty() || !overflowSpool.isEmpty()) {
+            try {
+                collectBatch(batch);
+            } catch (InterruptedException interrupted) {
+                // shutdown() interrupts us; finish off whatever is left without waiting
+                auditQueue.drainTo(batch);
+                overflowSpool.drainTo(batch, Integer.MAX_VALUE);
+            }
+            for (SoTConduitAuditTask task : batch) {
+                if (!dispatch(task) && writeAhead) {
+                    // Only happens once we are shutting down, what is left stays in the spool for replay
+                    LOG.warn(".drainLoop(): Audit sink unavailable at shutdown, unacknowledged entries left in the spool");
+                    overflowSpool.flush();
+                    return;
+                }
+            }
+            batch.clear();
+            overflowSpool.flush();
+        }
+    }
+
+    private void collectBatch(List<SoTConduitAuditTask> batch) throws InterruptedException {
+        long flushDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        while (batch.size() < batchSize) {
+            auditQueue.drainTo(batch, batchSize - batch.size());
+            if (batch.size() < batchSize) {
+                overflowSpool.drainTo(batch, batchSize - batch.size());
+            }
+            long remainingNanos = flushDeadline - System.nanoTime();
+            if (batch.size() >= batchSize || remainingNanos <= 0 || !running) {
+                return;
+            }
+            SoTConduitAuditTask nextTask = auditQueue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+            if (nextTask != null) {
+                batch.add(nextTask);
+            }
+        }
+    }
+
+    /**
+     * Registers the task with the sink, returning false if it could not be
+     * registered. In write-ahead mode the worker keeps retrying until it
+     * succeeds or the dispatcher is stopped.
+     */
+    private boolean dispatch(SoTConduitAuditTask task) {
+        long claimWaitDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_CLAIM_WAIT_MILLIS);
+        while (!task.claim()) {
+            // Being sent by another thread (e.g. a begin pulled forward by its end): wait for it,
+            // taking the task over if that thread gives up on it
+            try {
+                task.getRegisteredEntry().get(CLAIM_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                overflowSpool.acknowledge(task);
+                return (true);
+            } catch (TimeoutException stillClaimed) {
+                if (System.nanoTime() - claimWaitDeadline > 0 || (!running && Thread.currentThread() != worker)) {
+                    LOG.warn(".dispatch(): Gave up waiting for audit entry to be registered by another thread, action --> {}", task.getAction());
+                    return (false);
+                }
+            } catch (ExecutionException registrationFailure) {
+                return (false);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                return (false);
+            }
+        }
+        long retryDelayMillis = INITIAL_RETRY_DELAY_MILLIS;
+        while (true) {
+            try {
+                PetasosParcelAuditTrailEntry startingTransaction = null;
+                if (task.getTaskType() == SoTConduitAuditTaskTypeEnum.END_TRANSACTION) {
+                    startingTransaction = resolveStartingTransaction(task);
+                }
+                PetasosParcelAuditTrailEntry registeredEntry = auditSink.register(task.getWupInstance(), task.getAction(), task.getUoW(), startingTransaction);
+                task.getRegisteredEntry().complete(registeredEntry);
+                overflowSpool.acknowledge(task);
+                return (true);
+            } catch (Exception ex) {
+                if (!writeAhead) {
+                    LOG.error(".dispatch(): Failed to register audit entry, action --> {}, error --> {}", task.getAction(), ex.toString());
+                    task.getRegisteredEntry().completeExceptionally(ex);
+                    return (false);
+                }
+                if (!running || Thread.currentThread() != worker || !awaitRetry(retryDelayMillis)) {
+                    LOG.error(".dispatch(): Failed to register audit entry, left for replay, action --> {}, error --> {}", task.getAction(), ex.toString());
+                    if (!running) {
+                        // nothing in this process will retry it now, only a replay of the spool
+                        task.getRegisteredEntry().completeExceptionally(ex);
+                    }
+                    task.releaseClaim();
+                    return (false);
+                }
+                LOG.warn(".dispatch(): Audit sink unavailable, retrying, action --> {}, retryDelayMillis --> {}, error --> {}", task.getAction(), retryDelayMillis, ex.toString());
+                retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+            }
+        }
+    }
+
+    private boolean awaitRetry(long retryDelayMillis) {
+        try {
+            Thread.sleep(retryDelayMillis);
+            return (running);
+        } catch (InterruptedException interrupted) {
+            return (false);
+        }
+    }
+
+    private PetasosParcelAuditTrailEntry resolveStartingTransaction(SoTConduitAuditTask endTask) {
+        SoTConduitAuditTask beginTask = endTask.getStartingTask();
+        if (beginTask == null) {
+            return (endTask.getStartingTransaction());
+        }
+        // The begin may still be sitting in the queue or spool - make sure it reaches the broker first
+        if (!dispatch(beginTask)) {
+            throw new IllegalStateException("Starting audit entry could not be registered");
+        }
+        return (beginTask.getRegisteredEntry().join());
+    }
+}
@@ -22,7 +22,7 @@
 package net.fhirfactory.pegacorn.sotconduit.audit;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.parser.DataFormatException;
 import net.fhirfactory.pegacorn.common.model.FDN;
 import net.fhirfactory.pegacorn.common.model.RDN;
 import net.fhirfactory.pegacorn.datasets.fhir.r4.internal.topics.FHIRElementTopicIDBuilder;
@@ -34,6 +34,14 @@ import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
 import net.fhirfactory.pegacorn.petasos.model.uow.UoWPayload;
 import net.fhirfactory.pegacorn.petasos.model.uow.UoWProcessingOutcomeEnum;
 import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
+import net.fhirfactory.pegacorn.sotconduit.context.SoTConduitRequestContext;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitEncodedResource;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitJsonPatchBuilder;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitResourceEncoder;
+import net.fhirfactory.pegacorn.sotconduit.metrics.SoTConduitMetrics;
+import net.fhirfactory.pegacorn.sotconduit.metrics.SoTConduitMetricsPhaseEnum;
+import net.fhirfactory.pegacorn.sotconduit.tracing.SoTConduitSpan;
+import net.fhirfactory.pegacorn.sotconduit.tracing.SoTConduitTracer;
 import net.fhirfactory.pegacorn.util.FHIRContextUtility;
 
 import org.hl7.fhir.r4.model.Resource;
@@ -41,20 +49,35 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
 
 @ApplicationScoped
 public class SoTConduitAuditEntryManager {
     private static final Logger LOG = LoggerFactory.getLogger(SoTConduitAuditEntryManager.class);
 
     private static final String FHIR_VERSION = "4.0.1";
+    // Assigned by the SoT on every write, so always differ from the request
+    private static final Set<String> SOT_ASSIGNED_MEMBERS = Set.of("id", "meta");
+
+    private static final int DEFAULT_AUDIT_QUEUE_CAPACITY = 10000;
+    private static final int DEFAULT_AUDIT_OVERFLOW_SPOOL_CAPACITY = 100000;
+    private static final int DEFAULT_AUDIT_BATCH_SIZE = 100;
+    private static final long DEFAULT_AUDIT_FLUSH_INTERVAL_MILLIS = 50L;
+    private static final long AUDIT_SHUTDOWN_TIMEOUT_MILLIS = 10000L;
+    private static final String DEFAULT_AUDIT_SPOOL_DIRECTORY_NAME = "sotconduit-audit-spool";
 
     @Inject
     private net.fhirfactory.pegacorn.util.FHIRContextUtility FHIRContextUtility;
 
-    private IParser parserR4;
-
     @Inject
     private FHIRElementTopicIDBuilder topicIDBuilder;
 
@@ -63,21 +86,127 @@ public class SoTConduitAuditEntryManager {
 
     @Inject
     protected FHIRContextUtility fHIRContextUtility;   
+
+    @Inject
+    private SoTConduitMetrics conduitMetrics;
+
+    @Inject
+    private SoTConduitResourceEncoder resourceEncoder;
+
+    @Inject
+    private SoTConduitTracer conduitTracer;
+
+    private SoTConduitAuditDispatcher auditDispatcher;
+
+    private SoTConduitAuditFidelityPolicy auditFidelityPolicy;
+
+    private Map<PetasosParcelAuditTrailEntry, SoTConduitEncodedResource> diffBaselines;
+
+    private final SoTConduitSearchSummariser searchSummariser = new SoTConduitSearchSummariser();
     
     @PostConstruct
     protected void initialise() {
         LOG.debug(".initialise(): Entry");
-        this.parserR4 = fHIRContextUtility.getJsonParser();
+        this.auditFidelityPolicy = specifyAuditFidelityPolicy();
+        this.diffBaselines = Collections.synchronizedMap(new IdentityHashMap<>());
+        if (specifyAuditDispatchMode() == SoTConduitAuditDispatchModeEnum.ASYNCHRONOUS) {
+            LOG.info(".initialise(): Audit entries will be dispatched asynchronously");
+            this.auditDispatcher = new SoTConduitAuditDispatcher(specifyAuditSink(), specifyAuditQueueCapacity(), specifyAuditBatchSize(), specifyAuditFlushIntervalMillis(), specifyAuditBackpressurePolicy(), specifyAuditOverflowSpool());
+            this.auditDispatcher.start();
+        } else if (specifyAuditDispatchMode() == SoTConduitAuditDispatchModeEnum.DURABLE) {
+            SoTConduitAuditSpool writeAheadSpool = specifyAuditDurableSpool();
+            if (writeAheadSpool != null) {
+                LOG.info(".initialise(): Audit entries will be written ahead to a durable spool");
+                this.auditDispatcher = new SoTConduitAuditDispatcher(specifyAuditSink(), specifyAuditBatchSize(), specifyAuditFlushIntervalMillis(), writeAheadSpool);
+                this.auditDispatcher.start();
+            }
+        }
         LOG.debug(".initialise(): Exit");
     }
 
-    public PetasosParcelAuditTrailEntry beginTransaction(String auditStringPayload, String resourceType, Resource fhirResource, SoTConduitActionEnum action, WUPIdentifier wupInstance, String version) {
+    @PreDestroy
+    protected void shutdown() {
+        LOG.debug(".shutdown(): Entry");
+        if (auditDispatcher != null) {
+            auditDispatcher.shutdown(AUDIT_SHUTDOWN_TIMEOUT_MILLIS);
+        }
+        LOG.debug(".shutdown(): Exit");
+    }
+
+    //
+    // Audit pipeline configuration, override (via @Specializes) to enable/tune the asynchronous mode
+    //
+
+    protected SoTConduitAuditDispatchModeEnum specifyAuditDispatchMode() {
+        return (SoTConduitAuditDispatchModeEnum.SYNCHRONOUS);
+    }
+
+    protected int specifyAuditQueueCapacity() {
+        return (DEFAULT_AUDIT_QUEUE_CAPACITY);
+    }
+
+    protected int specifyAuditBatchSize() {
+        return (DEFAULT_AUDIT_BATCH_SIZE);
+    }
+
+    protected long specifyAuditFlushIntervalMillis() {
+        return (DEFAULT_AUDIT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    protected SoTConduitAuditBackpressurePolicyEnum specifyAuditBackpressurePolicy() {
+        return (SoTConduitAuditBackpressurePolicyEnum.SYNCHRONOUS_FALLBACK);
+    }
+
+    protected SoTConduitAuditSpool specifyAuditOverflowSpool() {
+        return (new SoTConduitInMemoryAuditSpool(specifyAuditOverflowSpoolCapacity()));
+    }
+
+    /**
+     * How many entries the (in-memory) overflow spool holds before further
+     * entries are registered synchronously.
+     */
+    protected int specifyAuditOverflowSpoolCapacity() {
+        return (DEFAULT_AUDIT_OVERFLOW_SPOOL_CAPACITY);
+    }
+
+    protected SoTConduitAuditSink specifyAuditSink() {
+        return (servicesBroker::transactionAuditEntry);
+    }
+
+    /**
+     * Where the DURABLE mode keeps its write-ahead log. Must be on a persistent
+     * volume for entries to survive a pod restart.
+     */
+    protected Path specifyAuditSpoolDirectory() {
+        return (Paths.get(System.getProperty("java.io.tmpdir"), DEFAULT_AUDIT_SPOOL_DIRECTORY_NAME));
+    }
+
+    protected SoTConduitAuditSpool specifyAuditDurableSpool() {
+        try {
+            return (SoTConduitMappedAuditSpool.open(specifyAuditSpoolDirectory()));
+        } catch (IOException | RuntimeException spoolFailure) {
+            LOG.error(".specifyAuditDurableSpool(): Could not open audit spool, registering audit entries synchronously, error --> {}", spoolFailure.toString());
+            return (null);
+        }
+    }
+
+    protected SoTConduitAuditFidelityPolicy specifyAuditFidelityPolicy() {
+        return (new SoTConduitAuditFidelityPolicy());
+    }
+
+    public SoTConduitAuditFidelityPolicy getAuditFidelityPolicy() {
+        return (auditFidelityPolicy);
+    }
+
+    public PetasosParcelAuditTrailEntry beginTransaction(String auditStringPayload, String resourceType, String accessorName, Resource fhirResource, SoTConduitActionEnum action, WUPIdentifier wupInstance, String version) {
         LOG.debug(".beginTransaction(): Entry, auditEntryString --> {}, fhriResource --> {}, action --> {}", auditStringPayload, fhirResource, action);
         LOG.trace(".beginTransaction(): Create the UoW for accessor utilisation");
         UoWPayload payload = new UoWPayload();
         boolean encodingFailure = false;
         String errorString = "";
         String auditTrailPayload = "";
+        SoTConduitAuditFidelityEnum fidelity = auditFidelityPolicy.getFidelity(resourceType, action);
+        SoTConduitEncodedResource encodedResource = null;
         switch (action) {
             case REVIEW:
                 LOG.trace(".endTransaction(): Review/Get --> Logging the request");
@@ -100,8 +229,9 @@ public class SoTConduitAuditEntryManager {
             LOG.trace(".beginTransaction(): Converting FHIR element into a (JSON) String");
             String resourceAsString = null;
             try {
-                LOG.trace(".beginTransaction(): Using IParser --> {}", parserR4);
-                resourceAsString = parserR4.encodeResourceToString(fhirResource);
+                LOG.trace(".beginTransaction(): Using encoder --> {}", resourceEncoder);
+                encodedResource = resolveEncodedResource(fhirResource, isResourceFinalAtBegin(action));
+                resourceAsString = describeEncodedResource(resourceType, accessorName, action, encodedResource, fidelity, null);
                 LOG.trace(".beginTransaction(): Add JSON String (encoded FHIR element) to the UoWPayload");
                 String fullPayloadString = auditTrailPayload + resourceAsString;
                 payload.setPayload(fullPayloadString);
@@ -141,15 +271,39 @@ public class SoTConduitAuditEntryManager {
             theUoW = new UoW(payload);
             theUoW.setProcessingOutcome(UoWProcessingOutcomeEnum.UOW_OUTCOME_NOTSTARTED);
         }
-        PetasosParcelAuditTrailEntry currentTransaction = servicesBroker.transactionAuditEntry(wupInstance, action.toString(), theUoW, null);
+        PetasosParcelAuditTrailEntry currentTransaction = registerBeginTransaction(wupInstance, action, theUoW);
+        if (fidelity == SoTConduitAuditFidelityEnum.REQUEST_DIFF && encodedResource != null && !encodingFailure && currentTransaction != null) {
+            LOG.trace(".beginTransaction(): Retaining encoded (request) resource as the baseline for the REQUEST_DIFF audit payload");
+            diffBaselines.put(currentTransaction, encodedResource);
+        } else if (encodedResource != null && !isResourceFinalAtBegin(action)) {
+            encodedResource.release();
+        }
         LOG.debug(".beginTransaction(): Exit --> Registration aftermath: currentTransaction (PetasosParcelAuditTrailEntry) --> {}", currentTransaction);
         return (currentTransaction);
     }
 
-    public void endTransaction(String auditEntryString, String resourceType, Resource fhirResource, SoTConduitActionEnum action, boolean success, PetasosParcelAuditTrailEntry startingTransaction, WUPIdentifier wupInstance, String version) {
-        LOG.debug(".endTransaction(): Entry");
-        UoW updatedUoW = startingTransaction.getActualUoW();
+    /**
+     * Completes a search transaction from its structured summary (see
+     * SoTConduitSearchSummariser), the outcome being taken from the summary.
+     */
+    public void endTransaction(SoTConduitSearchResultSummary searchSummary, String resourceType, String accessorName, SoTConduitActionEnum action, PetasosParcelAuditTrailEntry startingTransaction, WUPIdentifier wupInstance, String version) {
+        String auditEntryString = searchSummariser.describeResult(searchSummary);
+        endTransaction(auditEntryString, resourceType, accessorName, null, action, searchSummary.isSuccessful(), startingTransaction, wupInstance, version);
+    }
+
+    public void endTransaction(String auditEntryString, String resourceType, String accessorName, Resource fhirResource, SoTConduitActionEnum action, boolean success, PetasosParcelAuditTrailEntry startingTransaction, WUPIdentifier wupInstance, String version) {
+        SoTConduitActionStatusEnum status = success ? SoTConduitActionStatusEnum.defaultFinishStatus(action) : SoTConduitActionStatusEnum.defaultFailureStatus(action);
+        endTransaction(auditEntryString, resourceType, accessorName, fhirResource, action, status, startingTransaction, wupInstance, version);
+    }
+
+    public void endTransaction(String auditEntryString, String resourceType, String accessorName, Resource fhirResource, SoTConduitActionEnum action, SoTConduitActionStatusEnum status, PetasosParcelAuditTrailEntry startingTransaction, WUPIdentifier wupInstance, String version) {
+        LOG.debug(".endTransaction(): Entry, action --> {}, status --> {}", action, status);
+        boolean success = !status.isFailure();
+        // queued (async/durable) entries must not share the UoW, which may still be being registered as the begin
+        UoW updatedUoW = auditDispatcher != null ? SoTConduitAuditDispatcher.snapshotUoW(startingTransaction.getActualUoW()) : startingTransaction.getActualUoW();
         String auditTrailPayload = null;
+        SoTConduitAuditFidelityEnum fidelity = auditFidelityPolicy.getFidelity(resourceType, action);
+        SoTConduitEncodedResource diffBaseline = diffBaselines.remove(startingTransaction);
         if (success) {
             switch (action) {
                 case REVIEW:
@@ -173,10 +327,13 @@ public class SoTConduitAuditEntryManager {
                     auditTrailPayload = "Action: Search, Result --> ";
                     break;
             }
+            if (status != SoTConduitActionStatusEnum.defaultFinishStatus(action)) {
+                auditTrailPayload = "Status: " + status + ", " + auditTrailPayload;
+            }
             if(fhirResource != null) {
                 LOG.trace(".endTransaction(): fhirResource.type --> {}", fhirResource.getResourceType());
-                if(parserR4 == null) {LOG.error("Warning Will Robinson!!!!");}
-                auditTrailPayload = auditTrailPayload  + parserR4.encodeResourceToString(fhirResource);
+                if(resourceEncoder == null) {LOG.error("Warning Will Robinson!!!!");}
+                auditTrailPayload = auditTrailPayload  + describeEncodedResource(resourceType, accessorName, action, resolveEncodedResource(fhirResource, true), fidelity, diffBaseline);
             } else {
                 auditTrailPayload = auditTrailPayload + auditEntryString;
             }
@@ -186,13 +343,147 @@ public class SoTConduitAuditEntryManager {
             newPayload.setPayloadTopicID(payloadToken);
             updatedUoW.getEgressContent().addPayloadElement(newPayload);
             updatedUoW.setProcessingOutcome(UoWProcessingOutcomeEnum.UOW_OUTCOME_SUCCESS);
+            addTracePayload(updatedUoW, resourceType, version);
             LOG.trace(".endTransaction(): Calling the Audit Trail Generator ");
-            PetasosParcelAuditTrailEntry currentTransaction = servicesBroker.transactionAuditEntry(wupInstance, action.toString(), updatedUoW, startingTransaction);
+            registerEndTransaction(wupInstance, action, updatedUoW, startingTransaction);
         } else {
+            if (status != SoTConduitActionStatusEnum.defaultFailureStatus(action)) {
+                LOG.trace(".endTransaction(): Recording the specific failure status");
+                UoWPayload statusPayload = new UoWPayload();
+                statusPayload.setPayload("Status: " + status + ", Action: " + action + " --> " + auditEntryString);
+                statusPayload.setPayloadTopicID(topicIDBuilder.createTopicToken(resourceType, version));
+                updatedUoW.getEgressContent().addPayloadElement(statusPayload);
+            }
             updatedUoW.setProcessingOutcome(UoWProcessingOutcomeEnum.UOW_OUTCOME_FAILED);
+            addTracePayload(updatedUoW, resourceType, version);
             LOG.trace(".endTransaction(): Calling the Audit Trail Generator ");
-            PetasosParcelAuditTrailEntry currentTransaction = servicesBroker.transactionAuditEntry(wupInstance, action.toString(), updatedUoW, startingTransaction);
+            registerEndTransaction(wupInstance, action, updatedUoW, startingTransaction);
+        }
+        if (diffBaseline != null) {
+            diffBaseline.release();
         }
         LOG.debug(".endTransaction(): exit, my work is done!");
     }
+
+    /**
+     * Records the trace (and, if the request is sampled, the span) the audit
+     * entry belongs to, so that the entry can be found from a slow trace and
+     * vice versa.
+     */
+    private void addTracePayload(UoW updatedUoW, String resourceType, String version) {
+        String traceId = conduitTracer.getCurrentTraceId();
+        if (traceId == null) {
+            return;
+        }
+        SoTConduitSpan currentSpan = conduitTracer.getCurrentSpan();
+        UoWPayload tracePayload = new UoWPayload();
+        tracePayload.setPayload("Trace: traceId=" + traceId + (currentSpan.isRecording() ? ", spanId=" + currentSpan.getSpanId() : ""));
+        tracePayload.setPayloadTopicID(topicIDBuilder.createTopicToken(resourceType, version));
+        updatedUoW.getEgressContent().addPayloadElement(tracePayload);
+    }
+
+    /**
+     * Resolves the encoded form of the resource for the audit payload. When
+     * shareWithResponse is set the encoding is registered with the
+     * SoTConduitRequestContext so that the response writer can reuse the same
+     * bytes rather than serialising the resource again.
+     */
+    private SoTConduitEncodedResource resolveEncodedResource(Resource fhirResource, boolean shareWithResponse) {
+        if (shareWithResponse) {
+            return (SoTConduitRequestContext.encodedResourceFor(fhirResource, resourceEncoder));
+        }
+        return (new SoTConduitEncodedResource(fhirResource, resourceEncoder));
+    }
+
+    /**
+     * Renders the resource into the audit payload at the requested fidelity. A
+     * REQUEST_DIFF without a baseline (i.e. anything other than the end of an UPDATE that began
+     * with a resource) is recorded as a DIGEST. The time taken (which includes the
+     * encoding itself, if it has not already happened) is recorded against the
+     * accessor's ENCODING metrics.
+     */
+    private String describeEncodedResource(String resourceType, String accessorName, SoTConduitActionEnum action, SoTConduitEncodedResource encodedResource, SoTConduitAuditFidelityEnum fidelity, SoTConduitEncodedResource diffBaseline) {
+        long encodingStart = System.nanoTime();
+        SoTConduitSpan encodeSpan = conduitTracer.startSpan("audit.encode").setAttribute("sotconduit.audit.fidelity", fidelity.name());
+        try {
+            return (renderEncodedResource(encodedResource, fidelity, diffBaseline));
+        } finally {
+            encodeSpan.end();
+            conduitMetrics.getAccessorMetrics(accessorName).recordLatency(SoTConduitMetricsPhaseEnum.ENCODING, action, System.nanoTime() - encodingStart);
+        }
+    }
+
+    private String renderEncodedResource(SoTConduitEncodedResource encodedResource, SoTConduitAuditFidelityEnum fidelity, SoTConduitEncodedResource diffBaseline) {
+        String resourceId = encodedResource.getResource().getIdElement().toUnqualified().getValue();
+        switch (fidelity) {
+            case REQUEST_DIFF:
+                if (diffBaseline != null) {
+                    try {
+                        String patch = SoTConduitJsonPatchBuilder.buildPatch(diffBaseline.getEncodedString(), encodedResource.getEncodedString(), SOT_ASSIGNED_MEMBERS);
+                        return ("RequestDiff(id=" + resourceId + ", patch=" + patch + ")");
+                    } catch (DataFormatException malformedJson) {
+                        LOG.warn(".renderEncodedResource(): Unable to build REQUEST_DIFF, recording DIGEST instead --> {}", malformedJson.getMessage());
+                    }
+                }
+                // no usable baseline, fall through to DIGEST
+            case DIGEST:
+                return ("Digest(id=" + resourceId + ", sha256=" + encodedResource.getContentDigest() + ")");
+            case FULL:
+            default:
+                return (encodedResource.getEncodedString());
+        }
+    }
+
+    /**
+     * The resource handed to a CREATE/UPDATE beginTransaction() is the inbound
+     * content, which the SoT typically modifies (id, meta) before it is returned,
+     * so it must not be shared with the response.
+     */
+    private boolean isResourceFinalAtBegin(SoTConduitActionEnum action) {
+        return (action != SoTConduitActionEnum.CREATE && action != SoTConduitActionEnum.UPDATE);
+    }
+
+    private PetasosParcelAuditTrailEntry registerBeginTransaction(WUPIdentifier wupInstance, SoTConduitActionEnum action, UoW theUoW) {
+        SoTConduitSpan brokerSpan = startBrokerSpan("audit.broker.begin", action);
+        try {
+            if (auditDispatcher != null) {
+                return (auditDispatcher.submitBegin(wupInstance, action.toString(), theUoW));
+            }
+            return (servicesBroker.transactionAuditEntry(wupInstance, action.toString(), theUoW, null));
+        } catch (RuntimeException brokerFailure) {
+            brokerSpan.recordError(brokerFailure);
+            throw brokerFailure;
+        } finally {
+            brokerSpan.end();
+        }
+    }
+
+    private void registerEndTransaction(WUPIdentifier wupInstance, SoTConduitActionEnum action, UoW updatedUoW, PetasosParcelAuditTrailEntry startingTransaction) {
+        SoTConduitSpan brokerSpan = startBrokerSpan("audit.broker.end", action);
+        try {
+            if (auditDispatcher != null) {
+                auditDispatcher.submitEnd(wupInstance, action.toString(), updatedUoW, startingTransaction);
+            } else {
+                servicesBroker.transactionAuditEntry(wupInstance, action.toString(), updatedUoW, startingTransaction);
+            }
+        } catch (RuntimeException brokerFailure) {
+            brokerSpan.recordError(brokerFailure);
+            throw brokerFailure;
+        } finally {
+            brokerSpan.end();
+        }
+    }
+
+    /**
+     * With asynchronous or durable dispatch the span covers only the hand-off to
+     * the SoTConduitAuditDispatcher, not the broker call itself.
+     */
+    private SoTConduitSpan startBrokerSpan(String spanName, SoTConduitActionEnum action) {
+        SoTConduitSpan brokerSpan = conduitTracer.startSpan(spanName);
+        if (brokerSpan.isRecording()) {
+            brokerSpan.setAttribute("sotconduit.action", action.name());
+            brokerSpan.setAttribute("sotconduit.audit.dispatch", auditDispatcher != null ? "dispatcher" : "broker");
+        }
+        return (brokerSpan);
+    }
 }
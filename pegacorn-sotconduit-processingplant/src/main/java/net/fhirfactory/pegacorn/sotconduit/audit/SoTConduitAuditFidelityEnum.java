@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.audit;
+
+/**
+ * How much of a resource is copied into an audit entry.
+ * <ul>
+ * <li>FULL - the complete (JSON) encoded resource</li>
+ * <li>DIGEST - the resource id and a SHA-256 hash of the encoded resource</li>
+ * <li>REQUEST_DIFF - for UPDATE, a JSON Patch from the resource as submitted to
+ * the resource as returned by the SoT (DIGEST otherwise)</li>
+ * </ul>
+ * REQUEST_DIFF records what the SoT changed relative to the request, not what
+ * changed since the previously stored version; the id and meta the SoT assigns
+ * are left out of it.
+ */
+public enum SoTConduitAuditFidelityEnum {
+    FULL,
+    DIGEST,
+    REQUEST_DIFF
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.audit;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The audit payload fidelity to use for each (resource type, action) pair. A
+ * resource type specific setting takes precedence over the per-action default,
+ * which in turn defaults to FULL.
+ */
+public class SoTConduitAuditFidelityPolicy {
+    private volatile Map<SoTConduitActionEnum, SoTConduitAuditFidelityEnum> actionDefaults;
+    private final Map<String, Map<SoTConduitActionEnum, SoTConduitAuditFidelityEnum>> resourceTypeOverrides;
+
+    public SoTConduitAuditFidelityPolicy() {
+        this.actionDefaults = new EnumMap<>(SoTConduitActionEnum.class);
+        for (SoTConduitActionEnum action : SoTConduitActionEnum.values()) {
+            actionDefaults.put(action, SoTConduitAuditFidelityEnum.FULL);
+        }
+        this.resourceTypeOverrides = new ConcurrentHashMap<>();
+    }
+
+    public SoTConduitAuditFidelityEnum getFidelity(String resourceType, SoTConduitActionEnum action) {
+        if (resourceType != null) {
+            Map<SoTConduitActionEnum, SoTConduitAuditFidelityEnum> overrides = resourceTypeOverrides.get(resourceType);
+            if (overrides != null) {
+                SoTConduitAuditFidelityEnum fidelity = overrides.get(action);
+                if (fidelity != null) {
+                    return (fidelity);
+                }
+            }
+        }
+        return (actionDefaults.get(action));
+    }
+
+    public synchronized void setDefaultFidelity(SoTConduitActionEnum action, SoTConduitAuditFidelityEnum fidelity) {
+        Map<SoTConduitActionEnum, SoTConduitAuditFidelityEnum> updatedDefaults = new EnumMap<>(actionDefaults);
+        updatedDefaults.put(action, fidelity);
+        actionDefaults = updatedDefaults;
+    }
+
+    public synchronized void setFidelity(String resourceType, SoTConduitActionEnum action, SoTConduitAuditFidelityEnum fidelity) {
+        Map<SoTConduitActionEnum, SoTConduitAuditFidelityEnum> updatedOverrides = new EnumMap<>(SoTConduitActionEnum.class);
+        Map<SoTConduitActionEnum, SoTConduitAuditFidelityEnum> currentOverrides = resourceTypeOverrides.get(resourceType);
+        if (currentOverrides != null) {
+            updatedOverrides.putAll(currentOverrides);
+        }
+        updatedOverrides.put(action, fidelity);
+        resourceTypeOverrides.put(resourceType, updatedOverrides);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.audit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.audit.model.PetasosParcelAuditTrailEntry;
+import net.fhirfactory.pegacorn.petasos.model.topics.TopicToken;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoWIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoWPayload;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoWProcessingOutcomeEnum;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
+
+/**
+ * The on-disk representation of a spooled audit task: an explicit, versioned
+ * field-by-field encoding of the task and of the parts of its UoW that reach
+ * the audit trail (instance/type ids, outcome, ingres and egress payloads with
+ * their topics), so it does not depend on the pegacorn model being
+ * Serializable.
+ * <p>
+ * Layout: [byte format][string taskType][string action][token wupInstance]
+ * [long startingSequence][uow][boolean hasStartingTransaction][uow], where a
+ * string is [int length (-1 for null)][UTF-8 bytes].
+ */
+public class SoTConduitAuditRecordCodec {
+    private static final byte RECORD_FORMAT = 1;
+    private static final int INITIAL_RECORD_BYTES = 512;
+
+    public byte[] encode(SoTConduitAuditTask task) {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(INITIAL_RECORD_BYTES);
+        try (DataOutputStream output = new DataOutputStream(encoded)) {
+            output.writeByte(RECORD_FORMAT);
+            writeString(output, task.getTaskType().name());
+            writeString(output, task.getAction());
+            writeToken(output, task.getWupInstance());
+            output.writeLong(task.getStartingTask() != null ? task.getStartingTask().getSpoolSequence() : -1L);
+            writeUoW(output, task.getUoW());
+            PetasosParcelAuditTrailEntry startingTransaction = task.getStartingTask() == null ? task.getStartingTransaction() : null;
+            output.writeBoolean(startingTransaction != null);
+            if (startingTransaction != null) {
+                writeUoW(output, startingTransaction.getActualUoW());
+            }
+        } catch (IOException ioException) {
+            throw new UncheckedIOException(ioException);
+        }
+        return (encoded.toByteArray());
+    }
+
+    /**
+     * @throws IOException if the payload is truncated, or of an unknown format
+     */
+    public SoTConduitMappedAuditSpool.SpooledAuditRecord decode(byte[] payload) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload))) {
+            byte format = input.readByte();
+            if (format != RECORD_FORMAT) {
+                throw new IOException("Unknown audit record format --> " + format);
+            }
+            SoTConduitMappedAuditSpool.SpooledAuditRecord record = new SoTConduitMappedAuditSpool.SpooledAuditRecord();
+            record.taskType = SoTConduitAuditTaskTypeEnum.valueOf(readString(input));
+            record.action = readString(input);
+            String wupInstance = readString(input);
+            record.wupInstance = wupInstance == null ? null : new WUPIdentifier(new FDNToken(wupInstance));
+            record.startingSequence = input.readLong();
+            record.uow = readUoW(input);
+            if (input.readBoolean()) {
+                record.startingTransaction = new PetasosParcelAuditTrailEntry();
+                record.startingTransaction.setActualUoW(readUoW(input));
+            }
+            return (record);
+        } catch (IllegalArgumentException badValue) {
+            throw new IOException("Malformed audit record --> " + badValue.getMessage(), badValue);
+        }
+    }
+
+    private void writeUoW(DataOutputStream output, UoW uow) throws IOException {
+        output.writeBoolean(uow != null);
+        if (uow == null) {
+            return;
+        }
+        writeToken(output, uow.getInstanceID());
+        writeToken(output, uow.getTypeID());
+        writeString(output, uow.getProcessingOutcome() == null ? null : uow.getProcessingOutcome().name());
+        writeString(output, uow.getFailureDescription());
+        writePayload(output, uow.getIngresContent());
+        int egressCount = uow.getEgressContent() == null ? 0 : uow.getEgressContent().getPayloadElements().size();
+        output.writeInt(egressCount);
+        if (egressCount > 0) {
+            for (UoWPayload egressPayload : uow.getEgressContent().getPayloadElements()) {
+                writePayload(output, egressPayload);
+            }
+        }
+    }
+
+    private UoW readUoW(DataInputStream input) throws IOException {
+        if (!input.readBoolean()) {
+            return (null);
+        }
+        String instanceID = readString(input);
+        String typeID = readString(input);
+        String processingOutcome = readString(input);
+        String failureDescription = readString(input);
+        UoW uow = new UoW(readPayload(input));
+        if (instanceID != null) {
+            uow.setInstanceID(new UoWIdentifier(new FDNToken(instanceID)));
+        }
+        if (typeID != null) {
+            uow.setTypeID(new FDNToken(typeID));
+        }
+        if (processingOutcome != null) {
+            uow.setProcessingOutcome(UoWProcessingOutcomeEnum.valueOf(processingOutcome));
+        }
+        if (failureDescription != null) {
+            uow.setFailureDescription(failureDescription);
+        }
+        int egressCount = input.readInt();
+        for (int index = 0; index < egressCount; index++) {
+            uow.getEgressContent().addPayloadElement(readPayload(input));
+        }
+        return (uow);
+    }
+
+    private void writePayload(DataOutputStream output, UoWPayload payload) throws IOException {
+        output.writeBoolean(payload != null);
+        if (payload == null) {
+            return;
+        }
+        writeString(output, payload.getPayload());
+        TopicToken topic = payload.getPayloadTopicID();
+        output.writeBoolean(topic != null);
+        if (topic != null) {
+            writeToken(output, topic.getIdentifier());
+            writeString(output, topic.getVersion());
+        }
+    }
+
+    private UoWPayload readPayload(DataInputStream input) throws IOException {
+        if (!input.readBoolean()) {
+            return (null);
+        }
+        UoWPayload payload = new UoWPayload();
+        payload.setPayload(readString(input));
+        if (input.readBoolean()) {
+            TopicToken topic = new TopicToken();
+            String identifier = readString(input);
+            if (identifier != null) {
+                topic.setIdentifier(new FDNToken(identifier));
+            }
+            topic.setVersion(readString(input));
+            payload.setPayloadTopicID(topic);
+        }
+        return (payload);
+    }
+
+    private void writeToken(DataOutputStream output, FDNToken token) throws IOException {
+        writeString(output, token == null ? null : token.getContent());
+    }
+
+    private void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return (null);
+        }
+        if (length > input.available()) {
+            throw new IOException("Truncated audit record");
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return (new String(bytes, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.audit;
+
+import java.util.Collection;
+
+/**
+ * Overflow storage for the asynchronous audit pipeline, used by the SPOOL
+ * backpressure policy when the in-memory queue is full, and as the
+ * write-ahead log when the pipeline runs in DURABLE mode.
+ */
+public interface SoTConduitAuditSpool {
+    public void append(SoTConduitAuditTask task);
+    public int drainTo(Collection<SoTConduitAuditTask> target, int maxElements);
+    public boolean isEmpty();
+
+    /**
+     * Called once a drained task has been accepted by the broker, after which a
+     * durable spool no longer needs to replay it.
+     */
+    public default void acknowledge(SoTConduitAuditTask task) {
+    }
+
+    /**
+     * Pushes everything appended so far to stable storage.
+     */
+    public default void flush() {
+    }
+
+    public default void close() {
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.audit;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.fhirfactory.pegacorn.petasos.audit.model.PetasosParcelAuditTrailEntry;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
+
+/**
+ * A single (begin or end) audit registration waiting to be handed to the
+ * PetasosSTAServicesAuditOnlyBroker.
+ * <p>
+ * An END_TRANSACTION task holds a reference to the BEGIN_TRANSACTION task it
+ * closes, so the begin --> end pairing survives the queue (and any spool) no
+ * matter which order the two tasks are eventually drained in.
+ */
+public class SoTConduitAuditTask {
+    private final SoTConduitAuditTaskTypeEnum taskType;
+    private final WUPIdentifier wupInstance;
+    private final String action;
+    private final UoW uow;
+    private final SoTConduitAuditTask startingTask;
+    private final PetasosParcelAuditTrailEntry startingTransaction;
+    private final CompletableFuture<PetasosParcelAuditTrailEntry> registeredEntry;
+    private final AtomicBoolean claimed;
+    private volatile long spoolSequence;
+
+    private SoTConduitAuditTask(SoTConduitAuditTaskTypeEnum taskType, WUPIdentifier wupInstance, String action, UoW uow, SoTConduitAuditTask startingTask, PetasosParcelAuditTrailEntry startingTransaction) {
+        this.taskType = taskType;
+        this.wupInstance = wupInstance;
+        this.action = action;
+        this.uow = uow;
+        this.startingTask = startingTask;
+        this.startingTransaction = startingTransaction;
+        this.registeredEntry = new CompletableFuture<>();
+        this.claimed = new AtomicBoolean(false);
+        this.spoolSequence = -1L;
+    }
+
+    public static SoTConduitAuditTask beginTask(WUPIdentifier wupInstance, String action, UoW uow) {
+        return (new SoTConduitAuditTask(SoTConduitAuditTaskTypeEnum.BEGIN_TRANSACTION, wupInstance, action, uow, null, null));
+    }
+
+    public static SoTConduitAuditTask endTask(WUPIdentifier wupInstance, String action, UoW uow, SoTConduitAuditTask startingTask) {
+        return (new SoTConduitAuditTask(SoTConduitAuditTaskTypeEnum.END_TRANSACTION, wupInstance, action, uow, startingTask, null));
+    }
+
+    public static SoTConduitAuditTask endTask(WUPIdentifier wupInstance, String action, UoW uow, PetasosParcelAuditTrailEntry startingTransaction) {
+        return (new SoTConduitAuditTask(SoTConduitAuditTaskTypeEnum.END_TRANSACTION, wupInstance, action, uow, null, startingTransaction));
+    }
+
+    /**
+     * Marks the task as being dispatched. Only the first caller gets true, which
+     * guarantees each task reaches the broker exactly once.
+     */
+    public boolean claim() {
+        return (claimed.compareAndSet(false, true));
+    }
+
+    public boolean isClaimed() {
+        return (claimed.get());
+    }
+
+    /**
+     * Hands the task back after a failed dispatch, so it can be retried (or
+     * replayed from a durable spool) later.
+     */
+    public void releaseClaim() {
+        claimed.set(false);
+    }
+
+    public SoTConduitAuditTaskTypeEnum getTaskType() {
+        return taskType;
+    }
+
+    public WUPIdentifier getWupInstance() {
+        return wupInstance;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public UoW getUoW() {
+        return uow;
+    }
+
+    public SoTConduitAuditTask getStartingTask() {
+        return startingTask;
+    }
+
+    public PetasosParcelAuditTrailEntry getStartingTransaction() {
+        return startingTransaction;
+    }
+
+    public CompletableFuture<PetasosParcelAuditTrailEntry> getRegisteredEntry() {
+        return registeredEntry;
+    }
+
+    /**
+     * The position of the task in a durable spool, or -1 if it has not been spooled.
+     */
+    public long getSpoolSequence() {
+        return spoolSequence;
+    }
+
+    public void setSpoolSequence(long spoolSequence) {
+        this.spoolSequence = spoolSequence;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.audit;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded, non-durable overflow spool. Once it holds capacity tasks, append()
+ * refuses further tasks with SoTConduitAuditSpoolFullException (and the
+ * dispatcher registers them synchronously instead).
+ */
+public class SoTConduitInMemoryAuditSpool implements SoTConduitAuditSpool {
+    private final ConcurrentLinkedQueue<SoTConduitAuditTask> spooledTasks;
+    private final AtomicInteger spooledTaskCount;
+    private final int capacity;
+
+    public SoTConduitInMemoryAuditSpool(int capacity) {
+        this.spooledTasks = new ConcurrentLinkedQueue<>();
+        this.spooledTaskCount = new AtomicInteger(0);
+        this.capacity = Math.max(1, capacity);
+    }
+
+    @Override
+    public void append(SoTConduitAuditTask task) {
+        if (spooledTaskCount.incrementAndGet() > capacity) {
+            spooledTaskCount.decrementAndGet();
+            throw new SoTConduitAuditSpoolFullException("Audit overflow spool is full, capacity --> " + capacity);
+        }
+        spooledTasks.add(task);
+    }
+
+    @Override
+    public int drainTo(Collection<SoTConduitAuditTask> target, int maxElements) {
+        int drained = 0;
+        SoTConduitAuditTask nextTask;
+        while (drained < maxElements && (nextTask = spooledTasks.poll()) != null) {
+            spooledTaskCount.decrementAndGet();
+            target.add(nextTask);
+            drained += 1;
+        }
+        return (drained);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return (spooledTasks.isEmpty());
+    }
+
+    public int getCapacity() {
+        return (capacity);
+    }
+}
@@ -0,0 +1,573 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.audit;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.petasos.audit.model.PetasosParcelAuditTrailEntry;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
+
+/**
+ * A durable SoTConduitAuditSpool: an append-only log of audit tasks held in
+ * memory-mapped segment files, so entries that have not yet reached the
+ * broker survive a pod restart (given the spool directory is on a persistent
+ * volume) and are replayed, in order, when the spool is next opened.
+ * <p>
+ * Each record is laid out as [int length][int crc32][long sequence][payload],
+ * with the length written last so a torn write reads as the end of the log.
+ * Segments are forced to disk every {@code forceEveryRecords} appends or
+ * {@code forceIntervalMillis}, whichever comes first. The highest contiguous
+ * acknowledged sequence, and any sequences acknowledged out of order above
+ * it, are kept in a checkpoint file (replaced atomically), so nothing that
+ * was acknowledged is replayed; whole segments at or below the contiguous
+ * sequence are deleted.
+ * <p>
+ * Tasks appended by this process are handed back to drainTo() as-is (so the
+ * begin --> end pairing is kept); only records replayed after a restart are
+ * decoded from the log (see SoTConduitAuditRecordCodec).
+ */
+public class SoTConduitMappedAuditSpool implements SoTConduitAuditSpool {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitMappedAuditSpool.class);
+
+    public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+    public static final int DEFAULT_FORCE_EVERY_RECORDS = 64;
+    public static final long DEFAULT_FORCE_INTERVAL_MILLIS = 20L;
+
+    private static final String SEGMENT_FILE_PREFIX = "audit-";
+    private static final String SEGMENT_FILE_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE_NAME = "audit.checkpoint";
+    private static final String CHECKPOINT_TEMP_FILE_NAME = "audit.checkpoint.tmp";
+    private static final int RECORD_HEADER_BYTES = 16;
+
+    private final Path spoolDirectory;
+    private final int segmentBytes;
+    private final int forceEveryRecords;
+    private final long forceIntervalNanos;
+    private final List<SpoolSegment> segments;
+    private final Map<Long, SoTConduitAuditTask> liveTasks;
+    private final Map<Long, SoTConduitAuditTask> replayedBeginTasks;
+    private final TreeSet<Long> acknowledgedAhead;
+    private final SoTConduitAuditRecordCodec recordCodec;
+    private final Object flushLock;
+    private SpoolSegment writeSegment;
+    private SpoolSegment readSegment;
+    private int readPosition;
+    private long nextSequence;
+    private long acknowledgedSequence;
+    private volatile long checkpointedSequence;
+    private long acknowledgementCount;
+    private long checkpointedAcknowledgementCount;
+    private long undrainedRecords;
+    private int unforcedRecords;
+    private long lastForceNanos;
+    private boolean closed;
+
+    protected SoTConduitMappedAuditSpool(Path spoolDirectory, int segmentBytes, int forceEveryRecords, long forceIntervalMillis) throws IOException {
+        this.spoolDirectory = spoolDirectory;
+        this.segmentBytes = Math.max(RECORD_HEADER_BYTES, segmentBytes);
+        this.forceEveryRecords = Math.max(1, forceEveryRecords);
+        this.forceIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, forceIntervalMillis));
+        this.segments = new ArrayList<>();
+        this.liveTasks = new ConcurrentHashMap<>();
+        this.replayedBeginTasks = new HashMap<>();
+        this.acknowledgedAhead = new TreeSet<>();
+        this.recordCodec = new SoTConduitAuditRecordCodec();
+        this.flushLock = new Object();
+        Files.createDirectories(spoolDirectory);
+        recover();
+    }
+
+    public static SoTConduitMappedAuditSpool open(Path spoolDirectory) throws IOException {
+        return (new SoTConduitMappedAuditSpool(spoolDirectory, DEFAULT_SEGMENT_BYTES, DEFAULT_FORCE_EVERY_RECORDS, DEFAULT_FORCE_INTERVAL_MILLIS));
+    }
+
+    public static SoTConduitMappedAuditSpool open(Path spoolDirectory, int segmentBytes, int forceEveryRecords, long forceIntervalMillis) throws IOException {
+        return (new SoTConduitMappedAuditSpool(spoolDirectory, segmentBytes, forceEveryRecords, forceIntervalMillis));
+    }
+
+    //
+    // SoTConduitAuditSpool
+    //
+
+    @Override
+    public void append(SoTConduitAuditTask task) {
+        byte[] payload = encodeTask(task);
+        boolean forceDue;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Audit spool " + spoolDirectory + " is closed");
+            }
+            long sequence = nextSequence;
+            try {
+                writeRecord(sequence, payload);
+            } catch (IOException ioException) {
+                throw new UncheckedIOException(ioException);
+            }
+            nextSequence = sequence + 1;
+            task.setSpoolSequence(sequence);
+            liveTasks.put(sequence, task);
+            undrainedRecords += 1;
+            unforcedRecords += 1;
+            forceDue = unforcedRecords >= forceEveryRecords || System.nanoTime() - lastForceNanos >= forceIntervalNanos;
+        }
+        if (forceDue) {
+            flush();
+        }
+    }
+
+    @Override
+    public synchronized int drainTo(Collection<SoTConduitAuditTask> target, int maxElements) {
+        int drained = 0;
+        while (drained < maxElements && undrainedRecords > 0) {
+            if (readPosition + RECORD_HEADER_BYTES > readSegment.buffer.capacity() || readSegment.buffer.getInt(readPosition) <= 0) {
+                int readSegmentIndex = segments.indexOf(readSegment);
+                if (readSegmentIndex + 1 >= segments.size()) {
+                    LOG.warn(".drainTo(): Reached the end of the spool with {} records unaccounted for", undrainedRecords);
+                    undrainedRecords = 0;
+                    break;
+                }
+                readSegment = segments.get(readSegmentIndex + 1);
+                readPosition = 0;
+                continue;
+            }
+            int recordPosition = readPosition;
+            int payloadLength = readSegment.buffer.getInt(recordPosition);
+            long sequence = readSegment.buffer.getLong(recordPosition + 8);
+            readPosition = recordPosition + RECORD_HEADER_BYTES + payloadLength;
+            if (sequence <= acknowledgedSequence || acknowledgedAhead.contains(sequence)) {
+                // Acknowledged before a restart, or pulled forward and sent ahead of its turn
+                if (liveTasks.remove(sequence) != null) {
+                    undrainedRecords -= 1;
+                }
+                continue;
+            }
+            undrainedRecords -= 1;
+            SoTConduitAuditTask task = liveTasks.remove(sequence);
+            if (task == null) {
+                task = replayRecord(sequence, readRecordPayload(readSegment, recordPosition, payloadLength));
+            }
+            if (task == null) {
+                acknowledgeSequence(sequence);
+                continue;
+            }
+            target.add(task);
+            drained += 1;
+        }
+        return (drained);
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return (undrainedRecords == 0);
+    }
+
+    @Override
+    public synchronized void acknowledge(SoTConduitAuditTask task) {
+        if (task.getSpoolSequence() >= 0) {
+            acknowledgeSequence(task.getSpoolSequence());
+        }
+    }
+
+    /**
+     * Forces the current segment to disk, then records the acknowledged
+     * sequences in the checkpoint file and deletes any segments it covers.
+     */
+    @Override
+    public void flush() {
+        synchronized (flushLock) {
+            MappedByteBuffer unforcedBuffer;
+            long checkpoint;
+            long[] checkpointAhead = null;
+            long checkpointAcknowledgementCount;
+            synchronized (this) {
+                unforcedBuffer = (unforcedRecords > 0 && writeSegment != null) ? writeSegment.buffer : null;
+                unforcedRecords = 0;
+                lastForceNanos = System.nanoTime();
+                checkpoint = acknowledgedSequence;
+                checkpointAcknowledgementCount = acknowledgementCount;
+                if (checkpointAcknowledgementCount != checkpointedAcknowledgementCount) {
+                    checkpointAhead = acknowledgedAhead.stream().mapToLong(Long::longValue).toArray();
+                }
+            }
+            if (unforcedBuffer != null) {
+                unforcedBuffer.force();
+            }
+            if (checkpointAhead != null) {
+                try {
+                    writeCheckpoint(checkpoint, checkpointAhead);
+                    checkpointedSequence = checkpoint;
+                    checkpointedAcknowledgementCount = checkpointAcknowledgementCount;
+                } catch (IOException ioException) {
+                    LOG.error(".flush(): Could not write audit spool checkpoint, error --> {}", ioException.toString());
+                    return;
+                }
+                compact();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        LOG.debug(".close(): Entry");
+        flush();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (SpoolSegment segment : segments) {
+                closeQuietly(segment);
+            }
+        }
+        LOG.debug(".close(): Exit, acknowledgedSequence --> {}", checkpointedSequence);
+    }
+
+    public synchronized long getAcknowledgedSequence() {
+        return (acknowledgedSequence);
+    }
+
+    public synchronized int getSegmentCount() {
+        return (segments.size());
+    }
+
+    //
+    // Record encoding, override to change the on-disk representation of a task
+    //
+
+    /**
+     * Encodes a task with SoTConduitAuditRecordCodec. An END_TRANSACTION refers
+     * to its begin by spool sequence.
+     */
+    protected byte[] encodeTask(SoTConduitAuditTask task) {
+        return (recordCodec.encode(task));
+    }
+
+    protected SpooledAuditRecord decodeRecord(byte[] payload) throws IOException {
+        return (recordCodec.decode(payload));
+    }
+
+    protected static class SpooledAuditRecord {
+        protected SoTConduitAuditTaskTypeEnum taskType;
+        protected WUPIdentifier wupInstance;
+        protected String action;
+        protected UoW uow;
+        protected long startingSequence;
+        protected PetasosParcelAuditTrailEntry startingTransaction;
+    }
+
+    //
+    // Internals
+    //
+
+    private SoTConduitAuditTask replayRecord(long sequence, byte[] payload) {
+        SpooledAuditRecord record;
+        try {
+            record = decodeRecord(payload);
+        } catch (IOException | RuntimeException decodeFailure) {
+            LOG.error(".replayRecord(): Discarding undecodable audit record, sequence --> {}, error --> {}", sequence, decodeFailure.toString());
+            return (null);
+        }
+        SoTConduitAuditTask task;
+        if (record.taskType == SoTConduitAuditTaskTypeEnum.BEGIN_TRANSACTION) {
+            task = SoTConduitAuditTask.beginTask(record.wupInstance, record.action, record.uow);
+            replayedBeginTasks.put(sequence, task);
+        } else {
+            SoTConduitAuditTask beginTask = replayedBeginTasks.remove(record.startingSequence);
+            if (beginTask != null) {
+                task = SoTConduitAuditTask.endTask(record.wupInstance, record.action, record.uow, beginTask);
+            } else if (record.startingTransaction != null) {
+                task = SoTConduitAuditTask.endTask(record.wupInstance, record.action, record.uow, record.startingTransaction);
+            } else {
+                // The begin reached the broker before the restart, but its entry was not kept
+                LOG.warn(".replayRecord(): Begin for replayed end is no longer available, action --> {}, sequence --> {}", record.action, sequence);
+                PetasosParcelAuditTrailEntry provisionalEntry = new PetasosParcelAuditTrailEntry();
+                provisionalEntry.setActualUoW(record.uow);
+                task = SoTConduitAuditTask.endTask(record.wupInstance, record.action, record.uow, provisionalEntry);
+            }
+        }
+        task.setSpoolSequence(sequence);
+        return (task);
+    }
+
+    private void acknowledgeSequence(long sequence) {
+        if (sequence <= acknowledgedSequence || !acknowledgedAhead.add(sequence)) {
+            return;
+        }
+        acknowledgementCount += 1;
+        while (acknowledgedAhead.remove(acknowledgedSequence + 1)) {
+            acknowledgedSequence += 1;
+        }
+    }
+
+    private void writeRecord(long sequence, byte[] payload) throws IOException {
+        int recordBytes = RECORD_HEADER_BYTES + payload.length;
+        if (writeSegment == null || writeSegment.writePosition + recordBytes > writeSegment.buffer.capacity()) {
+            rollSegment(sequence, recordBytes);
+        }
+        MappedByteBuffer buffer = writeSegment.buffer;
+        int position = writeSegment.writePosition;
+        CRC32 checksum = new CRC32();
+        checksum.update(payload);
+        buffer.putInt(position + 4, (int) checksum.getValue());
+        buffer.putLong(position + 8, sequence);
+        ByteBuffer payloadView = buffer.duplicate();
+        payloadView.position(position + RECORD_HEADER_BYTES);
+        payloadView.put(payload);
+        buffer.putInt(position, payload.length);
+        writeSegment.writePosition = position + recordBytes;
+        writeSegment.lastSequence = sequence;
+    }
+
+    private void rollSegment(long firstSequence, int recordBytes) throws IOException {
+        if (writeSegment != null) {
+            writeSegment.buffer.force();
+        }
+        Path segmentPath = spoolDirectory.resolve(String.format("%s%020d%s", SEGMENT_FILE_PREFIX, firstSequence, SEGMENT_FILE_SUFFIX));
+        LOG.debug(".rollSegment(): Starting new audit spool segment --> {}", segmentPath);
+        SpoolSegment segment = mapSegment(segmentPath, Math.max(segmentBytes, recordBytes));
+        segments.add(segment);
+        writeSegment = segment;
+        if (readSegment == null) {
+            readSegment = segment;
+            readPosition = 0;
+        }
+    }
+
+    private void recover() throws IOException {
+        LOG.debug(".recover(): Entry, spoolDirectory --> {}", spoolDirectory);
+        readCheckpoint();
+        checkpointedSequence = acknowledgedSequence;
+        long highestSequence = acknowledgedSequence;
+        List<Path> segmentPaths = new ArrayList<>();
+        try (DirectoryStream<Path> segmentFiles = Files.newDirectoryStream(spoolDirectory, SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_SUFFIX)) {
+            for (Path segmentPath : segmentFiles) {
+                segmentPaths.add(segmentPath);
+            }
+        }
+        Collections.sort(segmentPaths);
+        for (Path segmentPath : segmentPaths) {
+            if (Files.size(segmentPath) < RECORD_HEADER_BYTES) {
+                Files.delete(segmentPath);
+                continue;
+            }
+            SpoolSegment segment = mapSegment(segmentPath, (int) Math.min(Integer.MAX_VALUE, Files.size(segmentPath)));
+            scanSegment(segment);
+            if (segment.lastSequence > highestSequence) {
+                highestSequence = segment.lastSequence;
+            }
+            segments.add(segment);
+        }
+        nextSequence = highestSequence + 1;
+        if (!segments.isEmpty()) {
+            writeSegment = segments.get(segments.size() - 1);
+            readSegment = segments.get(0);
+            readPosition = 0;
+        }
+        compact();
+        LOG.info(".recover(): Audit spool opened, directory --> {}, segments --> {}, records to replay --> {}", spoolDirectory, segments.size(), undrainedRecords);
+    }
+
+    private void scanSegment(SpoolSegment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + RECORD_HEADER_BYTES <= buffer.capacity()) {
+            int payloadLength = buffer.getInt(position);
+            if (payloadLength <= 0) {
+                break;
+            }
+            if (position + RECORD_HEADER_BYTES + payloadLength > buffer.capacity() || !hasValidChecksum(segment, position, payloadLength)) {
+                LOG.warn(".scanSegment(): Truncating torn audit record, segment --> {}, position --> {}", segment.path, position);
+                // Clear the rest of the segment too, so records beyond the tear cannot resurface once it is overwritten
+                ByteBuffer tail = buffer.duplicate();
+                tail.position(position);
+                while (tail.hasRemaining()) {
+                    tail.put((byte) 0);
+                }
+                break;
+            }
+            long sequence = buffer.getLong(position + 8);
+            if (sequence > acknowledgedSequence && !acknowledgedAhead.contains(sequence)) {
+                undrainedRecords += 1;
+            }
+            segment.lastSequence = sequence;
+            position += RECORD_HEADER_BYTES + payloadLength;
+        }
+        segment.writePosition = position;
+    }
+
+    private boolean hasValidChecksum(SpoolSegment segment, int position, int payloadLength) {
+        CRC32 checksum = new CRC32();
+        checksum.update(readRecordPayload(segment, position, payloadLength));
+        return ((int) checksum.getValue() == segment.buffer.getInt(position + 4));
+    }
+
+    private byte[] readRecordPayload(SpoolSegment segment, int position, int payloadLength) {
+        byte[] payload = new byte[payloadLength];
+        ByteBuffer payloadView = segment.buffer.duplicate();
+        payloadView.position(position + RECORD_HEADER_BYTES);
+        payloadView.get(payload);
+        return (payload);
+    }
+
+    /**
+     * The checkpoint is [long acknowledgedSequence][int aheadCount][long...]
+     * [int crc32]; it is written to a temporary file, forced and then moved
+     * over the previous one, so a crash leaves either the old or the new one.
+     */
+    private void writeCheckpoint(long checkpoint, long[] checkpointAhead) throws IOException {
+        ByteBuffer checkpointBuffer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES + checkpointAhead.length * Long.BYTES + Integer.BYTES);
+        checkpointBuffer.putLong(checkpoint);
+        checkpointBuffer.putInt(checkpointAhead.length);
+        for (long aheadSequence : checkpointAhead) {
+            checkpointBuffer.putLong(aheadSequence);
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(checkpointBuffer.array(), 0, checkpointBuffer.position());
+        checkpointBuffer.putInt((int) checksum.getValue());
+        checkpointBuffer.flip();
+        Path temporaryPath = spoolDirectory.resolve(CHECKPOINT_TEMP_FILE_NAME);
+        try (FileChannel checkpointChannel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (checkpointBuffer.hasRemaining()) {
+                checkpointChannel.write(checkpointBuffer);
+            }
+            checkpointChannel.force(false);
+        }
+        Files.move(temporaryPath, spoolDirectory.resolve(CHECKPOINT_FILE_NAME), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Also accepts the original checkpoint layout (a lone long). A checkpoint
+     * that fails its checksum is ignored: everything is then replayed, which
+     * is preferable to losing entries.
+     */
+    private void readCheckpoint() throws IOException {
+        Path checkpointPath = spoolDirectory.resolve(CHECKPOINT_FILE_NAME);
+        if (!Files.exists(checkpointPath)) {
+            return;
+        }
+        ByteBuffer checkpointBuffer = ByteBuffer.wrap(Files.readAllBytes(checkpointPath));
+        if (checkpointBuffer.remaining() == Long.BYTES) {
+            acknowledgedSequence = checkpointBuffer.getLong();
+            return;
+        }
+        if (checkpointBuffer.remaining() < Long.BYTES + 2 * Integer.BYTES) {
+            LOG.warn(".readCheckpoint(): Ignoring truncated audit spool checkpoint --> {}", checkpointPath);
+            return;
+        }
+        int aheadCount = checkpointBuffer.getInt(Long.BYTES);
+        int checksummedBytes = Long.BYTES + Integer.BYTES + aheadCount * Long.BYTES;
+        if (aheadCount < 0 || checksummedBytes + Integer.BYTES != checkpointBuffer.remaining()) {
+            LOG.warn(".readCheckpoint(): Ignoring malformed audit spool checkpoint --> {}", checkpointPath);
+            return;
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(checkpointBuffer.array(), 0, checksummedBytes);
+        if ((int) checksum.getValue() != checkpointBuffer.getInt(checksummedBytes)) {
+            LOG.warn(".readCheckpoint(): Ignoring audit spool checkpoint with a bad checksum --> {}", checkpointPath);
+            return;
+        }
+        acknowledgedSequence = checkpointBuffer.getLong();
+        checkpointBuffer.getInt();
+        for (int index = 0; index < aheadCount; index++) {
+            acknowledgedAhead.add(checkpointBuffer.getLong());
+        }
+    }
+
+    /**
+     * Deletes leading segments whose every record is at or below the checkpoint.
+     * The segments currently being read or written are always kept.
+     */
+    private void compact() {
+        List<SpoolSegment> compactable = new ArrayList<>();
+        synchronized (this) {
+            while (!segments.isEmpty()) {
+                SpoolSegment oldestSegment = segments.get(0);
+                if (oldestSegment == writeSegment || oldestSegment == readSegment || oldestSegment.lastSequence > checkpointedSequence) {
+                    break;
+                }
+                compactable.add(segments.remove(0));
+            }
+        }
+        for (SpoolSegment segment : compactable) {
+            LOG.debug(".compact(): Removing acknowledged audit spool segment --> {}", segment.path);
+            closeQuietly(segment);
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException ioException) {
+                LOG.warn(".compact(): Could not delete audit spool segment --> {}, error --> {}", segment.path, ioException.toString());
+            }
+        }
+    }
+
+    private SpoolSegment mapSegment(Path segmentPath, int capacity) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        return (new SpoolSegment(segmentPath, channel, buffer));
+    }
+
+    private void closeQuietly(SpoolSegment segment) {
+        try {
+            segment.channel.close();
+        } catch (IOException ioException) {
+            LOG.warn(".closeQuietly(): Could not close audit spool segment --> {}, error --> {}", segment.path, ioException.toString());
+        }
+    }
+
+    private static class SpoolSegment {
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private long lastSequence;
+
+        private SpoolSegment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.writePosition = 0;
+            this.lastSequence = 0L;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.audit;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A structured summary of a search result set, as recorded in the audit trail.
+ * At most the first N entry ids are retained (see SoTConduitSearchSummariser);
+ * beyond that only the number of entries and a rolling hash of all of the ids
+ * (in order) are kept, so the size of the summary is bounded regardless of the
+ * size of the search set.
+ */
+public class SoTConduitSearchResultSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean successful;
+    private final int resultCount;
+    private final int entryCount;
+    private final List<String> entryIds;
+    private final long entryIdHash;
+
+    public SoTConduitSearchResultSummary(boolean successful, int resultCount, int entryCount, List<String> entryIds, long entryIdHash) {
+        this.successful = successful;
+        this.resultCount = resultCount;
+        this.entryCount = entryCount;
+        this.entryIds = Collections.unmodifiableList(entryIds);
+        this.entryIdHash = entryIdHash;
+    }
+
+    public static SoTConduitSearchResultSummary failed() {
+        return (new SoTConduitSearchResultSummary(false, 0, 0, Collections.emptyList(), 0L));
+    }
+
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    /**
+     * The total number of matches, as reported by the search (Bundle.total), or
+     * the number of entries if no total was reported.
+     */
+    public int getResultCount() {
+        return resultCount;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public List<String> getEntryIds() {
+        return entryIds;
+    }
+
+    public boolean isTruncated() {
+        return (entryIds.size() < entryCount);
+    }
+
+    /**
+     * A 64-bit FNV-1a hash over all of the entry ids (not only those retained).
+     */
+    public long getEntryIdHash() {
+        return entryIdHash;
+    }
+
+    /**
+     * Appends the human readable (audit payload) form of the summary.
+     */
+    public StringBuilder appendTo(StringBuilder builder) {
+        if (!successful) {
+            return (builder.append("Search Failed"));
+        }
+        builder.append("Search Succeeded: Result Count = ").append(resultCount);
+        if (entryCount == 0) {
+            return (builder);
+        }
+        builder.append(": Entries --> ");
+        for (int index = 0; index < entryIds.size(); index++) {
+            if (index > 0) {
+                builder.append(", ");
+            }
+            builder.append(entryIds.get(index));
+        }
+        if (isTruncated()) {
+            builder.append(", ... (").append(entryCount - entryIds.size()).append(" more, idHash=").append(Long.toHexString(entryIdHash)).append(")");
+        }
+        return (builder);
+    }
+
+    @Override
+    public String toString() {
+        return (appendTo(new StringBuilder()).toString());
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.audit;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Property;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Builds the audit summaries for searches in a single pass: search criteria are
+ * streamed into a reusable (per-thread) StringBuilder, and result sets are
+ * reduced to a SoTConduitSearchResultSummary holding at most maximumListedIds
+ * entry ids plus a rolling hash of all of them.
+ */
+public class SoTConduitSearchSummariser {
+    public static final int DEFAULT_MAXIMUM_LISTED_IDS = 100;
+
+    private static final String RESOURCE_WITHOUT_ID = "[Resource Has No Id]";
+    private static final int INITIAL_BUILDER_CAPACITY = 256;
+    private static final int MAXIMUM_RETAINED_BUILDER_CAPACITY = 64 * 1024;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final ThreadLocal<StringBuilder> summaryBuilder = ThreadLocal.withInitial(() -> new StringBuilder(INITIAL_BUILDER_CAPACITY));
+
+    private final int maximumListedIds;
+
+    public SoTConduitSearchSummariser() {
+        this(DEFAULT_MAXIMUM_LISTED_IDS);
+    }
+
+    public SoTConduitSearchSummariser(int maximumListedIds) {
+        if (maximumListedIds < 0) {
+            throw new IllegalArgumentException("maximumListedIds must not be negative");
+        }
+        this.maximumListedIds = maximumListedIds;
+    }
+
+    public int getMaximumListedIds() {
+        return maximumListedIds;
+    }
+
+    public String describeCriteria(Map<Property, Serializable> parameterSet) {
+        StringBuilder builder = acquireBuilder();
+        builder.append("Search Criteria(");
+        if (parameterSet == null || parameterSet.isEmpty()) {
+            builder.append("empty");
+        } else {
+            boolean first = true;
+            for (Map.Entry<Property, Serializable> parameter : parameterSet.entrySet()) {
+                if (!first) {
+                    builder.append(",");
+                }
+                builder.append(parameter.getKey().getName()).append("-->").append(parameter.getValue());
+                first = false;
+            }
+        }
+        builder.append(")");
+        return (releaseBuilder(builder));
+    }
+
+    public SoTConduitSearchResultSummary summariseResult(Bundle searchResult) {
+        if (searchResult == null) {
+            return (SoTConduitSearchResultSummary.failed());
+        }
+        List<Bundle.BundleEntryComponent> entries = searchResult.getEntry();
+        int entryCount = entries.size();
+        List<String> listedIds = entryCount == 0 ? Collections.emptyList() : new ArrayList<>(Math.min(entryCount, maximumListedIds));
+        long entryIdHash = FNV_OFFSET_BASIS;
+        for (Bundle.BundleEntryComponent entry : entries) {
+            Resource entryResource = entry.getResource();
+            String entryId = entryResource != null && entryResource.hasId() ? entryResource.getId() : RESOURCE_WITHOUT_ID;
+            if (listedIds.size() < maximumListedIds) {
+                listedIds.add(entryId);
+            }
+            entryIdHash = hash(entryIdHash, entryId);
+        }
+        int resultCount = searchResult.hasTotal() ? searchResult.getTotal() : entryCount;
+        return (new SoTConduitSearchResultSummary(true, resultCount, entryCount, listedIds, entryIdHash));
+    }
+
+    /**
+     * Summarises an id-only result set (or page of one), e.g. as returned by a
+     * Source-of-Truth that supports id searches.
+     */
+    public SoTConduitSearchResultSummary summariseResourceIds(List<String> resourceIds, int resultCount) {
+        int entryCount = resourceIds.size();
+        List<String> listedIds = entryCount <= maximumListedIds ? new ArrayList<>(resourceIds) : new ArrayList<>(resourceIds.subList(0, maximumListedIds));
+        long entryIdHash = FNV_OFFSET_BASIS;
+        for (String resourceId : resourceIds) {
+            entryIdHash = hash(entryIdHash, resourceId);
+        }
+        return (new SoTConduitSearchResultSummary(true, resultCount, entryCount, listedIds, entryIdHash));
+    }
+
+    public String describePage(String searchId, int pageOffset, int pageSize) {
+        StringBuilder builder = acquireBuilder();
+        builder.append("Search Page(searchId-->").append(searchId).append(",offset-->").append(pageOffset).append(",count-->").append(pageSize).append(")");
+        return (releaseBuilder(builder));
+    }
+
+    public String describeExportChunk(String exportId, int chunkIndex) {
+        StringBuilder builder = acquireBuilder();
+        builder.append("Export Chunk(exportId-->").append(exportId).append(",chunk-->").append(chunkIndex).append(")");
+        return (releaseBuilder(builder));
+    }
+
+    public String describeResult(SoTConduitSearchResultSummary summary) {
+        return (releaseBuilder(summary.appendTo(acquireBuilder())));
+    }
+
+    private static long hash(long currentHash, String entryId) {
+        long updatedHash = currentHash;
+        for (int index = 0; index < entryId.length(); index++) {
+            updatedHash = (updatedHash ^ entryId.charAt(index)) * FNV_PRIME;
+        }
+        // separator, so that ["ab","c"] and ["a","bc"] hash differently
+        return ((updatedHash ^ 0xff) * FNV_PRIME);
+    }
+
+    private static StringBuilder acquireBuilder() {
+        StringBuilder builder = summaryBuilder.get();
+        builder.setLength(0);
+        return (builder);
+    }
+
+    private static String releaseBuilder(StringBuilder builder) {
+        String summary = builder.toString();
+        if (builder.capacity() > MAXIMUM_RETAINED_BUILDER_CAPACITY) {
+            summaryBuilder.set(new StringBuilder(INITIAL_BUILDER_CAPACITY));
+        }
+        return (summary);
+    }
+}
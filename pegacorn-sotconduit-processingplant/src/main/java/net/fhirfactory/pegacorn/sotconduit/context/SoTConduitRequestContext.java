@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.context;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hl7.fhir.r4.model.Resource;
+
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitEncodedResource;
+import net.fhirfactory.pegacorn.sotconduit.encoding.SoTConduitResourceEncoder;
+import net.fhirfactory.pegacorn.sotconduit.tracing.SoTConduitSpan;
+
+/**
+ * Per-request state shared between the edge servlet, the gatekeepers and the
+ * audit manager. It is bound to the servlet thread for the lifetime of a
+ * single HTTP request (see SoTConduitEdgeAnswerServlet); threads doing part of
+ * the request's work in parallel are bound to a forkWorker() of it instead.
+ */
+public class SoTConduitRequestContext {
+    private static final ThreadLocal<SoTConduitRequestContext> CURRENT_CONTEXT = new ThreadLocal<>();
+
+    private final Map<Resource, SoTConduitEncodedResource> encodedResources;
+    private final AtomicReference<SoTConduitSpan> currentSpan;
+    private volatile SoTConduitSpan traceSpan;
+
+    public SoTConduitRequestContext() {
+        this.encodedResources = Collections.synchronizedMap(new IdentityHashMap<>());
+        this.currentSpan = new AtomicReference<>();
+    }
+
+    private SoTConduitRequestContext(SoTConduitRequestContext requestContext) {
+        this.encodedResources = requestContext.encodedResources;
+        this.currentSpan = new AtomicReference<>(requestContext.getCurrentSpan());
+        this.traceSpan = requestContext.traceSpan;
+    }
+
+    public static SoTConduitRequestContext open() {
+        SoTConduitRequestContext newContext = new SoTConduitRequestContext();
+        CURRENT_CONTEXT.set(newContext);
+        return (newContext);
+    }
+
+    public static SoTConduitRequestContext current() {
+        return (CURRENT_CONTEXT.get());
+    }
+
+    /**
+     * Unbinds the current context, returning its encoding buffers to the pool.
+     */
+    public static void close() {
+        SoTConduitRequestContext currentContext = CURRENT_CONTEXT.get();
+        CURRENT_CONTEXT.remove();
+        if (currentContext != null) {
+            currentContext.releaseEncodedResources();
+        }
+    }
+
+    /**
+     * Binds an existing context to the current thread (e.g. a worker running part
+     * of a request), returning whatever was bound before so it can be restored.
+     */
+    public static SoTConduitRequestContext bind(SoTConduitRequestContext context) {
+        SoTConduitRequestContext previousContext = CURRENT_CONTEXT.get();
+        restore(context);
+        return (previousContext);
+    }
+
+    public static void restore(SoTConduitRequestContext previousContext) {
+        if (previousContext == null) {
+            CURRENT_CONTEXT.remove();
+        } else {
+            CURRENT_CONTEXT.set(previousContext);
+        }
+    }
+
+    /**
+     * Returns the (single) encoded form of the resource for the current request,
+     * or a stand-alone holder if no request context is active on this thread.
+     */
+    public static SoTConduitEncodedResource encodedResourceFor(Resource resource, SoTConduitResourceEncoder encoder) {
+        SoTConduitRequestContext currentContext = current();
+        if (currentContext == null) {
+            return (new SoTConduitEncodedResource(resource, encoder));
+        }
+        return (currentContext.encodedResources.computeIfAbsent(resource, newResource -> new SoTConduitEncodedResource(newResource, encoder)));
+    }
+
+    /**
+     * A context for a worker thread doing part of this request's work alongside
+     * others: it shares the request's trace and encoded resources, but has its own
+     * current span (starting as this context's current span), so that the spans
+     * each worker starts are not mixed up with those of the others.
+     */
+    public SoTConduitRequestContext forkWorker() {
+        return (new SoTConduitRequestContext(this));
+    }
+
+    public SoTConduitEncodedResource getEncodedResource(Resource resource) {
+        return (encodedResources.get(resource));
+    }
+
+    /**
+     * The root span of the request's trace (see SoTConduitTracer).
+     */
+    public SoTConduitSpan getTraceSpan() {
+        return (traceSpan);
+    }
+
+    public void setTraceSpan(SoTConduitSpan traceSpan) {
+        this.traceSpan = traceSpan;
+    }
+
+    public SoTConduitSpan getCurrentSpan() {
+        return (currentSpan.get());
+    }
+
+    public void setCurrentSpan(SoTConduitSpan span) {
+        currentSpan.set(span);
+    }
+
+    public boolean compareAndSetCurrentSpan(SoTConduitSpan expectedSpan, SoTConduitSpan span) {
+        return (currentSpan.compareAndSet(expectedSpan, span));
+    }
+
+    private void releaseEncodedResources() {
+        synchronized (encodedResources) {
+            for (SoTConduitEncodedResource encodedResource : encodedResources.values()) {
+                encodedResource.release();
+            }
+            encodedResources.clear();
+        }
+    }
+}
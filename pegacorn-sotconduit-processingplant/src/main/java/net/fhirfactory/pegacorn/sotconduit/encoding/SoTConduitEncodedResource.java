@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.encoding;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Holds a FHIR Resource together with its (JSON) encoding, so that the
+ * resource is serialised at most once per transaction. The audit payload and
+ * the HTTP response writer both read from the same (pooled) byte buffer.
+ * <p>
+ * The encoding is taken lazily on first use - callers must not modify the
+ * resource once it has been encoded. release() hands the buffer back to the
+ * encoder's pool; anything asked of the holder afterwards re-encodes.
+ */
+public class SoTConduitEncodedResource {
+    private static final String CONTENT_DIGEST_ALGORITHM = "SHA-256";
+
+    private final Resource resource;
+    private final SoTConduitResourceEncoder encoder;
+    private SoTConduitEncodingBuffer encodedBuffer;
+    private String encodedString;
+    private String contentDigest;
+
+    public SoTConduitEncodedResource(Resource resource, SoTConduitResourceEncoder encoder) {
+        this.resource = resource;
+        this.encoder = encoder;
+    }
+
+    public Resource getResource() {
+        return resource;
+    }
+
+    public synchronized boolean isEncoded() {
+        return (encodedBuffer != null);
+    }
+
+    public synchronized int getEncodedLength() {
+        return (encode().size());
+    }
+
+    public synchronized String getEncodedString() {
+        if (encodedString == null) {
+            encodedString = encode().toUtf8String();
+        }
+        return (encodedString);
+    }
+
+    /**
+     * The (hex encoded) SHA-256 hash of the encoded resource bytes.
+     */
+    public synchronized String getContentDigest() {
+        if (contentDigest == null) {
+            contentDigest = encode().digest(CONTENT_DIGEST_ALGORITHM);
+        }
+        return (contentDigest);
+    }
+
+    public synchronized void writeTo(OutputStream outputStream) throws IOException {
+        encode().writeTo(outputStream);
+    }
+
+    public synchronized void release() {
+        if (encodedBuffer != null) {
+            encodedBuffer.close();
+            encodedBuffer = null;
+        }
+    }
+
+    private SoTConduitEncodingBuffer encode() {
+        if (encodedBuffer == null) {
+            encodedBuffer = encoder.encodeToBuffer(resource, SoTConduitEncodingModeEnum.COMPACT);
+        }
+        return (encodedBuffer);
+    }
+}
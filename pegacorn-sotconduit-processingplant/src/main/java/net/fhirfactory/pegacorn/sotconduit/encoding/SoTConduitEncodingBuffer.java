@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.encoding;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A growable byte buffer holding one encoded resource, leased from (and, on
+ * close(), returned to) a SoTConduitEncodingBufferPool. The buffer must not be
+ * used once it has been closed.
+ */
+public class SoTConduitEncodingBuffer extends ByteArrayOutputStream implements AutoCloseable {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final SoTConduitEncodingBufferPool pool;
+    private final AtomicBoolean leased = new AtomicBoolean();
+
+    SoTConduitEncodingBuffer(SoTConduitEncodingBufferPool pool, int initialCapacity) {
+        super(initialCapacity);
+        this.pool = pool;
+    }
+
+    /**
+     * A read-only view of the encoded bytes (no copy is taken).
+     */
+    public synchronized ByteBuffer asByteBuffer() {
+        return (ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer());
+    }
+
+    public synchronized String toUtf8String() {
+        return (new String(buf, 0, count, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The (hex encoded) hash of the encoded bytes.
+     */
+    public synchronized String digest(String algorithm) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
+            messageDigest.update(buf, 0, count);
+            byte[] digestBytes = messageDigest.digest();
+            char[] hexDigest = new char[digestBytes.length * 2];
+            for (int index = 0; index < digestBytes.length; index++) {
+                hexDigest[index * 2] = HEX_DIGITS[(digestBytes[index] >> 4) & 0x0F];
+                hexDigest[index * 2 + 1] = HEX_DIGITS[digestBytes[index] & 0x0F];
+            }
+            return (new String(hexDigest));
+        } catch (NoSuchAlgorithmException noSuchAlgorithm) {
+            throw new IllegalStateException("Digest algorithm not available --> " + algorithm, noSuchAlgorithm);
+        }
+    }
+
+    int capacity() {
+        return (buf.length);
+    }
+
+    void markLeased() {
+        leased.set(true);
+    }
+
+    @Override
+    public void close() {
+        if (leased.compareAndSet(true, false)) {
+            pool.release(this);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.encoding;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of encoding buffers. Buffers that have grown beyond
+ * maximumRetainedCapacity (e.g. from a very large Bundle) are dropped rather than
+ * returned, so the pool never pins more than
+ * maximumPooledBuffers * maximumRetainedCapacity bytes.
+ */
+public class SoTConduitEncodingBufferPool {
+    private final BlockingQueue<SoTConduitEncodingBuffer> pooledBuffers;
+    private final int initialCapacity;
+    private final int maximumRetainedCapacity;
+
+    public SoTConduitEncodingBufferPool(int maximumPooledBuffers, int initialCapacity, int maximumRetainedCapacity) {
+        this.pooledBuffers = new ArrayBlockingQueue<>(Math.max(1, maximumPooledBuffers));
+        this.initialCapacity = initialCapacity;
+        this.maximumRetainedCapacity = maximumRetainedCapacity;
+    }
+
+    public SoTConduitEncodingBuffer acquire() {
+        SoTConduitEncodingBuffer buffer = pooledBuffers.poll();
+        if (buffer == null) {
+            buffer = new SoTConduitEncodingBuffer(this, initialCapacity);
+        }
+        buffer.markLeased();
+        return (buffer);
+    }
+
+    void release(SoTConduitEncodingBuffer buffer) {
+        if (buffer.capacity() > maximumRetainedCapacity) {
+            return;
+        }
+        buffer.reset();
+        pooledBuffers.offer(buffer);
+    }
+
+    public int getPooledCount() {
+        return (pooledBuffers.size());
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.encoding;
+
+/**
+ * The JSON encodings handed out by SoTConduitResourceEncoder. COMPACT is what
+ * the audit trail and the default response path use.
+ */
+public enum SoTConduitEncodingModeEnum {
+    COMPACT(false, false),
+    PRETTY(true, false),
+    SUMMARY(false, true),
+    PRETTY_SUMMARY(true, true);
+
+    private final boolean prettyPrint;
+    private final boolean summaryMode;
+
+    private SoTConduitEncodingModeEnum(boolean prettyPrint, boolean summaryMode) {
+        this.prettyPrint = prettyPrint;
+        this.summaryMode = summaryMode;
+    }
+
+    public boolean isPrettyPrint() {
+        return (prettyPrint);
+    }
+
+    public boolean isSummaryMode() {
+        return (summaryMode);
+    }
+
+    public static SoTConduitEncodingModeEnum valueOf(boolean prettyPrint, boolean summaryMode) {
+        if (prettyPrint) {
+            return (summaryMode ? PRETTY_SUMMARY : PRETTY);
+        }
+        return (summaryMode ? SUMMARY : COMPACT);
+    }
+}
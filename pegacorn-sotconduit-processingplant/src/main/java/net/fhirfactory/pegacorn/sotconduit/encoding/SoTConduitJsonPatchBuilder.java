@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.encoding;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import ca.uhn.fhir.parser.DataFormatException;
+
+/**
+ * Builds an RFC 6902 JSON Patch describing how one encoded resource differs
+ * from another. Nested objects are compared member-by-member; arrays and
+ * primitives that differ are replaced as a whole.
+ * <p>
+ * This deliberately works on the raw (HAPI produced) JSON text rather than a
+ * parsed tree, so it allocates little more than the patch itself.
+ */
+public class SoTConduitJsonPatchBuilder {
+
+    private SoTConduitJsonPatchBuilder() {
+    }
+
+    public static String buildPatch(String beforeJson, String afterJson) {
+        return (buildPatch(beforeJson, afterJson, Collections.emptySet()));
+    }
+
+    /**
+     * As buildPatch(String, String), but top-level members named in
+     * ignoredMembers are not compared.
+     */
+    public static String buildPatch(String beforeJson, String afterJson, Set<String> ignoredMembers) {
+        StringBuilder patch = new StringBuilder();
+        patch.append('[');
+        diffObjects(beforeJson, afterJson, "", patch, ignoredMembers);
+        patch.append(']');
+        return (patch.toString());
+    }
+
+    private static void diffObjects(String beforeJson, String afterJson, String path, StringBuilder patch, Set<String> ignoredMembers) {
+        Map<String, String> beforeMembers = splitObject(beforeJson);
+        Map<String, String> afterMembers = splitObject(afterJson);
+        beforeMembers.keySet().removeAll(ignoredMembers);
+        afterMembers.keySet().removeAll(ignoredMembers);
+        for (Map.Entry<String, String> beforeMember : beforeMembers.entrySet()) {
+            String memberPath = path + "/" + escapePointer(beforeMember.getKey());
+            String afterValue = afterMembers.get(beforeMember.getKey());
+            if (afterValue == null) {
+                appendOperation(patch, "remove", memberPath, null);
+            } else if (!afterValue.equals(beforeMember.getValue())) {
+                if (isObject(afterValue) && isObject(beforeMember.getValue())) {
+                    diffObjects(beforeMember.getValue(), afterValue, memberPath, patch, Collections.emptySet());
+                } else {
+                    appendOperation(patch, "replace", memberPath, afterValue);
+                }
+            }
+        }
+        for (Map.Entry<String, String> afterMember : afterMembers.entrySet()) {
+            if (!beforeMembers.containsKey(afterMember.getKey())) {
+                appendOperation(patch, "add", path + "/" + escapePointer(afterMember.getKey()), afterMember.getValue());
+            }
+        }
+    }
+
+    private static void appendOperation(StringBuilder patch, String operation, String path, String rawValue) {
+        if (patch.length() > 1) {
+            patch.append(',');
+        }
+        patch.append("{\"op\":\"").append(operation).append("\",\"path\":\"").append(path).append('"');
+        if (rawValue != null) {
+            patch.append(",\"value\":").append(rawValue);
+        }
+        patch.append('}');
+    }
+
+    private static boolean isObject(String rawValue) {
+        return (!rawValue.isEmpty() && rawValue.charAt(0) == '{');
+    }
+
+    private static String escapePointer(String key) {
+        if (key.indexOf('~') < 0 && key.indexOf('/') < 0) {
+            return (key);
+        }
+        return (key.replace("~", "~0").replace("/", "~1"));
+    }
+
+    /**
+     * Splits a JSON object into its members, keyed by (still JSON-escaped)
+     * member name with the raw JSON text of each value.
+     */
+    private static Map<String, String> splitObject(String json) {
+        Map<String, String> members = new LinkedHashMap<>();
+        int position = skipWhitespace(json, 0);
+        expect(json, position, '{');
+        position = skipWhitespace(json, position + 1);
+        if (position < json.length() && json.charAt(position) == '}') {
+            return (members);
+        }
+        while (position < json.length()) {
+            expect(json, position, '"');
+            int keyEnd = scanStringEnd(json, position);
+            String key = json.substring(position + 1, keyEnd - 1);
+            position = skipWhitespace(json, keyEnd);
+            expect(json, position, ':');
+            int valueStart = skipWhitespace(json, position + 1);
+            int valueEnd = scanValueEnd(json, valueStart);
+            members.put(key, json.substring(valueStart, valueEnd).trim());
+            position = skipWhitespace(json, valueEnd);
+            expect(json, position, ',', '}');
+            if (json.charAt(position) == '}') {
+                return (members);
+            }
+            position = skipWhitespace(json, position + 1);
+        }
+        throw new DataFormatException("Unterminated JSON object");
+    }
+
+    private static int scanValueEnd(String json, int position) {
+        int depth = 0;
+        while (position < json.length()) {
+            char current = json.charAt(position);
+            if (current == '"') {
+                position = scanStringEnd(json, position);
+                if (depth == 0) {
+                    return (position);
+                }
+                continue;
+            }
+            if (current == '{' || current == '[') {
+                depth += 1;
+            } else if (current == '}' || current == ']') {
+                if (depth == 0) {
+                    return (position);
+                }
+                depth -= 1;
+                if (depth == 0) {
+                    return (position + 1);
+                }
+            } else if (current == ',' && depth == 0) {
+                return (position);
+            }
+            position += 1;
+        }
+        throw new DataFormatException("Unterminated JSON value");
+    }
+
+    private static int scanStringEnd(String json, int openingQuote) {
+        int position = openingQuote + 1;
+        while (position < json.length()) {
+            char current = json.charAt(position);
+            if (current == '\\') {
+                position += 2;
+            } else if (current == '"') {
+                return (position + 1);
+            } else {
+                position += 1;
+            }
+        }
+        throw new DataFormatException("Unterminated JSON string");
+    }
+
+    private static int skipWhitespace(String json, int position) {
+        while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+            position += 1;
+        }
+        return (position);
+    }
+
+    private static void expect(String json, int position, char... expected) {
+        if (position < json.length()) {
+            for (char candidate : expected) {
+                if (json.charAt(position) == candidate) {
+                    return;
+                }
+            }
+        }
+        throw new DataFormatException("Malformed JSON at position " + position);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.encoding;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+import net.fhirfactory.pegacorn.util.FHIRContextUtility;
+
+/**
+ * The conduit's (JSON) resource encoder. HAPI parsers are not thread-safe, so
+ * rather than sharing one IParser every thread gets its own parser per
+ * SoTConduitEncodingModeEnum. Resources are encoded straight into the caller's
+ * OutputStream/Writer, or into a pooled SoTConduitEncodingBuffer, so no
+ * intermediate String is built unless one is asked for.
+ */
+@ApplicationScoped
+public class SoTConduitResourceEncoder {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitResourceEncoder.class);
+
+    private static final int DEFAULT_MAXIMUM_POOLED_BUFFERS = 256;
+    private static final int DEFAULT_INITIAL_BUFFER_CAPACITY = 4096;
+    private static final int DEFAULT_MAXIMUM_RETAINED_BUFFER_CAPACITY = 256 * 1024;
+
+    @Inject
+    private FHIRContextUtility fhirContextUtility;
+
+    private final ThreadLocal<Map<SoTConduitEncodingModeEnum, IParser>> threadParsers = ThreadLocal.withInitial(() -> new EnumMap<>(SoTConduitEncodingModeEnum.class));
+
+    private SoTConduitEncodingBufferPool bufferPool;
+
+    @PostConstruct
+    protected void initialise() {
+        LOG.debug(".initialise(): Entry");
+        this.bufferPool = new SoTConduitEncodingBufferPool(specifyMaximumPooledBuffers(), specifyInitialBufferCapacity(), specifyMaximumRetainedBufferCapacity());
+        LOG.debug(".initialise(): Exit");
+    }
+
+    protected int specifyMaximumPooledBuffers() {
+        return (DEFAULT_MAXIMUM_POOLED_BUFFERS);
+    }
+
+    protected int specifyInitialBufferCapacity() {
+        return (DEFAULT_INITIAL_BUFFER_CAPACITY);
+    }
+
+    /**
+     * Buffers that have grown beyond this are not returned to the pool.
+     */
+    protected int specifyMaximumRetainedBufferCapacity() {
+        return (DEFAULT_MAXIMUM_RETAINED_BUFFER_CAPACITY);
+    }
+
+    /**
+     * The calling thread's parser for the given mode. It must not be handed to
+     * another thread, nor have its settings changed.
+     */
+    public IParser getParser(SoTConduitEncodingModeEnum mode) {
+        Map<SoTConduitEncodingModeEnum, IParser> parsers = threadParsers.get();
+        IParser parser = parsers.get(mode);
+        if (parser == null) {
+            parser = fhirContextUtility.getJsonParser();
+            parser.setPrettyPrint(mode.isPrettyPrint());
+            parser.setSummaryMode(mode.isSummaryMode());
+            parsers.put(mode, parser);
+        }
+        return (parser);
+    }
+
+    public void encodeTo(Resource resource, SoTConduitEncodingModeEnum mode, Writer writer) throws IOException {
+        getParser(mode).encodeResourceToWriter(resource, writer);
+    }
+
+    /**
+     * Encodes the resource (as UTF-8) into the stream, which is flushed but left
+     * open.
+     */
+    public void encodeTo(Resource resource, SoTConduitEncodingModeEnum mode, OutputStream outputStream) throws IOException {
+        Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+        encodeTo(resource, mode, writer);
+        writer.flush();
+    }
+
+    /**
+     * Encodes the resource into a pooled buffer, which the caller must close()
+     * once it has finished with the bytes.
+     */
+    public SoTConduitEncodingBuffer encodeToBuffer(Resource resource, SoTConduitEncodingModeEnum mode) {
+        SoTConduitEncodingBuffer buffer = bufferPool.acquire();
+        try {
+            encodeTo(resource, mode, buffer);
+        } catch (IOException | RuntimeException encodingFailure) {
+            buffer.close();
+            if (encodingFailure instanceof DataFormatException) {
+                throw (DataFormatException) encodingFailure;
+            }
+            throw new DataFormatException("Unable to encode resource --> " + encodingFailure.getMessage(), encodingFailure);
+        }
+        return (buffer);
+    }
+
+    public String encodeToString(Resource resource, SoTConduitEncodingModeEnum mode) {
+        return (getParser(mode).encodeResourceToString(resource));
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionStatusEnum;
+
+/**
+ * The instrumentation for a single accessor: latency histograms per
+ * (SoTConduitMetricsPhaseEnum, SoTConduitActionEnum), outcome counters per
+ * (SoTConduitActionEnum, SoTConduitActionStatusEnum), error counters and
+ * in-flight gauges per SoTConduitActionEnum, plus the depth of (and rejections
+ * from) the accessor's write-behind queue and the hits and misses of its search
+ * result cache.
+ * <p>
+ * Everything is pre-allocated and indexed by enum ordinal, so recording does
+ * not allocate. The start time of each open transaction is held on a small
+ * per-thread stack (begin and end of a transaction happen on the same thread).
+ */
+public class SoTConduitAccessorMetrics implements SoTConduitAccessorMetricsMXBean {
+    private static final int MAXIMUM_NESTED_TRANSACTIONS = 16;
+    private static final double[] REPORTED_PERCENTILES = {50.0, 95.0, 99.0, 99.9};
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private static final SoTConduitActionEnum[] ACTIONS = SoTConduitActionEnum.values();
+    private static final SoTConduitActionStatusEnum[] STATUSES = SoTConduitActionStatusEnum.values();
+    private static final SoTConduitMetricsPhaseEnum[] PHASES = SoTConduitMetricsPhaseEnum.values();
+
+    private final String accessorName;
+    private final SoTConduitLatencyHistogram[] latencyHistograms;
+    private final AtomicLongArray outcomeCounts;
+    private final AtomicLongArray errorCounts;
+    private final AtomicIntegerArray inFlightCounts;
+    private final AtomicInteger queuedWriteCount;
+    private final AtomicLong rejectedWriteCount;
+    private final AtomicLong searchCacheHitCount;
+    private final AtomicLong searchCacheMissCount;
+    private final ThreadLocal<TransactionStartStack> transactionStarts;
+
+    public SoTConduitAccessorMetrics(String accessorName) {
+        this.accessorName = accessorName;
+        this.latencyHistograms = new SoTConduitLatencyHistogram[PHASES.length * ACTIONS.length];
+        for (int index = 0; index < latencyHistograms.length; index++) {
+            latencyHistograms[index] = new SoTConduitLatencyHistogram();
+        }
+        this.outcomeCounts = new AtomicLongArray(ACTIONS.length * STATUSES.length);
+        this.errorCounts = new AtomicLongArray(ACTIONS.length);
+        this.inFlightCounts = new AtomicIntegerArray(ACTIONS.length);
+        this.queuedWriteCount = new AtomicInteger(0);
+        this.rejectedWriteCount = new AtomicLong(0);
+        this.searchCacheHitCount = new AtomicLong(0);
+        this.searchCacheMissCount = new AtomicLong(0);
+        this.transactionStarts = ThreadLocal.withInitial(TransactionStartStack::new);
+    }
+
+    public void recordLatency(SoTConduitMetricsPhaseEnum phase, SoTConduitActionEnum action, long elapsedNanos) {
+        latencyHistograms[phase.ordinal() * ACTIONS.length + action.ordinal()].recordValue(elapsedNanos);
+    }
+
+    /**
+     * Records the audit begin call (which started at auditStartNanos) and marks the
+     * start of the Source-of-Truth call.
+     */
+    public void recordTransactionBegin(SoTConduitActionEnum action, long auditStartNanos) {
+        long now = System.nanoTime();
+        recordLatency(SoTConduitMetricsPhaseEnum.AUDIT_BEGIN, action, now - auditStartNanos);
+        inFlightCounts.incrementAndGet(action.ordinal());
+        transactionStarts.get().push(now);
+    }
+
+    /**
+     * Records the end of the Source-of-Truth call and its outcome, returning the
+     * time at which the audit end call starts.
+     */
+    public long recordTransactionEnd(SoTConduitActionEnum action, SoTConduitActionStatusEnum status) {
+        long now = System.nanoTime();
+        TransactionStartStack startStack = transactionStarts.get();
+        if (!startStack.isEmpty()) {
+            long startNanos = startStack.pop();
+            if (startNanos != TransactionStartStack.UNKNOWN) {
+                recordLatency(SoTConduitMetricsPhaseEnum.SOT_CALL, action, now - startNanos);
+            }
+            inFlightCounts.decrementAndGet(action.ordinal());
+        }
+        outcomeCounts.incrementAndGet(action.ordinal() * STATUSES.length + status.ordinal());
+        if (status.isFailure()) {
+            errorCounts.incrementAndGet(action.ordinal());
+        }
+        return (now);
+    }
+
+    public void recordAuditEnd(SoTConduitActionEnum action, long auditStartNanos) {
+        recordLatency(SoTConduitMetricsPhaseEnum.AUDIT_END, action, System.nanoTime() - auditStartNanos);
+    }
+
+    public SoTConduitLatencyHistogram getLatencyHistogram(SoTConduitMetricsPhaseEnum phase, SoTConduitActionEnum action) {
+        return (latencyHistograms[phase.ordinal() * ACTIONS.length + action.ordinal()]);
+    }
+
+    public long getOutcomeCount(SoTConduitActionEnum action, SoTConduitActionStatusEnum status) {
+        return (outcomeCounts.get(action.ordinal() * STATUSES.length + status.ordinal()));
+    }
+
+    public long getErrorCount(SoTConduitActionEnum action) {
+        return (errorCounts.get(action.ordinal()));
+    }
+
+    public int getInFlightCount(SoTConduitActionEnum action) {
+        return (inFlightCounts.get(action.ordinal()));
+    }
+
+    public void recordWriteQueued() {
+        queuedWriteCount.incrementAndGet();
+    }
+
+    /**
+     * Records a write leaving the write-behind queue, having waited queuedNanos
+     * (negative if unknown, e.g. for a write recovered after a restart).
+     */
+    public void recordWriteDequeued(SoTConduitActionEnum action, long queuedNanos) {
+        queuedWriteCount.decrementAndGet();
+        if (queuedNanos >= 0) {
+            recordLatency(SoTConduitMetricsPhaseEnum.WRITE_BEHIND_QUEUE, action, queuedNanos);
+        }
+    }
+
+    public void recordWriteRejected() {
+        rejectedWriteCount.incrementAndGet();
+    }
+
+    public void recordSearchCacheHit() {
+        searchCacheHitCount.incrementAndGet();
+    }
+
+    public void recordSearchCacheMiss() {
+        searchCacheMissCount.incrementAndGet();
+    }
+
+    //
+    // JMX (MXBean) view - these build fresh maps, so are for reporting only
+    //
+
+    @Override
+    public String getAccessorName() {
+        return accessorName;
+    }
+
+    @Override
+    public int getQueuedWriteCount() {
+        return (queuedWriteCount.get());
+    }
+
+    @Override
+    public long getRejectedWriteCount() {
+        return (rejectedWriteCount.get());
+    }
+
+    @Override
+    public long getSearchCacheHitCount() {
+        return (searchCacheHitCount.get());
+    }
+
+    @Override
+    public long getSearchCacheMissCount() {
+        return (searchCacheMissCount.get());
+    }
+
+    @Override
+    public Map<String, Integer> getInFlightCounts() {
+        Map<String, Integer> inFlight = new LinkedHashMap<>();
+        for (SoTConduitActionEnum action : ACTIONS) {
+            inFlight.put(action.name(), getInFlightCount(action));
+        }
+        return (inFlight);
+    }
+
+    @Override
+    public Map<String, Long> getOutcomeCounts() {
+        Map<String, Long> outcomes = new LinkedHashMap<>();
+        for (SoTConduitActionEnum action : ACTIONS) {
+            for (SoTConduitActionStatusEnum status : STATUSES) {
+                long count = getOutcomeCount(action, status);
+                if (count > 0) {
+                    outcomes.put(action.name() + "." + status.name(), count);
+                }
+            }
+        }
+        return (outcomes);
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> errors = new LinkedHashMap<>();
+        for (SoTConduitActionEnum action : ACTIONS) {
+            errors.put(action.name(), getErrorCount(action));
+        }
+        return (errors);
+    }
+
+    @Override
+    public Map<String, Double> getLatencyPercentilesMillis() {
+        Map<String, Double> percentiles = new LinkedHashMap<>();
+        for (SoTConduitMetricsPhaseEnum phase : PHASES) {
+            for (SoTConduitActionEnum action : ACTIONS) {
+                SoTConduitLatencyHistogram histogram = getLatencyHistogram(phase, action);
+                if (histogram.getTotalCount() == 0) {
+                    continue;
+                }
+                for (double percentile : REPORTED_PERCENTILES) {
+                    percentiles.put(phase.name() + "." + action.name() + ".p" + percentile, histogram.getValueAtPercentile(percentile) / NANOS_PER_MILLI);
+                }
+            }
+        }
+        return (percentiles);
+    }
+
+    private static class TransactionStartStack {
+        static final long UNKNOWN = Long.MIN_VALUE;
+
+        private final long[] startNanos = new long[MAXIMUM_NESTED_TRANSACTIONS];
+        private int depth = 0;
+
+        void push(long start) {
+            if (depth < startNanos.length) {
+                startNanos[depth] = start;
+            }
+            depth += 1;
+        }
+
+        boolean isEmpty() {
+            return (depth == 0);
+        }
+
+        long pop() {
+            depth -= 1;
+            return (depth < startNanos.length ? startNanos[depth] : UNKNOWN);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, fixed-size latency histogram in the style of HdrHistogram: each
+ * power-of-two range of values is split into linear sub-buckets, giving a
+ * relative error of at most 12.5% across the full range of long values.
+ * <p>
+ * Recording a value is a couple of atomic increments and never allocates.
+ */
+public class SoTConduitLatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray bucketCounts;
+    private final AtomicLong totalCount;
+    private final AtomicLong totalValue;
+    private final AtomicLong maximumValue;
+
+    public SoTConduitLatencyHistogram() {
+        this.bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+        this.totalCount = new AtomicLong();
+        this.totalValue = new AtomicLong();
+        this.maximumValue = new AtomicLong();
+    }
+
+    public void recordValue(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        bucketCounts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(value);
+        long currentMaximum = maximumValue.get();
+        while (value > currentMaximum && !maximumValue.compareAndSet(currentMaximum, value)) {
+            currentMaximum = maximumValue.get();
+        }
+    }
+
+    public long getTotalCount() {
+        return (totalCount.get());
+    }
+
+    public long getMaximumValue() {
+        return (maximumValue.get());
+    }
+
+    public double getMeanValue() {
+        long count = totalCount.get();
+        return (count == 0 ? 0.0 : (double) totalValue.get() / count);
+    }
+
+    /**
+     * The (upper bound of the bucket holding the) value at the given percentile,
+     * e.g. 99.0 for the p99.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return (0);
+        }
+        long targetCount = Math.max(1L, (long) Math.ceil((percentile / 100.0) * count));
+        long cumulativeCount = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            cumulativeCount += bucketCounts.get(index);
+            if (cumulativeCount >= targetCount) {
+                return (Math.min(bucketUpperBound(index), maximumValue.get()));
+            }
+        }
+        return (maximumValue.get());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return ((int) value);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+        return ((exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket);
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return (index);
+        }
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKET_COUNT;
+        long lowerBound = ((long) (SUB_BUCKET_COUNT + subBucket)) << (exponent - SUB_BUCKET_BITS);
+        return (lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1);
+    }
+}
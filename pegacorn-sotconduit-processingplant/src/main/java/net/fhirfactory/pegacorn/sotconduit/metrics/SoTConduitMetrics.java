@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionEnum;
+import net.fhirfactory.pegacorn.sotconduit.audit.SoTConduitActionStatusEnum;
+
+/**
+ * The registry of per-accessor instrumentation. Each accessor's metrics are
+ * published as an MXBean (under JMX_DOMAIN) and can also be written out in
+ * the Prometheus text exposition format for scraping.
+ */
+@ApplicationScoped
+public class SoTConduitMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitMetrics.class);
+
+    public static final String JMX_DOMAIN = "net.fhirfactory.pegacorn.sotconduit";
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+    private static final double[] SCRAPED_QUANTILES = {0.5, 0.95, 0.99, 0.999};
+
+    private final Map<String, SoTConduitAccessorMetrics> accessorMetrics = new ConcurrentHashMap<>();
+
+    public SoTConduitAccessorMetrics getAccessorMetrics(String accessorName) {
+        SoTConduitAccessorMetrics metrics = accessorMetrics.get(accessorName);
+        if (metrics == null) {
+            metrics = accessorMetrics.computeIfAbsent(accessorName, this::createAccessorMetrics);
+        }
+        return (metrics);
+    }
+
+    private SoTConduitAccessorMetrics createAccessorMetrics(String accessorName) {
+        SoTConduitAccessorMetrics newMetrics = new SoTConduitAccessorMetrics(accessorName);
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = toObjectName(accessorName);
+            if (!mBeanServer.isRegistered(objectName)) {
+                mBeanServer.registerMBean(newMetrics, objectName);
+            }
+        } catch (JMException jmxException) {
+            LOG.warn(".createAccessorMetrics(): Unable to register metrics with JMX, accessor --> {}, error --> {}", accessorName, jmxException.toString());
+        }
+        return (newMetrics);
+    }
+
+    @PreDestroy
+    protected void shutdown() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (String accessorName : accessorMetrics.keySet()) {
+            try {
+                mBeanServer.unregisterMBean(toObjectName(accessorName));
+            } catch (JMException jmxException) {
+                LOG.debug(".shutdown(): Unable to unregister metrics, accessor --> {}", accessorName);
+            }
+        }
+    }
+
+    private ObjectName toObjectName(String accessorName) throws JMException {
+        return (new ObjectName(JMX_DOMAIN + ":type=AccessorMetrics,name=" + ObjectName.quote(accessorName)));
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text exposition format.
+     */
+    public void writePrometheusText(Writer writer) throws IOException {
+        writer.write("# TYPE sotconduit_latency_seconds summary\n");
+        writer.write("# TYPE sotconduit_outcomes_total counter\n");
+        writer.write("# TYPE sotconduit_errors_total counter\n");
+        writer.write("# TYPE sotconduit_in_flight gauge\n");
+        writer.write("# TYPE sotconduit_write_behind_queued gauge\n");
+        writer.write("# TYPE sotconduit_write_behind_rejected_total counter\n");
+        writer.write("# TYPE sotconduit_search_cache_hits_total counter\n");
+        writer.write("# TYPE sotconduit_search_cache_misses_total counter\n");
+        for (SoTConduitAccessorMetrics metrics : accessorMetrics.values()) {
+            String accessorLabel = "accessor=\"" + escapeLabel(metrics.getAccessorName()) + "\"";
+            for (SoTConduitActionEnum action : SoTConduitActionEnum.values()) {
+                String actionLabels = accessorLabel + ",action=\"" + action.name() + "\"";
+                for (SoTConduitMetricsPhaseEnum phase : SoTConduitMetricsPhaseEnum.values()) {
+                    SoTConduitLatencyHistogram histogram = metrics.getLatencyHistogram(phase, action);
+                    long count = histogram.getTotalCount();
+                    if (count == 0) {
+                        continue;
+                    }
+                    String phaseLabels = actionLabels + ",phase=\"" + phase.name() + "\"";
+                    for (double quantile : SCRAPED_QUANTILES) {
+                        writer.write("sotconduit_latency_seconds{" + phaseLabels + ",quantile=\"" + quantile + "\"} " + histogram.getValueAtPercentile(quantile * 100.0) / NANOS_PER_SECOND + "\n");
+                    }
+                    writer.write("sotconduit_latency_seconds_sum{" + phaseLabels + "} " + histogram.getMeanValue() * count / NANOS_PER_SECOND + "\n");
+                    writer.write("sotconduit_latency_seconds_count{" + phaseLabels + "} " + count + "\n");
+                }
+                for (SoTConduitActionStatusEnum status : SoTConduitActionStatusEnum.values()) {
+                    long outcomeCount = metrics.getOutcomeCount(action, status);
+                    if (outcomeCount > 0) {
+                        writer.write("sotconduit_outcomes_total{" + actionLabels + ",status=\"" + status.name() + "\"} " + outcomeCount + "\n");
+                    }
+                }
+                writer.write("sotconduit_errors_total{" + actionLabels + "} " + metrics.getErrorCount(action) + "\n");
+                writer.write("sotconduit_in_flight{" + actionLabels + "} " + metrics.getInFlightCount(action) + "\n");
+            }
+            writer.write("sotconduit_write_behind_queued{" + accessorLabel + "} " + metrics.getQueuedWriteCount() + "\n");
+            writer.write("sotconduit_write_behind_rejected_total{" + accessorLabel + "} " + metrics.getRejectedWriteCount() + "\n");
+            writer.write("sotconduit_search_cache_hits_total{" + accessorLabel + "} " + metrics.getSearchCacheHitCount() + "\n");
+            writer.write("sotconduit_search_cache_misses_total{" + accessorLabel + "} " + metrics.getSearchCacheMissCount() + "\n");
+        }
+    }
+
+    private String escapeLabel(String labelValue) {
+        return (labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"));
+    }
+}
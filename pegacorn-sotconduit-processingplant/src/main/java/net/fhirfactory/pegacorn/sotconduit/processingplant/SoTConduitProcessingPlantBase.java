@@ -21,10 +21,182 @@
  */
 package net.fhirfactory.pegacorn.sotconduit.processingplant;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.common.model.FDN;
+import net.fhirfactory.pegacorn.common.model.RDN;
+import net.fhirfactory.pegacorn.deployment.topology.manager.DeploymentTopologyIM;
+import net.fhirfactory.pegacorn.petasos.model.processingplant.DefaultWorkshopSetEnum;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElement;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementIdentifier;
+import net.fhirfactory.pegacorn.petasos.model.topology.NodeElementTypeEnum;
 import net.fhirfactory.pegacorn.processingplatform.EdgeSubsystemProcessingPlatform;
 
+/**
+ * The SoT Conduit's processing plant, which also coordinates its startup: the
+ * plant itself is initialised exactly once (however many gatekeepers and
+ * proxies ask), the Edge workshop node is resolved once, and the accessors' WUP
+ * nodes can be registered with the topology as a single (parallel) batch. The
+ * time spent in each phase is kept in getStartupTimings().
+ */
 public abstract class SoTConduitProcessingPlantBase extends EdgeSubsystemProcessingPlatform {
-    
-    
-}
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitProcessingPlantBase.class);
+
+    public static final String PLANT_INITIALISATION_PHASE = "plant-initialisation";
+    public static final String WORKSHOP_RESOLUTION_PHASE = "workshop-resolution";
+    public static final String ACCESSOR_DISCOVERY_PHASE = "accessor-discovery";
+    public static final String ACCESSOR_BATCH_REGISTRATION_PHASE = "accessor-registration-batch";
+    public static final String ACCESSOR_REGISTRATION_PHASE = "accessor-registration-single";
+
+    private final Object startupLock = new Object();
+    private final SoTConduitStartupTimings startupTimings = new SoTConduitStartupTimings();
+    private volatile boolean plantInitialised;
+    private volatile NodeElement edgeWorkshopNode;
+
+    @Inject
+    private DeploymentTopologyIM conduitTopologyProxy;
+
+    /**
+     * The number of threads used to register a batch of accessor nodes. The
+     * topology manager is not known to be thread-safe, so nodes are registered
+     * one at a time unless a deployment whose topology manager is overrides this.
+     */
+    protected int specifyAccessorRegistrationParallelism() {
+        return (1);
+    }
 
+    @Override
+    public void initialisePlant() {
+        if (plantInitialised) {
+            return;
+        }
+        synchronized (startupLock) {
+            if (!plantInitialised) {
+                LOG.debug(".initialisePlant(): Entry, initialising the plant");
+                startupTimings.time(PLANT_INITIALISATION_PHASE, () -> super.initialisePlant());
+                plantInitialised = true;
+                LOG.info(".initialisePlant(): Exit, plant initialised --> {}", startupTimings);
+            }
+        }
+    }
+
+    public boolean isPlantInitialised() {
+        return (plantInitialised);
+    }
+
+    /**
+     * The Edge workshop within this plant, which contains the accessor WUP nodes.
+     */
+    public NodeElement getEdgeWorkshopNode() {
+        NodeElement workshopNode = edgeWorkshopNode;
+        if (workshopNode == null) {
+            initialisePlant();
+            synchronized (startupLock) {
+                if (edgeWorkshopNode == null) {
+                    edgeWorkshopNode = startupTimings.time(WORKSHOP_RESOLUTION_PHASE, () -> conduitTopologyProxy.getNode(getEdgeWorkshopId()));
+                    LOG.debug(".getEdgeWorkshopNode(): Resolved workshop node --> {}", edgeWorkshopNode);
+                }
+                workshopNode = edgeWorkshopNode;
+            }
+        }
+        return (workshopNode);
+    }
+
+    private NodeElementIdentifier getEdgeWorkshopId() {
+        NodeElementIdentifier plantId = getProcessingPlantNodeId();
+        if (plantId == null) {
+            LOG.error(".getEdgeWorkshopId(): ProcessingPlant Identifier is not available");
+        }
+        FDN workshopFDN = new FDN(plantId);
+        workshopFDN.appendRDN(new RDN(NodeElementTypeEnum.WORKSHOP.getNodeElementType(), DefaultWorkshopSetEnum.EDGE_WORKSHOP.getWorkshop()));
+        return (new NodeElementIdentifier(workshopFDN.getToken()));
+    }
+
+    /**
+     * Builds (but does not register) the WUP node for an accessor within the Edge
+     * workshop.
+     */
+    public NodeElement buildAccessorNode(String accessorResourceTypeName, String version) {
+        NodeElement workshopNode = getEdgeWorkshopNode();
+        FDN accessorInstanceFDN = new FDN(workshopNode.getNodeInstanceID());
+        accessorInstanceFDN.appendRDN(new RDN(NodeElementTypeEnum.WUP.getNodeElementType(), "Accessor-" + accessorResourceTypeName));
+        NodeElement accessor = new NodeElement();
+        accessor.setVersion(version);
+        accessor.setNodeInstanceID(new NodeElementIdentifier(accessorInstanceFDN.getToken()));
+        accessor.setConcurrencyMode(workshopNode.getConcurrencyMode());
+        accessor.setResilienceMode(workshopNode.getResilienceMode());
+        accessor.setInstanceInPlace(true);
+        accessor.setContainingElementID(workshopNode.getNodeInstanceID());
+        return (accessor);
+    }
+
+    /**
+     * Registers a single accessor node, e.g. for an accessor that was created
+     * after the startup batch.
+     */
+    public void registerAccessorNode(NodeElement accessorNode) {
+        startupTimings.time(ACCESSOR_REGISTRATION_PHASE, () -> conduitTopologyProxy.registerNode(accessorNode));
+    }
+
+    /**
+     * Registers all of the accessor nodes with the topology, serially or (if
+     * opted in) up to specifyAccessorRegistrationParallelism() at a time.
+     */
+    public void registerAccessorNodes(List<NodeElement> accessorNodes) {
+        LOG.debug(".registerAccessorNodes(): Entry, count --> {}", accessorNodes.size());
+        int parallelism = Math.min(accessorNodes.size(), specifyAccessorRegistrationParallelism());
+        if (parallelism <= 1) {
+            startupTimings.time(ACCESSOR_BATCH_REGISTRATION_PHASE, () -> accessorNodes.forEach(conduitTopologyProxy::registerNode));
+            LOG.info(".registerAccessorNodes(): Exit, registered --> {}, timings --> {}", accessorNodes.size(), startupTimings);
+            return;
+        }
+        ExecutorService registrationExecutor = Executors.newFixedThreadPool(parallelism, registrationTask -> {
+            Thread registrationThread = new Thread(registrationTask, "sotconduit-node-registration");
+            registrationThread.setDaemon(true);
+            return (registrationThread);
+        });
+        try {
+            startupTimings.time(ACCESSOR_BATCH_REGISTRATION_PHASE, () -> {
+                List<Future<?>> registrations = new ArrayList<>(accessorNodes.size());
+                for (NodeElement accessorNode : accessorNodes) {
+                    registrations.add(registrationExecutor.submit(() -> conduitTopologyProxy.registerNode(accessorNode)));
+                }
+                for (Future<?> registration : registrations) {
+                    awaitRegistration(registration);
+                }
+            });
+        } finally {
+            registrationExecutor.shutdown();
+        }
+        LOG.info(".registerAccessorNodes(): Exit, registered --> {}, timings --> {}", accessorNodes.size(), startupTimings);
+    }
+
+    private void awaitRegistration(Future<?> registration) {
+        try {
+            registration.get();
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while registering accessor nodes", interrupted);
+        } catch (ExecutionException registrationFailure) {
+            Throwable cause = registrationFailure.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Accessor node registration failed", cause);
+        }
+    }
+
+    public SoTConduitStartupTimings getStartupTimings() {
+        return (startupTimings);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.processingplant;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Elapsed (wall clock) time per startup phase, in the order the phases first
+ * ran. A phase that runs more than once (e.g. individual registrations of
+ * accessors that missed the batch) accumulates.
+ */
+public class SoTConduitStartupTimings {
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private final long createdNanos = System.nanoTime();
+
+    public <T> T time(String phase, Supplier<T> phaseWork) {
+        long phaseStart = System.nanoTime();
+        try {
+            return (phaseWork.get());
+        } finally {
+            record(phase, System.nanoTime() - phaseStart);
+        }
+    }
+
+    public void time(String phase, Runnable phaseWork) {
+        time(phase, () -> {
+            phaseWork.run();
+            return (null);
+        });
+    }
+
+    public synchronized void record(String phase, long elapsedNanos) {
+        phaseNanos.merge(phase, elapsedNanos, Long::sum);
+    }
+
+    public synchronized Map<String, Long> getPhaseMillis() {
+        Map<String, Long> phaseMillis = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+            phaseMillis.put(phase.getKey(), TimeUnit.NANOSECONDS.toMillis(phase.getValue()));
+        }
+        return (Collections.unmodifiableMap(phaseMillis));
+    }
+
+    public long getMillisSinceCreation() {
+        return (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdNanos));
+    }
+
+    @Override
+    public String toString() {
+        return ("SoTConduitStartupTimings{phaseMillis=" + getPhaseMillis() + ", sinceCreationMillis=" + getMillisSinceCreation() + "}");
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.tracing;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends each ended span to a file as one line of JSON, using the field names
+ * of the OpenTelemetry (OTLP/JSON) span so that the file can be loaded into
+ * OpenTelemetry tooling. The file is flushed whenever a root span ends, i.e.
+ * once per sampled request.
+ */
+public class SoTConduitFileSpanExporter implements SoTConduitSpanExporter {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitFileSpanExporter.class);
+
+    private static final int STATUS_CODE_OK = 1;
+    private static final int STATUS_CODE_ERROR = 2;
+
+    private final Path spanFile;
+    private final BufferedWriter writer;
+    private final StringBuilder line = new StringBuilder(512);
+    private boolean failed;
+
+    private SoTConduitFileSpanExporter(Path spanFile, BufferedWriter writer) {
+        this.spanFile = spanFile;
+        this.writer = writer;
+    }
+
+    public static SoTConduitFileSpanExporter open(Path spanFile) throws IOException {
+        if (spanFile.getParent() != null) {
+            Files.createDirectories(spanFile.getParent());
+        }
+        BufferedWriter writer = Files.newBufferedWriter(spanFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return (new SoTConduitFileSpanExporter(spanFile, writer));
+    }
+
+    @Override
+    public synchronized void export(SoTConduitSpan span) {
+        if (failed) {
+            return;
+        }
+        line.setLength(0);
+        line.append("{\"traceId\":\"").append(span.getTraceId());
+        line.append("\",\"spanId\":\"").append(span.getSpanId()).append('"');
+        if (span.getParentSpanId() != null) {
+            line.append(",\"parentSpanId\":\"").append(span.getParentSpanId()).append('"');
+        }
+        line.append(",\"name\":");
+        appendString(span.getName());
+        line.append(",\"startTimeUnixNano\":\"").append(span.getStartEpochNanos());
+        line.append("\",\"endTimeUnixNano\":\"").append(span.getEndEpochNanos()).append('"');
+        Map<String, Object> attributes = span.getAttributes();
+        if (!attributes.isEmpty()) {
+            line.append(",\"attributes\":[");
+            boolean first = true;
+            for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+                if (!first) {
+                    line.append(',');
+                }
+                line.append("{\"key\":");
+                appendString(attribute.getKey());
+                line.append(",\"value\":");
+                appendValue(attribute.getValue());
+                line.append('}');
+                first = false;
+            }
+            line.append(']');
+        }
+        line.append(",\"status\":{\"code\":").append(span.isError() ? STATUS_CODE_ERROR : STATUS_CODE_OK);
+        if (span.getStatusMessage() != null) {
+            line.append(",\"message\":");
+            appendString(span.getStatusMessage());
+        }
+        line.append("}}\n");
+        try {
+            writer.append(line);
+            if (span.getParent() == null) {
+                writer.flush();
+            }
+        } catch (IOException writeFailure) {
+            LOG.error(".export(): Unable to write to span file {}, no further spans will be exported --> {}", spanFile, writeFailure.toString());
+            failed = true;
+        }
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        try {
+            writer.close();
+        } catch (IOException closeFailure) {
+            LOG.warn(".shutdown(): Unable to close span file {} --> {}", spanFile, closeFailure.toString());
+        }
+    }
+
+    private void appendValue(Object value) {
+        if (value instanceof Boolean) {
+            line.append("{\"boolValue\":").append(value).append('}');
+        } else if (value instanceof Integer || value instanceof Long) {
+            line.append("{\"intValue\":\"").append(value).append("\"}");
+        } else if (value instanceof Number) {
+            line.append("{\"doubleValue\":").append(value).append('}');
+        } else {
+            line.append("{\"stringValue\":");
+            appendString(value.toString());
+            line.append('}');
+        }
+    }
+
+    private void appendString(String value) {
+        line.append('"');
+        for (int index = 0; index < value.length(); index++) {
+            char character = value.charAt(index);
+            switch (character) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (character < 0x20) {
+                        line.append(String.format("\\u%04x", (int) character));
+                    } else {
+                        line.append(character);
+                    }
+            }
+        }
+        line.append('"');
+    }
+}
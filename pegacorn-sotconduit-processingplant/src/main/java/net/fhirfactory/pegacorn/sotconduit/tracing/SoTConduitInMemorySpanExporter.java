@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.tracing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the most recently ended spans in memory (the oldest being dropped once
+ * the capacity is reached), e.g. for inspection from a debugger or test.
+ */
+public class SoTConduitInMemorySpanExporter implements SoTConduitSpanExporter {
+    private final int capacity;
+    private final ArrayDeque<SoTConduitSpan> finishedSpans;
+
+    public SoTConduitInMemorySpanExporter(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.finishedSpans = new ArrayDeque<>(Math.min(capacity, 1024));
+    }
+
+    @Override
+    public synchronized void export(SoTConduitSpan span) {
+        if (finishedSpans.size() == capacity) {
+            finishedSpans.pollFirst();
+        }
+        finishedSpans.addLast(span);
+    }
+
+    public synchronized List<SoTConduitSpan> getFinishedSpans() {
+        return (new ArrayList<>(finishedSpans));
+    }
+
+    public synchronized List<SoTConduitSpan> getFinishedSpans(String traceId) {
+        List<SoTConduitSpan> traceSpans = new ArrayList<>();
+        for (SoTConduitSpan span : finishedSpans) {
+            if (span.getTraceId().equals(traceId)) {
+                traceSpans.add(span);
+            }
+        }
+        return (traceSpans);
+    }
+
+    public synchronized void reset() {
+        finishedSpans.clear();
+    }
+}
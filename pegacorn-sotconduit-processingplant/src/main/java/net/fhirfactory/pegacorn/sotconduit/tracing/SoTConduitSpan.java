@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.tracing;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.fhirfactory.pegacorn.sotconduit.context.SoTConduitRequestContext;
+
+/**
+ * A timed operation within a request's trace, identified (as in OpenTelemetry
+ * and W3C Trace Context) by a 128-bit trace id and a 64-bit span id.
+ * <p>
+ * Only sampled spans record anything: an unsampled request still has a root
+ * span (so that its trace id can be propagated and audited) but every other
+ * span of it is the shared NOT_RECORDING span, on which all methods are no-ops.
+ */
+public class SoTConduitSpan implements AutoCloseable {
+    // span times are taken from System.nanoTime(), anchored once to the epoch, so
+    // that they are precise and consistent with one another
+    private static final long EPOCH_NANOS_OFFSET = System.currentTimeMillis() * 1000000L - System.nanoTime();
+
+    public static final SoTConduitSpan NOT_RECORDING = new SoTConduitSpan(null, null, null, "", 0L, 0L, 0L, false);
+
+    private final SoTConduitTracer tracer;
+    private final SoTConduitRequestContext requestContext;
+    private final SoTConduitSpan parent;
+    private final String name;
+    private final long traceIdHigh;
+    private final long traceIdLow;
+    private final long spanId;
+    private final long parentSpanId;
+    private final boolean recording;
+    private final long startNanos;
+    private final AtomicBoolean ended = new AtomicBoolean();
+    private Map<String, Object> attributes;
+    private volatile long endEpochNanos;
+    private volatile boolean error;
+    private volatile String statusMessage;
+
+    SoTConduitSpan(SoTConduitTracer tracer, SoTConduitRequestContext requestContext, SoTConduitSpan parent, String name, long traceIdHigh, long traceIdLow, long spanId, long parentSpanId, boolean recording) {
+        this.tracer = tracer;
+        this.requestContext = requestContext;
+        this.parent = parent;
+        this.name = name;
+        this.traceIdHigh = traceIdHigh;
+        this.traceIdLow = traceIdLow;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.recording = recording;
+        this.startNanos = recording ? System.nanoTime() : 0L;
+    }
+
+    private SoTConduitSpan(SoTConduitTracer tracer, SoTConduitRequestContext requestContext, SoTConduitSpan parent, String name, long traceIdHigh, long traceIdLow, long spanId, boolean recording) {
+        this(tracer, requestContext, parent, name, traceIdHigh, traceIdLow, spanId, 0L, recording);
+    }
+
+    public boolean isRecording() {
+        return (recording);
+    }
+
+    public String getName() {
+        return (name);
+    }
+
+    public String getTraceId() {
+        return (toHex(traceIdHigh) + toHex(traceIdLow));
+    }
+
+    long getTraceIdHigh() {
+        return (traceIdHigh);
+    }
+
+    long getTraceIdLow() {
+        return (traceIdLow);
+    }
+
+    public String getSpanId() {
+        return (toHex(spanId));
+    }
+
+    long getSpanIdValue() {
+        return (spanId);
+    }
+
+    /**
+     * The parent's span id, or null for the root span of a trace that did not
+     * arrive with a (W3C traceparent) parent.
+     */
+    public String getParentSpanId() {
+        return (parentSpanId == 0L ? null : toHex(parentSpanId));
+    }
+
+    SoTConduitSpan getParent() {
+        return (parent);
+    }
+
+    SoTConduitRequestContext getRequestContext() {
+        return (requestContext);
+    }
+
+    public long getStartEpochNanos() {
+        return (EPOCH_NANOS_OFFSET + startNanos);
+    }
+
+    public long getEndEpochNanos() {
+        return (endEpochNanos);
+    }
+
+    public boolean isEnded() {
+        return (ended.get());
+    }
+
+    public boolean isError() {
+        return (error);
+    }
+
+    public String getStatusMessage() {
+        return (statusMessage);
+    }
+
+    public synchronized Map<String, Object> getAttributes() {
+        return (attributes == null ? Collections.emptyMap() : new LinkedHashMap<>(attributes));
+    }
+
+    public SoTConduitSpan setAttribute(String key, Object value) {
+        if (recording && value != null) {
+            synchronized (this) {
+                if (attributes == null) {
+                    attributes = new LinkedHashMap<>();
+                }
+                attributes.put(key, value);
+            }
+        }
+        return (this);
+    }
+
+    public SoTConduitSpan recordError(String message) {
+        if (recording) {
+            this.error = true;
+            this.statusMessage = message;
+        }
+        return (this);
+    }
+
+    public SoTConduitSpan recordError(Throwable failure) {
+        return (recordError(failure.getClass().getSimpleName() + ": " + failure.getMessage()));
+    }
+
+    /**
+     * Ends the span (only the first call counts), handing it to the tracer's
+     * exporter and making its parent the request's current span again.
+     */
+    public void end() {
+        if (!recording || !ended.compareAndSet(false, true)) {
+            return;
+        }
+        this.endEpochNanos = EPOCH_NANOS_OFFSET + System.nanoTime();
+        tracer.onEnd(this);
+    }
+
+    @Override
+    public void close() {
+        end();
+    }
+
+    static String toHex(long value) {
+        String hex = Long.toHexString(value);
+        if (hex.length() == 16) {
+            return (hex);
+        }
+        return ("0000000000000000".substring(hex.length()) + hex);
+    }
+
+    @Override
+    public String toString() {
+        return ("SoTConduitSpan(" + name + ", trace=" + getTraceId() + ", span=" + getSpanId() + ")");
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.tracing;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.fhirfactory.pegacorn.sotconduit.context.SoTConduitRequestContext;
+
+/**
+ * Lightweight, OpenTelemetry-compatible tracing of the conduit's requests.
+ * <p>
+ * The edge servlet starts a trace per request (continuing the caller's trace
+ * if the request carries a W3C traceparent header) and the spans beneath it -
+ * gatekeeper transactions, Source-of-Truth calls, audit broker calls and
+ * encoding - are children of whichever span is current in the request's
+ * SoTConduitRequestContext. Whether a trace is recorded is decided once, at its
+ * root: by the caller's sampled flag if there is one (see
+ * specifyParentBasedSampling()), otherwise by comparing the trace id against
+ * specifySampleRatio() (as the OpenTelemetry TraceIdRatioBased sampler does).
+ * Unsampled requests cost one span object and never reach the exporter.
+ */
+@ApplicationScoped
+public class SoTConduitTracer {
+    private static final Logger LOG = LoggerFactory.getLogger(SoTConduitTracer.class);
+
+    public static final String TRACEPARENT_HEADER = "traceparent";
+
+    private static final double DEFAULT_SAMPLE_RATIO = 0.01;
+    private static final int DEFAULT_IN_MEMORY_SPAN_CAPACITY = 10000;
+    private static final String TRACEPARENT_VERSION = "00";
+    private static final int TRACEPARENT_LENGTH = 55;
+    private static final int SAMPLED_FLAG = 0x01;
+
+    private SoTConduitSpanExporter spanExporter;
+    private long sampleThreshold;
+    private boolean parentBasedSampling;
+
+    @PostConstruct
+    protected void initialise() {
+        LOG.debug(".initialise(): Entry");
+        double sampleRatio = Math.max(0.0, Math.min(1.0, specifySampleRatio()));
+        this.sampleThreshold = sampleRatio >= 1.0 ? Long.MAX_VALUE : (long) (sampleRatio * Long.MAX_VALUE);
+        this.parentBasedSampling = specifyParentBasedSampling();
+        this.spanExporter = specifySpanExporter();
+        LOG.debug(".initialise(): Exit, sampleRatio --> {}, exporter --> {}", sampleRatio, spanExporter);
+    }
+
+    @PreDestroy
+    protected void shutdown() {
+        if (spanExporter != null) {
+            spanExporter.shutdown();
+        }
+    }
+
+    /**
+     * The fraction of (root) requests that are traced. Zero disables tracing of
+     * requests that do not arrive already sampled.
+     */
+    protected double specifySampleRatio() {
+        return (DEFAULT_SAMPLE_RATIO);
+    }
+
+    /**
+     * Whether an inbound traceparent's sampled flag decides if the request is
+     * traced (so that a trace is either recorded end to end or not at all).
+     */
+    protected boolean specifyParentBasedSampling() {
+        return (true);
+    }
+
+    /**
+     * Where ended spans go. By default the most recent spans are kept in memory;
+     * override to return e.g. a SoTConduitFileSpanExporter.
+     */
+    protected SoTConduitSpanExporter specifySpanExporter() {
+        return (new SoTConduitInMemorySpanExporter(DEFAULT_IN_MEMORY_SPAN_CAPACITY));
+    }
+
+    public SoTConduitSpanExporter getSpanExporter() {
+        return (spanExporter);
+    }
+
+    /**
+     * Starts the root span of the current request's trace and makes it the
+     * request's current span. The traceparent (which may be null) is the
+     * request's W3C Trace Context header.
+     */
+    public SoTConduitSpan startTrace(String name, String traceparent) {
+        SoTConduitRequestContext requestContext = SoTConduitRequestContext.current();
+        if (requestContext == null) {
+            return (SoTConduitSpan.NOT_RECORDING);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long traceIdHigh;
+        long traceIdLow;
+        long parentSpanId = 0L;
+        boolean sampled;
+        if (isValidTraceparent(traceparent)) {
+            traceIdHigh = Long.parseUnsignedLong(traceparent.substring(3, 19), 16);
+            traceIdLow = Long.parseUnsignedLong(traceparent.substring(19, 35), 16);
+            parentSpanId = Long.parseUnsignedLong(traceparent.substring(36, 52), 16);
+            boolean parentSampled = (Integer.parseInt(traceparent.substring(53, 55), 16) & SAMPLED_FLAG) != 0;
+            sampled = parentBasedSampling ? parentSampled : isSampled(traceIdLow);
+        } else {
+            traceIdHigh = random.nextLong();
+            traceIdLow = nextNonZeroId(random);
+            sampled = isSampled(traceIdLow);
+        }
+        sampled = sampled && spanExporter != null;
+        SoTConduitSpan rootSpan = new SoTConduitSpan(this, requestContext, null, name, traceIdHigh, traceIdLow, nextNonZeroId(random), parentSpanId, sampled);
+        requestContext.setTraceSpan(rootSpan);
+        requestContext.setCurrentSpan(rootSpan);
+        return (rootSpan);
+    }
+
+    /**
+     * Starts a child of the request's current span, which it replaces as the
+     * current span until it ends. Outside a sampled request this is the
+     * (no-op) NOT_RECORDING span.
+     */
+    public SoTConduitSpan startSpan(String name) {
+        SoTConduitRequestContext requestContext = SoTConduitRequestContext.current();
+        if (requestContext == null) {
+            return (SoTConduitSpan.NOT_RECORDING);
+        }
+        SoTConduitSpan parentSpan = requestContext.getCurrentSpan();
+        if (parentSpan == null || !parentSpan.isRecording()) {
+            return (SoTConduitSpan.NOT_RECORDING);
+        }
+        SoTConduitSpan childSpan = new SoTConduitSpan(this, requestContext, parentSpan, name, parentSpan.getTraceIdHigh(), parentSpan.getTraceIdLow(), nextNonZeroId(ThreadLocalRandom.current()), parentSpan.getSpanIdValue(), true);
+        requestContext.setCurrentSpan(childSpan);
+        return (childSpan);
+    }
+
+    /**
+     * The trace id of the current request, sampled or not, or null outside one.
+     */
+    public String getCurrentTraceId() {
+        SoTConduitRequestContext requestContext = SoTConduitRequestContext.current();
+        if (requestContext == null || requestContext.getTraceSpan() == null) {
+            return (null);
+        }
+        return (requestContext.getTraceSpan().getTraceId());
+    }
+
+    /**
+     * The current span of the current request, or NOT_RECORDING.
+     */
+    public SoTConduitSpan getCurrentSpan() {
+        SoTConduitRequestContext requestContext = SoTConduitRequestContext.current();
+        SoTConduitSpan currentSpan = requestContext == null ? null : requestContext.getCurrentSpan();
+        return (currentSpan == null ? SoTConduitSpan.NOT_RECORDING : currentSpan);
+    }
+
+    /**
+     * The W3C traceparent header value identifying the span.
+     */
+    public String toTraceparent(SoTConduitSpan span) {
+        return (TRACEPARENT_VERSION + "-" + span.getTraceId() + "-" + span.getSpanId() + (span.isRecording() ? "-01" : "-00"));
+    }
+
+    void onEnd(SoTConduitSpan span) {
+        SoTConduitRequestContext requestContext = span.getRequestContext();
+        if (requestContext != null) {
+            // spans ended out of order (e.g. on another thread) leave the current span alone
+            requestContext.compareAndSetCurrentSpan(span, span.getParent());
+        }
+        try {
+            spanExporter.export(span);
+        } catch (RuntimeException exportFailure) {
+            LOG.warn(".onEnd(): Unable to export span {} --> {}", span, exportFailure.toString());
+        }
+    }
+
+    private boolean isSampled(long traceIdLow) {
+        return ((traceIdLow & Long.MAX_VALUE) < sampleThreshold);
+    }
+
+    private static long nextNonZeroId(ThreadLocalRandom random) {
+        long id = random.nextLong();
+        while (id == 0L) {
+            id = random.nextLong();
+        }
+        return (id);
+    }
+
+    private static boolean isValidTraceparent(String traceparent) {
+        if (traceparent == null || traceparent.length() < TRACEPARENT_LENGTH || !traceparent.startsWith(TRACEPARENT_VERSION + "-")) {
+            return (false);
+        }
+        if (traceparent.length() > TRACEPARENT_LENGTH || traceparent.charAt(35) != '-' || traceparent.charAt(52) != '-') {
+            return (false);
+        }
+        for (int index = 3; index < TRACEPARENT_LENGTH; index++) {
+            char character = traceparent.charAt(index);
+            if (index != 35 && index != 52 && Character.digit(character, 16) < 0) {
+                return (false);
+            }
+        }
+        String traceId = traceparent.substring(3, 35);
+        String parentId = traceparent.substring(36, 52);
+        return (!traceId.equals("00000000000000000000000000000000") && !parentId.equals("0000000000000000"));
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.audit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.audit.model.PetasosParcelAuditTrailEntry;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoWPayload;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoWProcessingOutcomeEnum;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
+
+public class SoTConduitAuditDispatcherTest {
+    private static final WUPIdentifier WUP_INSTANCE = new WUPIdentifier(new FDNToken("WUP.SoTConduit"));
+    private static final int BATCH_SIZE = 16;
+    private static final long FLUSH_INTERVAL_MILLIS = 5L;
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000L;
+    private static final long REGISTRATION_TIMEOUT_MILLIS = 10000L;
+    // long enough for the worker to have retried against the unavailable sink
+    private static final long OUTAGE_MILLIS = 350L;
+
+    @TempDir
+    Path spoolDirectory;
+
+    @Test
+    public void replaysInOrderOnceTheSinkRecovers() throws IOException, InterruptedException {
+        StubAuditSink auditSink = new StubAuditSink();
+        auditSink.setAvailable(false);
+        SoTConduitMappedAuditSpool spool = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        SoTConduitAuditDispatcher dispatcher = new SoTConduitAuditDispatcher(auditSink, BATCH_SIZE, FLUSH_INTERVAL_MILLIS, spool);
+        dispatcher.start();
+
+        PetasosParcelAuditTrailEntry firstBegin = dispatcher.submitBegin(WUP_INSTANCE, "Patient.Update.1", newUoW("begin-1"));
+        dispatcher.submitEnd(WUP_INSTANCE, "Patient.Update.1", newUoW("end-1"), firstBegin);
+        PetasosParcelAuditTrailEntry secondBegin = dispatcher.submitBegin(WUP_INSTANCE, "Patient.Update.2", newUoW("begin-2"));
+        dispatcher.submitEnd(WUP_INSTANCE, "Patient.Update.2", newUoW("end-2"), secondBegin);
+        Thread.sleep(OUTAGE_MILLIS);
+        assertTrue(auditSink.getAttemptCount() > 0);
+        assertEquals(0, auditSink.getRegistrations().size());
+
+        auditSink.setAvailable(true);
+        List<Registration> registrations = auditSink.awaitRegistrations(4);
+
+        assertEquals(List.of("begin-1", "end-1", "begin-2", "end-2"), payloadsOf(registrations));
+        assertNull(registrations.get(0).startingTransaction);
+        assertSame(registrations.get(0).registeredEntry, registrations.get(1).startingTransaction);
+        assertNull(registrations.get(2).startingTransaction);
+        assertSame(registrations.get(2).registeredEntry, registrations.get(3).startingTransaction);
+        dispatcher.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+
+        SoTConduitMappedAuditSpool reopened = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        assertTrue(reopened.isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    public void replaysEntriesLeftUnacknowledgedByACrash() throws IOException {
+        // appended (as a write-ahead dispatcher does) but never acknowledged, as if the process died first
+        SoTConduitMappedAuditSpool spool = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        SoTConduitAuditTask beginTask = SoTConduitAuditTask.beginTask(WUP_INSTANCE, "Patient.Create", newUoW("begin"));
+        spool.append(beginTask);
+        spool.append(SoTConduitAuditTask.endTask(WUP_INSTANCE, "Patient.Create", newUoW("end"), beginTask));
+        spool.close();
+
+        StubAuditSink auditSink = new StubAuditSink();
+        SoTConduitAuditDispatcher dispatcher = new SoTConduitAuditDispatcher(auditSink, BATCH_SIZE, FLUSH_INTERVAL_MILLIS, SoTConduitMappedAuditSpool.open(spoolDirectory));
+        dispatcher.start();
+        List<Registration> registrations = auditSink.awaitRegistrations(2);
+        dispatcher.shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+
+        assertEquals(List.of("begin", "end"), payloadsOf(registrations));
+        assertSame(registrations.get(0).registeredEntry, registrations.get(1).startingTransaction);
+        SoTConduitMappedAuditSpool reopened = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        assertTrue(reopened.isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    public void leavesTheSpoolOpenUnderAWorkerStillDispatchingAtTheTimeout() throws IOException, InterruptedException {
+        StubAuditSink auditSink = new StubAuditSink();
+        CountDownLatch sinkEntered = new CountDownLatch(1);
+        CountDownLatch sinkReleased = new CountDownLatch(1);
+        auditSink.setBlockedUntil(sinkEntered, sinkReleased);
+        ClosingTrackedSpool spool = new ClosingTrackedSpool(SoTConduitMappedAuditSpool.open(spoolDirectory));
+        SoTConduitAuditDispatcher dispatcher = new SoTConduitAuditDispatcher(auditSink, BATCH_SIZE, FLUSH_INTERVAL_MILLIS, spool);
+        dispatcher.start();
+        dispatcher.submitBegin(WUP_INSTANCE, "Patient.Create", newUoW("begin"));
+        assertTrue(sinkEntered.await(REGISTRATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        dispatcher.shutdown(FLUSH_INTERVAL_MILLIS);
+
+        assertFalse(spool.isClosed());
+        sinkReleased.countDown();
+        assertEquals(List.of("begin"), payloadsOf(auditSink.awaitRegistrations(1)));
+        spool.close();
+    }
+
+    private static UoW newUoW(String payloadText) {
+        UoWPayload ingres = new UoWPayload();
+        ingres.setPayload(payloadText);
+        UoW uow = new UoW(ingres);
+        uow.setProcessingOutcome(UoWProcessingOutcomeEnum.UOW_OUTCOME_SUCCESS);
+        return (uow);
+    }
+
+    private static List<String> payloadsOf(List<Registration> registrations) {
+        return (registrations.stream().map(registration -> registration.payload).collect(Collectors.toList()));
+    }
+
+    private static class Registration {
+        private final String payload;
+        private final PetasosParcelAuditTrailEntry startingTransaction;
+        private final PetasosParcelAuditTrailEntry registeredEntry;
+
+        private Registration(String payload, PetasosParcelAuditTrailEntry startingTransaction, PetasosParcelAuditTrailEntry registeredEntry) {
+            this.payload = payload;
+            this.startingTransaction = startingTransaction;
+            this.registeredEntry = registeredEntry;
+        }
+    }
+
+    /**
+     * Stands in for the broker, which can be made unavailable.
+     */
+    private static class StubAuditSink implements SoTConduitAuditSink {
+        private final List<Registration> registrations = new ArrayList<>();
+        private boolean available = true;
+        private int attemptCount;
+        private CountDownLatch entered;
+        private CountDownLatch released;
+
+        @Override
+        public PetasosParcelAuditTrailEntry register(WUPIdentifier wupInstance, String action, UoW uow, PetasosParcelAuditTrailEntry startingTransaction) {
+            CountDownLatch blockedUntil;
+            synchronized (this) {
+                blockedUntil = released;
+                if (entered != null) {
+                    entered.countDown();
+                }
+            }
+            if (blockedUntil != null) {
+                awaitIgnoringInterrupts(blockedUntil);
+            }
+            return (registerNow(uow, startingTransaction));
+        }
+
+        private synchronized PetasosParcelAuditTrailEntry registerNow(UoW uow, PetasosParcelAuditTrailEntry startingTransaction) {
+            attemptCount++;
+            if (!available) {
+                throw new IllegalStateException("Audit broker unavailable");
+            }
+            PetasosParcelAuditTrailEntry registeredEntry = new PetasosParcelAuditTrailEntry();
+            registeredEntry.setActualUoW(uow);
+            registrations.add(new Registration(uow.getIngresContent().getPayload(), startingTransaction, registeredEntry));
+            notifyAll();
+            return (registeredEntry);
+        }
+
+        private synchronized void setAvailable(boolean available) {
+            this.available = available;
+        }
+
+        /**
+         * Holds every registration until released, as a hung broker call
+         * (which shutdown's interrupt does not end) would.
+         */
+        private synchronized void setBlockedUntil(CountDownLatch entered, CountDownLatch released) {
+            this.entered = entered;
+            this.released = released;
+        }
+
+        private synchronized int getAttemptCount() {
+            return (attemptCount);
+        }
+
+        private synchronized List<Registration> getRegistrations() {
+            return (new ArrayList<>(registrations));
+        }
+
+        private synchronized List<Registration> awaitRegistrations(int expectedCount) {
+            long deadline = System.currentTimeMillis() + REGISTRATION_TIMEOUT_MILLIS;
+            while (registrations.size() < expectedCount && System.currentTimeMillis() < deadline) {
+                try {
+                    wait(Math.max(1L, deadline - System.currentTimeMillis()));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            assertEquals(expectedCount, registrations.size());
+            return (new ArrayList<>(registrations));
+        }
+    }
+
+    /**
+     * Passes everything through to a real spool, noting whether it was closed.
+     */
+    private static class ClosingTrackedSpool implements SoTConduitAuditSpool {
+        private final SoTConduitAuditSpool spool;
+        private volatile boolean closed;
+
+        private ClosingTrackedSpool(SoTConduitAuditSpool spool) {
+            this.spool = spool;
+        }
+
+        @Override
+        public void append(SoTConduitAuditTask task) {
+            spool.append(task);
+        }
+
+        @Override
+        public int drainTo(Collection<SoTConduitAuditTask> target, int maxElements) {
+            return (spool.drainTo(target, maxElements));
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return (spool.isEmpty());
+        }
+
+        @Override
+        public void acknowledge(SoTConduitAuditTask task) {
+            spool.acknowledge(task);
+        }
+
+        @Override
+        public void flush() {
+            spool.flush();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            spool.close();
+        }
+
+        private boolean isClosed() {
+            return (closed);
+        }
+    }
+
+    private static void awaitIgnoringInterrupts(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException interrupted) {
+                // as a blocking broker call would
+            }
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2020 Mark A. Hunter
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.fhirfactory.pegacorn.sotconduit.audit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.fhirfactory.pegacorn.common.model.FDNToken;
+import net.fhirfactory.pegacorn.petasos.model.topics.TopicToken;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoW;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoWPayload;
+import net.fhirfactory.pegacorn.petasos.model.uow.UoWProcessingOutcomeEnum;
+import net.fhirfactory.pegacorn.petasos.model.wup.WUPIdentifier;
+
+public class SoTConduitMappedAuditSpoolTest {
+    private static final int SMALL_SEGMENT_BYTES = 256;
+
+    @TempDir
+    Path spoolDirectory;
+
+    @Test
+    public void replaysUnacknowledgedRecordsAfterReopen() throws IOException {
+        SoTConduitMappedAuditSpool spool = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        for (int index = 0; index < 3; index++) {
+            spool.append(beginTask("Patient.Read." + index));
+        }
+        List<SoTConduitAuditTask> drained = drainAll(spool);
+        spool.acknowledge(drained.get(0));
+        spool.close();
+
+        SoTConduitMappedAuditSpool reopened = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        List<SoTConduitAuditTask> replayed = drainAll(reopened);
+        assertEquals(List.of("Patient.Read.1", "Patient.Read.2"), actionsOf(replayed));
+        assertEquals("payload-Patient.Read.1", replayed.get(0).getUoW().getIngresContent().getPayload());
+        assertEquals("Topic.Patient", replayed.get(0).getUoW().getIngresContent().getPayloadTopicID().getIdentifier().getContent());
+        assertEquals(UoWProcessingOutcomeEnum.UOW_OUTCOME_SUCCESS, replayed.get(0).getUoW().getProcessingOutcome());
+        reopened.close();
+    }
+
+    @Test
+    public void replaysBeginAndEndAsAPair() throws IOException {
+        SoTConduitMappedAuditSpool spool = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        SoTConduitAuditTask beginTask = beginTask("Patient.Update");
+        spool.append(beginTask);
+        spool.append(SoTConduitAuditTask.endTask(beginTask.getWupInstance(), "Patient.Update", beginTask.getUoW(), beginTask));
+        spool.close();
+
+        SoTConduitMappedAuditSpool reopened = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        List<SoTConduitAuditTask> replayed = drainAll(reopened);
+        assertEquals(2, replayed.size());
+        assertEquals(SoTConduitAuditTaskTypeEnum.BEGIN_TRANSACTION, replayed.get(0).getTaskType());
+        assertEquals(SoTConduitAuditTaskTypeEnum.END_TRANSACTION, replayed.get(1).getTaskType());
+        assertSame(replayed.get(0), replayed.get(1).getStartingTask());
+        assertEquals("WUP.SoTConduit", replayed.get(1).getWupInstance().getContent());
+        reopened.close();
+    }
+
+    @Test
+    public void truncatesRecordWithBadChecksumOnRecovery() throws IOException {
+        SoTConduitMappedAuditSpool spool = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        spool.append(beginTask("Patient.Read.0"));
+        spool.append(beginTask("Patient.Read.1"));
+        spool.append(beginTask("Patient.Read.2"));
+        spool.close();
+
+        Path segmentPath = onlySegment();
+        int secondRecordPosition = recordLength(segmentPath, 0);
+        flipByte(segmentPath, secondRecordPosition + 16);
+
+        SoTConduitMappedAuditSpool reopened = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        assertEquals(List.of("Patient.Read.0"), actionsOf(drainAll(reopened)));
+        reopened.append(beginTask("Patient.Read.3"));
+        assertEquals(List.of("Patient.Read.3"), actionsOf(drainAll(reopened)));
+        reopened.close();
+
+        SoTConduitMappedAuditSpool reopenedAgain = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        assertEquals(List.of("Patient.Read.0", "Patient.Read.3"), actionsOf(drainAll(reopenedAgain)));
+        reopenedAgain.close();
+    }
+
+    @Test
+    public void treatsTornRecordAsEndOfLog() throws IOException {
+        SoTConduitMappedAuditSpool spool = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        spool.append(beginTask("Patient.Read.0"));
+        spool.close();
+
+        Path segmentPath = onlySegment();
+        int tornRecordPosition = recordLength(segmentPath, 0);
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, Integer.MAX_VALUE / 2), tornRecordPosition);
+        }
+
+        SoTConduitMappedAuditSpool reopened = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        assertEquals(List.of("Patient.Read.0"), actionsOf(drainAll(reopened)));
+        assertTrue(reopened.isEmpty());
+        reopened.close();
+    }
+
+    @Test
+    public void compactsAcknowledgedSegments() throws IOException {
+        SoTConduitMappedAuditSpool spool = SoTConduitMappedAuditSpool.open(spoolDirectory, SMALL_SEGMENT_BYTES, 1, 0L);
+        for (int index = 0; index < 5; index++) {
+            spool.append(beginTask("Patient.Read." + index));
+        }
+        assertEquals(5, spool.getSegmentCount());
+        for (SoTConduitAuditTask task : drainAll(spool)) {
+            spool.acknowledge(task);
+        }
+        spool.flush();
+        assertEquals(1, spool.getSegmentCount());
+        assertEquals(1, segmentPaths().size());
+        spool.close();
+
+        SoTConduitMappedAuditSpool reopened = SoTConduitMappedAuditSpool.open(spoolDirectory, SMALL_SEGMENT_BYTES, 1, 0L);
+        assertTrue(reopened.isEmpty());
+        assertEquals(5L, reopened.getAcknowledgedSequence());
+        reopened.close();
+    }
+
+    @Test
+    public void doesNotReplayRecordsAcknowledgedOutOfOrder() throws IOException {
+        SoTConduitMappedAuditSpool spool = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        for (int index = 0; index < 4; index++) {
+            spool.append(beginTask("Patient.Read." + index));
+        }
+        List<SoTConduitAuditTask> drained = drainAll(spool);
+        spool.acknowledge(drained.get(0));
+        spool.acknowledge(drained.get(2));
+        spool.close();
+
+        SoTConduitMappedAuditSpool reopened = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        List<SoTConduitAuditTask> replayed = drainAll(reopened);
+        assertEquals(List.of("Patient.Read.1", "Patient.Read.3"), actionsOf(replayed));
+        reopened.acknowledge(replayed.get(0));
+        reopened.close();
+
+        SoTConduitMappedAuditSpool reopenedAgain = SoTConduitMappedAuditSpool.open(spoolDirectory);
+        assertEquals(List.of("Patient.Read.3"), actionsOf(drainAll(reopenedAgain)));
+        assertEquals(3L, reopenedAgain.getAcknowledgedSequence());
+        reopenedAgain.close();
+    }
+
+    private SoTConduitAuditTask beginTask(String action) {
+        TopicToken topic = new TopicToken();
+        topic.setIdentifier(new FDNToken("Topic.Patient"));
+        topic.setVersion("4.0.1");
+        UoWPayload ingres = new UoWPayload();
+        ingres.setPayload("payload-" + action);
+        ingres.setPayloadTopicID(topic);
+        UoW uow = new UoW(ingres);
+        uow.setProcessingOutcome(UoWProcessingOutcomeEnum.UOW_OUTCOME_SUCCESS);
+        return (SoTConduitAuditTask.beginTask(new WUPIdentifier(new FDNToken("WUP.SoTConduit")), action, uow));
+    }
+
+    private List<SoTConduitAuditTask> drainAll(SoTConduitMappedAuditSpool spool) {
+        List<SoTConduitAuditTask> drained = new ArrayList<>();
+        spool.drainTo(drained, Integer.MAX_VALUE);
+        return (drained);
+    }
+
+    private List<String> actionsOf(List<SoTConduitAuditTask> tasks) {
+        return (tasks.stream().map(SoTConduitAuditTask::getAction).collect(Collectors.toList()));
+    }
+
+    private List<Path> segmentPaths() throws IOException {
+        try (Stream<Path> files = Files.list(spoolDirectory)) {
+            return (files.filter(path -> path.getFileName().toString().endsWith(".seg")).sorted().collect(Collectors.toList()));
+        }
+    }
+
+    private Path onlySegment() throws IOException {
+        List<Path> segments = segmentPaths();
+        assertEquals(1, segments.size());
+        return (segments.get(0));
+    }
+
+    /**
+     * The total length (header and payload) of the record at the position.
+     */
+    private int recordLength(Path segmentPath, int position) throws IOException {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+            channel.read(lengthBuffer, position);
+        }
+        return (16 + lengthBuffer.getInt(0));
+    }
+
+    private void flipByte(Path segmentPath, int position) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer byteBuffer = ByteBuffer.allocate(1);
+            channel.read(byteBuffer, position);
+            byteBuffer.put(0, (byte) (byteBuffer.get(0) ^ 0xFF));
+            byteBuffer.rewind();
+            channel.write(byteBuffer, position);
+        }
+    }
+}